@@ -0,0 +1,226 @@
+package com.dgwave.car.common;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Session-scoped cache of Ceylon repository lookups, remembering both hits and misses.
+ * Keyed by groupId, artifactId, version, classifier and type.
+ *
+ * @author Akber Choudhry
+ */
+public final class ArtifactLookupCache {
+
+    /**
+     * Marker for a remembered miss.
+     */
+    public static final File NOT_FOUND = new File("");
+
+    /**
+     * The cached lookups.
+     */
+    private final ConcurrentMap<Key, File> entries = new ConcurrentHashMap<Key, File>();
+
+    /**
+     * Lookups answered from the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Lookups that had to go to the repository.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Returns the cached lookup result and counts the hit or miss.
+     *
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @param version Version
+     * @param classifier Sources, javadoc etc.
+     * @param type The Ceylon type of the artifact
+     * @return File The cached file, {@link #NOT_FOUND} for a remembered miss, or null if not cached
+     */
+    public File get(final String groupId, final String artifactId, final String version,
+            final String classifier, final String type) {
+        File file = entries.get(new Key(groupId, artifactId, version, classifier, type));
+        if (file == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return file;
+    }
+
+    /**
+     * Records the result of a repository lookup.
+     *
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @param version Version
+     * @param classifier Sources, javadoc etc.
+     * @param type The Ceylon type of the artifact
+     * @param file The file found, or null if the artifact is not in the repository
+     */
+    public void put(final String groupId, final String artifactId, final String version,
+            final String classifier, final String type, final File file) {
+        entries.put(new Key(groupId, artifactId, version, classifier, type), file == null ? NOT_FOUND : file);
+    }
+
+    /**
+     * Drops all entries for a module version, whatever their classifier or type.
+     *
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @param version Version
+     */
+    public void invalidate(final String groupId, final String artifactId, final String version) {
+        for (Iterator<Key> it = entries.keySet().iterator(); it.hasNext();) {
+            Key key = it.next();
+            if (key.matches(groupId, artifactId, version)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all entries.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * @return long Number of lookups answered from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return long Number of lookups that went to the repository
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return int Number of cached entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "hits: " + hits.get() + ", misses: " + misses.get() + ", entries: " + entries.size();
+    }
+
+    /**
+     * Lookup key.
+     */
+    private static final class Key {
+
+        /**
+         * Maven group id.
+         */
+        private final String groupId;
+
+        /**
+         * Maven artifact id.
+         */
+        private final String artifactId;
+
+        /**
+         * Version.
+         */
+        private final String version;
+
+        /**
+         * Classifier, may be null.
+         */
+        private final String classifier;
+
+        /**
+         * Ceylon type.
+         */
+        private final String type;
+
+        /**
+         * Cached hash.
+         */
+        private final int hash;
+
+        /**
+         * Constructor.
+         * @param g Group id
+         * @param a Artifact id
+         * @param v Version
+         * @param c Classifier
+         * @param t Type
+         */
+        Key(final String g, final String a, final String v, final String c, final String t) {
+            this.groupId = g;
+            this.artifactId = a;
+            this.version = v;
+            this.classifier = c == null ? "" : c;
+            this.type = t;
+            int result = hashOf(g);
+            result = 31 * result + hashOf(a);
+            result = 31 * result + hashOf(v);
+            result = 31 * result + this.classifier.hashCode();
+            this.hash = 31 * result + hashOf(t);
+        }
+
+        /**
+         * Whether this key belongs to a module version.
+         * @param g Group id
+         * @param a Artifact id
+         * @param v Version
+         * @return True if this key is for the module version
+         */
+        boolean matches(final String g, final String a, final String v) {
+            return same(groupId, g) && same(artifactId, a) && same(version, v);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key that = (Key) o;
+            return hash == that.hash && matches(that.groupId, that.artifactId, that.version)
+                && classifier.equals(that.classifier) && same(type, that.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        /**
+         * Null-safe hash.
+         * @param s The string
+         * @return int The hash, 0 for null
+         */
+        private static int hashOf(final String s) {
+            return s == null ? 0 : s.hashCode();
+        }
+
+        /**
+         * Null-safe equality.
+         * @param s1 First string
+         * @param s2 Second string
+         * @return True if both are null or equal
+         */
+        private static boolean same(final String s1, final String s2) {
+            return s1 == null ? s2 == null : s1.equals(s2);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.dgwave.car.common;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Warms, on a background thread, what the previous build resolved: the indexes of the repository chain are
+ * opened and the traced files are read once, in resolution order, so that they are in the page cache by the time
+ * the workspace reader and the compiler ask for them. Traced files missing from disk, such as artifacts of an HTTP
+ * repository evicted from the cache repository, are downloaded from an {@link ArtifactSource}, if given, while the
+ * others are read.
+ *
+ * @author Akber Choudhry
+ */
+public final class ArtifactPrefetcher implements Closeable {
+
+    /**
+     * Size of the read buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * How long to wait for the prefetch thread on close, in milliseconds.
+     */
+    private static final long CLOSE_TIMEOUT = 1000L;
+
+    /**
+     * The repositories whose indexes are opened first, may be null.
+     */
+    private final RepositoryChain chain;
+
+    /**
+     * The files to warm.
+     */
+    private final List<File> files;
+
+    /**
+     * Where missing files are downloaded from, may be null.
+     */
+    private final ArtifactSource source;
+
+    /**
+     * The prefetch thread.
+     */
+    private final Thread thread;
+
+    /**
+     * Set on close.
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Files read.
+     */
+    private final AtomicInteger warmed = new AtomicInteger();
+
+    /**
+     * Traced files that no longer exist.
+     */
+    private final AtomicInteger missing = new AtomicInteger();
+
+    /**
+     * Missing files downloaded.
+     */
+    private final AtomicInteger fetched = new AtomicInteger();
+
+    /**
+     * Bytes read.
+     */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * Constructor. Starts the prefetch thread.
+     *
+     * @param repositories The repository chain whose indexes to open, may be null
+     * @param traced The files to warm, in the order they will be needed
+     */
+    public ArtifactPrefetcher(final RepositoryChain repositories, final List<File> traced) {
+        this(repositories, traced, null);
+    }
+
+    /**
+     * Constructor. Starts the prefetch thread.
+     *
+     * @param repositories The repository chain whose indexes to open, may be null
+     * @param traced The files to warm, in the order they will be needed
+     * @param missingSource Where traced files missing from disk are downloaded from, may be null
+     */
+    public ArtifactPrefetcher(final RepositoryChain repositories, final List<File> traced,
+            final ArtifactSource missingSource) {
+        this.chain = repositories;
+        this.files = new ArrayList<File>(traced);
+        this.source = missingSource;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                prefetch();
+            }
+        }, "ceylon-prefetch");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Waits for the prefetch thread to finish.
+     * @param millis Maximum time to wait
+     * @return True if the prefetch is done
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean await(final long millis) throws InterruptedException {
+        thread.join(millis);
+        return !thread.isAlive();
+    }
+
+    /**
+     * @return int Number of files read
+     */
+    public int getWarmedCount() {
+        return warmed.get();
+    }
+
+    /**
+     * @return int Number of traced files that no longer exist and could not be downloaded
+     */
+    public int getMissingCount() {
+        return missing.get();
+    }
+
+    /**
+     * @return int Number of missing files downloaded
+     */
+    public int getFetchedCount() {
+        return fetched.get();
+    }
+
+    /**
+     * @return long Number of bytes read
+     */
+    public long getBytesRead() {
+        return bytes.get();
+    }
+
+    /**
+     * Stops prefetching.
+     */
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Ceylon prefetch: " + warmed.get() + " of " + files.size() + " files warmed (" + bytes.get()
+            + " bytes), " + fetched.get() + " downloaded, " + missing.get() + " missing";
+    }
+
+    /**
+     * Runs on the prefetch thread.
+     */
+    private void prefetch() {
+        if (chain != null) {
+            chain.open();
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        List<Future<File>> downloads = new ArrayList<Future<File>>();
+        for (File file : files) {
+            if (!running) {
+                return;
+            }
+            if (!file.isFile()) {
+                Future<File> download = source != null ? source.fetch(file) : null;
+                if (download != null) {
+                    downloads.add(download);
+                } else {
+                    missing.incrementAndGet();
+                }
+                continue;
+            }
+            FileInputStream in = null;
+            try {
+                in = new FileInputStream(file);
+                FileChannel channel = in.getChannel();
+                int read;
+                while (running && (read = channel.read(buffer)) >= 0) {
+                    bytes.addAndGet(read);
+                    buffer.clear();
+                }
+                warmed.incrementAndGet();
+            } catch (IOException e) {
+                // warming is best effort; the real lookup reports errors
+                continue;
+            } finally {
+                IOUtil.close(in);
+                buffer.clear();
+            }
+        }
+        for (Future<File> download : downloads) {
+            try {
+                if (download.get() != null) {
+                    fetched.incrementAndGet();
+                } else {
+                    missing.incrementAndGet();
+                }
+            } catch (ExecutionException e) {
+                // downloading is best effort too; the connector retries and reports
+                missing.incrementAndGet();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
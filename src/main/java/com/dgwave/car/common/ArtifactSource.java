@@ -0,0 +1,22 @@
+package com.dgwave.car.common;
+
+import java.io.File;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads artifacts that are missing from a local Ceylon repository, such as the cache repository of an HTTP
+ * repository.
+ *
+ * @author Akber Choudhry
+ */
+public interface ArtifactSource {
+
+    /**
+     * Starts downloading a missing artifact to where it belongs.
+     *
+     * @param file The missing file
+     * @return Future of the file, or of null if the source does not have it; null if the file is not one of this
+     *         source's
+     */
+    Future<File> fetch(File file);
+}
@@ -0,0 +1,180 @@
+package com.dgwave.car.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed-size Bloom filter over character sequences. Hashing does not allocate, and entries can be added
+ * straight from ASCII bytes, so a filter can be filled from a mapped {@link RepositoryIndex}.
+ *
+ * @author Akber Choudhry
+ */
+public final class BloomFilter {
+
+    /**
+     * Default false positive probability.
+     */
+    public static final double DEFAULT_FPP = 0.01;
+
+    /**
+     * FNV-1a 64 bit offset basis.
+     */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    /**
+     * FNV-1a 64 bit prime.
+     */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Mixing constant 1 (from MurmurHash3's finalizer).
+     */
+    private static final long MIX1 = 0xff51afd7ed558ccdL;
+
+    /**
+     * Mixing constant 2 (from MurmurHash3's finalizer).
+     */
+    private static final long MIX2 = 0xc4ceb9fe1a85ec53L;
+
+    /**
+     * Shift used by the finalizer.
+     */
+    private static final int MIX_SHIFT = 33;
+
+    /**
+     * Bits per long.
+     */
+    private static final int LONG_BITS = 64;
+
+    /**
+     * Mask for an unsigned byte.
+     */
+    private static final int BYTE_MASK = 0xff;
+
+    /**
+     * The bits.
+     */
+    private final long[] bits;
+
+    /**
+     * Number of bits.
+     */
+    private final long numBits;
+
+    /**
+     * Number of probes per entry.
+     */
+    private final int numHashes;
+
+    /**
+     * Creates a filter sized for a number of entries.
+     * @param expectedEntries Expected number of entries
+     * @param fpp Acceptable false positive probability
+     */
+    public BloomFilter(final int expectedEntries, final double fpp) {
+        int n = Math.max(expectedEntries, 1);
+        long m = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        m = Math.max(LONG_BITS, m);
+        this.bits = new long[(int) ((m + LONG_BITS - 1) / LONG_BITS)];
+        this.numBits = (long) bits.length * LONG_BITS;
+        this.numHashes = Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+    }
+
+    /**
+     * Adds an entry.
+     * @param value The entry
+     */
+    public void put(final CharSequence value) {
+        long h = FNV_OFFSET;
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * FNV_PRIME;
+        }
+        set(mix(h));
+    }
+
+    /**
+     * Adds an ASCII entry from bytes.
+     * @param buffer The buffer holding the entry
+     * @param offset Offset of the first byte
+     * @param length Number of bytes
+     */
+    public void putAscii(final ByteBuffer buffer, final int offset, final int length) {
+        long h = FNV_OFFSET;
+        for (int i = 0; i < length; i++) {
+            h = (h ^ (buffer.get(offset + i) & BYTE_MASK)) * FNV_PRIME;
+        }
+        set(mix(h));
+    }
+
+    /**
+     * Whether an entry may have been added.
+     * @param value The entry
+     * @return False if the entry was definitely not added
+     */
+    public boolean mightContain(final CharSequence value) {
+        long h = FNV_OFFSET;
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * FNV_PRIME;
+        }
+        h = mix(h);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> LONG_BITS / 2);
+        for (int i = 1; i <= numHashes; i++) {
+            long bit = index(h1 + i * h2);
+            if ((bits[(int) (bit / LONG_BITS)] & (1L << (bit % LONG_BITS))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return int Number of probes per entry
+     */
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    /**
+     * @return long Number of bits
+     */
+    public long getNumBits() {
+        return numBits;
+    }
+
+    /**
+     * Sets the bits of a hashed entry.
+     * @param h The mixed hash
+     */
+    private void set(final long h) {
+        int h1 = (int) h;
+        int h2 = (int) (h >>> LONG_BITS / 2);
+        for (int i = 1; i <= numHashes; i++) {
+            long bit = index(h1 + i * h2);
+            bits[(int) (bit / LONG_BITS)] |= 1L << (bit % LONG_BITS);
+        }
+    }
+
+    /**
+     * Maps a combined hash to a bit index.
+     * @param combined The combined hash
+     * @return long The bit index
+     */
+    private long index(final int combined) {
+        return (combined & Integer.MAX_VALUE) % numBits;
+    }
+
+    /**
+     * Finalizes a hash so that its two halves are independent enough.
+     * @param value The raw hash
+     * @return long The mixed hash
+     */
+    private static long mix(final long value) {
+        long h = value;
+        h ^= h >>> MIX_SHIFT;
+        h *= MIX1;
+        h ^= h >>> MIX_SHIFT;
+        h *= MIX2;
+        h ^= h >>> MIX_SHIFT;
+        return h;
+    }
+}
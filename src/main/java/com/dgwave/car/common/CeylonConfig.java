@@ -0,0 +1,181 @@
+package com.dgwave.car.common;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Reads Ceylon <code>.ceylon/config</code> files: git-style sections of <code>key=value</code> lines, such as
+ * <pre>
+ * [repositories]
+ * output=./modules
+ * lookup=./extra
+ * lookup=+SHARED
+ *
+ * [repository "SHARED"]
+ * url=/net/shared/ceylon/repo
+ * </pre>
+ * Keys are addressed as <code>section.key</code>, or <code>section.subsection.key</code>.
+ *
+ * @author Akber Choudhry
+ */
+public final class CeylonConfig {
+
+    /**
+     * Values by key, in file order.
+     */
+    private final Map<String, List<String>> values = new LinkedHashMap<String, List<String>>();
+
+    /**
+     * Creates an empty configuration.
+     */
+    public CeylonConfig() {
+
+    }
+
+    /**
+     * Reads the user's <code>~/.ceylon/config</code> and then the project's <code>.ceylon/config</code>,
+     * the project's values replacing the user's.
+     *
+     * @param projectDir The project directory, may be null
+     * @return CeylonConfig The merged configuration
+     */
+    public static CeylonConfig load(final File projectDir) {
+        CeylonConfig config = new CeylonConfig();
+        File userConfig = new File(System.getProperty("user.home") + File.separator + ".ceylon", "config");
+        config.merge(userConfig);
+        if (projectDir != null) {
+            File projectConfig = new File(new File(projectDir, ".ceylon"), "config");
+            if (!projectConfig.getAbsoluteFile().equals(userConfig.getAbsoluteFile())) {
+                config.merge(projectConfig);
+            }
+        }
+        return config;
+    }
+
+    /**
+     * Merges a configuration file into this one, replacing the values of keys it sets. Missing or unreadable
+     * files are ignored.
+     *
+     * @param file The configuration file
+     */
+    public void merge(final File file) {
+        if (!file.isFile()) {
+            return;
+        }
+        Map<String, List<String>> read = new LinkedHashMap<String, List<String>>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String section = "";
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.charAt(0) == '#' || line.charAt(0) == ';') {
+                    continue;
+                }
+                if (line.charAt(0) == '[' && line.endsWith("]")) {
+                    section = sectionName(line.substring(1, line.length() - 1).trim());
+                    continue;
+                }
+                int eq = line.indexOf('=');
+                String key = (eq < 0 ? line : line.substring(0, eq)).trim().toLowerCase();
+                String value = eq < 0 ? "true" : unquote(line.substring(eq + 1).trim());
+                String fullKey = section.length() == 0 ? key : section + CeylonUtil.GROUP_SEPARATOR + key;
+                List<String> list = read.get(fullKey);
+                if (list == null) {
+                    list = new ArrayList<String>();
+                    read.put(fullKey, list);
+                }
+                list.add(value);
+            }
+        } catch (IOException e) {
+            return;
+        } finally {
+            IOUtil.close(reader);
+        }
+        values.putAll(read);
+    }
+
+    /**
+     * Returns the last value of a key.
+     * @param key The key
+     * @return String The value, or null if not set
+     */
+    public String get(final String key) {
+        List<String> list = values.get(key);
+        return list == null || list.isEmpty() ? null : list.get(list.size() - 1);
+    }
+
+    /**
+     * Returns all values of a key.
+     * @param key The key
+     * @return List of values, empty if not set
+     */
+    public List<String> getAll(final String key) {
+        List<String> list = values.get(key);
+        return list == null ? Collections.<String>emptyList() : Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Sets the values of a key.
+     * @param key The key
+     * @param list The values
+     */
+    public void set(final String key, final List<String> list) {
+        values.put(key, new ArrayList<String>(list));
+    }
+
+    /**
+     * Resolves a repository reference: <code>+NAME</code> stands for the <code>url</code> of
+     * <code>[repository "NAME"]</code>.
+     *
+     * @param reference A repository path, URL or reference
+     * @return String The path or URL, or null for an unknown reference
+     */
+    public String resolveRepository(final String reference) {
+        if (reference.startsWith("+")) {
+            return get("repository." + reference.substring(1) + ".url");
+        }
+        return reference;
+    }
+
+    /**
+     * Normalizes a section header, <code>repository "NAME"</code> becoming <code>repository.NAME</code>.
+     * @param header The header without brackets
+     * @return String The section name
+     */
+    private static String sectionName(final String header) {
+        int quote = header.indexOf('"');
+        if (quote < 0) {
+            return header.toLowerCase();
+        }
+        String name = header.substring(0, quote).trim().toLowerCase();
+        String sub = header.substring(quote + 1);
+        if (sub.endsWith("\"")) {
+            sub = sub.substring(0, sub.length() - 1);
+        }
+        return name + CeylonUtil.GROUP_SEPARATOR + sub;
+    }
+
+    /**
+     * Removes surrounding double quotes.
+     * @param value The raw value
+     * @return String The value
+     */
+    private static String unquote(final String value) {
+        if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+}
@@ -13,7 +13,10 @@ import java.util.zip.ZipInputStream;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.model.Dependency;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.IOUtil;
 
 /**
@@ -48,6 +51,11 @@ public final class CeylonUtil {
      */
     private static final int CHECKSUM_BUFFER_SIZE = 65536 * 2;
 
+    /**
+     * Length of a hex SHA-1.
+     */
+    private static final int SHA1_LENGTH = 40;
+
     /**
      * Regular buffer size.
      */
@@ -84,24 +92,25 @@ public final class CeylonUtil {
 
     public static String ceylonSystemFullPath(org.eclipse.aether.artifact.Artifact artifact, String type) {
         // TODO map to .ceylon/config mapping
-        return systemRepo() + File.separator
-            + ceylonRepoPath(artifact.getGroupId(), artifact.getArtifactId(), 
-                artifact.getVersion(), artifact.getClassifier(), type);
+        return RepositoryPaths.systemPath(artifact.getGroupId(), artifact.getArtifactId(),
+            artifact.getVersion(), artifact.getClassifier(), type);
     }
 
     public static String systemRepo() {
-        return System.getProperty("ceylon.repo", System.getProperty("user.home")
-            + File.separator + ".ceylon" + File.separator + "repo");
+        return RepositoryPaths.systemRoot();
     }
-    
-    public static String ceylonSystemFullPath(Artifact artifact, String type) {
 
+    /**
+     * The Ceylon user repository.
+     * @return String The path of the user repository
+     */
+    public static String userRepo() {
+        return System.getProperty("user.home") + File.separator + ".ceylon" + File.separator + "repo";
+    }
+
+    public static String ceylonSystemFullPath(Artifact artifact, String type) {
         // TODO map to .ceylon/config mapping
-        return systemRepo()
-        
-            + File.separator
-            
-            + ceylonRepoPath(artifact.getGroupId(), artifact.getArtifactId(), 
+        return RepositoryPaths.systemPath(artifact.getGroupId(), artifact.getArtifactId(),
             artifact.getVersion(), artifact.getClassifier(), type);
     }
     
@@ -117,15 +126,7 @@ public final class CeylonUtil {
      */
     public static String ceylonRepoPath(final String groupId, final String artifactId, final String version,
             final String classifier, final String extension) {
-        
-        StringBuilder path = new StringBuilder(STRING_BUILDER_SIZE);
-    
-        path.append(formatAsDirectory(groupId)).append(PATH_SEPARATOR);
-        path.append(artifactId).append(PATH_SEPARATOR);
-        path.append(version).append(PATH_SEPARATOR);
-        path.append(ceylonModuleName(groupId, artifactId, version, classifier, extension));
-    
-        return path.toString();
+        return RepositoryPaths.path(groupId, artifactId, version, classifier, extension);
     }
 
     /**
@@ -140,24 +141,7 @@ public final class CeylonUtil {
      */
     public static String ceylonModuleName(final String groupId, final String artifactId, final String version, 
             final String classifier, final String extension) {
-        
-        if (version == null || "".equals(version) || version.contains("-")) {
-         // TODO fix the '-' based on the new Herd rules
-            throw new IllegalArgumentException(" Null, empty, or '-' is not allowed in version");
-        }
-        
-        StringBuilder name = new StringBuilder(STRING_BUILDER_SIZE);
-        
-        name.append(ceylonModuleBaseName(groupId, artifactId))
-            .append(ARTIFACT_SEPARATOR).append(version);
-    
-        if (extension != null) {
-            name.append(GROUP_SEPARATOR).append(extension);
-        } else {
-            name.append(GROUP_SEPARATOR).append("car");
-        }
-        
-        return name.toString();
+        return RepositoryPaths.moduleName(groupId, artifactId, version, classifier, extension);
     }
 
     /**
@@ -168,12 +152,52 @@ public final class CeylonUtil {
      * @return String The module base name
      */
     public static String ceylonModuleBaseName(final String groupId, final String artifactId) {
-        if (groupId == null || artifactId == null || "".equals(artifactId) || artifactId.contains(".")) {
-            throw new IllegalArgumentException(" Null or empty, or '.' is not allowed in artifactId");
-        }
+        RepositoryPaths.checkArtifact(groupId, artifactId);
         return groupId + GROUP_SEPARATOR +  artifactId;
     }
     
+    /**
+     * Determines the Ceylon module dependencies, as written to <code>module.properties</code> and
+     * <code>.module</code> files, from the Maven project model.
+     * 
+     * @param proj The Maven project
+     * @return String of dependency lines
+     * @throws MojoExecutionException In case the dependency version could not be determined
+     */
+    public static String calculateDependencies(final MavenProject proj) throws MojoExecutionException {
+        
+        Module module = new Module(
+            new ModuleIdentifier(ceylonModuleBaseName(proj.getGroupId(), proj.getArtifactId()), 
+                proj.getVersion(), false, false));
+        
+        for (Dependency dep : proj.getDependencies()) {
+            if (dep.getVersion() != null && !"".equals(dep.getVersion())) {
+                if (!"test".equals(dep.getScope()) && dep.getSystemPath() == null) {
+                    module.addDependency(new ModuleIdentifier(
+                        ceylonModuleBaseName(dep.getGroupId(), dep.getArtifactId()), dep.getVersion(), 
+                            dep.isOptional(), false)
+                    ); 
+                }
+            } else {
+                throw new MojoExecutionException(
+                    "Dependency version for " + dep + " in project " + proj 
+                    + "could not be determined from the POM. Aborting.");
+            }
+        }
+        
+        StringBuilder builder = new StringBuilder(STRING_BUILDER_SIZE);
+        for (ModuleIdentifier depMod : module.getDependencies()) {
+            builder.append(depMod.getName());
+            if (depMod.isOptional()) {
+                builder.append("?");
+            }
+            
+            builder.append("=").append(depMod.getVersion());
+            builder.append(System.lineSeparator());
+        }
+        return builder.toString();
+    }
+
     /**
      * Calculates the SHA1 checksum for a file using a crude method.
      * 
@@ -213,6 +237,25 @@ public final class CeylonUtil {
         }
     }
 
+    /**
+     * Reads the SHA-1 installed next to an artifact, in its <code>.sha1</code> file.
+     *
+     * @param artifactFile The artifact
+     * @return String The lower case hex SHA-1, or null if there is no valid .sha1 file
+     */
+    public static String readChecksum(final File artifactFile) {
+        File sha1 = new File(artifactFile.getPath() + ".sha1");
+        if (!sha1.isFile()) {
+            return null;
+        }
+        try {
+            String value = FileUtils.fileRead(sha1, "UTF-8").trim();
+            return value.length() >= SHA1_LENGTH ? value.substring(0, SHA1_LENGTH).toLowerCase() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     /**
      * Extracts a single file from a zip archive.
      * @param in Input zip stream
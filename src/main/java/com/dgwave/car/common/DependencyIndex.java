@@ -0,0 +1,448 @@
+package com.dgwave.car.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Answers "which modules of a Ceylon repository import this module?", directly or transitively. The forward
+ * dependencies of every module version are read from its descriptor by the {@link ModuleDescriptorReader}, the one
+ * {@link ModuleDescriptorReader#precedence(String)} prefers. They are remembered with the descriptor's size and
+ * modification time, so that updating the index only reads descriptors that were added or changed.
+ * <p>
+ * The index of a repository is kept in <code>&lt;hash&gt;.dep</code> in the
+ * {@link RepositoryIndex#indexDirectory() index directory}.
+ *
+ * @author Akber Choudhry
+ */
+public final class DependencyIndex {
+
+    /**
+     * File format marker.
+     */
+    private static final int MAGIC = 0x43444550;
+
+    /**
+     * File format version.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The repository root.
+     */
+    private final File root;
+
+    /**
+     * Indexed module versions by the path of their descriptor relative to the root.
+     */
+    private final Map<String, Descriptor> descriptors = new TreeMap<String, Descriptor>();
+
+    /**
+     * Importers by imported name/version; rebuilt after changes.
+     */
+    private Map<String, Set<String>> importers;
+
+    /**
+     * Set when descriptors are added or removed since the index was loaded or written.
+     */
+    private boolean changed;
+
+    /**
+     * Constructor.
+     * @param repoRoot The repository root
+     */
+    private DependencyIndex(final File repoRoot) {
+        this.root = repoRoot.getAbsoluteFile();
+    }
+
+    /**
+     * The file an index of a repository is kept in.
+     * @param repoRoot The repository root
+     * @return File The index file
+     */
+    public static File defaultIndexFile(final File repoRoot) {
+        String name = Integer.toHexString(repoRoot.getAbsolutePath().hashCode()) + ".dep";
+        return new File(RepositoryIndex.indexDirectory(), name);
+    }
+
+    /**
+     * Loads the index of a repository, brings it up to date with the repository and saves it if it changed.
+     *
+     * @param repoRoot The repository root
+     * @return DependencyIndex The up to date index
+     * @throws IOException If the index cannot be saved
+     */
+    public static DependencyIndex open(final File repoRoot) throws IOException {
+        File indexFile = defaultIndexFile(repoRoot);
+        DependencyIndex index = load(repoRoot, indexFile);
+        index.update();
+        if (index.changed) {
+            index.write(indexFile);
+        }
+        return index;
+    }
+
+    /**
+     * Loads an index file. A missing, unreadable or foreign file gives an empty index.
+     *
+     * @param repoRoot The repository root
+     * @param indexFile The index file
+     * @return DependencyIndex The index as saved
+     */
+    public static DependencyIndex load(final File repoRoot, final File indexFile) {
+        DependencyIndex index = new DependencyIndex(repoRoot);
+        if (!indexFile.isFile()) {
+            return index;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !index.root.getPath().equals(in.readUTF())) {
+                return index;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                String module = in.readUTF();
+                String[] imports = new String[in.readInt()];
+                for (int j = 0; j < imports.length; j++) {
+                    imports[j] = in.readUTF();
+                }
+                index.descriptors.put(path, new Descriptor(size, mtime, module, imports));
+            }
+        } catch (IOException e) {
+            index.descriptors.clear();
+        } finally {
+            IOUtil.close(in);
+        }
+        return index;
+    }
+
+    /**
+     * Updates the saved index of a repository after a module version was installed. Does nothing for repositories
+     * that have not been indexed.
+     *
+     * @param repoRoot The repository root
+     * @param versionDir The directory of the installed module version
+     * @throws IOException If the index cannot be saved
+     */
+    public static void updateIfIndexed(final File repoRoot, final File versionDir) throws IOException {
+        File indexFile = defaultIndexFile(repoRoot);
+        if (!indexFile.isFile()) {
+            return;
+        }
+        DependencyIndex index = load(repoRoot, indexFile);
+        if (index.update(versionDir)) {
+            index.write(indexFile);
+        }
+    }
+
+    /**
+     * Brings the index up to date with the repository: descriptors that were added or whose size or modification
+     * time changed are read, and module versions that were removed are dropped.
+     *
+     * @return boolean True if anything changed
+     */
+    public synchronized boolean update() {
+        Map<String, File> found = new HashMap<String, File>();
+        scan(root, "", found, true);
+        boolean updated = descriptors.keySet().retainAll(found.keySet());
+        for (Map.Entry<String, File> e : found.entrySet()) {
+            File file = e.getValue();
+            Descriptor known = descriptors.get(e.getKey());
+            if (known == null || known.size != file.length() || known.mtime != file.lastModified()) {
+                descriptors.put(e.getKey(), read(e.getKey(), file));
+                updated = true;
+            }
+        }
+        if (updated) {
+            changed = true;
+            importers = null;
+        }
+        return updated;
+    }
+
+    /**
+     * Brings one module version of the index up to date.
+     *
+     * @param versionDir The directory of the module version, under the repository root
+     * @return boolean True if anything changed
+     * @throws IOException If the directory is not in the repository
+     */
+    public synchronized boolean update(final File versionDir) throws IOException {
+        String rootPath = root.getPath() + File.separator;
+        String path = versionDir.getAbsolutePath() + File.separator;
+        if (!path.startsWith(rootPath)) {
+            throw new IOException(versionDir + " is not in repository " + root);
+        }
+        String prefix = path.substring(rootPath.length()).replace(File.separatorChar, CeylonUtil.PATH_SEPARATOR);
+        Map<String, File> found = new HashMap<String, File>();
+        scan(versionDir, prefix, found, false);
+        boolean updated = false;
+        for (String key : new ArrayList<String>(descriptors.keySet())) {
+            if (key.startsWith(prefix) && key.indexOf(CeylonUtil.PATH_SEPARATOR, prefix.length()) < 0
+                && !found.containsKey(key)) {
+                descriptors.remove(key);
+                updated = true;
+            }
+        }
+        for (Map.Entry<String, File> e : found.entrySet()) {
+            descriptors.put(e.getKey(), read(e.getKey(), e.getValue()));
+            updated = true;
+        }
+        if (updated) {
+            changed = true;
+            importers = null;
+        }
+        return updated;
+    }
+
+    /**
+     * Finds the module versions that import a module directly.
+     *
+     * @param name The module name
+     * @param version The module version, or null for any version
+     * @return List of importers as <code>name/version</code>, sorted
+     */
+    public synchronized List<String> findImporters(final String name, final String version) {
+        return new ArrayList<String>(direct(name, version));
+    }
+
+    /**
+     * Finds the module versions that import a module directly or through other modules: the modules to rebuild
+     * when it changes.
+     *
+     * @param name The module name
+     * @param version The module version, or null for any version
+     * @return List of affected modules as <code>name/version</code>, sorted
+     */
+    public synchronized List<String> findAffected(final String name, final String version) {
+        Set<String> affected = new TreeSet<String>();
+        Deque<String> pending = new ArrayDeque<String>(direct(name, version));
+        while (!pending.isEmpty()) {
+            String module = pending.poll();
+            if (affected.add(module)) {
+                int slash = module.lastIndexOf(CeylonUtil.PATH_SEPARATOR);
+                pending.addAll(direct(module.substring(0, slash), module.substring(slash + 1)));
+            }
+        }
+        return new ArrayList<String>(affected);
+    }
+
+    /**
+     * @return int Number of indexed module versions
+     */
+    public synchronized int getModuleCount() {
+        return descriptors.size();
+    }
+
+    /**
+     * Saves the index, replacing the file atomically.
+     *
+     * @param indexFile The index file
+     * @throws IOException In case of IO error
+     */
+    public synchronized void write(final File indexFile) throws IOException {
+        File dir = indexFile.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile(indexFile.getName(), ".tmp", dir);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(root.getPath());
+            out.writeInt(descriptors.size());
+            for (Map.Entry<String, Descriptor> e : descriptors.entrySet()) {
+                Descriptor descriptor = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(descriptor.size);
+                out.writeLong(descriptor.mtime);
+                out.writeUTF(descriptor.module);
+                out.writeInt(descriptor.imports.length);
+                for (String imported : descriptor.imports) {
+                    out.writeUTF(imported);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        changed = false;
+    }
+
+    /**
+     * The direct importers of a module.
+     * @param name The module name
+     * @param version The version, or null for any
+     * @return Set of importers
+     */
+    private Set<String> direct(final String name, final String version) {
+        if (importers == null) {
+            Map<String, Set<String>> reverse = new HashMap<String, Set<String>>();
+            for (Descriptor descriptor : descriptors.values()) {
+                for (String imported : descriptor.imports) {
+                    addImporter(reverse, imported, descriptor.module);
+                    String importedName = imported.substring(0, imported.lastIndexOf(CeylonUtil.PATH_SEPARATOR));
+                    addImporter(reverse, importedName, descriptor.module);
+                }
+            }
+            importers = reverse;
+        }
+        Set<String> set = importers.get(version == null ? name : name + CeylonUtil.PATH_SEPARATOR + version);
+        return set == null ? Collections.<String>emptySet() : set;
+    }
+
+    /**
+     * Adds a reverse edge.
+     * @param reverse Importers by imported module
+     * @param imported name/version, or name alone
+     * @param importer name/version
+     */
+    private static void addImporter(final Map<String, Set<String>> reverse, final String imported,
+            final String importer) {
+        Set<String> set = reverse.get(imported);
+        if (set == null) {
+            set = new TreeSet<String>();
+            reverse.put(imported, set);
+        }
+        set.add(importer);
+    }
+
+    /**
+     * Collects the descriptor of every module version under a directory.
+     * @param dir The directory
+     * @param prefix Its path relative to the root, '/' terminated unless empty
+     * @param found Descriptors by relative path
+     * @param recurse Whether to scan subdirectories
+     */
+    private static void scan(final File dir, final String prefix, final Map<String, File> found,
+            final boolean recurse) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        File descriptor = null;
+        int best = Integer.MAX_VALUE;
+        for (File child : children) {
+            String name = child.getName();
+            if (child.isDirectory()) {
+                if (recurse) {
+                    scan(child, prefix + name + CeylonUtil.PATH_SEPARATOR, found, true);
+                }
+            } else {
+                int precedence = ModuleDescriptorReader.precedence(name);
+                if (precedence >= 0 && precedence < best) {
+                    descriptor = child;
+                    best = precedence;
+                }
+            }
+        }
+        if (descriptor != null) {
+            found.put(prefix + descriptor.getName(), descriptor);
+        }
+    }
+
+    /**
+     * Reads the imports of a module version. Unreadable descriptors are remembered as importing nothing, rather
+     * than read again.
+     * @param path The descriptor path relative to the root
+     * @param file The descriptor
+     * @return Descriptor The module and its imports
+     */
+    private static Descriptor read(final String path, final File file) {
+        long size = file.length();
+        long mtime = file.lastModified();
+        String module = moduleOf(path);
+        int slash = module.lastIndexOf(CeylonUtil.PATH_SEPARATOR);
+        ModuleIdentifier mi = new ModuleIdentifier(module.substring(0, Math.max(slash, 0)),
+            module.substring(slash + 1), false, false);
+        List<String> imports = new ArrayList<String>();
+        try {
+            Module parsed = ModuleDescriptorReader.parse(file, mi);
+            for (ModuleIdentifier dep : parsed.getDependencies()) {
+                imports.add(dep.getName() + CeylonUtil.PATH_SEPARATOR + dep.getVersion());
+            }
+        } catch (IOException e) {
+            imports.clear();
+        }
+        return new Descriptor(size, mtime, module, imports.toArray(new String[imports.size()]));
+    }
+
+    /**
+     * The module of a descriptor, from its place in the repository: <code>a/b/c/1.0/module.properties</code>
+     * describes module <code>a.b.c/1.0</code>.
+     * @param path The descriptor path relative to the root
+     * @return String name/version
+     */
+    private static String moduleOf(final String path) {
+        int file = path.lastIndexOf(CeylonUtil.PATH_SEPARATOR);
+        int version = file <= 0 ? -1 : path.lastIndexOf(CeylonUtil.PATH_SEPARATOR, file - 1);
+        if (version <= 0) {
+            return path.substring(0, Math.max(file, 0)) + CeylonUtil.PATH_SEPARATOR;
+        }
+        return path.substring(0, version).replace(CeylonUtil.PATH_SEPARATOR, CeylonUtil.GROUP_SEPARATOR)
+            + CeylonUtil.PATH_SEPARATOR + path.substring(version + 1, file);
+    }
+
+    /**
+     * An indexed module version.
+     */
+    private static final class Descriptor {
+
+        /**
+         * Descriptor size when read.
+         */
+        private final long size;
+
+        /**
+         * Descriptor modification time when read.
+         */
+        private final long mtime;
+
+        /**
+         * The module, as name/version.
+         */
+        private final String module;
+
+        /**
+         * The imported modules, as name/version.
+         */
+        private final String[] imports;
+
+        /**
+         * Constructor.
+         * @param s Size
+         * @param m Modification time
+         * @param mod Module
+         * @param imp Imports
+         */
+        Descriptor(final long s, final long m, final String mod, final String[] imp) {
+            this.size = s;
+            this.mtime = m;
+            this.module = mod;
+            this.imports = imp;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.dgwave.car.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Checks resolved artifacts against the <code>.sha1</code> files installed next to them. Hashing runs on a small
+ * thread pool while resolution carries on, and a file whose size and modification time are recorded as verified
+ * in the {@link VerifiedHashStore} is not hashed again.
+ *
+ * @author Akber Choudhry
+ */
+public final class IntegrityVerifier {
+
+    /**
+     * Default number of hashing threads.
+     */
+    public static final int DEFAULT_THREADS = 2;
+
+    /**
+     * Files already submitted in this session.
+     */
+    private final ConcurrentMap<File, Boolean> submitted = new ConcurrentHashMap<File, Boolean>();
+
+    /**
+     * Files that failed verification, with the reason.
+     */
+    private final ConcurrentMap<File, String> corrupt = new ConcurrentHashMap<File, String>();
+
+    /**
+     * The verified hashes.
+     */
+    private final VerifiedHashStore store;
+
+    /**
+     * The hashing threads.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Files hashed in this session.
+     */
+    private final AtomicInteger hashed = new AtomicInteger();
+
+    /**
+     * Files known to be good from the store.
+     */
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    /**
+     * Files without a .sha1 to check against.
+     */
+    private final AtomicInteger unchecked = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param hashStore The verified hashes
+     * @param threads Number of hashing threads
+     */
+    public IntegrityVerifier(final VerifiedHashStore hashStore, final int threads) {
+        this.store = hashStore;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(r, "ceylon-verify-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Schedules the verification of a resolved file, unless it was verified before in its current state.
+     * Returns at once.
+     *
+     * @param file The resolved file
+     */
+    public void verify(final File file) {
+        if (!file.isFile() || submitted.putIfAbsent(file, Boolean.TRUE) != null) {
+            return;
+        }
+        final String expected = CeylonUtil.readChecksum(file);
+        if (expected == null) {
+            unchecked.incrementAndGet();
+            return;
+        }
+        final BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            corrupt.put(file, e.getMessage());
+            return;
+        }
+        if (store.isVerified(file, attrs.size(), attrs.lastModifiedTime().toMillis(), expected)) {
+            skipped.incrementAndGet();
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                check(file, expected, attrs.size(), attrs.lastModifiedTime().toMillis());
+            }
+        });
+    }
+
+    /**
+     * Whether a file has failed verification in this session.
+     * @param file The file
+     * @return True if the file does not match its .sha1
+     */
+    public boolean isCorrupt(final File file) {
+        return !corrupt.isEmpty() && corrupt.containsKey(file);
+    }
+
+    /**
+     * Waits for pending verifications and stops the hashing threads.
+     *
+     * @param millis Maximum time to wait
+     * @return List of failures, one message per file
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public List<String> finish(final long millis) throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(millis, TimeUnit.MILLISECONDS)) {
+            executor.shutdownNow();
+        }
+        List<String> failures = new ArrayList<String>(corrupt.size());
+        for (Map.Entry<File, String> e : corrupt.entrySet()) {
+            failures.add(e.getKey() + ": " + e.getValue());
+        }
+        Collections.sort(failures);
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return "Ceylon integrity: " + hashed.get() + " hashed, " + skipped.get() + " already verified, "
+            + unchecked.get() + " without .sha1, " + corrupt.size() + " failed";
+    }
+
+    /**
+     * Hashes a file and compares it with its .sha1.
+     * @param file The file
+     * @param expected The SHA-1 from the .sha1 file
+     * @param size Size when scheduled
+     * @param mtime Modification time when scheduled
+     */
+    private void check(final File file, final String expected, final long size, final long mtime) {
+        String actual;
+        try {
+            actual = CeylonUtil.calculateChecksum(file);
+        } catch (MojoExecutionException e) {
+            corrupt.put(file, e.getMessage());
+            store.remove(file);
+            return;
+        }
+        hashed.incrementAndGet();
+        if (!expected.equals(actual)) {
+            corrupt.put(file, "SHA-1 is " + actual + " but " + file.getName() + ".sha1 says " + expected);
+            store.remove(file);
+        } else if (file.length() == size && file.lastModified() == mtime) {
+            store.markVerified(file, size, mtime, expected);
+        }
+    }
+}
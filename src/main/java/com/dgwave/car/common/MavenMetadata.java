@@ -0,0 +1,140 @@
+package com.dgwave.car.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Writer;
+
+/**
+ * Synthesizes the <code>maven-metadata.xml</code> that Ceylon repositories do not have, from the versions found in
+ * their module directories, so that version ranges and <code>LATEST</code>/<code>RELEASE</code> resolve against a
+ * Ceylon repository. The document of a module is kept in the {@link PluginState} and rendered again only when its
+ * list of versions changes; the versions themselves come from the {@link VersionIndex}, which lists a module
+ * directory again only when it changes.
+ *
+ * @author Akber Choudhry
+ */
+public final class MavenMetadata {
+
+    /**
+     * File name of Maven repository metadata.
+     */
+    public static final String FILE_NAME = "maven-metadata.xml";
+
+    /**
+     * Estimated bytes held by a cached document besides its content.
+     */
+    private static final int ENTRY_BYTES = 128;
+
+    /**
+     * Estimated bytes held by each version of a cached document's list.
+     */
+    private static final int VERSION_BYTES = 64;
+
+    /**
+     * Qualifier of snapshot versions.
+     */
+    private static final String SNAPSHOT = "SNAPSHOT";
+
+    /**
+     * Hidden constructor.
+     */
+    private MavenMetadata() {
+
+    }
+
+    /**
+     * The artifact-level metadata of a module: its versions, latest and release versions.
+     *
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @param versions The versions in ascending version order
+     * @return byte[] The UTF-8 encoded document, or null if there are no versions; callers must not modify it
+     */
+    public static byte[] forModule(final String groupId, final String artifactId, final List<String> versions) {
+        if (versions.isEmpty()) {
+            return null;
+        }
+        String key = "maven-metadata:" + groupId + ":" + artifactId;
+        PluginState state = PluginState.shared();
+        Entry entry = state.get(key, PluginState.Stamp.NONE, Entry.class);
+        if (entry != null && entry.versions.equals(versions)) {
+            return entry.content;
+        }
+
+        Versioning versioning = new Versioning();
+        String release = null;
+        for (String version : versions) {
+            versioning.addVersion(version);
+            if (!version.endsWith(SNAPSHOT)) {
+                release = version;
+            }
+        }
+        versioning.setLatest(versions.get(versions.size() - 1));
+        versioning.setRelease(release);
+        versioning.updateTimestamp();
+        entry = new Entry(new ArrayList<String>(versions), render(groupId, artifactId, null, versioning));
+        state.put(key, PluginState.Stamp.NONE, entry,
+            ENTRY_BYTES + entry.content.length + (long) VERSION_BYTES * versions.size());
+        return entry.content;
+    }
+
+    /**
+     * Writes a metadata document.
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @param version The version, or null for artifact-level metadata
+     * @param versioning The versioning element
+     * @return byte[] The UTF-8 encoded document
+     */
+    private static byte[] render(final String groupId, final String artifactId, final String version,
+            final Versioning versioning) {
+        Metadata metadata = new Metadata();
+        metadata.setGroupId(groupId);
+        metadata.setArtifactId(artifactId);
+        metadata.setVersion(version);
+        metadata.setVersioning(versioning);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            Writer out = new OutputStreamWriter(bytes, "UTF-8");
+            new MetadataXpp3Writer().write(out, metadata);
+            out.close();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A rendered document and the versions it lists.
+     */
+    private static final class Entry {
+
+        /**
+         * The versions.
+         */
+        private final List<String> versions;
+
+        /**
+         * The document.
+         */
+        private final byte[] content;
+
+        /**
+         * Constructor.
+         * @param v The versions
+         * @param c The document
+         */
+        Entry(final List<String> v, final byte[] c) {
+            this.versions = Collections.unmodifiableList(v);
+            this.content = c;
+        }
+    }
+}
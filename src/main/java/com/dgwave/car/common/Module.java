@@ -9,6 +9,16 @@ import java.util.Set;
  *
  */
 public class Module {
+
+    /**
+     * Estimated bytes held by a module besides its dependencies.
+     */
+    private static final int MODULE_BYTES = 160;
+
+    /**
+     * Estimated bytes held by each dependency.
+     */
+    private static final int DEPENDENCY_BYTES = 128;
     
     /**
      * This module's identifier.
@@ -52,6 +62,14 @@ public class Module {
         return dependencies;
     }
 
+    /**
+     * Estimate of the memory held by this module, for the {@link PluginState}.
+     * @return long Estimated bytes
+     */
+    long estimateBytes() {
+        return MODULE_BYTES + (long) DEPENDENCY_BYTES * dependencies.size();
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) {
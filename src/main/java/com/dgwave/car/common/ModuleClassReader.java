@@ -0,0 +1,508 @@
+package com.dgwave.car.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Reads the name, version and imports of a Ceylon module from the <code>@Module</code> annotation of the
+ * <code>module_</code> class the compiler writes into its car. The class file is parsed from the bytes of its zip
+ * entry: the constant pool is only indexed, and strings are decoded when the annotation refers to them, so no
+ * class is loaded and no other entry of the car is inflated.
+ *
+ * @author Akber Choudhry
+ */
+public final class ModuleClassReader {
+
+    /**
+     * Simple name of the class holding the module descriptor.
+     */
+    public static final String MODULE_CLASS = "module_.class";
+
+    /**
+     * Descriptor of the module annotation type.
+     */
+    private static final String MODULE_ANNOTATION = "Lcom/redhat/ceylon/compiler/java/metadata/Module;";
+
+    /**
+     * Name of the class file attribute holding runtime visible annotations.
+     */
+    private static final String ANNOTATIONS_ATTRIBUTE = "RuntimeVisibleAnnotations";
+
+    /**
+     * Class file magic number.
+     */
+    private static final int MAGIC = 0xCAFEBABE;
+
+    /**
+     * Offset of the constant pool count in a class file.
+     */
+    private static final int POOL_OFFSET = 8;
+
+    /**
+     * Constant pool tag of a modified UTF-8 string.
+     */
+    private static final int CONSTANT_UTF8 = 1;
+
+    /**
+     * Constant pool tag of an int.
+     */
+    private static final int CONSTANT_INTEGER = 3;
+
+    /**
+     * Constant pool tag of a float.
+     */
+    private static final int CONSTANT_FLOAT = 4;
+
+    /**
+     * Constant pool tag of a long, which takes two slots.
+     */
+    private static final int CONSTANT_LONG = 5;
+
+    /**
+     * Constant pool tag of a double, which takes two slots.
+     */
+    private static final int CONSTANT_DOUBLE = 6;
+
+    /**
+     * Constant pool tag of a class reference.
+     */
+    private static final int CONSTANT_CLASS = 7;
+
+    /**
+     * Constant pool tag of a string literal.
+     */
+    private static final int CONSTANT_STRING = 8;
+
+    /**
+     * Constant pool tag of a field reference.
+     */
+    private static final int CONSTANT_FIELDREF = 9;
+
+    /**
+     * Constant pool tag of a method reference.
+     */
+    private static final int CONSTANT_METHODREF = 10;
+
+    /**
+     * Constant pool tag of an interface method reference.
+     */
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+
+    /**
+     * Constant pool tag of a name and type.
+     */
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    /**
+     * Constant pool tag of a method handle.
+     */
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+
+    /**
+     * Constant pool tag of a method type.
+     */
+    private static final int CONSTANT_METHOD_TYPE = 16;
+
+    /**
+     * Constant pool tag of a dynamic constant.
+     */
+    private static final int CONSTANT_DYNAMIC = 17;
+
+    /**
+     * Constant pool tag of an invokedynamic call site.
+     */
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+
+    /**
+     * Constant pool tag of a Java module.
+     */
+    private static final int CONSTANT_MODULE = 19;
+
+    /**
+     * Constant pool tag of a Java package.
+     */
+    private static final int CONSTANT_PACKAGE = 20;
+
+    /**
+     * Size of a u4.
+     */
+    private static final int U4 = 4;
+
+    /**
+     * Size of a u8.
+     */
+    private static final int U8 = 8;
+
+    /**
+     * Size of a method handle entry.
+     */
+    private static final int METHOD_HANDLE_SIZE = 3;
+
+    /**
+     * Mask of an unsigned byte.
+     */
+    private static final int BYTE_MASK = 0xff;
+
+    /**
+     * Bits in a byte.
+     */
+    private static final int BYTE_BITS = 8;
+
+    /**
+     * The class file.
+     */
+    private final byte[] b;
+
+    /**
+     * Offset of the tag of each constant pool entry, by index.
+     */
+    private final int[] pool;
+
+    /**
+     * Read position.
+     */
+    private int pos;
+
+    /**
+     * Constructor; indexes the constant pool.
+     * @param classFile The class file
+     * @throws IOException If it is not a class file
+     */
+    private ModuleClassReader(final byte[] classFile) throws IOException {
+        this.b = classFile;
+        if (classFile.length < POOL_OFFSET + 2 || readInt(0) != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        pos = POOL_OFFSET;
+        pool = new int[u2()];
+        for (int i = 1; i < pool.length; i++) {
+            pool[i] = pos;
+            int tag = u1();
+            switch (tag) {
+                case CONSTANT_UTF8: {
+                    int length = u2();
+                    pos += length;
+                    break;
+                }
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    pos += U4;
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    pos += U8;
+                    i++;
+                    break;
+                case CONSTANT_CLASS:
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    pos += 2;
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    pos += METHOD_HANDLE_SIZE;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+    }
+
+    /**
+     * Reads the module of a car from its <code>module_</code> class.
+     * @param car The car
+     * @param moduleName The expected module name, to find the class without scanning the entries, may be null
+     * @return Module The module and its imports, or null if the car has no annotated <code>module_</code> class
+     * @throws IOException In case of IO error, or if the class file is malformed
+     */
+    public static Module read(final ZipFile car, final String moduleName) throws IOException {
+        ZipEntry entry = null;
+        if (moduleName != null) {
+            entry = car.getEntry(moduleName.replace(CeylonUtil.GROUP_SEPARATOR, CeylonUtil.PATH_SEPARATOR)
+                + CeylonUtil.PATH_SEPARATOR + MODULE_CLASS);
+        }
+        if (entry == null) {
+            Enumeration<? extends ZipEntry> entries = car.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry candidate = entries.nextElement();
+                String name = candidate.getName();
+                if (name.endsWith(CeylonUtil.PATH_SEPARATOR + MODULE_CLASS) || name.equals(MODULE_CLASS)) {
+                    entry = candidate;
+                    break;
+                }
+            }
+        }
+        if (entry == null) {
+            return null;
+        }
+        InputStream in = car.getInputStream(entry);
+        try {
+            return read(IOUtil.toByteArray(in));
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    /**
+     * Reads a module from the bytes of a <code>module_</code> class.
+     * @param classFile The class file
+     * @return Module The module and its imports, or null if the class has no <code>@Module</code> annotation
+     * @throws IOException If the class file is malformed
+     */
+    public static Module read(final byte[] classFile) throws IOException {
+        try {
+            return new ModuleClassReader(classFile).readModule();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated class file", e);
+        }
+    }
+
+    /**
+     * Skips to the class attributes and reads the module annotation.
+     * @return Module The module, or null
+     * @throws IOException If the class file is malformed
+     */
+    private Module readModule() throws IOException {
+        // access flags, this class, super class
+        pos += 2 + 2 + 2;
+        int interfaces = u2();
+        pos += 2 * interfaces;
+        skipMembers();
+        skipMembers();
+        int attributes = u2();
+        for (int i = 0; i < attributes; i++) {
+            String name = utf8(u2());
+            int length = readInt(pos);
+            pos += U4;
+            int end = pos + length;
+            if (ANNOTATIONS_ATTRIBUTE.equals(name)) {
+                int count = u2();
+                for (int j = 0; j < count; j++) {
+                    if (MODULE_ANNOTATION.equals(utf8(u2()))) {
+                        return readModuleAnnotation();
+                    }
+                    skipPairs();
+                }
+            }
+            pos = end;
+        }
+        return null;
+    }
+
+    /**
+     * Skips the fields or the methods of the class.
+     */
+    private void skipMembers() {
+        int count = u2();
+        for (int i = 0; i < count; i++) {
+            // access flags, name, descriptor
+            pos += 2 + 2 + 2;
+            int attributes = u2();
+            for (int j = 0; j < attributes; j++) {
+                pos += 2;
+                int length = readInt(pos);
+                pos += U4 + length;
+            }
+        }
+    }
+
+    /**
+     * Reads the element value pairs of <code>@Module</code>, positioned after its type.
+     * @return Module The module
+     * @throws IOException If the class file is malformed
+     */
+    private Module readModuleAnnotation() throws IOException {
+        String name = "";
+        String version = "";
+        int dependencies = -1;
+        int pairs = u2();
+        for (int i = 0; i < pairs; i++) {
+            String element = utf8(u2());
+            if ("name".equals(element)) {
+                name = stringValue();
+            } else if ("version".equals(element)) {
+                version = stringValue();
+            } else if ("dependencies".equals(element) && b[pos] == '[') {
+                dependencies = pos;
+                skipValue();
+            } else {
+                skipValue();
+            }
+        }
+        Module module = new Module(new ModuleIdentifier(name, version, false, false));
+        if (dependencies >= 0) {
+            pos = dependencies + 1;
+            int count = u2();
+            for (int i = 0; i < count; i++) {
+                if (u1() != '@') {
+                    throw new IOException("Malformed @Module dependencies");
+                }
+                pos += 2;
+                module.addDependency(readImport());
+            }
+        }
+        return module;
+    }
+
+    /**
+     * Reads the element value pairs of an <code>@Import</code>, positioned after its type.
+     * @return ModuleIdentifier The imported module
+     * @throws IOException If the class file is malformed
+     */
+    private ModuleIdentifier readImport() throws IOException {
+        String name = "";
+        String version = "";
+        boolean optional = false;
+        boolean export = false;
+        int pairs = u2();
+        for (int i = 0; i < pairs; i++) {
+            String element = utf8(u2());
+            if ("name".equals(element)) {
+                name = stringValue();
+            } else if ("version".equals(element)) {
+                version = stringValue();
+            } else if ("optional".equals(element)) {
+                optional = booleanValue();
+            } else if ("export".equals(element)) {
+                export = booleanValue();
+            } else {
+                skipValue();
+            }
+        }
+        return new ModuleIdentifier(name, version, optional, export);
+    }
+
+    /**
+     * Reads a string element value.
+     * @return String The value
+     * @throws IOException If the value is not a string
+     */
+    private String stringValue() throws IOException {
+        if (u1() != 's') {
+            throw new IOException("Expected a string annotation value");
+        }
+        return utf8(u2());
+    }
+
+    /**
+     * Reads a boolean element value.
+     * @return boolean The value
+     * @throws IOException If the value is not a boolean
+     */
+    private boolean booleanValue() throws IOException {
+        if (u1() != 'Z') {
+            throw new IOException("Expected a boolean annotation value");
+        }
+        return readInt(pool[u2()] + 1) != 0;
+    }
+
+    /**
+     * Skips the element value pairs of an annotation, positioned after its type.
+     * @throws IOException If the class file is malformed
+     */
+    private void skipPairs() throws IOException {
+        int pairs = u2();
+        for (int i = 0; i < pairs; i++) {
+            pos += 2;
+            skipValue();
+        }
+    }
+
+    /**
+     * Skips an element value.
+     * @throws IOException If the class file is malformed
+     */
+    private void skipValue() throws IOException {
+        int tag = u1();
+        switch (tag) {
+            case 'B':
+            case 'C':
+            case 'D':
+            case 'F':
+            case 'I':
+            case 'J':
+            case 'S':
+            case 'Z':
+            case 's':
+            case 'c':
+                pos += 2;
+                break;
+            case 'e':
+                pos += 2 + 2;
+                break;
+            case '@':
+                pos += 2;
+                skipPairs();
+                break;
+            case '[': {
+                int count = u2();
+                for (int i = 0; i < count; i++) {
+                    skipValue();
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown annotation value tag " + (char) tag);
+        }
+    }
+
+    /**
+     * Decodes a modified UTF-8 constant.
+     * @param index The constant pool index
+     * @return String The string
+     * @throws IOException If the entry is not a string
+     */
+    private String utf8(final int index) throws IOException {
+        int offset = pool[index];
+        if (b[offset] != CONSTANT_UTF8) {
+            throw new IOException("Constant " + index + " is not a string");
+        }
+        int length = ((b[offset + 1] & BYTE_MASK) << BYTE_BITS) | (b[offset + 2] & BYTE_MASK);
+        return new DataInputStream(new ByteArrayInputStream(b, offset + 1, length + 2)).readUTF();
+    }
+
+    /**
+     * Reads an unsigned byte.
+     * @return int The byte
+     */
+    private int u1() {
+        return b[pos++] & BYTE_MASK;
+    }
+
+    /**
+     * Reads an unsigned big-endian short.
+     * @return int The short
+     */
+    private int u2() {
+        int value = ((b[pos] & BYTE_MASK) << BYTE_BITS) | (b[pos + 1] & BYTE_MASK);
+        pos += 2;
+        return value;
+    }
+
+    /**
+     * Reads a big-endian int without moving.
+     * @param offset Where to read
+     * @return int The int
+     */
+    private int readInt(final int offset) {
+        int value = 0;
+        for (int i = 0; i < U4; i++) {
+            value = (value << BYTE_BITS) | (b[offset + i] & BYTE_MASK);
+        }
+        return value;
+    }
+}
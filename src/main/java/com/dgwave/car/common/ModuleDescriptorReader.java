@@ -0,0 +1,210 @@
+package com.dgwave.car.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Reads the dependencies of a module version from any of its descriptors: <code>module.xml</code>, a
+ * <code>.module</code> file, <code>module.properties</code>, or the <code>.car</code> itself, preferred in that
+ * order by {@link #precedence(String)}. A car is read through the OSGi headers of its manifest, which the Ceylon
+ * compiler writes, else through the <code>@Module</code> annotation of its <code>module_</code> class, with the
+ * {@link ModuleClassReader}; either way only one entry is inflated. Parsed modules are kept in the
+ * {@link PluginState} until the file changes, whatever its format, so a walk over a repository reads each
+ * descriptor once.
+ *
+ * @author Akber Choudhry
+ */
+public final class ModuleDescriptorReader {
+
+    /**
+     * Manifest header listing the OSGi bundles a bundle imports.
+     */
+    private static final String REQUIRE_BUNDLE = "Require-Bundle";
+
+    /**
+     * Manifest header naming an OSGi bundle.
+     */
+    private static final String BUNDLE_SYMBOLIC_NAME = "Bundle-SymbolicName";
+
+    /**
+     * Private constructor.
+     */
+    private ModuleDescriptorReader() {
+    }
+
+    /**
+     * Whether a file name is that of a module descriptor this reader understands.
+     * @param name The file name
+     * @return boolean True for <code>module.xml</code>, <code>module.properties</code>, <code>.module</code> and
+     * <code>.car</code> files
+     */
+    public static boolean isDescriptor(final String name) {
+        return precedence(name) >= 0;
+    }
+
+    /**
+     * The precedence of a descriptor where a module version folder has several: <code>module.xml</code> first,
+     * then the <code>.module</code> file, <code>module.properties</code> and last the car.
+     * @param name The file name
+     * @return int 0 for the preferred descriptor, higher for the others, or -1 if the file is not a descriptor
+     */
+    public static int precedence(final String name) {
+        if ("module.xml".equals(name)) {
+            return 0;
+        } else if (name.endsWith(".module")) {
+            return 1;
+        } else if ("module.properties".equals(name)) {
+            return 2;
+        } else if (name.endsWith(".car")) {
+            return 3;
+        }
+        return -1;
+    }
+
+    /**
+     * Parse a module descriptor of any format. Parsed modules are shared, so callers must not modify them.
+     * @param descriptor The file to parse
+     * @param mi The name/version of the module it describes, used where the format does not name the module
+     * @return Module representation
+     * @throws IOException In case of IO error, or if the file is not a descriptor or cannot be parsed
+     */
+    public static Module parse(final File descriptor, final ModuleIdentifier mi) throws IOException {
+        String name = descriptor.getName();
+        if ("module.xml".equals(name)) {
+            try {
+                return ModuleXmlReader.parse(descriptor);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Cannot parse " + descriptor, e);
+            }
+        } else if ("module.properties".equals(name) || name.endsWith(".module")) {
+            return ModulePropertiesReader.parse(descriptor, mi);
+        } else if (name.endsWith(".car")) {
+            String key = "car:" + descriptor.getAbsolutePath();
+            PluginState.Stamp stamp = PluginState.Stamp.of(descriptor);
+            Module module = PluginState.shared().get(key, stamp, Module.class);
+            if (module == null || !module.getModule().equals(mi)) {
+                module = readCar(descriptor, mi);
+                PluginState.shared().put(key, stamp, module, module.estimateBytes());
+            }
+            return module;
+        }
+        throw new IOException("Not a module descriptor: " + descriptor);
+    }
+
+    /**
+     * Reads the imports of a car from the <code>Require-Bundle</code> header of its manifest, else from its
+     * <code>module_</code> class. A car with neither is taken to import nothing.
+     * @param car The car
+     * @param mi The name/version of the module
+     * @return Module representation
+     * @throws IOException In case of IO error
+     */
+    private static Module readCar(final File car, final ModuleIdentifier mi) throws IOException {
+        Module module = new Module(mi);
+        JarFile jar = new JarFile(car, false);
+        try {
+            Manifest manifest = jar.getManifest();
+            Attributes main = manifest != null ? manifest.getMainAttributes() : null;
+            if (main == null || main.getValue(BUNDLE_SYMBOLIC_NAME) == null) {
+                Module compiled = ModuleClassReader.read(jar, mi.getName());
+                if (compiled != null) {
+                    for (ModuleIdentifier dep : compiled.getDependencies()) {
+                        module.addDependency(dep);
+                    }
+                }
+                return module;
+            }
+            String required = main.getValue(REQUIRE_BUNDLE);
+            if (required != null) {
+                for (String clause : split(required, ',')) {
+                    ModuleIdentifier dep = parseClause(clause);
+                    if (dep != null) {
+                        module.addDependency(dep);
+                    }
+                }
+            }
+            return module;
+        } finally {
+            jar.close();
+        }
+    }
+
+    /**
+     * Parses one clause of a <code>Require-Bundle</code> header, such as
+     * <code>ceylon.collection;bundle-version=1.1.0;visibility:=reexport</code>.
+     * @param clause The clause
+     * @return ModuleIdentifier The required module, or null for an empty clause
+     */
+    static ModuleIdentifier parseClause(final String clause) {
+        List<String> parts = split(clause, ';');
+        String name = parts.isEmpty() ? "" : parts.get(0);
+        if (name.length() == 0) {
+            return null;
+        }
+        String version = "";
+        boolean optional = false;
+        boolean export = false;
+        for (int i = 1; i < parts.size(); i++) {
+            String part = parts.get(i);
+            int eq = part.indexOf('=');
+            if (eq <= 0) {
+                continue;
+            }
+            boolean directive = part.charAt(eq - 1) == ':';
+            String key = part.substring(0, directive ? eq - 1 : eq).trim();
+            String value = unquote(part.substring(eq + 1).trim());
+            if (!directive && "bundle-version".equals(key)) {
+                version = value;
+            } else if (directive && "resolution".equals(key)) {
+                optional = "optional".equals(value);
+            } else if (directive && "visibility".equals(key)) {
+                export = "reexport".equals(value);
+            }
+        }
+        return new ModuleIdentifier(name, version, optional, export);
+    }
+
+    /**
+     * Splits a manifest header on a separator that is not within double quotes, trimming the parts.
+     * @param value The header value
+     * @param separator The separator
+     * @return List of non-empty parts
+     */
+    static List<String> split(final String value, final char separator) {
+        List<String> parts = new ArrayList<String>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i <= value.length(); i++) {
+            char c = i < value.length() ? value.charAt(i) : separator;
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == separator && !quoted) {
+                String part = value.substring(start, Math.min(i, value.length())).trim();
+                if (part.length() > 0) {
+                    parts.add(part);
+                }
+                start = i + 1;
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Removes the double quotes around a value, if any.
+     * @param value The value
+     * @return String The unquoted value
+     */
+    private static String unquote(final String value) {
+        if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,77 @@
+package com.dgwave.car.common;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Read dependencies from module.properties or a .module file, both holding one <code>name=version</code> line per
+ * dependency, with <code>name?=version</code> for optional ones, as written by <code>ceylon:install</code>.
+ *
+ * @author Akber Choudhry
+ */
+public final class ModulePropertiesReader {
+
+    /**
+     * Private constructor.
+     */
+    private ModulePropertiesReader() {
+    }
+
+    /**
+     * Parse a module.properties or .module file. Parsed modules are kept in the {@link PluginState} until the file
+     * changes, and are shared, so callers must not modify them.
+     * @param descriptor The file to parse
+     * @param mi The name/version of the module it describes
+     * @return Module representation
+     * @throws IOException In case of IO error
+     */
+    public static Module parse(final File descriptor, final ModuleIdentifier mi) throws IOException {
+        String key = "descriptor:" + descriptor.getAbsolutePath();
+        PluginState.Stamp stamp = PluginState.Stamp.of(descriptor);
+        Module module = PluginState.shared().get(key, stamp, Module.class);
+        if (module == null || !module.getModule().equals(mi)) {
+            module = read(descriptor, mi);
+            PluginState.shared().put(key, stamp, module, module.estimateBytes());
+        }
+        return module;
+    }
+
+    /**
+     * Reads a module.properties or .module file.
+     * @param descriptor The file to read
+     * @param mi The name/version of the module it describes
+     * @return Module representation
+     * @throws IOException In case of IO error
+     */
+    private static Module read(final File descriptor, final ModuleIdentifier mi) throws IOException {
+        Module module = new Module(mi);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(descriptor), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.charAt(0) == '#') {
+                    continue;
+                }
+                int eq = line.indexOf('=');
+                if (eq <= 0) {
+                    continue;
+                }
+                String name = line.substring(0, eq).trim();
+                boolean optional = name.endsWith("?");
+                if (optional) {
+                    name = name.substring(0, name.length() - 1).trim();
+                }
+                module.addDependency(new ModuleIdentifier(name, line.substring(eq + 1).trim(), optional, false));
+            }
+        } finally {
+            IOUtil.close(reader);
+        }
+        return module;
+    }
+}
@@ -0,0 +1,201 @@
+package com.dgwave.car.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pre-parsed module version, ordered the way Ceylon and Maven order versions rather than by string comparison:
+ * numeric parts compare numerically, missing parts count as zero, and qualifiers such as alpha, beta, milestone,
+ * rc and snapshot sort before the release. Versions that differ only in such spelling, like 1.0 and 1.0.0, are
+ * ordered by their strings, so that both are kept when merged into a sorted set.
+ *
+ * @author Akber Choudhry
+ */
+public final class ModuleVersion implements Comparable<ModuleVersion> {
+
+    /**
+     * Known qualifiers, in ascending order. The empty qualifier is the release itself.
+     */
+    private static final String[][] QUALIFIERS = {
+        {"alpha", "a"}, {"beta", "b"}, {"milestone", "m"}, {"rc", "cr"}, {"snapshot"},
+        {"", "ga", "final", "release"}, {"sp"}
+    };
+
+    /**
+     * Rank of the release qualifier.
+     */
+    private static final int RELEASE_RANK = 5;
+
+    /**
+     * Rank of unknown qualifiers, which sort after all known ones.
+     */
+    private static final int UNKNOWN_RANK = QUALIFIERS.length;
+
+    /**
+     * The original version string.
+     */
+    private final String version;
+
+    /**
+     * Parsed parts: Long for numeric parts, String for qualifiers.
+     */
+    private final Object[] parts;
+
+    /**
+     * Qualifier ranks, parallel to parts.
+     */
+    private final int[] ranks;
+
+    /**
+     * Parses a version.
+     * @param v The version string
+     */
+    public ModuleVersion(final String v) {
+        this.version = v;
+        List<Object> parsed = new ArrayList<Object>();
+        int start = 0;
+        int n = v.length();
+        for (int i = 1; i <= n; i++) {
+            if (i == n || isSeparator(v.charAt(i))
+                || Character.isDigit(v.charAt(i)) != Character.isDigit(v.charAt(i - 1))) {
+                if (i > start && !isSeparator(v.charAt(start))) {
+                    parsed.add(part(v.substring(start, i)));
+                }
+                start = i < n && isSeparator(v.charAt(i)) ? i + 1 : i;
+            }
+        }
+        // trailing zeros and release qualifiers do not change the order: 1.0, 1.0.0 and 1.0-final sort together
+        int end = parsed.size();
+        while (end > 0 && isNull(parsed.get(end - 1))) {
+            end--;
+        }
+        this.parts = parsed.subList(0, end).toArray();
+        this.ranks = new int[end];
+        for (int i = 0; i < end; i++) {
+            ranks[i] = parts[i] instanceof String ? rank((String) parts[i]) : -1;
+        }
+    }
+
+    /**
+     * @return String The version as given
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    @Override
+    public int compareTo(final ModuleVersion o) {
+        int n = Math.max(parts.length, o.parts.length);
+        for (int i = 0; i < n; i++) {
+            int diff = comparePart(i, o);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return version.compareTo(o.version);
+    }
+
+    /**
+     * Compares one part of this version with the same part of another.
+     * @param i The part index
+     * @param o The other version
+     * @return int Negative, zero or positive
+     */
+    private int comparePart(final int i, final ModuleVersion o) {
+        Object mine = i < parts.length ? parts[i] : null;
+        Object theirs = i < o.parts.length ? o.parts[i] : null;
+        if (mine instanceof Long) {
+            if (theirs instanceof Long) {
+                return ((Long) mine).compareTo((Long) theirs);
+            }
+            // a missing part counts as zero, and any number beats a qualifier
+            return theirs == null ? Long.signum((Long) mine) : 1;
+        }
+        if (theirs instanceof Long) {
+            return mine == null ? -Long.signum((Long) theirs) : -1;
+        }
+        int myRank = mine == null ? RELEASE_RANK : ranks[i];
+        int theirRank = theirs == null ? RELEASE_RANK : o.ranks[i];
+        if (myRank != theirRank) {
+            return myRank < theirRank ? -1 : 1;
+        }
+        if (myRank == UNKNOWN_RANK) {
+            return ((String) mine).compareTo((String) theirs);
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return version.equals(((ModuleVersion) o).version);
+    }
+
+    @Override
+    public int hashCode() {
+        return version.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return version;
+    }
+
+    /**
+     * Whether a character separates version parts.
+     * @param c The character
+     * @return True for '.', '-' and '_'
+     */
+    private static boolean isSeparator(final char c) {
+        return c == '.' || c == '-' || c == '_';
+    }
+
+    /**
+     * Parses a single part.
+     * @param s The part
+     * @return Object A Long for numeric parts, the lower-cased qualifier otherwise
+     */
+    private static Object part(final String s) {
+        if (Character.isDigit(s.charAt(0))) {
+            try {
+                return Long.valueOf(s);
+            } catch (NumberFormatException e) {
+                return s;
+            }
+        }
+        return s.toLowerCase();
+    }
+
+    /**
+     * Whether a part is equivalent to a missing part.
+     * @param part The part
+     * @return True for zero and release qualifiers
+     */
+    private static boolean isNull(final Object part) {
+        if (part instanceof Long) {
+            return ((Long) part).longValue() == 0L;
+        }
+        return rank((String) part) == RELEASE_RANK;
+    }
+
+    /**
+     * The rank of a qualifier.
+     * @param qualifier The lower-cased qualifier
+     * @return int The rank
+     */
+    private static int rank(final String qualifier) {
+        for (int r = 0; r < QUALIFIERS.length; r++) {
+            for (String q : QUALIFIERS[r]) {
+                if (q.equals(qualifier)) {
+                    return r;
+                }
+            }
+        }
+        return UNKNOWN_RANK;
+    }
+}
@@ -1,26 +1,31 @@
 package com.dgwave.car.common;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * Read dependencies from module.xml.
- * Adapted from Ceylon Module Resolver
+ * Adapted from Ceylon Module Resolver. The file is streamed with StAX rather than built into a DOM, using one
+ * factory for all files, with DTDs and external entities turned off.
  */
 public final class ModuleXmlReader {
+
+    /**
+     * Read buffer size.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Creates the stream readers; thread safe once configured.
+     */
+    private static final XMLInputFactory FACTORY = createFactory();
     
     /**
      * Private constructor.
@@ -30,87 +35,99 @@ public final class ModuleXmlReader {
     }
 
     /**
-     * Parse the module.xml file.
+     * Creates and configures the shared factory.
+     * @return XMLInputFactory The factory
+     */
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Parse the module.xml file. Parsed modules are kept in the {@link PluginState} until the file changes, and are
+     * shared, so callers must not modify them.
      * @param moduleXml The file to parse
      * @return Module representation
      * @throws Exception In case of parsing error
      */
     protected static Module parse(final File moduleXml) throws Exception {
-        InputStream is = new FileInputStream(moduleXml);
+        String key = "module.xml:" + moduleXml.getAbsolutePath();
+        PluginState.Stamp stamp = PluginState.Stamp.of(moduleXml);
+        Module module = PluginState.shared().get(key, stamp, Module.class);
+        if (module == null) {
+            module = read(moduleXml);
+            PluginState.shared().put(key, stamp, module, module.estimateBytes());
+        }
+        return module;
+    }
+
+    /**
+     * Reads the module.xml file in one streaming pass, stopping at the end of the first <code>dependencies</code>
+     * element.
+     * @param moduleXml The file to read
+     * @return Module representation
+     * @throws Exception In case of parsing error
+     */
+    private static Module read(final File moduleXml) throws Exception {
+        InputStream is = new BufferedInputStream(new FileInputStream(moduleXml), BUFFER_SIZE);
+        XMLStreamReader reader = null;
         try {
-            Document document = parseXml(is);
-            Element root = document.getDocumentElement();
-            ModuleIdentifier main = getModuleIdentifier(root);
-            Module module = new Module(main);
-            Element dependencies = getChildElement(root, "dependencies");
-            if (dependencies != null) {
-                for (Element dependency : getElements(dependencies, "module")) {
-                    module.addDependency(getModuleIdentifier(dependency));
+            reader = FACTORY.createXMLStreamReader(is);
+            Module module = null;
+            int depth = 0;
+            int dependencies = -1;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String tag = reader.getLocalName();
+                    if (module == null) {
+                        module = new Module(getModuleIdentifier(reader));
+                    } else if (dependencies < 0 && "dependencies".equals(tag)) {
+                        dependencies = depth;
+                    } else if (dependencies > 0 && "module".equals(tag)) {
+                        module.addDependency(getModuleIdentifier(reader));
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == dependencies) {
+                        break;
+                    }
+                    depth--;
                 }
             }
+            if (module == null) {
+                throw new XMLStreamException("No root element in " + moduleXml);
+            }
             return module;
         } finally {
+            if (reader != null) {
+                reader.close();
+            }
             is.close();
         }
     }
 
     /**
-     * ModuleIdentifier from XML element.
-     * @param root The root element
+     * ModuleIdentifier from the attributes of the current element.
+     * @param reader The reader, positioned on a start element
      * @return ModuleIdentifier The name/version of the module
      */
-    protected static ModuleIdentifier getModuleIdentifier(final Element root) {
-        return new ModuleIdentifier(root.getAttribute("name"), root.getAttribute("slot"), 
-            Boolean.parseBoolean(root.getAttribute("optional")), Boolean.parseBoolean(root.getAttribute("export")));
-    }
-
-    /**
-     * Parse module.xml from an input stream.
-     * @param inputStream The InputStream to parse
-     * @return Document the parsed DOM
-     * @throws ParserConfigurationException In case of parser mis-configuration
-     * @throws SAXException In case of SAX exception
-     * @throws IOException In case of IO error
-     */
-    protected static Document parseXml(final InputStream inputStream) 
-        throws ParserConfigurationException, SAXException, IOException {
-        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-        Document doc = dBuilder.parse(inputStream);
-        doc.getDocumentElement().normalize();
-        return doc;
+    private static ModuleIdentifier getModuleIdentifier(final XMLStreamReader reader) {
+        return new ModuleIdentifier(attribute(reader, "name"), attribute(reader, "slot"),
+            Boolean.parseBoolean(attribute(reader, "optional")), Boolean.parseBoolean(attribute(reader, "export")));
     }
 
     /**
-     * Finds child elements in DOM.
-     * @param parent The Element to find in
-     * @param tagName The element to find
-     * @return List of elements
+     * An attribute of the current element.
+     * @param reader The reader, positioned on a start element
+     * @param name The attribute name
+     * @return String The value, or an empty string if the element does not have the attribute
      */
-    protected static List<Element> getElements(final Element parent, final String tagName) {
-        List<Element> elements = new ArrayList<Element>();
-        NodeList nodes = parent.getElementsByTagName(tagName);
-        for (int i = 0; i < nodes.getLength(); i++) {
-            org.w3c.dom.Node node = nodes.item(i);
-            if (node instanceof Element) {
-                elements.add(Element.class.cast(node));
-            }
-        }
-        return elements;
-    }
-
-    /**
-     * Get a single child element.
-     * @param parent The parent element
-     * @param tagName The child element name
-     * @return Element The first child element by that name
-     */
-    protected static Element getChildElement(final Element parent, final String tagName) {
-        List<Element> elements = getElements(parent, tagName);
-        if (elements.size() > 0) {
-            return elements.get(0);
-        } else {
-            return null;
-        }
+    private static String attribute(final XMLStreamReader reader, final String name) {
+        String value = reader.getAttributeValue(null, name);
+        return value != null ? value : "";
     }
 }
@@ -0,0 +1,464 @@
+package com.dgwave.car.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Maps the packages of a Ceylon repository to the modules that provide them. Each <code>.car</code> and
+ * <code>.jar</code> is read once, from its zip central directory only, and its packages are remembered with its
+ * size and modification time, so that updating the index only reads archives that were added or changed.
+ * Lookups are a binary search over the sorted package names.
+ * <p>
+ * The index of a repository is kept in <code>&lt;hash&gt;.pkg</code> in the
+ * {@link RepositoryIndex#indexDirectory() index directory}: the package names are stored once in a string table,
+ * and every archive refers to its packages by position in that table.
+ *
+ * @author Akber Choudhry
+ */
+public final class PackageIndex {
+
+    /**
+     * File format marker.
+     */
+    private static final int MAGIC = 0x43504b47;
+
+    /**
+     * File format version.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The repository root.
+     */
+    private final File root;
+
+    /**
+     * Indexed archives by path relative to the root.
+     */
+    private final Map<String, Archive> archives = new TreeMap<String, Archive>();
+
+    /**
+     * Sorted package names, one per (package, archive) pair; rebuilt after changes.
+     */
+    private String[] packages;
+
+    /**
+     * The archive of each entry of {@link #packages}.
+     */
+    private Archive[] owners;
+
+    /**
+     * Set when archives are added or removed since the index was loaded or written.
+     */
+    private boolean changed;
+
+    /**
+     * Constructor.
+     * @param repoRoot The repository root
+     */
+    private PackageIndex(final File repoRoot) {
+        this.root = repoRoot.getAbsoluteFile();
+    }
+
+    /**
+     * The file an index of a repository is kept in.
+     * @param repoRoot The repository root
+     * @return File The index file
+     */
+    public static File defaultIndexFile(final File repoRoot) {
+        String name = Integer.toHexString(repoRoot.getAbsolutePath().hashCode()) + ".pkg";
+        return new File(RepositoryIndex.indexDirectory(), name);
+    }
+
+    /**
+     * Loads the index of a repository, brings it up to date with the repository and saves it if it changed.
+     *
+     * @param repoRoot The repository root
+     * @return PackageIndex The up to date index
+     * @throws IOException If the index cannot be saved
+     */
+    public static PackageIndex open(final File repoRoot) throws IOException {
+        File indexFile = defaultIndexFile(repoRoot);
+        PackageIndex index = load(repoRoot, indexFile);
+        index.update();
+        if (index.changed) {
+            index.write(indexFile);
+        }
+        return index;
+    }
+
+    /**
+     * Loads an index file. A missing, unreadable or foreign file gives an empty index.
+     *
+     * @param repoRoot The repository root
+     * @param indexFile The index file
+     * @return PackageIndex The index as saved
+     */
+    public static PackageIndex load(final File repoRoot, final File indexFile) {
+        PackageIndex index = new PackageIndex(repoRoot);
+        if (!indexFile.isFile()) {
+            return index;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !index.root.getPath().equals(in.readUTF())) {
+                return index;
+            }
+            String[] table = new String[in.readInt()];
+            for (int i = 0; i < table.length; i++) {
+                table[i] = in.readUTF();
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                String[] pkgs = new String[in.readInt()];
+                for (int j = 0; j < pkgs.length; j++) {
+                    pkgs[j] = table[in.readInt()];
+                }
+                index.archives.put(path, new Archive(path, size, mtime, pkgs));
+            }
+        } catch (IOException e) {
+            index.archives.clear();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            index.archives.clear();
+        } finally {
+            IOUtil.close(in);
+        }
+        return index;
+    }
+
+    /**
+     * Adds a newly installed archive to the saved index of its repository. Does nothing for repositories that have
+     * not been indexed.
+     *
+     * @param repoRoot The repository root
+     * @param archive The installed archive
+     * @throws IOException If the archive cannot be read or the index cannot be saved
+     */
+    public static void addIfIndexed(final File repoRoot, final File archive) throws IOException {
+        File indexFile = defaultIndexFile(repoRoot);
+        if (!indexFile.isFile() || !isArchive(archive.getName())) {
+            return;
+        }
+        PackageIndex index = load(repoRoot, indexFile);
+        index.add(archive);
+        index.write(indexFile);
+    }
+
+    /**
+     * Brings the index up to date with the repository: archives that were added or whose size or modification
+     * time changed are read, and archives that were removed are dropped.
+     *
+     * @return boolean True if anything changed
+     * @throws IOException If an archive cannot be read
+     */
+    public synchronized boolean update() throws IOException {
+        Map<String, File> found = new HashMap<String, File>();
+        scan(root, "", found);
+        boolean updated = archives.keySet().retainAll(found.keySet());
+        for (Map.Entry<String, File> e : found.entrySet()) {
+            File file = e.getValue();
+            Archive known = archives.get(e.getKey());
+            if (known == null || known.size != file.length() || known.mtime != file.lastModified()) {
+                archives.put(e.getKey(), read(e.getKey(), file));
+                updated = true;
+            }
+        }
+        if (updated) {
+            changed = true;
+            packages = null;
+        }
+        return updated;
+    }
+
+    /**
+     * Adds or replaces one archive of the repository.
+     *
+     * @param archive The archive, under the repository root
+     * @throws IOException If the archive cannot be read
+     */
+    public synchronized void add(final File archive) throws IOException {
+        String rootPath = root.getPath() + File.separator;
+        String path = archive.getAbsolutePath();
+        if (!path.startsWith(rootPath)) {
+            throw new IOException(archive + " is not in repository " + root);
+        }
+        String relative = path.substring(rootPath.length()).replace(File.separatorChar, CeylonUtil.PATH_SEPARATOR);
+        archives.put(relative, read(relative, archive));
+        changed = true;
+        packages = null;
+    }
+
+    /**
+     * Finds the modules providing a package.
+     *
+     * @param packageName The package name, such as <code>ceylon.collection</code>
+     * @return List of modules as <code>name/version</code>, in ascending name and version order
+     */
+    public List<String> findModules(final String packageName) {
+        String[] pkgs;
+        Archive[] arcs;
+        synchronized (this) {
+            if (packages == null) {
+                flatten();
+            }
+            pkgs = packages;
+            arcs = owners;
+        }
+        int i = Arrays.binarySearch(pkgs, packageName);
+        if (i < 0) {
+            return Collections.emptyList();
+        }
+        while (i > 0 && pkgs[i - 1].equals(packageName)) {
+            i--;
+        }
+        TreeSet<String> modules = new TreeSet<String>();
+        for (; i < pkgs.length && pkgs[i].equals(packageName); i++) {
+            modules.add(arcs[i].module());
+        }
+        return new ArrayList<String>(modules);
+    }
+
+    /**
+     * @return int Number of indexed archives
+     */
+    public synchronized int getArchiveCount() {
+        return archives.size();
+    }
+
+    /**
+     * @return int Number of distinct packages
+     */
+    public synchronized int getPackageCount() {
+        TreeSet<String> distinct = new TreeSet<String>();
+        for (Archive archive : archives.values()) {
+            distinct.addAll(Arrays.asList(archive.packages));
+        }
+        return distinct.size();
+    }
+
+    /**
+     * Saves the index, replacing the file atomically.
+     *
+     * @param indexFile The index file
+     * @throws IOException In case of IO error
+     */
+    public synchronized void write(final File indexFile) throws IOException {
+        TreeSet<String> distinct = new TreeSet<String>();
+        for (Archive archive : archives.values()) {
+            distinct.addAll(Arrays.asList(archive.packages));
+        }
+        Map<String, Integer> positions = new HashMap<String, Integer>(distinct.size() * 2);
+        for (String pkg : distinct) {
+            positions.put(pkg, positions.size());
+        }
+
+        File dir = indexFile.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile(indexFile.getName(), ".tmp", dir);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(root.getPath());
+            out.writeInt(distinct.size());
+            for (String pkg : distinct) {
+                out.writeUTF(pkg);
+            }
+            out.writeInt(archives.size());
+            for (Archive archive : archives.values()) {
+                out.writeUTF(archive.path);
+                out.writeLong(archive.size);
+                out.writeLong(archive.mtime);
+                out.writeInt(archive.packages.length);
+                for (String pkg : archive.packages) {
+                    out.writeInt(positions.get(pkg));
+                }
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        changed = false;
+    }
+
+    /**
+     * Rebuilds the sorted package arrays.
+     */
+    private void flatten() {
+        TreeMap<String, List<Archive>> sorted = new TreeMap<String, List<Archive>>();
+        int total = 0;
+        for (Archive archive : archives.values()) {
+            for (String pkg : archive.packages) {
+                List<Archive> list = sorted.get(pkg);
+                if (list == null) {
+                    list = new ArrayList<Archive>(1);
+                    sorted.put(pkg, list);
+                }
+                list.add(archive);
+                total++;
+            }
+        }
+        String[] pkgs = new String[total];
+        Archive[] arcs = new Archive[total];
+        int i = 0;
+        for (Map.Entry<String, List<Archive>> e : sorted.entrySet()) {
+            for (Archive archive : e.getValue()) {
+                pkgs[i] = e.getKey();
+                arcs[i++] = archive;
+            }
+        }
+        packages = pkgs;
+        owners = arcs;
+    }
+
+    /**
+     * Collects the archives under a directory.
+     * @param dir The directory
+     * @param prefix Its path relative to the root, '/' terminated unless empty
+     * @param found Archives by relative path
+     */
+    private static void scan(final File dir, final String prefix, final Map<String, File> found) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String name = child.getName();
+            if (child.isDirectory()) {
+                scan(child, prefix + name + CeylonUtil.PATH_SEPARATOR, found);
+            } else if (isArchive(name)) {
+                found.put(prefix + name, child);
+            }
+        }
+    }
+
+    /**
+     * Whether a file holds classes to index.
+     * @param name The file name
+     * @return True for Ceylon cars and jars, but not source or documentation archives
+     */
+    private static boolean isArchive(final String name) {
+        return (name.endsWith(".car") || name.endsWith(".jar"))
+            && !name.endsWith("-sources.jar") && !name.endsWith("-javadoc.jar");
+    }
+
+    /**
+     * Reads the packages of an archive from its central directory.
+     * @param path The path relative to the root
+     * @param file The archive
+     * @return Archive The packages of the archive
+     * @throws IOException If the archive cannot be read
+     */
+    private static Archive read(final String path, final File file) throws IOException {
+        long size = file.length();
+        long mtime = file.lastModified();
+        TreeSet<String> pkgs = new TreeSet<String>();
+        ZipFile zip;
+        try {
+            zip = new ZipFile(file);
+        } catch (IOException e) {
+            // not a zip; remember it as providing nothing rather than reading it again
+            return new Archive(path, size, mtime, new String[0]);
+        }
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            String last = null;
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                int slash = name.lastIndexOf('/');
+                if (slash <= 0 || !name.endsWith(".class") || name.startsWith("META-INF/")) {
+                    continue;
+                }
+                if (last != null && name.regionMatches(0, last, 0, slash) && last.length() == slash) {
+                    continue;
+                }
+                last = name.substring(0, slash);
+                pkgs.add(last.replace('/', '.'));
+            }
+        } finally {
+            zip.close();
+        }
+        return new Archive(path, size, mtime, pkgs.toArray(new String[pkgs.size()]));
+    }
+
+    /**
+     * An indexed archive.
+     */
+    private static final class Archive {
+
+        /**
+         * Path relative to the repository root.
+         */
+        private final String path;
+
+        /**
+         * Size when read.
+         */
+        private final long size;
+
+        /**
+         * Modification time when read.
+         */
+        private final long mtime;
+
+        /**
+         * The packages holding classes, sorted.
+         */
+        private final String[] packages;
+
+        /**
+         * Constructor.
+         * @param p Relative path
+         * @param s Size
+         * @param m Modification time
+         * @param pkgs Packages
+         */
+        Archive(final String p, final long s, final long m, final String[] pkgs) {
+            this.path = p;
+            this.size = s;
+            this.mtime = m;
+            this.packages = pkgs;
+        }
+
+        /**
+         * The module of the archive, from its place in the repository: <code>a/b/c/1.0/a.b.c-1.0.car</code> is
+         * module <code>a.b.c/1.0</code>.
+         * @return String name/version, or the path if it is not laid out as a module
+         */
+        String module() {
+            int file = path.lastIndexOf(CeylonUtil.PATH_SEPARATOR);
+            int version = file <= 0 ? -1 : path.lastIndexOf(CeylonUtil.PATH_SEPARATOR, file - 1);
+            if (version <= 0) {
+                return path;
+            }
+            return path.substring(0, version).replace(CeylonUtil.PATH_SEPARATOR, CeylonUtil.GROUP_SEPARATOR)
+                + CeylonUtil.PATH_SEPARATOR + path.substring(version + 1, file);
+        }
+    }
+}
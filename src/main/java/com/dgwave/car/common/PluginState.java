@@ -0,0 +1,349 @@
+package com.dgwave.car.common;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * State worth keeping for as long as the JVM lives, so that a long-lived Maven (a daemon or an embedder running
+ * many builds) does not reopen repository indexes, rebuild Bloom filters, re-read module descriptors or rediscover
+ * the SDK on every session. Each entry is stamped with the modification time and size of the file it was derived
+ * from and is dropped as soon as that file changes. The store is bounded by an estimate of the memory its entries
+ * hold, set with the <code>ceylon.state.maxBytes</code> system property, and evicts the least recently used entries
+ * beyond it. All methods are safe to call from concurrent sessions; values are computed outside the store's lock,
+ * so two sessions may occasionally compute the same value.
+ *
+ * @author Akber Choudhry
+ */
+public final class PluginState {
+
+    /**
+     * System property bounding the estimated footprint of the shared store.
+     */
+    public static final String MAX_BYTES_PROPERTY = "ceylon.state.maxBytes";
+
+    /**
+     * Default bound of the estimated footprint, 64 MiB.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Estimated bytes held by an entry besides its value.
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * Initial capacity of the entry map.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Load factor of the entry map.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * The store shared by every session of this JVM.
+     */
+    private static final PluginState SHARED = new PluginState(maxBytesFromProperty());
+
+    /**
+     * Bound of the estimated footprint.
+     */
+    private final long maxBytes;
+
+    /**
+     * Entries by key, least recently used first.
+     */
+    private final LinkedHashMap<String, Entry> entries =
+        new LinkedHashMap<String, Entry>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+    /**
+     * Estimated bytes held by the entries.
+     */
+    private long footprint;
+
+    /**
+     * Lookups that found a current entry.
+     */
+    private long hits;
+
+    /**
+     * Lookups that found nothing, or an outdated entry.
+     */
+    private long misses;
+
+    /**
+     * Entries evicted to stay within the bound.
+     */
+    private long evictions;
+
+    /**
+     * Creates a store.
+     * @param max Bound of the estimated footprint, in bytes
+     */
+    public PluginState(final long max) {
+        this.maxBytes = max;
+    }
+
+    /**
+     * @return PluginState The store shared by every session of this JVM
+     */
+    public static PluginState shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns a value if it was derived from the file as it is now.
+     *
+     * @param key The key
+     * @param stamp The current stamp of the file the value is derived from
+     * @param type The type of the value
+     * @param <T> The type of the value
+     * @return T The value, or null if there is none or it is outdated
+     */
+    public synchronized <T> T get(final String key, final Stamp stamp, final Class<T> type) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (!entry.stamp.equals(stamp) || !type.isInstance(entry.value)) {
+            remove(key, entry);
+            misses++;
+            return null;
+        }
+        hits++;
+        return type.cast(entry.value);
+    }
+
+    /**
+     * Stores a value, evicting the least recently used entries if the bound is exceeded. A value larger than the
+     * whole bound is not stored.
+     *
+     * @param key The key
+     * @param stamp The stamp of the file the value was derived from, taken before deriving it
+     * @param value The value, which is shared and must not be modified afterwards
+     * @param bytes Estimated bytes held by the value
+     */
+    public synchronized void put(final String key, final Stamp stamp, final Object value, final long bytes) {
+        Entry previous = entries.get(key);
+        if (previous != null) {
+            remove(key, previous);
+        }
+        long size = bytes + ENTRY_OVERHEAD + 2L * key.length();
+        if (size > maxBytes) {
+            return;
+        }
+        entries.put(key, new Entry(stamp, value, size));
+        footprint += size;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (footprint > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            footprint -= eldest.getValue().bytes;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Forgets a value.
+     * @param key The key
+     */
+    public synchronized void remove(final String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            remove(key, entry);
+        }
+    }
+
+    /**
+     * Forgets everything.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        footprint = 0;
+    }
+
+    /**
+     * @return long Estimated bytes held by the store
+     */
+    public synchronized long getFootprint() {
+        return footprint;
+    }
+
+    /**
+     * @return long Bound of the estimated footprint
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return int Number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return long Number of lookups that found a current entry
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return long Number of lookups that found nothing or an outdated entry
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return long Number of entries evicted to stay within the bound
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Ceylon plugin state: " + entries.size() + " entries, " + footprint + " of " + maxBytes
+            + " bytes (hits: " + hits + ", misses: " + misses + ", evictions: " + evictions + ")";
+    }
+
+    /**
+     * Removes an entry known to be present.
+     * @param key The key
+     * @param entry The entry
+     */
+    private void remove(final String key, final Entry entry) {
+        entries.remove(key);
+        footprint -= entry.bytes;
+    }
+
+    /**
+     * The bound set with {@link #MAX_BYTES_PROPERTY}, or the default.
+     * @return long The bound
+     */
+    private static long maxBytesFromProperty() {
+        String value = System.getProperty(MAX_BYTES_PROPERTY);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                return DEFAULT_MAX_BYTES;
+            }
+        }
+        return DEFAULT_MAX_BYTES;
+    }
+
+    /**
+     * The modification time and size of a file at some point, which a stored value is valid for.
+     */
+    public static final class Stamp {
+
+        /**
+         * The stamp of values that do not depend on a file.
+         */
+        public static final Stamp NONE = new Stamp(-1L, -1L);
+
+        /**
+         * Modification time, 0 if the file does not exist.
+         */
+        private final long mtime;
+
+        /**
+         * Size.
+         */
+        private final long size;
+
+        /**
+         * Constructor.
+         * @param m Modification time
+         * @param s Size
+         */
+        private Stamp(final long m, final long s) {
+            this.mtime = m;
+            this.size = s;
+        }
+
+        /**
+         * @param file A file or directory
+         * @return Stamp Its current stamp
+         */
+        public static Stamp of(final File file) {
+            long mtime = file.lastModified();
+            return new Stamp(mtime, mtime == 0L ? 0L : file.length());
+        }
+
+        /**
+         * @return True if the file existed when stamped
+         */
+        public boolean exists() {
+            return mtime != 0L;
+        }
+
+        /**
+         * @return long The modification time, 0 if the file did not exist
+         */
+        public long getModified() {
+            return mtime;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Stamp)) {
+                return false;
+            }
+            Stamp other = (Stamp) o;
+            return mtime == other.mtime && size == other.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (mtime ^ (mtime >>> 32)) * 31 + (int) (size ^ (size >>> 32));
+        }
+    }
+
+    /**
+     * A stored value.
+     */
+    private static final class Entry {
+
+        /**
+         * Stamp of the file the value was derived from.
+         */
+        private final Stamp stamp;
+
+        /**
+         * The value.
+         */
+        private final Object value;
+
+        /**
+         * Estimated bytes held, overhead included.
+         */
+        private final long bytes;
+
+        /**
+         * Constructor.
+         * @param s Stamp
+         * @param v Value
+         * @param b Estimated bytes
+         */
+        Entry(final Stamp s, final Object v, final long b) {
+            this.stamp = s;
+            this.value = v;
+            this.bytes = b;
+        }
+    }
+}
@@ -0,0 +1,519 @@
+package com.dgwave.car.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ordered list of local Ceylon repositories an artifact is looked up in: system, user, cache, the project's
+ * <code>modules</code> directory and any extra lookup repositories, as configured in <code>.ceylon/config</code>.
+ * Every repository gets a Bloom filter of the paths in its {@link RepositoryIndex}, so that a repository which does
+ * not hold an artifact is usually ruled out with a few hash probes. A repository given as a <code>.zip</code> file,
+ * such as a downloaded SDK, is served from the archive by {@link ZipRepository}. Whether a root is a directory, an
+ * archive or missing is worked out once per session, with its index. A miss is not checked against the disk: files
+ * installed since are seen through {@link #changed(String, String, String)}, the repository watcher, or the index
+ * checking each directory it is asked about once per session. Indexes and Bloom filters are kept in the
+ * {@link PluginState}, so chains built by later sessions of the same JVM reuse them.
+ *
+ * @author Akber Choudhry
+ */
+public final class RepositoryChain {
+
+    /**
+     * Buffer the path of a lookup is built in, reused on each thread.
+     */
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(CeylonUtil.STRING_BUILDER_SIZE);
+        }
+    };
+
+    /**
+     * The repositories, in lookup order.
+     */
+    private final List<Repository> repositories;
+
+    /**
+     * Lookups where a Bloom filter ruled a repository out.
+     */
+    private final AtomicLong filtered = new AtomicLong();
+
+    /**
+     * Lookups that had to search a repository's index or stat the file.
+     */
+    private final AtomicLong probed = new AtomicLong();
+
+    /**
+     * Creates a chain of repositories.
+     * @param roots The repository root directories, in lookup order
+     */
+    public RepositoryChain(final List<File> roots) {
+        Set<File> unique = new LinkedHashSet<File>();
+        for (File root : roots) {
+            unique.add(canonical(root));
+        }
+        List<Repository> list = new ArrayList<Repository>(unique.size());
+        for (File root : unique) {
+            list.add(new Repository(root));
+        }
+        this.repositories = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * The chain consisting of the system repository only.
+     * @return RepositoryChain The chain
+     */
+    public static RepositoryChain systemOnly() {
+        return new RepositoryChain(Arrays.asList(new File(CeylonUtil.systemRepo())));
+    }
+
+    /**
+     * Builds the chain from the Ceylon configuration of a project.
+     *
+     * @param projectDir The project directory; its <code>.ceylon/config</code> and <code>modules</code> are used
+     * @return RepositoryChain The chain
+     */
+    public static RepositoryChain configure(final File projectDir) {
+        return configure(CeylonConfig.load(projectDir), projectDir);
+    }
+
+    /**
+     * Builds the chain from a Ceylon configuration: system, user, cache, output (the project's
+     * <code>modules</code>) and then every <code>lookup</code> repository, in configuration order.
+     * Remote repositories are left to the repository connector.
+     *
+     * @param config The Ceylon configuration
+     * @param projectDir The directory relative paths are resolved against
+     * @return RepositoryChain The chain
+     */
+    public static RepositoryChain configure(final CeylonConfig config, final File projectDir) {
+        String home = System.getProperty("user.home") + File.separator + ".ceylon";
+        List<String> refs = new ArrayList<String>();
+        refs.add(valueOr(config, "repositories.system", CeylonUtil.systemRepo()));
+        refs.add(valueOr(config, "repositories.user", CeylonUtil.userRepo()));
+        refs.add(valueOr(config, "repositories.cache", home + File.separator + "cache"));
+        refs.add(valueOr(config, "repositories.output", "./modules"));
+        refs.addAll(config.getAll("repositories.lookup"));
+
+        List<File> roots = new ArrayList<File>();
+        for (String ref : refs) {
+            File root = toFile(config.resolveRepository(ref), projectDir);
+            if (root != null) {
+                roots.add(root);
+            }
+        }
+        return new RepositoryChain(roots);
+    }
+
+    /**
+     * @return List of repository roots, in lookup order
+     */
+    public List<File> getRoots() {
+        List<File> roots = new ArrayList<File>(repositories.size());
+        for (Repository repo : repositories) {
+            roots.add(repo.root);
+        }
+        return roots;
+    }
+
+    /**
+     * The repository of the chain a file is in.
+     * @param file A file found in the chain
+     * @return File The repository root, or null if the file is in none
+     */
+    public File rootOf(final File file) {
+        String path = file.getPath();
+        for (Repository repo : repositories) {
+            String root = repo.root.getPath();
+            if (path.length() > root.length() && path.startsWith(root)
+                && path.charAt(root.length()) == File.separatorChar) {
+                return repo.root;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens the index and Bloom filter of every repository ahead of the first lookup.
+     */
+    public void open() {
+        for (Repository repo : repositories) {
+            repo.resolve();
+        }
+    }
+
+    /**
+     * Finds an artifact in the first repository that holds it.
+     *
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @param version Version
+     * @param classifier Sources, javadoc etc.
+     * @param type The Ceylon type (extension) of the artifact
+     * @return File The artifact, or null if no repository holds it
+     */
+    public File find(final String groupId, final String artifactId, final String version,
+            final String classifier, final String type) {
+        StringBuilder path = BUFFER.get();
+        path.setLength(0);
+        return find(RepositoryPaths.appendPath(path, groupId, artifactId, version, classifier, type));
+    }
+
+    /**
+     * Finds a file in the first repository that holds it.
+     * @param path The path relative to a repository root, '/' separated
+     * @return File The file, or null if no repository holds it
+     */
+    public File find(final CharSequence path) {
+        for (Repository repo : repositories) {
+            File file = repo.find(path);
+            if (file != null) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lists the versions of a module found in any repository of the chain, in ascending version order.
+     *
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @return List of versions
+     */
+    public List<String> versions(final String groupId, final String artifactId) {
+        if (repositories.size() == 1 && !repositories.get(0).resolve().archive) {
+            return VersionIndex.versions(repositories.get(0).root, groupId, artifactId);
+        }
+        TreeSet<ModuleVersion> merged = new TreeSet<ModuleVersion>();
+        for (Repository repo : repositories) {
+            Resolved resolved = repo.resolve();
+            ZipRepository zip = resolved.zip;
+            if (zip == null && !resolved.directory) {
+                continue;
+            } else if (zip == null) {
+                merged.addAll(Arrays.asList(VersionIndex.parsedVersions(repo.root, groupId, artifactId)));
+                continue;
+            }
+            String modulePath = CeylonUtil.formatAsDirectory(groupId) + CeylonUtil.PATH_SEPARATOR + artifactId;
+            for (String version : zip.listDirectories(modulePath)) {
+                merged.add(new ModuleVersion(version));
+            }
+        }
+        List<String> versions = new ArrayList<String>(merged.size());
+        for (ModuleVersion v : merged) {
+            versions.add(v.getVersion());
+        }
+        return versions;
+    }
+
+    /**
+     * Records that a module version changed in one of the repositories, so that neither the index nor the Bloom
+     * filters hide it. A repository that was missing is looked at again.
+     *
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @param version Version, or null if only the set of versions changed
+     */
+    public void changed(final String groupId, final String artifactId, final String version) {
+        String modulePath = CeylonUtil.formatAsDirectory(groupId) + CeylonUtil.PATH_SEPARATOR + artifactId;
+        for (Repository repo : repositories) {
+            Resolved resolved = repo.resolve();
+            if (resolved.archive) {
+                continue;
+            }
+            VersionIndex.invalidate(repo.root, groupId, artifactId);
+            RepositoryIndex index = resolved.index;
+            if (index == null) {
+                repo.forget();
+            } else {
+                index.markChanged(modulePath);
+                if (version != null) {
+                    index.markChanged(modulePath + CeylonUtil.PATH_SEPARATOR + version);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return long Number of times a Bloom filter ruled a repository out
+     */
+    public long getFilteredCount() {
+        return filtered.get();
+    }
+
+    /**
+     * @return long Number of times a repository had to be searched
+     */
+    public long getProbedCount() {
+        return probed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Ceylon repositories " + getRoots() + " (filtered: " + filtered.get() + ", probed: " + probed.get()
+            + ")";
+    }
+
+    /**
+     * A configuration value or a default.
+     * @param config The configuration
+     * @param key The key
+     * @param defaultValue The default
+     * @return String The value
+     */
+    private static String valueOr(final CeylonConfig config, final String key, final String defaultValue) {
+        String value = config.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Converts a configured repository to a local directory.
+     * @param ref A path or URL
+     * @param projectDir The directory relative paths are resolved against
+     * @return File The directory, or null for remote or unknown repositories
+     */
+    private static File toFile(final String ref, final File projectDir) {
+        if (ref == null || ref.length() == 0) {
+            return null;
+        }
+        String path = ref;
+        if (path.startsWith("file:")) {
+            path = path.substring("file:".length());
+            while (path.startsWith("//")) {
+                path = path.substring(1);
+            }
+        } else if (path.indexOf(':') > 1 || "aether".equals(path)) {
+            // http:, https:, mvn:, aether and the like are not local
+            return null;
+        }
+        if (path.startsWith("~")) {
+            path = System.getProperty("user.home") + path.substring(1);
+        }
+        File file = new File(path);
+        if (!file.isAbsolute() && projectDir != null) {
+            file = new File(projectDir, path);
+        }
+        return file;
+    }
+
+    /**
+     * Canonical form of a directory, falling back to the absolute form.
+     * @param dir The directory
+     * @return File The canonical directory
+     */
+    private static File canonical(final File dir) {
+        try {
+            return dir.getCanonicalFile();
+        } catch (IOException e) {
+            return dir.getAbsoluteFile();
+        }
+    }
+
+    /**
+     * One repository of the chain.
+     */
+    private final class Repository {
+
+        /**
+         * The repository root.
+         */
+        private final File root;
+
+        /**
+         * What the root is in the current session, worked out on first use.
+         */
+        private volatile Resolved resolved;
+
+        /**
+         * Constructor.
+         * @param r The repository root
+         */
+        Repository(final File r) {
+            this.root = r;
+        }
+
+        /**
+         * Works out once per session whether the root is an archive, a directory or missing, and opens its archive
+         * or its index and Bloom filter.
+         * @return Resolved The root in the current session
+         */
+        Resolved resolve() {
+            int session = RepositoryIndex.session();
+            Resolved current = resolved;
+            if (current != null && current.session == session) {
+                return current;
+            }
+            synchronized (this) {
+                current = resolved;
+                if (current == null || current.session != session) {
+                    if (ZipRepository.isArchive(root)) {
+                        current = new Resolved(session, ZipRepository.forArchive(root));
+                    } else {
+                        RepositoryIndex opened = RepositoryIndex.forRepository(root);
+                        current = new Resolved(session, opened, opened == null ? null : bloomFilter(opened),
+                            opened != null || root.isDirectory());
+                    }
+                    resolved = current;
+                }
+            }
+            return current;
+        }
+
+        /**
+         * Forgets what the root was, so that a repository created during the session is found.
+         */
+        void forget() {
+            resolved = null;
+        }
+
+        /**
+         * The Bloom filter of an index, shared with other chains of this JVM for as long as the same index is.
+         * @param opened The index
+         * @return BloomFilter The filter
+         */
+        private BloomFilter bloomFilter(final RepositoryIndex opened) {
+            PluginState state = PluginState.shared();
+            String key = "bloom:" + root.getPath();
+            IndexedBloom shared = state.get(key, PluginState.Stamp.NONE, IndexedBloom.class);
+            if (shared == null || shared.index != opened) {
+                BloomFilter filter = new BloomFilter(opened.getFileCount(), BloomFilter.DEFAULT_FPP);
+                opened.addFilesTo(filter);
+                shared = new IndexedBloom(opened, filter);
+                state.put(key, PluginState.Stamp.NONE, shared, filter.getNumBits() / Byte.SIZE);
+            }
+            return shared.bloom;
+        }
+
+        /**
+         * Finds a file in this repository.
+         * @param path The path relative to the root
+         * @return File The file, or null if not held
+         */
+        File find(final CharSequence path) {
+            Resolved current = resolve();
+            if (current.archive) {
+                if (current.zip == null) {
+                    return null;
+                }
+                probed.incrementAndGet();
+                return current.zip.file(path.toString());
+            }
+            RepositoryIndex idx = current.index;
+            if (idx == null || idx.isStale(path)) {
+                if (!current.directory) {
+                    return null;
+                }
+                probed.incrementAndGet();
+                File file = new File(root, path.toString());
+                return file.isFile() ? file : null;
+            }
+            if (!current.bloom.mightContain(path)) {
+                filtered.incrementAndGet();
+                return null;
+            }
+            probed.incrementAndGet();
+            return idx.contains(path) ? new File(root, path.toString()) : null;
+        }
+    }
+
+    /**
+     * What a repository root is in one session.
+     */
+    private static final class Resolved {
+
+        /**
+         * The session.
+         */
+        private final int session;
+
+        /**
+         * Whether the root is a zip archive.
+         */
+        private final boolean archive;
+
+        /**
+         * The archive, or null if it is not one or cannot be read.
+         */
+        private final ZipRepository zip;
+
+        /**
+         * Whether the root is a directory.
+         */
+        private final boolean directory;
+
+        /**
+         * The index of the directory, or null if it cannot be indexed.
+         */
+        private final RepositoryIndex index;
+
+        /**
+         * The Bloom filter of the index.
+         */
+        private final BloomFilter bloom;
+
+        /**
+         * Constructor for an archive.
+         * @param s The session
+         * @param z The archive, null if it cannot be read
+         */
+        Resolved(final int s, final ZipRepository z) {
+            this.session = s;
+            this.archive = true;
+            this.zip = z;
+            this.directory = false;
+            this.index = null;
+            this.bloom = null;
+        }
+
+        /**
+         * Constructor for a directory.
+         * @param s The session
+         * @param i The index, null if there is none
+         * @param b The Bloom filter of the index
+         * @param d Whether the root is a directory
+         */
+        Resolved(final int s, final RepositoryIndex i, final BloomFilter b, final boolean d) {
+            this.session = s;
+            this.archive = false;
+            this.zip = null;
+            this.directory = d;
+            this.index = i;
+            this.bloom = b;
+        }
+    }
+
+    /**
+     * A Bloom filter and the index it was built from.
+     */
+    private static final class IndexedBloom {
+
+        /**
+         * The index.
+         */
+        private final RepositoryIndex index;
+
+        /**
+         * The filter of its paths.
+         */
+        private final BloomFilter bloom;
+
+        /**
+         * Constructor.
+         * @param i The index
+         * @param b The filter
+         */
+        IndexedBloom(final RepositoryIndex i, final BloomFilter b) {
+            this.index = i;
+            this.bloom = b;
+        }
+    }
+}
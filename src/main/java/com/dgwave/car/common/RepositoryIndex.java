@@ -0,0 +1,923 @@
+package com.dgwave.car.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A sorted, memory-mapped index of the files and directories in a Ceylon repository.
+ * The index is persisted next to the other Ceylon state in the user's home directory. Opening it does not walk the
+ * repository: each directory is checked against its modification time the first time a session touches it, and
+ * directories found to have changed are listed again when the index is next {@link #refresh(File) refreshed}.
+ * Every directory entry holds the range of its children, so path lookups are binary searches over the mapped file
+ * that do not allocate for ASCII paths, and listing a directory only decodes its own children.
+ *
+ * @author Akber Choudhry
+ */
+public final class RepositoryIndex {
+
+    /**
+     * Where index files are kept, under the user's home directory.
+     */
+    public static final String INDEX_DIR = ".ceylon" + File.separator + "maven" + File.separator + "index";
+
+    /**
+     * System property naming another directory to keep index files in.
+     */
+    public static final String INDEX_DIR_PROPERTY = "ceylon.index.dir";
+
+    /**
+     * Index file magic, "CIDX".
+     */
+    private static final int MAGIC = 0x43494458;
+
+    /**
+     * Index file format version.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Size of the fixed header: magic, version, directory count, file count, child directory count.
+     */
+    private static final int HEADER_SIZE = 20;
+
+    /**
+     * Size of a directory table entry: string offset, modification time, first child directory, child directory
+     * count, first file and file count.
+     */
+    private static final int DIR_ENTRY_SIZE = 28;
+
+    /**
+     * Offset of the modification time in a directory table entry.
+     */
+    private static final int DIR_MTIME = 4;
+
+    /**
+     * Offset of the first child directory in a directory table entry.
+     */
+    private static final int DIR_FIRST_CHILD = 12;
+
+    /**
+     * Offset of the child directory count in a directory table entry.
+     */
+    private static final int DIR_CHILD_COUNT = 16;
+
+    /**
+     * Offset of the first file in a directory table entry.
+     */
+    private static final int DIR_FIRST_FILE = 20;
+
+    /**
+     * Offset of the file count in a directory table entry.
+     */
+    private static final int DIR_FILE_COUNT = 24;
+
+    /**
+     * Size of a child table or file table entry: a directory number or a string offset.
+     */
+    private static final int INT_ENTRY_SIZE = 4;
+
+    /**
+     * Mask for an unsigned byte.
+     */
+    private static final int BYTE_MASK = 0xff;
+
+    /**
+     * Mask for an unsigned short.
+     */
+    private static final int SHORT_MASK = 0xffff;
+
+    /**
+     * Highest ASCII character.
+     */
+    private static final char MAX_ASCII = 0x7f;
+
+    /**
+     * UTF-8.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Age after which a temporary index file left behind is deleted, in milliseconds.
+     */
+    private static final long STALE_TEMP_AGE = 3600000L;
+
+    /**
+     * Check state of a directory found to have changed since the index was built.
+     */
+    private static final int CHANGED = -1;
+
+    /**
+     * The current build session of this JVM, counted by {@link #newSession()}.
+     */
+    private static final AtomicInteger SESSION = new AtomicInteger(1);
+
+    /**
+     * The repository root.
+     */
+    private final File root;
+
+    /**
+     * The mapped index.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Number of directories.
+     */
+    private final int dirCount;
+
+    /**
+     * Number of files.
+     */
+    private final int fileCount;
+
+    /**
+     * Offset of the directory table.
+     */
+    private final int dirTable;
+
+    /**
+     * Offset of the child directory table.
+     */
+    private final int childTable;
+
+    /**
+     * Offset of the file table.
+     */
+    private final int fileTable;
+
+    /**
+     * Per directory, the session it was last checked in, 0 if never, or {@link #CHANGED}.
+     */
+    private final AtomicIntegerArray checked;
+
+    /**
+     * Indexed directories known to have changed since the index was built, to be listed again on refresh.
+     */
+    private final Set<String> changed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * The session in which the index was last refreshed.
+     */
+    private volatile int validatedIn = SESSION.get();
+
+    /**
+     * Constructor.
+     * @param repoRoot The repository root
+     * @param mapped The index contents
+     * @param checkedIn The session every directory was checked in, or 0 if none was
+     */
+    private RepositoryIndex(final File repoRoot, final ByteBuffer mapped, final int checkedIn) {
+        this.root = repoRoot;
+        this.buffer = mapped;
+        this.dirCount = mapped.getInt(8);
+        this.fileCount = mapped.getInt(12);
+        int rootLength = mapped.getShort(HEADER_SIZE) & SHORT_MASK;
+        this.dirTable = HEADER_SIZE + 2 + rootLength;
+        this.childTable = dirTable + dirCount * DIR_ENTRY_SIZE;
+        this.fileTable = childTable + mapped.getInt(16) * INT_ENTRY_SIZE;
+        this.checked = new AtomicIntegerArray(dirCount);
+        for (int i = 0; checkedIn != 0 && i < dirCount; i++) {
+            checked.set(i, checkedIn);
+        }
+    }
+
+    /**
+     * Returns the index for a repository, opening or refreshing it once per session. The opened index is kept in
+     * the {@link PluginState#shared() shared plugin state} until its index file changes or it is evicted; the first
+     * session to use it after {@link #newSession()} lists again the directories found to have changed, and its
+     * lookups check each directory they touch once more.
+     *
+     * @param repoRoot The repository root directory
+     * @return RepositoryIndex The index, or null if the repository does not exist or cannot be indexed
+     */
+    public static RepositoryIndex forRepository(final File repoRoot) {
+        File key = repoRoot.getAbsoluteFile();
+        File indexFile = defaultIndexFile(key);
+        PluginState state = PluginState.shared();
+        RepositoryIndex index = state.get(stateKey(key), PluginState.Stamp.of(indexFile), RepositoryIndex.class);
+        if (index != null && index.validatedIn == SESSION.get()) {
+            return index;
+        }
+        if (key.isDirectory()) {
+            synchronized (RepositoryIndex.class) {
+                index = state.get(stateKey(key), PluginState.Stamp.of(indexFile), RepositoryIndex.class);
+                try {
+                    if (index == null) {
+                        index = open(key, indexFile);
+                    } else if (index.validatedIn != SESSION.get()) {
+                        index = index.refresh(indexFile);
+                    }
+                } catch (IOException e) {
+                    return null;
+                }
+                index.validatedIn = SESSION.get();
+                state.put(stateKey(key), PluginState.Stamp.of(indexFile), index, index.buffer.capacity());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Starts a new build session: directories of indexes kept from earlier sessions are checked again when next
+     * touched.
+     */
+    public static void newSession() {
+        SESSION.incrementAndGet();
+    }
+
+    /**
+     * @return int The current build session of this JVM, which changes on each {@link #newSession()}
+     */
+    public static int session() {
+        return SESSION.get();
+    }
+
+    /**
+     * Forgets an index opened by {@link #forRepository(File)}, so that the next call revalidates it.
+     * @param repoRoot The repository root directory
+     */
+    public static void release(final File repoRoot) {
+        PluginState.shared().remove(stateKey(repoRoot.getAbsoluteFile()));
+    }
+
+    /**
+     * The key of a repository's index in the plugin state.
+     * @param rootDir The absolute repository root
+     * @return String The key
+     */
+    private static String stateKey(final File rootDir) {
+        return "index:" + rootDir.getPath();
+    }
+
+    /**
+     * The default location of the index file of a repository.
+     * @param repoRoot The repository root directory
+     * @return File The index file
+     */
+    public static File defaultIndexFile(final File repoRoot) {
+        String name = Integer.toHexString(repoRoot.getAbsolutePath().hashCode()) + ".idx";
+        return new File(indexDirectory(), name);
+    }
+
+    /**
+     * The directory index files are kept in: the <code>ceylon.index.dir</code> system property, else
+     * {@link #INDEX_DIR} under the user's home directory.
+     * @return File The directory, which may not exist yet
+     */
+    public static File indexDirectory() {
+        String dir = System.getProperty(INDEX_DIR_PROPERTY);
+        return new File(dir != null ? dir : System.getProperty("user.home") + File.separator + INDEX_DIR);
+    }
+
+    /**
+     * Opens an index, mapping the index file as it is, or building it from a walk of the repository if there is
+     * no usable one. Where the index file cannot be replaced, as on Windows while it is mapped, the new index is
+     * used under its temporary name until a later build replaces the file.
+     *
+     * @param repoRoot The repository root directory
+     * @param indexFile The index file
+     * @return RepositoryIndex The index
+     * @throws IOException In case of IO error
+     */
+    public static RepositoryIndex open(final File repoRoot, final File indexFile) throws IOException {
+        File rootDir = repoRoot.getAbsoluteFile();
+        if (indexFile.isFile()) {
+            try {
+                return map(rootDir, indexFile, 0);
+            } catch (IOException e) {
+                // not an index of this repository, built again below
+            }
+        }
+        List<String> dirs = new ArrayList<String>();
+        List<Long> mtimes = new ArrayList<Long>();
+        List<String> files = new ArrayList<String>();
+        scan(rootDir, null, Collections.<String>emptySet(), dirs, mtimes, files);
+        deleteStaleTemps(indexFile);
+        return map(rootDir, write(rootDir, indexFile, dirs, mtimes, files), SESSION.get());
+    }
+
+    /**
+     * Rewrites the index if directories were found to have changed, listing only those directories and any new
+     * ones below them again.
+     *
+     * @param indexFile The index file
+     * @return RepositoryIndex This index if nothing changed, else the new index
+     * @throws IOException In case of IO error
+     */
+    public RepositoryIndex refresh(final File indexFile) throws IOException {
+        if (changed.isEmpty()) {
+            return this;
+        }
+        List<String> dirs = new ArrayList<String>();
+        List<Long> mtimes = new ArrayList<Long>();
+        List<String> files = new ArrayList<String>();
+        scan(root, this, new HashSet<String>(changed), dirs, mtimes, files);
+        deleteStaleTemps(indexFile);
+        return map(root, write(root, indexFile, dirs, mtimes, files), 0);
+    }
+
+    /**
+     * Deletes temporary files of an index left behind by earlier builds. Files still mapped elsewhere stay.
+     * @param indexFile The index file
+     */
+    private static void deleteStaleTemps(final File indexFile) {
+        File[] temps = indexFile.getAbsoluteFile().getParentFile().listFiles();
+        long stale = System.currentTimeMillis() - STALE_TEMP_AGE;
+        for (int i = 0; temps != null && i < temps.length; i++) {
+            String name = temps[i].getName();
+            if (name.startsWith(indexFile.getName()) && name.endsWith(".tmp") && temps[i].lastModified() < stale) {
+                temps[i].delete();
+            }
+        }
+    }
+
+    /**
+     * Walks the repository, taking directories from the previous index without looking at them unless they are to
+     * be listed again or are new.
+     * @param rootDir The repository root
+     * @param previous The previous index, may be null
+     * @param relist Directories of the previous index to list again
+     * @param dirs Collects directory paths
+     * @param mtimes Collects directory modification times
+     * @param files Collects file paths
+     */
+    private static void scan(final File rootDir, final RepositoryIndex previous, final Set<String> relist,
+            final List<String> dirs, final List<Long> mtimes, final List<String> files) {
+        Deque<String> pending = new ArrayDeque<String>();
+        pending.push("");
+        while (!pending.isEmpty()) {
+            String dir = pending.pop();
+            int known = previous == null || relist.contains(dir) ? -1 : previous.find(dir, dir.length());
+            if (known >= 0) {
+                dirs.add(dir);
+                mtimes.add(previous.buffer.getLong(previous.dirEntry(known) + DIR_MTIME));
+                files.addAll(previous.children(known, false, false));
+                for (String sub : previous.children(known, true, false)) {
+                    pending.push(sub);
+                }
+                continue;
+            }
+
+            File dirFile = dir.length() == 0 ? rootDir : new File(rootDir, dir);
+            long mtime = dirFile.lastModified();
+            File[] list = dirFile.listFiles();
+            if (list == null && dir.length() > 0) {
+                continue;
+            }
+            dirs.add(dir);
+            mtimes.add(mtime);
+            for (int i = 0; list != null && i < list.length; i++) {
+                String name = list[i].getName();
+                if (name.startsWith(".")) {
+                    continue;
+                }
+                String path = dir.length() == 0 ? name : dir + CeylonUtil.PATH_SEPARATOR + name;
+                if (list[i].isDirectory()) {
+                    pending.push(path);
+                } else {
+                    files.add(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a new index file, and moves it over the index file atomically. Directories are sorted by path; the
+     * child directories and the files of each directory are kept together, sorted by name, so that a directory
+     * entry can point at them as ranges.
+     * @param rootDir The repository root
+     * @param indexFile The index file
+     * @param dirs Directory paths, each after its parent
+     * @param mtimes Directory modification times, in the order of dirs
+     * @param files File paths
+     * @return File The index file, or the new file under its temporary name if the index file cannot be replaced
+     * @throws IOException In case of IO error
+     */
+    private static File write(final File rootDir, final File indexFile, final List<String> dirs,
+            final List<Long> mtimes, final List<String> files) throws IOException {
+        int count = dirs.size();
+        final byte[][] dirBytes = new byte[count][];
+        Integer[] dirOrder = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            dirBytes[i] = dirs.get(i).getBytes(UTF8);
+            dirOrder[i] = i;
+        }
+        Arrays.sort(dirOrder, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer i1, final Integer i2) {
+                return compareBytes(dirBytes[i1], dirBytes[i2]);
+            }
+        });
+        Map<String, Integer> positions = new HashMap<String, Integer>(count * 2);
+        for (int p = 0; p < count; p++) {
+            positions.put(dirs.get(dirOrder[p]), p);
+        }
+
+        int[] childCounts = new int[count];
+        int[] parents = new int[count];
+        int childTotal = 0;
+        for (int p = 0; p < count; p++) {
+            parents[p] = parentPosition(positions, dirs.get(dirOrder[p]));
+            if (parents[p] >= 0) {
+                childCounts[parents[p]]++;
+                childTotal++;
+            }
+        }
+        int[] firstChild = starts(childCounts);
+        int[] children = new int[childTotal];
+        int[] filled = new int[count];
+        for (int p = 0; p < count; p++) {
+            if (parents[p] >= 0) {
+                children[firstChild[parents[p]] + filled[parents[p]]++] = p;
+            }
+        }
+
+        final byte[][] fileBytes = new byte[files.size()][];
+        final int[] fileParents = new int[fileBytes.length];
+        Integer[] fileOrder = new Integer[fileBytes.length];
+        int[] fileCounts = new int[count];
+        for (int i = 0; i < fileBytes.length; i++) {
+            fileBytes[i] = files.get(i).getBytes(UTF8);
+            fileParents[i] = parentPosition(positions, files.get(i));
+            fileOrder[i] = i;
+            fileCounts[fileParents[i]]++;
+        }
+        Arrays.sort(fileOrder, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer i1, final Integer i2) {
+                int cmp = fileParents[i1] - fileParents[i2];
+                return cmp != 0 ? cmp : compareBytes(fileBytes[i1], fileBytes[i2]);
+            }
+        });
+        int[] firstFile = starts(fileCounts);
+
+        byte[] rootBytes = rootDir.getPath().getBytes(UTF8);
+        int pool = HEADER_SIZE + 2 + rootBytes.length + count * DIR_ENTRY_SIZE + childTotal * INT_ENTRY_SIZE
+            + fileBytes.length * INT_ENTRY_SIZE;
+        int size = pool;
+        for (byte[] b : dirBytes) {
+            size += 2 + b.length;
+        }
+        for (byte[] b : fileBytes) {
+            size += 2 + b.length;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(count).putInt(fileBytes.length).putInt(childTotal);
+        out.putShort((short) rootBytes.length).put(rootBytes);
+        int offset = pool;
+        for (int p = 0; p < count; p++) {
+            int i = dirOrder[p];
+            out.putInt(offset).putLong(mtimes.get(i)).putInt(firstChild[p]).putInt(childCounts[p])
+                .putInt(firstFile[p]).putInt(fileCounts[p]);
+            offset += 2 + dirBytes[i].length;
+        }
+        for (int child : children) {
+            out.putInt(child);
+        }
+        for (Integer i : fileOrder) {
+            out.putInt(offset);
+            offset += 2 + fileBytes[i].length;
+        }
+        for (Integer i : dirOrder) {
+            out.putShort((short) dirBytes[i].length).put(dirBytes[i]);
+        }
+        for (Integer i : fileOrder) {
+            out.putShort((short) fileBytes[i].length).put(fileBytes[i]);
+        }
+        out.flip();
+
+        indexFile.getParentFile().mkdirs();
+        File tmp = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getParentFile());
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        } finally {
+            raf.close();
+        }
+        try {
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            return indexFile;
+        } catch (IOException e) {
+            tmp.deleteOnExit();
+            return tmp;
+        }
+    }
+
+    /**
+     * The sorted position of the directory a path is in.
+     * @param positions Sorted positions by directory path
+     * @param path The path
+     * @return int The position of its directory, or -1 for the root itself
+     */
+    private static int parentPosition(final Map<String, Integer> positions, final String path) {
+        if (path.length() == 0) {
+            return -1;
+        }
+        int slash = path.lastIndexOf(CeylonUtil.PATH_SEPARATOR);
+        return positions.get(slash < 0 ? "" : path.substring(0, slash));
+    }
+
+    /**
+     * Turns counts into the start of each range.
+     * @param counts The counts
+     * @return int[] The starts
+     */
+    private static int[] starts(final int[] counts) {
+        int[] starts = new int[counts.length];
+        for (int i = 1; i < counts.length; i++) {
+            starts[i] = starts[i - 1] + counts[i - 1];
+        }
+        return starts;
+    }
+
+    /**
+     * Maps an existing index file.
+     * @param rootDir The repository root the index must belong to
+     * @param indexFile The index file
+     * @param checkedIn The session every directory was checked in, or 0 if none was
+     * @return RepositoryIndex The mapped index
+     * @throws IOException If the file cannot be read or does not belong to the repository
+     */
+    private static RepositoryIndex map(final File rootDir, final File indexFile, final int checkedIn)
+        throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+        MappedByteBuffer mapped;
+        try {
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        if (mapped.capacity() < HEADER_SIZE + 2 || mapped.getInt(0) != MAGIC || mapped.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Not a Ceylon repository index: " + indexFile);
+        }
+        byte[] rootBytes = new byte[mapped.getShort(HEADER_SIZE) & SHORT_MASK];
+        for (int i = 0; i < rootBytes.length; i++) {
+            rootBytes[i] = mapped.get(HEADER_SIZE + 2 + i);
+        }
+        if (!rootDir.getPath().equals(new String(rootBytes, UTF8))) {
+            throw new IOException("Index " + indexFile + " does not belong to " + rootDir);
+        }
+        return new RepositoryIndex(rootDir, mapped, checkedIn);
+    }
+
+    /**
+     * Whether an indexed directory still has the modification time it was indexed with. The file system is asked
+     * once per session; a directory found to have changed stays changed until the index is refreshed.
+     * @param dir The directory number
+     * @return boolean True if its entries can be trusted
+     */
+    private boolean isCurrent(final int dir) {
+        int state = checked.get(dir);
+        int session = SESSION.get();
+        if (state == session) {
+            return true;
+        } else if (state == CHANGED) {
+            return false;
+        }
+        String path = stringAt(buffer.getInt(dirEntry(dir)), false);
+        long mtime = (path.length() == 0 ? root : new File(root, path)).lastModified();
+        if (mtime == buffer.getLong(dirEntry(dir) + DIR_MTIME)) {
+            checked.compareAndSet(dir, state, session);
+            return true;
+        }
+        markChanged(dir);
+        return false;
+    }
+
+    /**
+     * @return File The repository root directory
+     */
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * @return int Number of indexed files
+     */
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * Whether a file exists in the repository, according to the index.
+     * @param path The path relative to the repository root, '/' separated
+     * @return True if the file was indexed
+     */
+    public boolean contains(final CharSequence path) {
+        int dir = find(path, Math.max(lastSlash(path, path.length()), 0));
+        if (dir < 0) {
+            return false;
+        }
+        int entry = dirEntry(dir);
+        return search(fileTable, INT_ENTRY_SIZE, buffer.getInt(entry + DIR_FIRST_FILE),
+            buffer.getInt(entry + DIR_FILE_COUNT), path, path.length()) >= 0;
+    }
+
+    /**
+     * Adds the paths of all indexed files to a Bloom filter.
+     * @param filter The filter to fill
+     */
+    public void addFilesTo(final BloomFilter filter) {
+        for (int i = 0; i < fileCount; i++) {
+            int offset = buffer.getInt(fileTable + i * INT_ENTRY_SIZE);
+            int length = buffer.getShort(offset) & SHORT_MASK;
+            boolean ascii = true;
+            for (int j = 0; j < length && ascii; j++) {
+                ascii = buffer.get(offset + 2 + j) >= 0;
+            }
+            if (ascii) {
+                filter.putAscii(buffer, offset + 2, length);
+            } else {
+                filter.put(stringAt(offset, false));
+            }
+        }
+    }
+
+    /**
+     * Records that a directory changed after the index was built, so that its entries are no longer trusted. A
+     * directory that was not indexed marks the nearest indexed directory above it.
+     * @param path The directory path relative to the repository root, '/' separated
+     */
+    public void markChanged(final String path) {
+        int dir = indexedAncestor(path, path.length());
+        if (dir >= 0) {
+            markChanged(dir);
+        }
+    }
+
+    /**
+     * Records that an indexed directory changed.
+     * @param dir The directory number
+     */
+    private void markChanged(final int dir) {
+        checked.set(dir, CHANGED);
+        changed.add(stringAt(buffer.getInt(dirEntry(dir)), false));
+    }
+
+    /**
+     * Whether the entry for a file may be out of date because its directory, or for a directory that was not
+     * indexed the nearest indexed one above it, changed.
+     * @param path The file path relative to the repository root, '/' separated
+     * @return True if the file system must be asked instead of the index
+     */
+    public boolean isStale(final CharSequence path) {
+        int dir = indexedAncestor(path, lastSlash(path, path.length()));
+        return dir >= 0 && !isCurrent(dir);
+    }
+
+    /**
+     * Whether a directory exists in the repository, according to the index.
+     * @param path The path relative to the repository root, '/' separated
+     * @return True if the directory was indexed
+     */
+    public boolean containsDirectory(final CharSequence path) {
+        return find(path, path.length()) >= 0;
+    }
+
+    /**
+     * The modification time of a directory when it was indexed.
+     * @param path The path relative to the repository root, '/' separated
+     * @return long The modification time, or -1 if the directory was not indexed
+     */
+    public long lastModified(final CharSequence path) {
+        int dir = find(path, path.length());
+        if (dir < 0) {
+            return -1;
+        }
+        return buffer.getLong(dirEntry(dir) + DIR_MTIME);
+    }
+
+    /**
+     * Lists the names of the files directly in a directory.
+     * @param path The directory path relative to the repository root, '/' separated
+     * @return List of file names, empty if none
+     */
+    public List<String> list(final String path) {
+        int dir = find(path, path.length());
+        return dir < 0 ? Collections.<String>emptyList() : children(dir, false, true);
+    }
+
+    /**
+     * Lists the names of the directories directly in a directory.
+     * @param path The directory path relative to the repository root, '/' separated
+     * @return List of directory names, empty if none
+     */
+    public List<String> listDirectories(final String path) {
+        int dir = find(path, path.length());
+        return dir < 0 ? Collections.<String>emptyList() : children(dir, true, true);
+    }
+
+    /**
+     * Decodes the direct children of a directory, from its ranges in the child and file tables.
+     * @param dir The directory number
+     * @param directories True to list directories, false to list files
+     * @param names True for names, false for paths relative to the repository root
+     * @return List of children, in name order
+     */
+    private List<String> children(final int dir, final boolean directories, final boolean names) {
+        int entry = dirEntry(dir);
+        int first = buffer.getInt(entry + (directories ? DIR_FIRST_CHILD : DIR_FIRST_FILE));
+        int count = buffer.getInt(entry + (directories ? DIR_CHILD_COUNT : DIR_FILE_COUNT));
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<String>(count);
+        for (int i = first; i < first + count; i++) {
+            int offset = directories ? buffer.getInt(dirEntry(buffer.getInt(childTable + i * INT_ENTRY_SIZE)))
+                : buffer.getInt(fileTable + i * INT_ENTRY_SIZE);
+            result.add(stringAt(offset, names));
+        }
+        return result;
+    }
+
+    /**
+     * The nearest indexed directory at or above a directory.
+     * @param path A path relative to the repository root
+     * @param end The length of the directory's path within it; 0 or less for the root
+     * @return int The directory number, or a negative value if not even the root was indexed
+     */
+    private int indexedAncestor(final CharSequence path, final int end) {
+        int length = Math.max(end, 0);
+        int dir = find(path, length);
+        while (dir < 0 && length > 0) {
+            length = Math.max(lastSlash(path, length), 0);
+            dir = find(path, length);
+        }
+        return dir;
+    }
+
+    /**
+     * Finds a directory in the directory table.
+     * @param path A path relative to the repository root
+     * @param length The length of the directory's path within it
+     * @return int The directory number, or a negative value if not indexed
+     */
+    private int find(final CharSequence path, final int length) {
+        return search(dirTable, DIR_ENTRY_SIZE, 0, dirCount, path, length);
+    }
+
+    /**
+     * @param dir A directory number
+     * @return int The offset of its directory table entry
+     */
+    private int dirEntry(final int dir) {
+        return dirTable + dir * DIR_ENTRY_SIZE;
+    }
+
+    /**
+     * The position of the last '/' in the start of a path.
+     * @param path The path
+     * @param end The length of the start to look in
+     * @return int The position, or -1 if there is none
+     */
+    private static int lastSlash(final CharSequence path, final int end) {
+        int i = end - 1;
+        while (i >= 0 && path.charAt(i) != CeylonUtil.PATH_SEPARATOR) {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * Binary search of a range of a table sorted by string.
+     * @param table Offset of the table
+     * @param entrySize Size of a table entry
+     * @param from First entry of the range
+     * @param count Number of entries in the range
+     * @param key The string to find, or a path starting with it
+     * @param length The length of the string within the key
+     * @return int The number of the entry, or (-(insertion point) - 1) if not found
+     */
+    private int search(final int table, final int entrySize, final int from, final int count,
+            final CharSequence key, final int length) {
+        byte[] encoded = null;
+        for (int i = 0; i < length; i++) {
+            if (key.charAt(i) > MAX_ASCII) {
+                encoded = key.subSequence(0, length).toString().getBytes(UTF8);
+                break;
+            }
+        }
+        int low = from;
+        int high = from + count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int offset = buffer.getInt(table + mid * entrySize);
+            int cmp = encoded == null ? compareAscii(offset, key, length) : compareBytes(offset, encoded);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Compares a pooled string with an ASCII key.
+     * @param offset Offset of the pooled string
+     * @param key The key
+     * @param keyLength The length of the key to compare
+     * @return int Negative, zero or positive as the pooled string is less than, equal to or greater than the key
+     */
+    private int compareAscii(final int offset, final CharSequence key, final int keyLength) {
+        int length = buffer.getShort(offset) & SHORT_MASK;
+        int n = Math.min(length, keyLength);
+        for (int i = 0; i < n; i++) {
+            int diff = (buffer.get(offset + 2 + i) & BYTE_MASK) - key.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - keyLength;
+    }
+
+    /**
+     * Compares a pooled string with an encoded key.
+     * @param offset Offset of the pooled string
+     * @param key The UTF-8 key
+     * @return int Negative, zero or positive as the pooled string is less than, equal to or greater than the key
+     */
+    private int compareBytes(final int offset, final byte[] key) {
+        int length = buffer.getShort(offset) & SHORT_MASK;
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int diff = (buffer.get(offset + 2 + i) & BYTE_MASK) - (key[i] & BYTE_MASK);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - key.length;
+    }
+
+    /**
+     * Unsigned lexicographic comparison of byte arrays.
+     * @param b1 First array
+     * @param b2 Second array
+     * @return int Negative, zero or positive
+     */
+    private static int compareBytes(final byte[] b1, final byte[] b2) {
+        int n = Math.min(b1.length, b2.length);
+        for (int i = 0; i < n; i++) {
+            int diff = (b1[i] & BYTE_MASK) - (b2[i] & BYTE_MASK);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return b1.length - b2.length;
+    }
+
+    /**
+     * Decodes a pooled string.
+     * @param offset Offset of the pooled string
+     * @param nameOnly True to decode only the part after the last '/'
+     * @return String The decoded string
+     */
+    private String stringAt(final int offset, final boolean nameOnly) {
+        int length = buffer.getShort(offset) & SHORT_MASK;
+        int start = 0;
+        for (int i = length - 1; nameOnly && i >= 0 && start == 0; i--) {
+            if (buffer.get(offset + 2 + i) == CeylonUtil.PATH_SEPARATOR) {
+                start = i + 1;
+            }
+        }
+        byte[] bytes = new byte[length - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + 2 + start + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    @Override
+    public String toString() {
+        return "Ceylon repository index of " + root + " (" + dirCount + " directories, " + fileCount + " files)";
+    }
+}
@@ -0,0 +1,28 @@
+package com.dgwave.car.common;
+
+import java.io.File;
+
+/**
+ * Receives notifications of changes to a Ceylon repository.
+ *
+ * @author Akber Choudhry
+ */
+public interface RepositoryListener {
+
+    /**
+     * A module, or one version of it, changed on disk.
+     *
+     * @param repoRoot The repository root directory
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @param version The version that changed, or null if the set of versions changed
+     */
+    void moduleChanged(File repoRoot, String groupId, String artifactId, String version);
+
+    /**
+     * Changes were lost, so everything known about the repository must be forgotten.
+     *
+     * @param repoRoot The repository root directory
+     */
+    void repositoryChanged(File repoRoot);
+}
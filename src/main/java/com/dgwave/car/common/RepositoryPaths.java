@@ -0,0 +1,212 @@
+package com.dgwave.car.common;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps Maven coordinates to Ceylon repository paths, for the layout, the readers and the connector alike. Group
+ * directories are computed once per group id, the system repository root is only recomputed when
+ * <code>ceylon.repo</code> changes, and paths can be appended to a caller's buffer with
+ * {@link #appendPath(StringBuilder, String, String, String, String, String)}, which does not allocate. Only building
+ * the path is free of allocation: the caches and indexes a lookup then goes through may still allocate.
+ *
+ * @author Akber Choudhry
+ */
+public final class RepositoryPaths {
+
+    /**
+     * Maximum number of group directories remembered.
+     */
+    private static final int MAX_GROUPS = 4096;
+
+    /**
+     * Extension used when none is given.
+     */
+    private static final String DEFAULT_EXTENSION = "car";
+
+    /**
+     * Group directories, such as <code>org/junit</code>, by group id.
+     */
+    private static final ConcurrentMap<String, String> GROUP_DIRS = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Buffer reused by {@link #path} and {@link #moduleName} on each thread.
+     */
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(CeylonUtil.STRING_BUILDER_SIZE);
+        }
+    };
+
+    /**
+     * The <code>ceylon.repo</code> value the system root was computed for.
+     */
+    private static volatile String rootProperty;
+
+    /**
+     * The <code>user.home</code> value the system root was computed for.
+     */
+    private static volatile String homeProperty;
+
+    /**
+     * The system repository root computed for {@link #rootProperty} and {@link #homeProperty}.
+     */
+    private static volatile String systemRoot;
+
+    /**
+     * Hidden constructor.
+     */
+    private RepositoryPaths() {
+
+    }
+
+    /**
+     * The Ceylon system repository: <code>ceylon.repo</code>, or the user repository if it is not set.
+     * @return String The path of the system repository
+     */
+    public static String systemRoot() {
+        String property = System.getProperty(CeylonUtil.CEYLON_REPO);
+        String home = System.getProperty("user.home");
+        String root = systemRoot;
+        if (root != null && property == rootProperty && home == homeProperty) {
+            return root;
+        }
+        root = property != null ? property : CeylonUtil.userRepo();
+        rootProperty = property;
+        homeProperty = home;
+        systemRoot = root;
+        return root;
+    }
+
+    /**
+     * The directory of a group, '/' separated.
+     * @param groupId Maven group id
+     * @return String The group directory, shared between calls
+     */
+    public static String groupDirectory(final String groupId) {
+        String dir = GROUP_DIRS.get(groupId);
+        if (dir == null) {
+            dir = CeylonUtil.formatAsDirectory(groupId);
+            if (GROUP_DIRS.size() < MAX_GROUPS) {
+                GROUP_DIRS.putIfAbsent(groupId, dir);
+            }
+        }
+        return dir;
+    }
+
+    /**
+     * The relative path of a module artifact within a Ceylon repository.
+     *
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @param version Version
+     * @param classifier Sources, javadoc etc.
+     * @param extension The extension or packaging of the artifact, <code>car</code> if null
+     * @return String The path
+     */
+    public static String path(final String groupId, final String artifactId, final String version,
+            final String classifier, final String extension) {
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        return appendPath(buffer, groupId, artifactId, version, classifier, extension).toString();
+    }
+
+    /**
+     * The path of a module artifact in the system repository.
+     *
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @param version Version
+     * @param classifier Sources, javadoc etc.
+     * @param extension The extension or packaging of the artifact, <code>car</code> if null
+     * @return String The full path
+     */
+    public static String systemPath(final String groupId, final String artifactId, final String version,
+            final String classifier, final String extension) {
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        buffer.append(systemRoot()).append(File.separatorChar);
+        return appendPath(buffer, groupId, artifactId, version, classifier, extension).toString();
+    }
+
+    /**
+     * The file name of a module artifact, such as <code>org.junit-4.10.car</code>.
+     *
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @param version Version
+     * @param classifier Sources, javadoc etc.
+     * @param extension The extension or packaging of the artifact, <code>car</code> if null
+     * @return String The module file name
+     */
+    public static String moduleName(final String groupId, final String artifactId, final String version,
+            final String classifier, final String extension) {
+        checkVersion(version);
+        checkArtifact(groupId, artifactId);
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        return appendModuleName(buffer, groupId, artifactId, version, extension).toString();
+    }
+
+    /**
+     * Appends the relative path of a module artifact within a Ceylon repository.
+     *
+     * @param buffer The buffer to append to
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @param version Version
+     * @param classifier Sources, javadoc etc.
+     * @param extension The extension or packaging of the artifact, <code>car</code> if null
+     * @return StringBuilder The buffer
+     */
+    public static StringBuilder appendPath(final StringBuilder buffer, final String groupId, final String artifactId,
+            final String version, final String classifier, final String extension) {
+        checkVersion(version);
+        checkArtifact(groupId, artifactId);
+        buffer.append(groupDirectory(groupId)).append(CeylonUtil.PATH_SEPARATOR)
+            .append(artifactId).append(CeylonUtil.PATH_SEPARATOR)
+            .append(version).append(CeylonUtil.PATH_SEPARATOR);
+        return appendModuleName(buffer, groupId, artifactId, version, extension);
+    }
+
+    /**
+     * Appends the file name of a module artifact, coordinates already checked.
+     * @param buffer The buffer
+     * @param groupId Group id
+     * @param artifactId Artifact id
+     * @param version Version
+     * @param extension Extension, <code>car</code> if null
+     * @return StringBuilder The buffer
+     */
+    private static StringBuilder appendModuleName(final StringBuilder buffer, final String groupId,
+            final String artifactId, final String version, final String extension) {
+        return buffer.append(groupId).append(CeylonUtil.GROUP_SEPARATOR).append(artifactId)
+            .append(CeylonUtil.ARTIFACT_SEPARATOR).append(version)
+            .append(CeylonUtil.GROUP_SEPARATOR).append(extension != null ? extension : DEFAULT_EXTENSION);
+    }
+
+    /**
+     * Checks a version.
+     * @param version The version
+     */
+    static void checkVersion(final String version) {
+        if (version == null || version.length() == 0 || version.indexOf(CeylonUtil.ARTIFACT_SEPARATOR) >= 0) {
+            // TODO fix the '-' based on the new Herd rules
+            throw new IllegalArgumentException(" Null, empty, or '-' is not allowed in version");
+        }
+    }
+
+    /**
+     * Checks a group and artifact id.
+     * @param groupId The group id
+     * @param artifactId The artifact id
+     */
+    static void checkArtifact(final String groupId, final String artifactId) {
+        if (groupId == null || artifactId == null || artifactId.length() == 0
+            || artifactId.indexOf(CeylonUtil.GROUP_SEPARATOR) >= 0) {
+            throw new IllegalArgumentException(" Null or empty, or '.' is not allowed in artifactId");
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package com.dgwave.car.common;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Watches the module and version directories that the plugin has cached information about, and tells a
+ * {@link RepositoryListener} which module versions changed. Directories are watched with a {@link WatchService}
+ * until a limit is reached; beyond it, directories are polled for modification time changes instead. A directory
+ * that does not exist yet is not polled itself: it waits on its nearest existing parent within the repository,
+ * which is watched once however many directories wait on it, and is looked for again when that parent changes.
+ *
+ * @author Akber Choudhry
+ */
+public final class RepositoryWatcher implements Closeable {
+
+    /**
+     * Default maximum number of directories registered with the watch service.
+     */
+    public static final int DEFAULT_MAX_WATCHES = 1024;
+
+    /**
+     * Default polling interval in milliseconds.
+     */
+    public static final long DEFAULT_POLL_INTERVAL = 2000L;
+
+    /**
+     * How recent a modification time may be for a change in the same clock tick to go unnoticed, in milliseconds.
+     * File systems record times in coarse ticks, up to two seconds, so a directory changed right after its time was
+     * read may keep the same time.
+     */
+    private static final long RACY_WINDOW = 2000L;
+
+    /**
+     * How long to wait for the watcher thread on close, in milliseconds.
+     */
+    private static final long CLOSE_TIMEOUT = 5000L;
+
+    /**
+     * Who to tell.
+     */
+    private final RepositoryListener listener;
+
+    /**
+     * Maximum number of watched directories.
+     */
+    private final int maxWatches;
+
+    /**
+     * Polling interval.
+     */
+    private final long pollInterval;
+
+    /**
+     * The watch service.
+     */
+    private final WatchService watchService;
+
+    /**
+     * What each directory asked for stands for, whether it exists or not.
+     */
+    private final ConcurrentMap<Path, Registration> registrations = new ConcurrentHashMap<Path, Registration>();
+
+    /**
+     * Directories watched or polled, asked for or waited on.
+     */
+    private final Set<Path> monitored = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+    /**
+     * Directories that do not exist yet, by the existing directory they wait on.
+     */
+    private final Map<Path, Set<Registration>> waiting = new ConcurrentHashMap<Path, Set<Registration>>();
+
+    /**
+     * Directories polled instead of watched, with their last seen modification time.
+     */
+    private final ConcurrentMap<Path, Long> polled = new ConcurrentHashMap<Path, Long>();
+
+    /**
+     * Polled directories whose last seen modification time was too recent to rule out a change in the same tick.
+     */
+    private final Set<Path> racy = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+    /**
+     * Number of directories registered with the watch service.
+     */
+    private final AtomicInteger watchCount = new AtomicInteger();
+
+    /**
+     * The watcher thread.
+     */
+    private final Thread thread;
+
+    /**
+     * Cleared on close.
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Constructor. Starts the watcher thread.
+     *
+     * @param repoListener Who to tell about changes
+     * @param max Maximum number of directories registered with the watch service
+     * @param interval Polling interval in milliseconds
+     * @throws IOException If the watch service cannot be created
+     */
+    public RepositoryWatcher(final RepositoryListener repoListener, final int max, final long interval)
+        throws IOException {
+        this.listener = repoListener;
+        this.maxWatches = max;
+        this.pollInterval = interval;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "ceylon-repo-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts watching a module version: its module directory for added or removed versions, and its version
+     * directory for added, removed or modified files. Cheap to call repeatedly.
+     *
+     * @param repoRoot The repository root directory
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @param version Version, may be null to watch only the module directory
+     */
+    public void watch(final File repoRoot, final String groupId, final String artifactId, final String version) {
+        if (!running) {
+            return;
+        }
+        Path moduleDir = repoRoot.toPath().resolve(CeylonUtil.formatAsDirectory(groupId)).resolve(artifactId);
+        register(new Registration(moduleDir, repoRoot, groupId, artifactId, null));
+        if (version != null) {
+            register(new Registration(moduleDir.resolve(version), repoRoot, groupId, artifactId, version));
+        }
+    }
+
+    /**
+     * Registers a directory the first time it is asked for.
+     * @param registration The directory and what it stands for
+     */
+    private void register(final Registration registration) {
+        if (registrations.putIfAbsent(registration.dir, registration) == null) {
+            track(registration);
+        }
+    }
+
+    /**
+     * Monitors a directory if it exists, else makes it wait on its nearest existing parent within the repository.
+     * A directory of a repository that does not exist is not monitored.
+     * @param registration The directory and what it stands for
+     */
+    private synchronized void track(final Registration registration) {
+        if (!running) {
+            return;
+        }
+        if (registration.dir.toFile().isDirectory()) {
+            monitor(registration.dir);
+            return;
+        }
+        Path root = registration.repoRoot.toPath();
+        Path parent = registration.dir.getParent();
+        while (parent != null && parent.startsWith(root) && !parent.toFile().isDirectory()) {
+            parent = parent.getParent();
+        }
+        if (parent == null || !parent.startsWith(root)) {
+            return;
+        }
+        Set<Registration> waiters = waiting.get(parent);
+        if (waiters == null) {
+            waiters = Collections.newSetFromMap(new ConcurrentHashMap<Registration, Boolean>());
+            waiting.put(parent, waiters);
+        }
+        waiters.add(registration);
+        monitor(parent);
+    }
+
+    /**
+     * Monitors an existing directory once, with the watch service if below the limit, by polling otherwise.
+     * @param dir The directory
+     */
+    private void monitor(final Path dir) {
+        if (!monitored.add(dir)) {
+            return;
+        }
+        if (watchCount.incrementAndGet() <= maxWatches) {
+            try {
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                return;
+            } catch (IOException e) {
+                watchCount.decrementAndGet();
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+        } else {
+            watchCount.decrementAndGet();
+        }
+        long mtime = dir.toFile().lastModified();
+        polled.put(dir, mtime);
+        if (System.currentTimeMillis() - mtime < RACY_WINDOW) {
+            racy.add(dir);
+        }
+    }
+
+    /**
+     * Looks again for the directories waiting on one that changed. Those that now exist are monitored and reported
+     * as changed; the others wait again.
+     * @param dir The changed directory
+     */
+    private synchronized void wake(final Path dir) {
+        Set<Registration> waiters = waiting.remove(dir);
+        if (waiters == null) {
+            return;
+        }
+        for (Registration registration : waiters) {
+            track(registration);
+            if (monitored.contains(registration.dir)) {
+                notify(registration, registration.version);
+            }
+        }
+    }
+
+    /**
+     * Stops monitoring a directory that can no longer be watched, as when it was deleted, and tracks it and the
+     * directories waiting on it again, so that they are polled or wait higher up.
+     * @param dir The directory
+     */
+    private synchronized void untrack(final Path dir) {
+        monitored.remove(dir);
+        polled.remove(dir);
+        racy.remove(dir);
+        wake(dir);
+        Registration registration = registrations.get(dir);
+        if (registration != null) {
+            track(registration);
+            notify(registration, registration.version);
+        }
+    }
+
+    /**
+     * @return int Number of directories registered with the watch service
+     */
+    public int getWatchCount() {
+        return Math.min(watchCount.get(), maxWatches);
+    }
+
+    /**
+     * @return int Number of directories being polled
+     */
+    public int getPolledCount() {
+        return polled.size();
+    }
+
+    /**
+     * The watcher thread's loop.
+     */
+    private void watch() {
+        while (running) {
+            try {
+                WatchKey key = watchService.poll(pollInterval, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    process(key);
+                    key = watchService.poll();
+                }
+                poll();
+            } catch (InterruptedException e) {
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Handles the events of a watch key.
+     * @param key The signalled key
+     */
+    private void process(final WatchKey key) {
+        Path dir = (Path) key.watchable();
+        Registration registration = registrations.get(dir);
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            changed = true;
+            if (registration == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                listener.repositoryChanged(registration.repoRoot);
+            } else if (registration.version == null) {
+                // a version directory was added or removed
+                notify(registration, ((Path) event.context()).getFileName().toString());
+            } else {
+                notify(registration, registration.version);
+            }
+        }
+        if (!key.reset()) {
+            watchCount.decrementAndGet();
+            untrack(dir);
+        } else if (changed) {
+            wake(dir);
+        }
+    }
+
+    /**
+     * Checks polled directories for changes. A polled directory that is gone is tracked again. While a directory's
+     * time is too recent to be trusted, the directories waiting on it are looked for on every poll, and once it is
+     * old enough the directory is reported as changed, in case it changed unnoticed.
+     */
+    private void poll() {
+        for (Map.Entry<Path, Long> entry : polled.entrySet()) {
+            Path dir = entry.getKey();
+            long mtime = dir.toFile().lastModified();
+            long now = System.currentTimeMillis();
+            if (mtime == 0L) {
+                untrack(dir);
+            } else if (mtime != entry.getValue()) {
+                entry.setValue(mtime);
+                if (now - mtime < RACY_WINDOW) {
+                    racy.add(dir);
+                }
+                changed(dir);
+            } else if (racy.contains(dir)) {
+                if (now - mtime >= RACY_WINDOW) {
+                    racy.remove(dir);
+                    changed(dir);
+                } else {
+                    wake(dir);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports a change to a polled directory and looks for the directories waiting on it.
+     * @param dir The changed directory
+     */
+    private void changed(final Path dir) {
+        Registration registration = registrations.get(dir);
+        if (registration != null) {
+            notify(registration, registration.version);
+        }
+        wake(dir);
+    }
+
+    /**
+     * Tells the listener about a change to a module or module version.
+     * @param registration The changed directory's registration
+     * @param version The version that changed, null if unknown
+     */
+    private void notify(final Registration registration, final String version) {
+        if (registration.version == null) {
+            listener.moduleChanged(registration.repoRoot, registration.groupId, registration.artifactId, null);
+        }
+        if (version != null) {
+            listener.moduleChanged(registration.repoRoot, registration.groupId, registration.artifactId, version);
+        }
+    }
+
+    /**
+     * Stops watching and waits for the watcher thread to finish.
+     * @throws IOException If the watch service cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        watchService.close();
+        thread.interrupt();
+        try {
+            thread.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        registrations.clear();
+        monitored.clear();
+        waiting.clear();
+        polled.clear();
+        racy.clear();
+    }
+
+    /**
+     * What a registered directory stands for.
+     */
+    private static final class Registration {
+
+        /**
+         * The directory.
+         */
+        private final Path dir;
+
+        /**
+         * The repository root.
+         */
+        private final File repoRoot;
+
+        /**
+         * Maven group id.
+         */
+        private final String groupId;
+
+        /**
+         * Maven artifact id.
+         */
+        private final String artifactId;
+
+        /**
+         * The version, null for a module directory.
+         */
+        private final String version;
+
+        /**
+         * Constructor.
+         * @param d The directory
+         * @param r The repository root
+         * @param g Group id
+         * @param a Artifact id
+         * @param v Version, null for a module directory
+         */
+        Registration(final Path d, final File r, final String g, final String a, final String v) {
+            this.dir = d;
+            this.repoRoot = r;
+            this.groupId = g;
+            this.artifactId = a;
+            this.version = v;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.dgwave.car.common;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Records the Ceylon artifacts resolved in a build, so that the next build can answer the same lookups from one
+ * file read. Each line holds the coordinates, the absolute path, size, modification time and SHA-1 (from the
+ * <code>.sha1</code> file installed next to the artifact) of one artifact, separated by tabs. An entry is only
+ * used while the file's size and modification time are unchanged. Entries a build did not look up are kept, so that
+ * a build of part of the reactor does not drop what the others locked.
+ *
+ * @author Akber Choudhry
+ */
+public final class ResolutionLockfile {
+
+    /**
+     * First line of a lockfile.
+     */
+    private static final String HEADER = "# Ceylon resolution lockfile, version 1";
+
+    /**
+     * Number of tab-separated fields per entry.
+     */
+    private static final int FIELDS = 5;
+
+    /**
+     * Field index of the file size.
+     */
+    private static final int SIZE_FIELD = 2;
+
+    /**
+     * Field index of the modification time.
+     */
+    private static final int MTIME_FIELD = 3;
+
+    /**
+     * Field index of the SHA-1.
+     */
+    private static final int SHA1_FIELD = 4;
+
+    /**
+     * Entries loaded from the previous build, less those found stale.
+     */
+    private final ConcurrentMap<String, Entry> locked = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Entries resolved in this build.
+     */
+    private final ConcurrentMap<String, Entry> resolved = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Lookups answered from the lockfile.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Lockfile entries rejected because the file changed.
+     */
+    private final AtomicLong stale = new AtomicLong();
+
+    /**
+     * Loads a lockfile. A missing or unreadable file gives an empty lockfile.
+     *
+     * @param file The lockfile
+     * @return ResolutionLockfile The loaded entries
+     */
+    public static ResolutionLockfile load(final File file) {
+        ResolutionLockfile lockfile = new ResolutionLockfile();
+        if (!file.isFile()) {
+            return lockfile;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0 || line.charAt(0) == '#') {
+                    continue;
+                }
+                String[] fields = line.split("\t", -1);
+                if (fields.length != FIELDS) {
+                    continue;
+                }
+                try {
+                    lockfile.locked.put(fields[0], new Entry(new File(fields[1]),
+                        Long.parseLong(fields[SIZE_FIELD]), Long.parseLong(fields[MTIME_FIELD]), fields[SHA1_FIELD]));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+            }
+        } catch (IOException e) {
+            lockfile.locked.clear();
+        } finally {
+            IOUtil.close(reader);
+        }
+        return lockfile;
+    }
+
+    /**
+     * Answers a lookup from the lockfile, after checking that the file has not changed.
+     *
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @param version Version
+     * @param classifier Sources, javadoc etc.
+     * @param type The Ceylon type of the artifact
+     * @return File The locked file, or null if not locked or changed since
+     */
+    public File find(final String groupId, final String artifactId, final String version,
+            final String classifier, final String type) {
+        if (locked.isEmpty()) {
+            return null;
+        }
+        String key = key(groupId, artifactId, version, classifier, type);
+        Entry entry = locked.get(key);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(entry.file.toPath(), BasicFileAttributes.class);
+            if (attrs.isRegularFile() && attrs.size() == entry.size
+                && attrs.lastModifiedTime().toMillis() == entry.mtime) {
+                hits.incrementAndGet();
+                resolved.put(key, entry);
+                return entry.file;
+            }
+        } catch (IOException e) {
+            // gone
+        }
+        stale.incrementAndGet();
+        locked.remove(key);
+        return null;
+    }
+
+    /**
+     * Records an artifact resolved in this build.
+     *
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @param version Version
+     * @param classifier Sources, javadoc etc.
+     * @param type The Ceylon type of the artifact
+     * @param file The resolved file
+     */
+    public void record(final String groupId, final String artifactId, final String version,
+            final String classifier, final String type, final File file) {
+        String key = key(groupId, artifactId, version, classifier, type);
+        if (resolved.containsKey(key)) {
+            return;
+        }
+        Entry entry = locked.get(key);
+        if (entry == null || !entry.file.equals(file.getAbsoluteFile())) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                if (!attrs.isRegularFile()) {
+                    return;
+                }
+                String sha1 = CeylonUtil.readChecksum(file);
+                entry = new Entry(file.getAbsoluteFile(), attrs.size(), attrs.lastModifiedTime().toMillis(),
+                    sha1 == null ? "" : sha1);
+            } catch (IOException e) {
+                return;
+            }
+        }
+        resolved.put(key, entry);
+    }
+
+    /**
+     * Whether loaded entries were found stale, or this build resolved artifacts that were not locked, or locked to
+     * another file.
+     * @return True if the lockfile should be rewritten
+     */
+    public boolean isChanged() {
+        if (stale.get() > 0) {
+            return true;
+        }
+        for (Map.Entry<String, Entry> e : resolved.entrySet()) {
+            if (locked.get(e.getKey()) != e.getValue()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the loaded entries that are not stale and the entries resolved in this build, which replace loaded
+     * ones with the same coordinates, sorted by coordinates, replacing the file atomically.
+     *
+     * @param file The lockfile
+     * @throws IOException In case of IO error
+     */
+    public void write(final File file) throws IOException {
+        Map<String, Entry> sorted = new TreeMap<String, Entry>(locked);
+        sorted.putAll(resolved);
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (Map.Entry<String, Entry> e : sorted.entrySet()) {
+                Entry entry = e.getValue();
+                writer.write(e.getKey() + '\t' + entry.file.getPath() + '\t' + entry.size + '\t' + entry.mtime
+                    + '\t' + entry.sha1 + '\n');
+            }
+        } finally {
+            writer.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return int Number of entries loaded from the previous build that are still valid
+     */
+    public int getLockedCount() {
+        return locked.size();
+    }
+
+    /**
+     * @return long Number of lookups answered from the lockfile
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public String toString() {
+        return "locked: " + locked.size() + ", hits: " + hits.get() + ", stale: " + stale.get()
+            + ", resolved: " + resolved.size();
+    }
+
+    /**
+     * The coordinates of an entry.
+     * @param groupId Group id
+     * @param artifactId Artifact id
+     * @param version Version
+     * @param classifier Classifier, may be null
+     * @param type Type
+     * @return String groupId:artifactId:version:classifier:type
+     */
+    private static String key(final String groupId, final String artifactId, final String version,
+            final String classifier, final String type) {
+        StringBuilder key = new StringBuilder(CeylonUtil.STRING_BUILDER_SIZE);
+        key.append(groupId).append(':').append(artifactId).append(':').append(version).append(':');
+        if (classifier != null) {
+            key.append(classifier);
+        }
+        return key.append(':').append(type).toString();
+    }
+
+    /**
+     * A locked artifact.
+     */
+    private static final class Entry {
+
+        /**
+         * Absolute path.
+         */
+        private final File file;
+
+        /**
+         * Size in bytes.
+         */
+        private final long size;
+
+        /**
+         * Modification time.
+         */
+        private final long mtime;
+
+        /**
+         * SHA-1, empty if unknown.
+         */
+        private final String sha1;
+
+        /**
+         * Constructor.
+         * @param f Absolute path
+         * @param s Size
+         * @param m Modification time
+         * @param h SHA-1
+         */
+        Entry(final File f, final long s, final long m, final String h) {
+            this.file = f;
+            this.size = s;
+            this.mtime = m;
+            this.sha1 = h;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.dgwave.car.common;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * The Ceylon artifacts a build resolved, in the order it first resolved them. The trace of one build is what the
+ * {@link ArtifactPrefetcher} warms at the start of the next build of the same project.
+ *
+ * @author Akber Choudhry
+ */
+public final class ResolutionTrace {
+
+    /**
+     * Directory holding the traces, relative to the user's home.
+     */
+    public static final String TRACE_DIR = ".ceylon" + File.separator + "maven" + File.separator + "trace";
+
+    /**
+     * First line of a trace file.
+     */
+    private static final String HEADER = "# Ceylon resolution trace, version 1";
+
+    /**
+     * The resolved files, in first resolution order.
+     */
+    private final Set<File> files = new LinkedHashSet<File>();
+
+    /**
+     * The trace file of a build, named after its base directory.
+     * @param baseDir The base directory of the build
+     * @return File The trace file
+     */
+    public static File defaultTraceFile(final File baseDir) {
+        String name = Integer.toHexString(baseDir.getAbsolutePath().hashCode()) + ".trace";
+        return new File(System.getProperty("user.home") + File.separator + TRACE_DIR, name);
+    }
+
+    /**
+     * Reads the files of a trace. A missing or unreadable trace gives an empty list.
+     *
+     * @param file The trace file
+     * @return List of files, in resolution order
+     */
+    public static List<File> load(final File file) {
+        List<File> list = new ArrayList<File>();
+        if (!file.isFile()) {
+            return list;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0 && line.charAt(0) != '#') {
+                    list.add(new File(line));
+                }
+            }
+        } catch (IOException e) {
+            list.clear();
+        } finally {
+            IOUtil.close(reader);
+        }
+        return list;
+    }
+
+    /**
+     * Records a resolved file. Files already recorded keep their first position.
+     * @param file The resolved file
+     */
+    public synchronized void record(final File file) {
+        files.add(file.getAbsoluteFile());
+    }
+
+    /**
+     * @return int Number of recorded files
+     */
+    public synchronized int size() {
+        return files.size();
+    }
+
+    /**
+     * Whether this trace records the same files, in the same order, as a previous one.
+     * @param previous The files of the previous trace
+     * @return True if nothing changed
+     */
+    public synchronized boolean sameAs(final List<File> previous) {
+        return new ArrayList<File>(files).equals(previous);
+    }
+
+    /**
+     * Writes the trace, replacing the file atomically.
+     *
+     * @param file The trace file
+     * @throws IOException In case of IO error
+     */
+    public void write(final File file) throws IOException {
+        List<File> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<File>(files);
+        }
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (File f : snapshot) {
+                writer.write(f.getPath());
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,185 @@
+package com.dgwave.car.common;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Remembers where the Ceylon system repository was last discovered, so that a build does not probe
+ * <code>CEYLON_HOME</code> and list <code>~/.ceylon</code> again. The remembered repository is only used while
+ * <code>CEYLON_HOME</code>, the modification time of <code>~/.ceylon</code> and the modification time of the
+ * repository itself are unchanged. Discovery only happens when <code>ceylon.repo</code> is not set, so the state
+ * does not depend on it. Within one JVM, the state file is only read again after it changes.
+ *
+ * @author Akber Choudhry
+ */
+public final class SdkDiscoveryCache {
+
+    /**
+     * Default location of the state file, relative to the user's home.
+     */
+    public static final String DEFAULT_STATE = ".ceylon" + File.separator + "maven" + File.separator + "sdk";
+
+    /**
+     * First line of a state file.
+     */
+    private static final String HEADER = "# Ceylon SDK discovery, version 1";
+
+    /**
+     * Number of tab-separated fields in the state.
+     */
+    private static final int FIELDS = 4;
+
+    /**
+     * Field index of the discovered repository.
+     */
+    private static final int REPO_FIELD = 2;
+
+    /**
+     * Field index of the modification time of the repository.
+     */
+    private static final int REPO_MTIME_FIELD = 3;
+
+    /**
+     * The <code>CEYLON_HOME</code> in effect, empty if not set.
+     */
+    private final String ceylonHome;
+
+    /**
+     * The directory the SDK is looked for in when <code>CEYLON_HOME</code> is not set.
+     */
+    private final File dotCeylon;
+
+    /**
+     * @param ceylonHome The <code>CEYLON_HOME</code> in effect, may be null
+     * @param dotCeylon The directory SDKs are downloaded to, usually <code>~/.ceylon</code>
+     */
+    public SdkDiscoveryCache(final String ceylonHome, final File dotCeylon) {
+        this.ceylonHome = ceylonHome != null ? ceylonHome : "";
+        this.dotCeylon = dotCeylon;
+    }
+
+    /**
+     * @return SdkDiscoveryCache Keyed by the environment of this JVM
+     */
+    public static SdkDiscoveryCache forEnvironment() {
+        return new SdkDiscoveryCache(System.getenv("CEYLON_HOME"),
+            new File(System.getProperty("user.home"), ".ceylon"));
+    }
+
+    /**
+     * @return File The state file in the user's home
+     */
+    public static File defaultStateFile() {
+        return new File(System.getProperty("user.home") + File.separator + DEFAULT_STATE);
+    }
+
+    /**
+     * The repository recorded by a previous discovery in the same environment.
+     *
+     * @param state The state file
+     * @return String The path of the system repository, or null if it has to be discovered again
+     */
+    public String lookup(final File state) {
+        String[] fields = read(state);
+        if (fields == null) {
+            return null;
+        }
+        if (fields.length != FIELDS || !ceylonHome.equals(fields[0])) {
+            return null;
+        }
+        try {
+            if (dotCeylon.lastModified() != Long.parseLong(fields[1])) {
+                return null;
+            }
+            long repoMtime = new File(fields[REPO_FIELD]).lastModified();
+            if (repoMtime == 0L || repoMtime != Long.parseLong(fields[REPO_MTIME_FIELD])) {
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return fields[REPO_FIELD];
+    }
+
+    /**
+     * Reads the fields of a state file, kept in the {@link PluginState} until the file changes.
+     * @param state The state file
+     * @return String[] The fields, or null if there is no valid state
+     */
+    private static String[] read(final File state) {
+        PluginState.Stamp stamp = PluginState.Stamp.of(state);
+        if (!stamp.exists()) {
+            return null;
+        }
+        String key = stateKey(state);
+        String[] fields = PluginState.shared().get(key, stamp, String[].class);
+        if (fields != null) {
+            return fields;
+        }
+        String line = null;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(state), "UTF-8"));
+            String header = reader.readLine();
+            if (HEADER.equals(header)) {
+                line = reader.readLine();
+            }
+        } catch (IOException e) {
+            return null;
+        } finally {
+            IOUtil.close(reader);
+        }
+        if (line == null) {
+            return null;
+        }
+        fields = line.split("\t", -1);
+        PluginState.shared().put(key, stamp, fields, 2L * line.length());
+        return fields;
+    }
+
+    /**
+     * Records a discovered repository, replacing the state file atomically.
+     *
+     * @param state The state file
+     * @param repo The path of the system repository
+     * @throws IOException In case of IO error
+     */
+    public void record(final File state, final String repo) throws IOException {
+        File dir = state.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        String line = ceylonHome + '\t' + dotCeylon.lastModified() + '\t' + repo + '\t'
+            + new File(repo).lastModified();
+        File tmp = File.createTempFile(state.getName(), ".tmp", dir);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            writer.write(HEADER);
+            writer.write('\n');
+            writer.write(line);
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+        Files.move(tmp.toPath(), state.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        PluginState.shared().put(stateKey(state), PluginState.Stamp.of(state),
+            line.split("\t", -1), 2L * line.length());
+    }
+
+    /**
+     * The key of a state file's fields in the plugin state.
+     * @param state The state file
+     * @return String The key
+     */
+    private static String stateKey(final File state) {
+        return "sdk:" + state.getAbsolutePath();
+    }
+}
@@ -0,0 +1,251 @@
+package com.dgwave.car.common;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Remembers which files have had their SHA-1 checked, and against which size and modification time, so that a
+ * file is only hashed again after it changes. The store is a tab-separated text file of path, size, modification
+ * time and SHA-1. Builds sharing the store merge their entries into it when they write it.
+ *
+ * @author Akber Choudhry
+ */
+public final class VerifiedHashStore {
+
+    /**
+     * Default location of the store, relative to the user's home.
+     */
+    public static final String DEFAULT_STORE = ".ceylon" + File.separator + "maven" + File.separator + "verified";
+
+    /**
+     * First line of a store.
+     */
+    private static final String HEADER = "# Ceylon verified hashes, version 1";
+
+    /**
+     * Number of tab-separated fields per entry.
+     */
+    private static final int FIELDS = 4;
+
+    /**
+     * Field index of the modification time.
+     */
+    private static final int MTIME_FIELD = 2;
+
+    /**
+     * Field index of the SHA-1.
+     */
+    private static final int SHA1_FIELD = 3;
+
+    /**
+     * Verified entries by absolute path.
+     */
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Entries removed after failing verification, by absolute path, so that writing does not bring them back.
+     */
+    private final ConcurrentMap<String, Entry> removed = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Set when an entry is added or removed.
+     */
+    private volatile boolean changed;
+
+    /**
+     * @return File The store in the user's home
+     */
+    public static File defaultStoreFile() {
+        return new File(System.getProperty("user.home") + File.separator + DEFAULT_STORE);
+    }
+
+    /**
+     * Loads a store. A missing or unreadable file gives an empty store.
+     *
+     * @param file The store file
+     * @return VerifiedHashStore The store
+     */
+    public static VerifiedHashStore load(final File file) {
+        VerifiedHashStore store = new VerifiedHashStore();
+        store.entries.putAll(read(file));
+        return store;
+    }
+
+    /**
+     * Reads the entries of a store file. A missing or unreadable file gives no entries.
+     *
+     * @param file The store file
+     * @return Map The entries by absolute path
+     */
+    private static Map<String, Entry> read(final File file) {
+        Map<String, Entry> result = new HashMap<String, Entry>();
+        if (!file.isFile()) {
+            return result;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0 || line.charAt(0) == '#') {
+                    continue;
+                }
+                String[] fields = line.split("\t", -1);
+                if (fields.length != FIELDS) {
+                    continue;
+                }
+                try {
+                    result.put(fields[0], new Entry(Long.parseLong(fields[1]),
+                        Long.parseLong(fields[MTIME_FIELD]), fields[SHA1_FIELD]));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+            }
+        } catch (IOException e) {
+            result.clear();
+        } finally {
+            IOUtil.close(reader);
+        }
+        return result;
+    }
+
+    /**
+     * Whether a file was verified against a SHA-1 with the given size and modification time.
+     *
+     * @param file The file
+     * @param size Its current size
+     * @param mtime Its current modification time
+     * @param sha1 The expected SHA-1
+     * @return True if the file need not be hashed again
+     */
+    public boolean isVerified(final File file, final long size, final long mtime, final String sha1) {
+        Entry entry = entries.get(file.getAbsolutePath());
+        return entry != null && entry.size == size && entry.mtime == mtime && entry.sha1.equals(sha1);
+    }
+
+    /**
+     * Records a successful verification.
+     *
+     * @param file The file
+     * @param size The size that was hashed
+     * @param mtime The modification time that was hashed
+     * @param sha1 The SHA-1 it matched
+     */
+    public void markVerified(final File file, final long size, final long mtime, final String sha1) {
+        entries.put(file.getAbsolutePath(), new Entry(size, mtime, sha1));
+        removed.remove(file.getAbsolutePath());
+        changed = true;
+    }
+
+    /**
+     * Forgets a file, after it failed verification.
+     * @param file The file
+     */
+    public void remove(final File file) {
+        Entry entry = entries.remove(file.getAbsolutePath());
+        if (entry != null) {
+            removed.put(file.getAbsolutePath(), entry);
+            changed = true;
+        }
+    }
+
+    /**
+     * @return True if the store needs to be written
+     */
+    public boolean isChanged() {
+        return changed;
+    }
+
+    /**
+     * @return int Number of verified files
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the store, replacing the file atomically. Entries another build wrote to the file meanwhile are kept,
+     * and where both have one for the same path, the one for the newer modification time wins; an entry this store
+     * removed is only kept if it is for a newer modification time than the one removed.
+     *
+     * @param file The store file
+     * @throws IOException In case of IO error
+     */
+    public synchronized void write(final File file) throws IOException {
+        for (Map.Entry<String, Entry> theirs : read(file).entrySet()) {
+            Entry ours = entries.get(theirs.getKey());
+            if (ours == null) {
+                ours = removed.get(theirs.getKey());
+            }
+            if (ours == null || ours.mtime < theirs.getValue().mtime) {
+                entries.put(theirs.getKey(), theirs.getValue());
+            }
+        }
+        Map<String, Entry> sorted = new TreeMap<String, Entry>(entries);
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (Map.Entry<String, Entry> e : sorted.entrySet()) {
+                Entry entry = e.getValue();
+                writer.write(e.getKey() + '\t' + entry.size + '\t' + entry.mtime + '\t' + entry.sha1 + '\n');
+            }
+        } finally {
+            writer.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        removed.clear();
+        changed = false;
+    }
+
+    /**
+     * A verified file.
+     */
+    private static final class Entry {
+
+        /**
+         * Size in bytes.
+         */
+        private final long size;
+
+        /**
+         * Modification time.
+         */
+        private final long mtime;
+
+        /**
+         * The SHA-1 it matched.
+         */
+        private final String sha1;
+
+        /**
+         * Constructor.
+         * @param s Size
+         * @param m Modification time
+         * @param h SHA-1
+         */
+        Entry(final long s, final long m, final String h) {
+            this.size = s;
+            this.mtime = m;
+            this.sha1 = h;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.dgwave.car.common;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sorted versions of the modules in a Ceylon repository, cached per module directory.
+ * A cached entry is kept in the {@link PluginState} for as long as the module directory is unchanged.
+ *
+ * @author Akber Choudhry
+ */
+public final class VersionIndex {
+
+    /**
+     * Estimated bytes held by a cached entry besides its versions.
+     */
+    private static final int ENTRY_BYTES = 64;
+
+    /**
+     * Estimated bytes held by each cached version.
+     */
+    private static final int VERSION_BYTES = 96;
+
+    /**
+     * Hidden constructor.
+     */
+    private VersionIndex() {
+
+    }
+
+    /**
+     * Lists the versions of a module present in a repository, in ascending version order.
+     *
+     * @param repoRoot The repository root directory
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @return List of versions, empty if the module is not in the repository
+     */
+    public static List<String> versions(final File repoRoot, final String groupId, final String artifactId) {
+        Entry entry = entry(repoRoot, groupId, artifactId);
+        return entry == null ? Collections.<String>emptyList() : entry.versions;
+    }
+
+    /**
+     * Returns the sorted, pre-parsed versions of a module.
+     *
+     * @param repoRoot The repository root directory
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @return ModuleVersion[] The versions in ascending order; callers must not modify the array
+     */
+    public static ModuleVersion[] parsedVersions(final File repoRoot, final String groupId, final String artifactId) {
+        Entry entry = entry(repoRoot, groupId, artifactId);
+        return entry == null ? new ModuleVersion[0] : entry.parsed;
+    }
+
+    /**
+     * Returns the current cache entry of a module, refreshing it if the module directory changed.
+     * @param repoRoot The repository root directory
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @return Entry The entry, or null if the module is not in the repository
+     */
+    private static Entry entry(final File repoRoot, final String groupId, final String artifactId) {
+        String modulePath = CeylonUtil.formatAsDirectory(groupId) + CeylonUtil.PATH_SEPARATOR + artifactId;
+        File moduleDir = new File(repoRoot, modulePath);
+        String key = stateKey(moduleDir);
+        PluginState state = PluginState.shared();
+        PluginState.Stamp stamp = PluginState.Stamp.of(moduleDir);
+        if (!stamp.exists()) {
+            state.remove(key);
+            return null;
+        }
+
+        Entry entry = state.get(key, stamp, Entry.class);
+        if (entry == null) {
+            entry = new Entry(parse(listVersionDirs(repoRoot, modulePath, moduleDir, stamp.getModified())));
+            state.put(key, stamp, entry, ENTRY_BYTES + (long) VERSION_BYTES * entry.parsed.length);
+        }
+        return entry;
+    }
+
+    /**
+     * Forgets the cached versions of a module.
+     *
+     * @param repoRoot The repository root directory
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     */
+    public static void invalidate(final File repoRoot, final String groupId, final String artifactId) {
+        PluginState.shared().remove(stateKey(new File(repoRoot, CeylonUtil.formatAsDirectory(groupId)
+            + CeylonUtil.PATH_SEPARATOR + artifactId)));
+    }
+
+    /**
+     * The key of a module's versions in the plugin state.
+     * @param moduleDir The module directory
+     * @return String The key
+     */
+    private static String stateKey(final File moduleDir) {
+        return "versions:" + moduleDir.getAbsolutePath();
+    }
+
+    /**
+     * Lists version directories, from the repository index if it is current for the module directory.
+     * @param repoRoot The repository root directory
+     * @param modulePath The module path relative to the root
+     * @param moduleDir The module directory
+     * @param mtime The module directory's modification time
+     * @return List of version directory names
+     */
+    private static List<String> listVersionDirs(final File repoRoot, final String modulePath, final File moduleDir,
+            final long mtime) {
+        RepositoryIndex index = RepositoryIndex.forRepository(repoRoot);
+        if (index != null && index.lastModified(modulePath) == mtime) {
+            return index.listDirectories(modulePath);
+        }
+        List<String> names = new ArrayList<String>();
+        File[] list = moduleDir.listFiles();
+        if (list != null) {
+            for (File f : list) {
+                if (f.isDirectory() && !f.getName().startsWith(".")) {
+                    names.add(f.getName());
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Parses and sorts versions.
+     * @param names The version strings
+     * @return ModuleVersion[] Sorted versions
+     */
+    private static ModuleVersion[] parse(final List<String> names) {
+        ModuleVersion[] parsed = new ModuleVersion[names.size()];
+        for (int i = 0; i < parsed.length; i++) {
+            parsed[i] = new ModuleVersion(names.get(i));
+        }
+        Arrays.sort(parsed);
+        return parsed;
+    }
+
+    /**
+     * Cached versions of one module.
+     */
+    private static final class Entry {
+
+        /**
+         * Sorted versions.
+         */
+        private final ModuleVersion[] parsed;
+
+        /**
+         * The version strings, in the same order.
+         */
+        private final List<String> versions;
+
+        /**
+         * Constructor.
+         * @param p Sorted versions
+         */
+        Entry(final ModuleVersion[] p) {
+            this.parsed = p;
+            String[] strings = new String[p.length];
+            for (int i = 0; i < p.length; i++) {
+                strings[i] = p[i].getVersion();
+            }
+            this.versions = Collections.unmodifiableList(Arrays.asList(strings));
+        }
+    }
+}
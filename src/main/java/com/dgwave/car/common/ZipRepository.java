@@ -0,0 +1,296 @@
+package com.dgwave.car.common;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * A read-only Ceylon repository inside a zip archive, such as a downloaded Ceylon SDK, whose <code>repo</code>
+ * folder is served without extracting the archive. Lookups use the archive's central directory. Entries are read
+ * straight from the archive, and are only written to disk, once, when a caller needs a {@link File}.
+ *
+ * @author Akber Choudhry
+ */
+public final class ZipRepository {
+
+    /**
+     * Directory holding extracted entries, relative to the user's home.
+     */
+    public static final String SPILL_DIR = ".ceylon" + File.separator + "maven" + File.separator + "spill";
+
+    /**
+     * Name of the repository folder in an SDK archive.
+     */
+    private static final String REPO_FOLDER = "repo/";
+
+    /**
+     * Open archives by absolute path.
+     */
+    private static final Map<File, ZipRepository> OPEN = new HashMap<File, ZipRepository>();
+
+    /**
+     * The archive.
+     */
+    private final File archive;
+
+    /**
+     * The open archive.
+     */
+    private final ZipFile zip;
+
+    /**
+     * Prefix of the repository's entries in the archive, empty or '/' terminated.
+     */
+    private final String prefix;
+
+    /**
+     * The archive's modification time when opened.
+     */
+    private final long mtime;
+
+    /**
+     * File and directory paths of the repository, relative to its root; directories are '/' terminated.
+     */
+    private final TreeSet<String> paths = new TreeSet<String>();
+
+    /**
+     * Where entries are extracted to.
+     */
+    private final File spillDir;
+
+    /**
+     * Constructor.
+     * @param zipFile The archive
+     * @param spill Where entries are extracted to
+     * @throws IOException If the archive cannot be read
+     */
+    private ZipRepository(final File zipFile, final File spill) throws IOException {
+        this.archive = zipFile.getAbsoluteFile();
+        this.mtime = archive.lastModified();
+        this.zip = new ZipFile(archive);
+        this.spillDir = spill;
+        String found = null;
+        List<String> names = new ArrayList<String>();
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            String name = entries.nextElement().getName();
+            names.add(name);
+            if (found == null) {
+                found = repoPrefix(name);
+            }
+        }
+        this.prefix = found == null ? "" : found;
+        for (String name : names) {
+            if (name.startsWith(prefix) && name.length() > prefix.length()) {
+                addPath(name.substring(prefix.length()));
+            }
+        }
+    }
+
+    /**
+     * Whether a repository reference names a zip archive.
+     * @param root The repository root
+     * @return True if it is a zip file
+     */
+    public static boolean isArchive(final File root) {
+        return root.getName().endsWith(".zip") && root.isFile();
+    }
+
+    /**
+     * Returns the repository in an archive, opening it once per JVM, and again after the archive changes.
+     *
+     * @param zipFile The archive
+     * @return ZipRepository The repository, or null if the archive cannot be read
+     */
+    public static ZipRepository forArchive(final File zipFile) {
+        File key = zipFile.getAbsoluteFile();
+        synchronized (OPEN) {
+            ZipRepository repo = OPEN.get(key);
+            if (repo != null && repo.mtime == key.lastModified()) {
+                return repo;
+            }
+            if (repo != null) {
+                repo.close();
+            }
+            try {
+                String name = Integer.toHexString(key.getPath().hashCode()) + "-"
+                    + Long.toHexString(key.lastModified());
+                repo = new ZipRepository(key, new File(System.getProperty("user.home") + File.separator + SPILL_DIR,
+                    name));
+                OPEN.put(key, repo);
+                return repo;
+            } catch (IOException e) {
+                OPEN.remove(key);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Opens a repository in an archive, extracting entries to the given directory.
+     *
+     * @param zipFile The archive
+     * @param spill Where entries are extracted to
+     * @return ZipRepository The repository
+     * @throws IOException If the archive cannot be read
+     */
+    public static ZipRepository open(final File zipFile, final File spill) throws IOException {
+        return new ZipRepository(zipFile, spill);
+    }
+
+    /**
+     * Whether the repository holds a file.
+     * @param path The path relative to the repository root, '/' separated
+     * @return True if held
+     */
+    public boolean contains(final String path) {
+        return paths.contains(path);
+    }
+
+    /**
+     * Opens a file of the repository, reading it from the archive.
+     *
+     * @param path The path relative to the repository root
+     * @return InputStream The content, or null if not held
+     * @throws IOException If the archive cannot be read
+     */
+    public InputStream open(final String path) throws IOException {
+        ZipEntry entry = contains(path) ? zip.getEntry(prefix + path) : null;
+        return entry == null ? null : zip.getInputStream(entry);
+    }
+
+    /**
+     * A file of the repository on disk, extracting it on first use.
+     *
+     * @param path The path relative to the repository root
+     * @return File The extracted file, or null if not held or it cannot be extracted
+     */
+    public File file(final String path) {
+        ZipEntry entry = contains(path) ? zip.getEntry(prefix + path) : null;
+        if (entry == null) {
+            return null;
+        }
+        File target = new File(spillDir, path);
+        if (target.isFile() && (entry.getSize() < 0 || target.length() == entry.getSize())) {
+            return target;
+        }
+        InputStream in = null;
+        OutputStream out = null;
+        File tmp = null;
+        try {
+            target.getParentFile().mkdirs();
+            tmp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+            in = zip.getInputStream(entry);
+            out = new FileOutputStream(tmp);
+            IOUtil.copy(in, out);
+            out.close();
+            out = null;
+            if (entry.getTime() > 0) {
+                tmp.setLastModified(entry.getTime());
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            return target;
+        } catch (IOException e) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            return null;
+        } finally {
+            IOUtil.close(in);
+            IOUtil.close(out);
+        }
+    }
+
+    /**
+     * Lists the subdirectories of a directory of the repository.
+     * @param dir The directory relative to the repository root, without trailing '/'
+     * @return List of subdirectory names, sorted
+     */
+    public List<String> listDirectories(final String dir) {
+        String from = dir.length() == 0 ? "" : dir + CeylonUtil.PATH_SEPARATOR;
+        SortedSet<String> below = paths.subSet(from, from + Character.MAX_VALUE);
+        List<String> names = new ArrayList<String>();
+        for (String path : below) {
+            int slash = path.indexOf(CeylonUtil.PATH_SEPARATOR, from.length());
+            if (slash == path.length() - 1 && slash > from.length()) {
+                names.add(path.substring(from.length(), slash));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return File The archive
+     */
+    public File getArchive() {
+        return archive;
+    }
+
+    /**
+     * @return int Number of files and directories in the repository
+     */
+    public int size() {
+        return paths.size();
+    }
+
+    /**
+     * Closes the archive.
+     */
+    public void close() {
+        try {
+            zip.close();
+        } catch (IOException e) {
+            // nothing to do
+            return;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return archive + (prefix.length() == 0 ? "" : "!/" + prefix);
+    }
+
+    /**
+     * Records a path and the directories leading to it, since archives need not hold directory entries.
+     * @param path The path relative to the repository root
+     */
+    private void addPath(final String path) {
+        paths.add(path);
+        int slash = path.lastIndexOf(CeylonUtil.PATH_SEPARATOR, path.length() - 2);
+        while (slash > 0 && paths.add(path.substring(0, slash + 1))) {
+            slash = path.lastIndexOf(CeylonUtil.PATH_SEPARATOR, slash - 1);
+        }
+    }
+
+    /**
+     * The repository prefix an entry reveals: <code>repo/</code> or <code>ceylon-1.1.0/repo/</code>.
+     * @param name The entry name
+     * @return String The prefix, or null
+     */
+    private static String repoPrefix(final String name) {
+        if (name.startsWith(REPO_FOLDER)) {
+            return REPO_FOLDER;
+        }
+        int slash = name.indexOf('/');
+        if (slash > 0 && name.startsWith(REPO_FOLDER, slash + 1)) {
+            return name.substring(0, slash + 1 + REPO_FOLDER.length());
+        }
+        return null;
+    }
+}
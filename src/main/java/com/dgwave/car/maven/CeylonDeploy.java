@@ -0,0 +1,262 @@
+package com.dgwave.car.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.settings.Server;
+import org.apache.maven.settings.Settings;
+
+import com.dgwave.car.common.CeylonUtil;
+import com.dgwave.car.repo.CeylonRepoLayout;
+import com.dgwave.car.repo.HttpRepositoryClient;
+
+/**
+ * Deploys packaged artifacts to a remote, Herd-style HTTP Ceylon repository, together with their
+ * <code>.sha1</code>, <code>module.properties</code> and <code>.module</code> files, the files of a project
+ * uploading in parallel; failed uploads are retried. With <code>ceylon.deploy.atEnd</code>, projects are deployed
+ * together once no later reactor project uses this plugin.
+ * Credentials are taken from the <code>server</code> in Maven <code>settings.xml</code> whose id is
+ * <code>ceylon.deploy.serverId</code>.
+ * @author Akber Choudhry
+ */
+@Mojo(name = "deploy", requiresProject = true, defaultPhase = LifecyclePhase.DEPLOY, threadSafe = false)
+public class CeylonDeploy extends AbstractMojo {
+
+    /**
+     * Project context key set while the deployment of a project waits for the end of the build.
+     */
+    static final String DEFERRED = CeylonDeploy.class.getName() + ".deferred";
+
+    /**
+     * Key of this plugin, as used by {@link MavenProject#getPlugin(String)}.
+     */
+    private static final String PLUGIN_KEY = "com.dgwave.car:ceylon-maven-plugin";
+
+    /**
+     * Only works in a project context.
+     */
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    /**
+     * If doing a multi-module project, the projects in reactor order.
+     */
+    @Parameter(defaultValue = "${reactorProjects}", required = true, readonly = true)
+    private List<MavenProject> reactorProjects;
+
+    /**
+     * The current session, to honor offline mode.
+     */
+    @Parameter(defaultValue = "${session}", readonly = true)
+    private MavenSession session;
+
+    /**
+     * Maven settings, for the repository credentials.
+     */
+    @Parameter(defaultValue = "${settings}", readonly = true)
+    private Settings settings;
+
+    /**
+     * URL of the remote Ceylon repository.
+     */
+    @Parameter(property = "ceylon.deploy.url", required = true)
+    private String url;
+
+    /**
+     * Id of the server in <code>settings.xml</code> holding the credentials for the repository.
+     */
+    @Parameter(property = "ceylon.deploy.serverId", defaultValue = "ceylon")
+    private String serverId;
+
+    /**
+     * Whether to deploy the reactor projects together at the end of the build, in parallel, rather than each in its
+     * own deploy phase. If set to <code>true</code> and the build fails, none of the reactor projects is deployed.
+     * The projects are deployed by the last project using this plugin, so that one should run the goal too.
+     */
+    @Parameter(property = "ceylon.deploy.atEnd", defaultValue = "false")
+    private boolean deployAtEnd;
+
+    /**
+     * Number of files uploaded in parallel.
+     */
+    @Parameter(property = "ceylon.deploy.threads", defaultValue = "4")
+    private int threads;
+
+    /**
+     * Number of uploads in flight to the repository host.
+     */
+    @Parameter(property = "ceylon.deploy.perHost", defaultValue = "4")
+    private int perHost;
+
+    /**
+     * Number of attempts of each upload.
+     */
+    @Parameter(property = "ceylon.deploy.attempts", defaultValue = "3")
+    private int attempts;
+
+    /**
+     * Set this to <code>true</code> to bypass deployment. A skipped project still deploys the projects deferred to
+     * the end of the build.
+     */
+    @Parameter(property = "ceylon.deploy.skip", defaultValue = "false")
+    private boolean skip;
+
+    /** MoJo execute.
+     * @see org.apache.maven.plugin.Mojo#execute()
+     * @throws MojoExecutionException In case an upload fails
+     */
+    public void execute() throws MojoExecutionException {
+        if (skip) {
+            getLog().info("Skipping ceylon:deploy");
+        }
+        List<MavenProject> projects = new ArrayList<MavenProject>();
+        if (!deployAtEnd) {
+            if (skip) {
+                return;
+            }
+            projects.add(project);
+        } else {
+            if (!skip) {
+                project.setContextValue(DEFERRED, Boolean.TRUE);
+            }
+            if (laterProjectUsesPlugin()) {
+                if (!skip) {
+                    getLog().info("Deploying " + project.getGroupId() + ":" + project.getArtifactId() + ":"
+                        + project.getVersion() + " at end");
+                }
+                return;
+            }
+            for (MavenProject reactorProject : reactorProjects) {
+                if (Boolean.TRUE.equals(reactorProject.getContextValue(DEFERRED))) {
+                    reactorProject.setContextValue(DEFERRED, Boolean.FALSE);
+                    projects.add(reactorProject);
+                }
+            }
+            if (projects.isEmpty()) {
+                return;
+            }
+        }
+        if (session != null && session.isOffline()) {
+            throw new MojoExecutionException("Cannot deploy to " + url + " in offline mode");
+        }
+
+        HttpRepositoryClient client;
+        try {
+            client = new HttpRepositoryClient(url, threads, perHost);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Invalid Ceylon repository URL " + url + ": " + e.getMessage(), e);
+        }
+        client.setMaxAttempts(attempts);
+        Server server = settings != null ? settings.getServer(serverId) : null;
+        if (server != null) {
+            client.setCredentials(server.getUsername(), server.getPassword());
+        }
+        try {
+            List<String> paths = new ArrayList<String>();
+            List<Future<Void>> uploads = new ArrayList<Future<Void>>();
+            for (MavenProject mavenProject : projects) {
+                deployProject(mavenProject, client, paths, uploads);
+            }
+            List<String> failures = new ArrayList<String>();
+            for (int i = 0; i < uploads.size(); i++) {
+                try {
+                    uploads.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MojoExecutionException("Interrupted while deploying to " + url, e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    failures.add(paths.get(i) + ": " + cause.getMessage());
+                }
+            }
+            getLog().info(client.toString());
+            if (!failures.isEmpty()) {
+                for (String failure : failures) {
+                    getLog().error("Could not deploy " + failure);
+                }
+                throw new MojoExecutionException(failures.size() + " file(s) could not be deployed to " + url);
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * Whether a reactor project after this one uses this plugin, and so is expected to run the goal and deploy the
+     * deferred projects.
+     * @return boolean True if the deployment should wait
+     */
+    private boolean laterProjectUsesPlugin() {
+        int index = reactorProjects.indexOf(project);
+        for (int i = index + 1; index >= 0 && i < reactorProjects.size(); i++) {
+            if (reactorProjects.get(i).getPlugin(PLUGIN_KEY) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts uploading the main artifact of a project and its additional files.
+     *
+     * @param mavenProject The Maven project
+     * @param client The repository client
+     * @param paths Collects the paths being uploaded
+     * @param uploads Collects the uploads, in the same order
+     * @throws MojoExecutionException If the project has no artifact file, or its dependencies cannot be determined
+     */
+    private void deployProject(final MavenProject mavenProject, final HttpRepositoryClient client,
+            final List<String> paths, final List<Future<Void>> uploads) throws MojoExecutionException {
+        if ("pom".equals(mavenProject.getPackaging())) {
+            return;
+        }
+        Artifact artifact = mavenProject.getArtifact();
+        File file = artifact.getFile();
+        if (file == null || !file.isFile()) {
+            throw new MojoExecutionException("The packaging for project " + mavenProject.getId()
+                + " did not assign a file to the build artifact");
+        }
+        String path = new CeylonRepoLayout().pathOf(artifact);
+        String dir = path.substring(0, path.lastIndexOf(CeylonUtil.PATH_SEPARATOR) + 1);
+        String deps = CeylonUtil.calculateDependencies(mavenProject);
+
+        paths.add(path);
+        uploads.add(client.upload(path, file));
+        paths.add(path + ".sha1");
+        uploads.add(client.upload(path + ".sha1", bytes(CeylonUtil.calculateChecksum(file))));
+        if (!"".equals(deps)) {
+            paths.add(dir + "module.properties");
+            uploads.add(client.upload(dir + "module.properties", bytes(deps)));
+            String module = path.substring(0, path.lastIndexOf('.')) + ".module";
+            paths.add(module);
+            uploads.add(client.upload(module, bytes(deps)));
+        }
+        getLog().debug("Deploying " + path + " to " + client.getBaseUrl());
+    }
+
+    /**
+     * UTF-8 bytes of generated content.
+     * @param content The content
+     * @return byte[] The bytes
+     */
+    private static byte[] bytes(final String content) {
+        try {
+            return content.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
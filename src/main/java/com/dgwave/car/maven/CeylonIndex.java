@@ -0,0 +1,121 @@
+package com.dgwave.car.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import com.dgwave.car.common.CeylonUtil;
+import com.dgwave.car.common.DependencyIndex;
+import com.dgwave.car.common.PackageIndex;
+import com.dgwave.car.repo.RemoteIndex;
+
+/**
+ * Builds or updates the package-to-module and reverse dependency indexes of a Ceylon repository, and optionally
+ * looks up which modules provide a package, or which modules import a module. Only archives and descriptors added
+ * or changed since the last run are read. Can also publish the snapshot of the repository's files that HTTP clients
+ * query instead of the repository itself.
+ *
+ * @author Akber Choudhry
+ */
+@Mojo(name = "index", requiresProject = false, aggregator = true, threadSafe = true)
+public class CeylonIndex extends AbstractMojo {
+
+    /**
+     * The Ceylon repository to index. Defaults to the system repository.
+     */
+    @Parameter(property = "ceylon.index.repo")
+    private File repository;
+
+    /**
+     * A package to look up once the index is up to date.
+     */
+    @Parameter(property = "ceylon.index.package")
+    private String packageName;
+
+    /**
+     * A module, as <code>name/version</code> or just <code>name</code>, whose importers to list once the index is up
+     * to date. Both direct and transitive importers are listed: the modules to rebuild when it changes.
+     */
+    @Parameter(property = "ceylon.index.module")
+    private String moduleName;
+
+    /**
+     * Set this to <code>true</code> to also publish the remote index snapshot, and its delta from the previous one,
+     * under the repository's <code>.index</code> directory, for serving the repository over HTTP.
+     */
+    @Parameter(property = "ceylon.index.publish", defaultValue = "false")
+    private boolean publish;
+
+    /**
+     * Set this to <code>true</code> to bypass indexing.
+     */
+    @Parameter(property = "ceylon.index.skip", defaultValue = "false")
+    private boolean skip;
+
+    /**
+     *  Execute Mojo.
+     *  @see org.apache.maven.plugin.Mojo#execute()
+     *  @throws MojoExecutionException In case the repository cannot be indexed
+     */
+    public void execute() throws MojoExecutionException {
+        if (skip) {
+            getLog().info("Skipping ceylon:index");
+            return;
+        }
+        File repo = repository != null ? repository : new File(CeylonUtil.systemRepo());
+        if (!repo.isDirectory()) {
+            throw new MojoExecutionException("Ceylon repository " + repo + " does not exist or is not a directory");
+        }
+        PackageIndex index;
+        DependencyIndex dependencies;
+        try {
+            index = PackageIndex.open(repo);
+            dependencies = DependencyIndex.open(repo);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not index Ceylon repository " + repo + ": " + e.getMessage(), e);
+        }
+        getLog().info("Ceylon repository " + repo + ": " + index.getArchiveCount() + " archives, "
+            + index.getPackageCount() + " packages, " + dependencies.getModuleCount() + " module descriptors indexed");
+
+        if (publish) {
+            try {
+                RemoteIndex snapshot = RemoteIndex.publish(repo);
+                getLog().info("Published remote index " + snapshot.getSequence() + " of " + repo + ": "
+                    + snapshot.size() + " files");
+            } catch (IOException e) {
+                throw new MojoExecutionException("Could not publish the remote index of " + repo + ": "
+                    + e.getMessage(), e);
+            }
+        }
+
+        if (packageName != null && packageName.length() > 0) {
+            List<String> modules = index.findModules(packageName);
+            if (modules.isEmpty()) {
+                getLog().info("No module provides package " + packageName);
+            }
+            for (String module : modules) {
+                getLog().info("Package " + packageName + " is provided by " + module);
+            }
+        }
+
+        if (moduleName != null && moduleName.length() > 0) {
+            int slash = moduleName.indexOf(CeylonUtil.PATH_SEPARATOR);
+            String name = slash < 0 ? moduleName : moduleName.substring(0, slash);
+            String version = slash < 0 ? null : moduleName.substring(slash + 1);
+            List<String> direct = dependencies.findImporters(name, version);
+            List<String> affected = dependencies.findAffected(name, version);
+            if (affected.isEmpty()) {
+                getLog().info("No module imports " + moduleName);
+            }
+            for (String module : affected) {
+                getLog().info((direct.contains(module) ? "Imports " : "Transitively imports ") + moduleName + ": "
+                    + module);
+            }
+        }
+    }
+}
@@ -11,7 +11,7 @@ import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.artifact.repository.DefaultArtifactRepository;
 import org.apache.maven.artifact.repository.layout.ArtifactRepositoryLayout;
-import org.apache.maven.model.Dependency;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.model.Model;
 import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
 import org.apache.maven.plugin.AbstractMojo;
@@ -25,10 +25,12 @@ import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.IOUtil;
 import org.codehaus.plexus.util.ReaderFactory;
 import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.eclipse.aether.repository.WorkspaceReader;
 
 import com.dgwave.car.common.CeylonUtil;
-import com.dgwave.car.common.Module;
-import com.dgwave.car.common.ModuleIdentifier;
+import com.dgwave.car.common.DependencyIndex;
+import com.dgwave.car.common.PackageIndex;
+import com.dgwave.car.common.VersionIndex;
 import com.dgwave.car.repo.CeylonRepoLayout;
 
 /**
@@ -52,6 +54,12 @@ public class CeylonInstall extends AbstractMojo {
     @Parameter(defaultValue = "${reactorProjects}", required = true, readonly = true)
     private List<MavenProject> reactorProjects;
 
+    /**
+     * The current session, used to reach the Ceylon workspace reader.
+     */
+    @Parameter(defaultValue = "${session}", readonly = true)
+    private MavenSession session;
+
     /**
      * Whether every project should be deployed during its own deploy-phase or at the end of the multimodule build.
      * If set to {@code true} and the build fails, none of the reactor projects is deployed
@@ -149,11 +157,12 @@ public class CeylonInstall extends AbstractMojo {
                     
                     File artifactFile = new File(localRepository.getBasedir(), localRepository.pathOf(artifact));
                     installAdditional(artifactFile, ".sha1", CeylonUtil.calculateChecksum(artifactFile), false);
-                    String deps = calculateDependencies(mavenProject);
+                    String deps = CeylonUtil.calculateDependencies(mavenProject);
                     if (!"".equals(deps)) {
                         installAdditional(artifactFile, "module.properties", deps, false);
                         installAdditional(artifactFile, ".module", deps, true);
                     }
+                    indexDependencies(artifactFile, localRepository);
                 } else {
                     throw new MojoExecutionException(
                         "The packaging for this project did not assign a file to the build artifact");
@@ -183,47 +192,43 @@ public class CeylonInstall extends AbstractMojo {
         } catch (IOException e) {
             throw new MojoExecutionException(e.getMessage(), e);
         }
+        invalidateLookups(artifact, repo);
+        try {
+            PackageIndex.addIfIndexed(new File(repo.getBasedir()), destFile);
+        } catch (IOException e) {
+            getLog().warn("Could not update the package index of " + repo.getBasedir() + ": " + e.getMessage());
+        }
     }
 
     /**
-     * Determines dependencies from the Maven project model.
+     * Brings the dependency index of the repository, if there is one, up to date with an installed module version.
      * 
-     * @param proj The Maven project
-     * @return String of dependency lines
-     * @throws MojoExecutionException In case the dependency version could not be determined
+     * @param artifactFile The installed artifact
+     * @param repo The Ceylon repository it was installed to
      */
-    String calculateDependencies(final MavenProject proj) throws MojoExecutionException {
-        
-        Module module = new Module(
-            new ModuleIdentifier(CeylonUtil.ceylonModuleBaseName(proj.getGroupId(), proj.getArtifactId()), 
-                proj.getVersion(), false, false));
-        
-        for (Dependency dep : proj.getDependencies()) {
-            if (dep.getVersion() != null && !"".equals(dep.getVersion())) {
-                if (!"test".equals(dep.getScope()) && dep.getSystemPath() == null) {
-                    module.addDependency(new ModuleIdentifier(
-                        CeylonUtil.ceylonModuleBaseName(dep.getGroupId(), dep.getArtifactId()), dep.getVersion(), 
-                            dep.isOptional(), false)
-                    ); 
-                }
-            } else {
-                throw new MojoExecutionException(
-                    "Dependency version for " + dep + " in project " + proj 
-                    + "could not be determined from the POM. Aborting.");
-            }
+    void indexDependencies(final File artifactFile, final ArtifactRepository repo) {
+        try {
+            DependencyIndex.updateIfIndexed(new File(repo.getBasedir()), artifactFile.getParentFile());
+        } catch (IOException e) {
+            getLog().warn("Could not update the dependency index of " + repo.getBasedir() + ": " + e.getMessage());
         }
-        
-        StringBuilder builder = new StringBuilder(CeylonUtil.STRING_BUILDER_SIZE);
-        for (ModuleIdentifier depMod : module.getDependencies()) {
-            builder.append(depMod.getName());
-            if (depMod.isOptional()) {
-                builder.append("?");
+    }
+
+    /**
+     * Tells the Ceylon caches, and the workspace reader if active, to forget what they knew about the installed module.
+     * 
+     * @param artifact The artifact that was installed
+     * @param repo The Ceylon repository it was installed to
+     */
+    void invalidateLookups(final Artifact artifact, final ArtifactRepository repo) {
+        VersionIndex.invalidate(new File(repo.getBasedir()), artifact.getGroupId(), artifact.getArtifactId());
+        if (session != null) {
+            WorkspaceReader reader = session.getRequest().getWorkspaceReader();
+            if (reader instanceof CeylonWorkspaceReader) {
+                ((CeylonWorkspaceReader) reader).invalidate(artifact.getGroupId(), artifact.getArtifactId(),
+                    artifact.getBaseVersion());
             }
-            
-            builder.append("=").append(depMod.getVersion());
-            builder.append(System.lineSeparator());
         }
-        return builder.toString();
     }
 
     /**
@@ -245,13 +245,14 @@ public class CeylonInstallJar extends CeylonInstall {
                 CeylonUtil.calculateChecksum(artifactFile), false);
             
             if (model != null) {
-                String deps = calculateDependencies(new MavenProject(model));
+                String deps = CeylonUtil.calculateDependencies(new MavenProject(model));
 
                 if (!"".equals(deps)) {
                     installAdditional(artifactFile, "module.properties", deps, false);
                     installAdditional(artifactFile, ".module", deps, true);
                 }
-            }            
+            }
+            indexDependencies(artifactFile, localRepository);
         } catch (Exception e) {
             throw new MojoExecutionException(e.getMessage(), e);
         }
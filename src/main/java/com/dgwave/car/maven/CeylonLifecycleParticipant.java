@@ -1,11 +1,20 @@
 package com.dgwave.car.maven;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
 import org.apache.maven.AbstractMavenLifecycleParticipant;
 import org.apache.maven.MavenExecutionException;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Dependency;
 import org.apache.maven.model.Repository;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
@@ -14,11 +23,27 @@ import org.apache.maven.settings.Profile;
 import org.codehaus.plexus.component.annotations.Component;
 import org.codehaus.plexus.component.annotations.Requirement;
 import org.codehaus.plexus.logging.Logger;
+import org.eclipse.aether.RepositorySystemSession;
 
+import com.dgwave.car.common.ArtifactPrefetcher;
 import com.dgwave.car.common.CeylonUtil;
+import com.dgwave.car.common.IntegrityVerifier;
+import com.dgwave.car.common.PluginState;
+import com.dgwave.car.common.RepositoryChain;
+import com.dgwave.car.common.RepositoryIndex;
+import com.dgwave.car.common.RepositoryWatcher;
+import com.dgwave.car.common.ResolutionLockfile;
+import com.dgwave.car.common.ResolutionTrace;
+import com.dgwave.car.common.SdkDiscoveryCache;
+import com.dgwave.car.common.VerifiedHashStore;
+import com.dgwave.car.repo.HttpArtifactSource;
+import com.dgwave.car.repo.HttpMetadataCache;
+import com.dgwave.car.repo.HttpRepositories;
+import com.dgwave.car.repo.HttpRepositoryClient;
 
 /**
- * If the Ceylon plugin is used or should be used, tries to find the SDK.
+ * If the Ceylon plugin is used or should be used, tries to find the SDK. Builds that do not use Ceylon are left
+ * untouched.
  * 
  * @author Akber Choudhry
  * 
@@ -26,6 +51,21 @@ import com.dgwave.car.common.CeylonUtil;
 @Component(role = AbstractMavenLifecycleParticipant.class, hint = "ceylon")
 public class CeylonLifecycleParticipant extends AbstractMavenLifecycleParticipant {
 
+    /**
+     * How long to wait for pending verifications at the end of the session, in milliseconds.
+     */
+    private static final long VERIFY_TIMEOUT = 60000L;
+
+    /**
+     * Group id of this plugin.
+     */
+    private static final String PLUGIN_GROUP_ID = "com.dgwave.car";
+
+    /**
+     * Artifact id of this plugin.
+     */
+    private static final String PLUGIN_ARTIFACT_ID = "ceylon-maven-plugin";
+
     @Requirement
     private Logger logger;
     
@@ -35,6 +75,13 @@ public class CeylonLifecycleParticipant extends AbstractMavenLifecycleParticipan
     @Requirement
     private RuntimeInformation runtime;
 
+    /**
+     * The state of each running session. The participant is a singleton, and sessions may run concurrently in one
+     * JVM.
+     */
+    private final Map<MavenSession, SessionState> sessions =
+        Collections.synchronizedMap(new IdentityHashMap<MavenSession, SessionState>());
+
     private void findCeylonRepo(MavenSession session) throws MavenExecutionException {
         String ceylonRepo = System.getProperty("ceylon.repo");
         // check from settings
@@ -53,6 +100,14 @@ public class CeylonLifecycleParticipant extends AbstractMavenLifecycleParticipan
         }
         
         if (ceylonRepo == null) {
+            SdkDiscoveryCache discovery = SdkDiscoveryCache.forEnvironment();
+            File state = SdkDiscoveryCache.defaultStateFile();
+            ceylonRepo = discovery.lookup(state);
+            if (ceylonRepo != null) {
+                logger.debug("Ceylon system repo discovered by a previous build: " + ceylonRepo);
+                System.setProperty(CeylonUtil.CEYLON_REPO, ceylonRepo);
+                return;
+            }
             // last resort
             CeylonSdkCheck mojo = new CeylonSdkCheck();
             
@@ -62,6 +117,13 @@ public class CeylonLifecycleParticipant extends AbstractMavenLifecycleParticipan
             } catch (MojoExecutionException e) {
                 throw new MavenExecutionException("Ceylon Maven plugin enabled but: ", e);
             }
+            if (ceylonRepo != null) {
+                try {
+                    discovery.record(state, ceylonRepo);
+                } catch (IOException e) {
+                    logger.debug("Could not remember the Ceylon system repo: " + e.getMessage());
+                }
+            }
         }
     };
     
@@ -72,32 +134,337 @@ public class CeylonLifecycleParticipant extends AbstractMavenLifecycleParticipan
      */
     @Override
     public void afterProjectsRead(final MavenSession session) throws MavenExecutionException {
-        boolean anyProject = false;
+        if (!isCeylonBuild(session)) {
+            logger.debug("No project uses Ceylon, leaving the build untouched");
+            return;
+        }
+        logger.info("At least one project is using the Ceylon plugin. Preparing.");
+        findCeylonRepo(session);
+        logger.info("Adding Ceylon repositories to build");
+        RepositoryIndex.newSession();
+        String baseDir = session.getRequest().getBaseDirectory();
+        RepositoryChain chain = RepositoryChain.configure(
+            new File(baseDir != null ? baseDir : System.getProperty("user.dir")));
+        logger.debug(chain.toString());
+        SessionState state = new SessionState();
+        state.workspaceReader = new CeylonWorkspaceReader(session.getRequest().getWorkspaceReader(), logger, chain);
+        state.workspaceReader.setReactorProjects(session.getProjects());
+        session.getRequest().setWorkspaceReader(state.workspaceReader);
+        sessions.put(session, state);
+        startWatcher(session, state);
+        loadLockfile(session, state, baseDir);
+        startPrefetch(session, state, chain, baseDir);
+        startVerifier(session, state);
+        startConverter(session, state);
+    }
+
+    /**
+     * Lets the workspace reader install <code>ceylon-jar</code> artifacts missing from the Ceylon repositories from
+     * the Maven local repository into the Ceylon cache repository (<code>ceylon.cache.repo</code>, or
+     * <code>~/.ceylon/cache</code>). Disabled with <code>-Dceylon.convert=false</code>.
+     * @param session The Maven session
+     * @param state The state of the session
+     */
+    private void startConverter(final MavenSession session, final SessionState state) {
+        Properties props = session.getUserProperties();
+        if ("false".equals(props.getProperty("ceylon.convert", System.getProperty("ceylon.convert")))
+            || session.getLocalRepository() == null) {
+            return;
+        }
+        String cache = props.getProperty("ceylon.cache.repo", System.getProperty("ceylon.cache.repo"));
+        if (cache == null) {
+            cache = System.getProperty("user.home") + File.separator + ".ceylon" + File.separator + "cache";
+        }
+        state.workspaceReader.setMavenJarConverter(new MavenJarConverter(
+            new File(session.getLocalRepository().getBasedir()), new File(cache), logger));
+    }
+
+    /**
+     * Starts verifying resolved artifacts against their .sha1 files, when enabled with
+     * <code>-Dceylon.verify=true</code>. The number of hashing threads is set with <code>ceylon.verify.threads</code>.
+     * @param session The Maven session
+     * @param state The state of the session
+     */
+    private void startVerifier(final MavenSession session, final SessionState state) {
+        Properties props = session.getUserProperties();
+        if (!"true".equals(props.getProperty("ceylon.verify", System.getProperty("ceylon.verify")))) {
+            return;
+        }
+        int threads = IntegrityVerifier.DEFAULT_THREADS;
+        String threadsProp = props.getProperty("ceylon.verify.threads", System.getProperty("ceylon.verify.threads"));
+        if (threadsProp != null) {
+            try {
+                threads = Integer.parseInt(threadsProp);
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring invalid ceylon.verify.threads: " + threadsProp);
+            }
+        }
+        state.verifiedHashes = VerifiedHashStore.load(VerifiedHashStore.defaultStoreFile());
+        state.verifier = new IntegrityVerifier(state.verifiedHashes, threads);
+        state.workspaceReader.setIntegrityVerifier(state.verifier);
+    }
+
+    /**
+     * Waits for pending verifications and saves the verified hashes.
+     * @param state The state of the session
+     * @throws MavenExecutionException If a resolved artifact does not match its .sha1
+     */
+    private void finishVerifier(final SessionState state) throws MavenExecutionException {
+        List<String> failures;
+        try {
+            failures = state.verifier.finish(VERIFY_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            state.workspaceReader.setIntegrityVerifier(null);
+        }
+        logger.debug(state.verifier.toString());
+        if (state.verifiedHashes.isChanged()) {
+            try {
+                state.verifiedHashes.write(VerifiedHashStore.defaultStoreFile());
+            } catch (IOException e) {
+                logger.warn("Could not save verified Ceylon artifact hashes: " + e.getMessage());
+            }
+        }
+        if (!failures.isEmpty()) {
+            for (String failure : failures) {
+                logger.error("Corrupt Ceylon artifact " + failure);
+            }
+            throw new MavenExecutionException(failures.size() + " resolved Ceylon artifact(s) failed verification",
+                (File) null);
+        }
+    }
+
+    /**
+     * Starts warming, in the background, the repository indexes and the artifacts the previous build of this
+     * project resolved, in the order it resolved them. Traced artifacts no longer in the Ceylon cache repository are
+     * downloaded again from the HTTP Ceylon repositories of the projects, with the clients their connectors will
+     * share. Enabled with <code>-Dceylon.prefetch=true</code>, since it reads every traced file.
+     * @param session The Maven session
+     * @param state The state of the session
+     * @param chain The repository chain
+     * @param baseDir The base directory of the build, may be null
+     */
+    private void startPrefetch(final MavenSession session, final SessionState state, final RepositoryChain chain,
+            final String baseDir) {
+        if (!"true".equals(session.getUserProperties().getProperty("ceylon.prefetch",
+            System.getProperty("ceylon.prefetch")))) {
+            return;
+        }
+        state.traceFile = ResolutionTrace.defaultTraceFile(new File(baseDir != null ? baseDir
+            : System.getProperty("user.dir")));
+        state.previousTrace = ResolutionTrace.load(state.traceFile);
+        state.prefetcher = new ArtifactPrefetcher(chain, state.previousTrace, httpSource(session));
+    }
+
+    /**
+     * The HTTP Ceylon repositories of the projects of a session, as a source of missing artifacts.
+     * @param session The Maven session
+     * @return HttpArtifactSource The source, or null if no project uses an HTTP Ceylon repository
+     */
+    private HttpArtifactSource httpSource(final MavenSession session) {
+        RepositorySystemSession repoSession = session.getRepositorySession();
+        if (repoSession == null) {
+            return null;
+        }
+        LinkedHashSet<String> urls = new LinkedHashSet<String>();
         for (MavenProject project : session.getProjects()) {
-            if (project.getPlugin("ceylon") != null
-            	|| project.getPlugin("ceylon-maven-plugin") != null
-            	|| "ceylon".equals(project.getArtifact().getArtifactHandler().getPackaging())
-                || "car".equals(project.getArtifact().getArtifactHandler().getPackaging())
-                || "ceylon-jar".equals(project.getArtifact().getArtifactHandler().getPackaging())
-                || usesCeylonRepo(project)) {
-            	anyProject = true;
+            for (Repository repo : project.getRepositories()) {
+                if ("ceylon".equals(repo.getId()) && HttpRepositoryClient.isHttp(repo.getUrl())) {
+                    urls.add(repo.getUrl());
+                }
             }
         }
-        if (anyProject) {
-        	logger.info("At least one project is using the Ceylon plugin. Preparing.");
-        	findCeylonRepo(session);
+        List<HttpRepositories.Remote> remotes = new ArrayList<HttpRepositories.Remote>();
+        for (String url : urls) {
+            try {
+                remotes.add(HttpRepositories.forSession(repoSession).get(repoSession, url));
+            } catch (IOException e) {
+                logger.debug("Not prefetching from " + url + ": " + e.getMessage());
+            }
         }
-        logger.info("Adding Ceylon repositories to build");
-        session.getRequest().setWorkspaceReader(
-        		new CeylonWorkspaceReader(
-        				session.getRequest().getWorkspaceReader(),
-        				logger));
+        return remotes.isEmpty() ? null : new HttpArtifactSource(HttpRepositories.cacheRepo(repoSession), remotes);
     }
 
     /**
-     * Checks that a project use the Ceylon Maven plugin.
+     * Loads the resolution lockfile, when enabled with <code>-Dceylon.lockfile=true</code> (for
+     * <code>ceylon.lock</code> in the base directory) or <code>-Dceylon.lockfile=path</code>.
+     * @param session The Maven session
+     * @param state The state of the session
+     * @param baseDir The base directory of the build, may be null
+     */
+    private void loadLockfile(final MavenSession session, final SessionState state, final String baseDir) {
+        String value = session.getUserProperties().getProperty("ceylon.lockfile",
+            System.getProperty("ceylon.lockfile"));
+        if (value == null || "false".equals(value)) {
+            return;
+        }
+        File base = new File(baseDir != null ? baseDir : System.getProperty("user.dir"));
+        File file = new File("true".equals(value) || value.length() == 0 ? "ceylon.lock" : value);
+        if (!file.isAbsolute()) {
+            file = new File(base, file.getPath());
+        }
+        state.lockfileFile = file;
+        state.lockfile = ResolutionLockfile.load(file);
+        state.workspaceReader.setLockfile(state.lockfile);
+        logger.debug("Ceylon resolution lockfile " + file + ": " + state.lockfile.getLockedCount() + " entries");
+    }
+
+    /**
+     * Starts watching the Ceylon repository so that cached lookups are evicted when the Ceylon CLI, the IDE or
+     * another build writes to it. Disabled with <code>-Dceylon.watch=false</code>; the number of directories
+     * watched before falling back to polling is set with <code>ceylon.watch.max</code>.
+     * @param session The Maven session
+     * @param state The state of the session
+     */
+    private void startWatcher(final MavenSession session, final SessionState state) {
+        Properties props = session.getUserProperties();
+        if ("false".equals(props.getProperty("ceylon.watch", System.getProperty("ceylon.watch")))) {
+            return;
+        }
+        int max = RepositoryWatcher.DEFAULT_MAX_WATCHES;
+        String maxProp = props.getProperty("ceylon.watch.max", System.getProperty("ceylon.watch.max"));
+        if (maxProp != null) {
+            try {
+                max = Integer.parseInt(maxProp);
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring invalid ceylon.watch.max: " + maxProp);
+            }
+        }
+        try {
+            state.watcher = new RepositoryWatcher(state.workspaceReader, max, RepositoryWatcher.DEFAULT_POLL_INTERVAL);
+            state.workspaceReader.setRepositoryWatcher(state.watcher);
+        } catch (IOException e) {
+            logger.warn("Ceylon repository changes will not be watched: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reports Ceylon lookup statistics and closes the HTTP clients of the session at its end.
+     * @param session The Maven session
+     * @throws MavenExecutionException In case of error
+     */
+    @Override
+    public void afterSessionEnd(final MavenSession session) throws MavenExecutionException {
+        if (session.getResult() != null && !session.getResult().hasExceptions()) {
+            for (MavenProject project : session.getProjects()) {
+                if (Boolean.TRUE.equals(project.getContextValue(CeylonDeploy.DEFERRED))) {
+                    logger.warn(project.getId() + " was not deployed: ceylon:deploy deferred it to the end of the "
+                        + "build, but the last project using the Ceylon plugin did not run the goal");
+                }
+            }
+        }
+        HttpRepositories.closeSession(session.getRepositorySession());
+        try {
+            HttpMetadataCache.saveShared();
+        } catch (IOException e) {
+            logger.warn("Could not save the Ceylon HTTP metadata cache: " + e.getMessage());
+        }
+        SessionState state = sessions.remove(session);
+        if (state == null) {
+            return;
+        }
+        if (state.watcher != null) {
+            logger.debug("Ceylon repository watcher: " + state.watcher.getWatchCount() + " watched, "
+                + state.watcher.getPolledCount() + " polled directories");
+            try {
+                state.watcher.close();
+            } catch (IOException e) {
+                logger.warn("Error stopping the Ceylon repository watcher: " + e.getMessage());
+            }
+        }
+        if (state.prefetcher != null) {
+            state.prefetcher.close();
+            logger.debug(state.prefetcher.toString());
+        }
+        if (state.traceFile != null) {
+            ResolutionTrace trace = state.workspaceReader.getResolutionTrace();
+            if (trace.size() > 0 && !trace.sameAs(state.previousTrace)) {
+                try {
+                    trace.write(state.traceFile);
+                } catch (IOException e) {
+                    logger.warn("Could not write Ceylon resolution trace " + state.traceFile + ": " + e.getMessage());
+                }
+            }
+        }
+        if (state.lockfile != null) {
+            logger.debug("Ceylon resolution lockfile: " + state.lockfile);
+            if (state.lockfile.isChanged()) {
+                try {
+                    state.lockfile.write(state.lockfileFile);
+                } catch (IOException e) {
+                    logger.warn("Could not write Ceylon resolution lockfile " + state.lockfileFile + ": "
+                        + e.getMessage());
+                }
+            }
+        }
+        try {
+            if (state.verifier != null) {
+                finishVerifier(state);
+            }
+        } finally {
+            releaseReader(state);
+        }
+    }
+
+    /**
+     * Detaches the workspace reader from the session's helpers and reports its statistics.
+     * @param state The state of the session
+     */
+    private void releaseReader(final SessionState state) {
+        state.workspaceReader.setRepositoryWatcher(null);
+        logger.debug("Ceylon repository lookup cache: " + state.workspaceReader.getLookupCache());
+        logger.debug(state.workspaceReader.getRepositoryChain().toString());
+        logger.debug(PluginState.shared().toString());
+    }
+
+    /**
+     * Whether the build needs Ceylon: some project uses this plugin, a Ceylon packaging, a Ceylon repository or a
+     * <code>car</code> or <code>ceylon-jar</code> dependency. Forced either way with
+     * <code>-Dceylon.activate=true|false</code>. When it does not, nothing is installed and the build pays nothing
+     * for the extension.
+     * @param session The Maven session
+     * @return True if the Ceylon repositories should be added to the build
+     */
+    private boolean isCeylonBuild(final MavenSession session) {
+        String activate = session.getUserProperties().getProperty("ceylon.activate",
+            System.getProperty("ceylon.activate"));
+        if (activate != null) {
+            return !"false".equals(activate);
+        }
+        for (MavenProject project : session.getProjects()) {
+            String packaging = project.getArtifact().getArtifactHandler().getPackaging();
+            if (project.getPlugin(PLUGIN_GROUP_ID + ":" + PLUGIN_ARTIFACT_ID) != null
+                || "ceylon".equals(packaging)
+                || "car".equals(packaging)
+                || "ceylon-jar".equals(packaging)
+                || usesCeylonRepo(project)
+                || hasCarDependency(project)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a project depends on a Ceylon module archive.
+     * @param project Project
+     * @return true if a dependency is of type <code>car</code> or <code>ceylon-jar</code>
+     */
+    private boolean hasCarDependency(final MavenProject project) {
+        for (Dependency dependency : project.getDependencies()) {
+            if ("car".equals(dependency.getType()) || "ceylon-jar".equals(dependency.getType())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a project uses a Ceylon repository, or this plugin as a build extension.
      * @param project Project
-     * @return true if the Ceylon plugin is used, false if not used
+     * @return true if a repository has the <code>ceylon</code> layout or this plugin is among the plugin artifacts
      */
     private boolean usesCeylonRepo(final MavenProject project) {
         for (Repository repo : project.getRepositories()) {
@@ -107,10 +474,61 @@ public class CeylonLifecycleParticipant extends AbstractMavenLifecycleParticipan
         }
         
         for (Artifact ext : project.getPluginArtifacts()) {
-            if (ext.getArtifactId().startsWith("ceylon")) {
+            if (PLUGIN_GROUP_ID.equals(ext.getGroupId()) && PLUGIN_ARTIFACT_ID.equals(ext.getArtifactId())) {
                 return true;
             }
         }
         return false;
     }
+
+    /**
+     * What the participant set up for one session.
+     */
+    private static final class SessionState {
+
+        /**
+         * The workspace reader installed for the session.
+         */
+        private CeylonWorkspaceReader workspaceReader;
+
+        /**
+         * Watches the Ceylon repository for changes made outside this build.
+         */
+        private RepositoryWatcher watcher;
+
+        /**
+         * The resolution lockfile, when enabled.
+         */
+        private ResolutionLockfile lockfile;
+
+        /**
+         * Where the resolution lockfile is written.
+         */
+        private File lockfileFile;
+
+        /**
+         * Warms what the previous build resolved.
+         */
+        private ArtifactPrefetcher prefetcher;
+
+        /**
+         * Where the resolution trace of this build is written, null if prefetching is disabled.
+         */
+        private File traceFile;
+
+        /**
+         * The resolution trace of the previous build.
+         */
+        private List<File> previousTrace;
+
+        /**
+         * Checks resolved artifacts against their .sha1 files, when enabled.
+         */
+        private IntegrityVerifier verifier;
+
+        /**
+         * The verified hashes used by the verifier.
+         */
+        private VerifiedHashStore verifiedHashes;
+    }
 }
\ No newline at end of file
@@ -1,7 +1,7 @@
 package com.dgwave.car.maven;
 
 import java.io.File;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.codehaus.plexus.component.annotations.Component;
@@ -11,7 +11,7 @@ import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.repository.WorkspaceReader;
 import org.eclipse.aether.repository.WorkspaceRepository;
 
-import com.dgwave.car.common.CeylonUtil;
+import com.dgwave.car.common.RepositoryChain;
 
 /**
  * For future IDE support.
@@ -22,6 +22,11 @@ public class CeylonRepoReader implements WorkspaceReader {
     
     @Requirement
     private Logger logger;
+
+    /**
+     * The Ceylon repositories configured for the working directory, set up on first use.
+     */
+    private volatile RepositoryChain chain;
     
     /* (non-Javadoc)
      * @see org.eclipse.aether.repository.WorkspaceReader#getRepository()
@@ -42,9 +47,10 @@ public class CeylonRepoReader implements WorkspaceReader {
                 type = "jar";
             }
 
-            File art = new File(CeylonUtil.ceylonSystemFullPath(artifact, type));
+            File art = getChain().find(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(),
+                artifact.getClassifier(), type);
             
-            if (art.isFile()) {
+            if (art != null) {
             	 if (logger != null) {
             		 logger.info("Resolved from Ceylon repo: " + artifact);
             	 }
@@ -60,7 +66,21 @@ public class CeylonRepoReader implements WorkspaceReader {
      */
     @Override
     public List<String> findVersions(final Artifact artifact) {
-        return Arrays.asList(new String[]{artifact.getVersion()});
+        String type = artifact.getProperty("type", "jar");
+        if ("ceylon-jar".equals(type) || "car".equals(type)) {
+            return getChain().versions(artifact.getGroupId(), artifact.getArtifactId());
+        }
+        return Collections.emptyList();
     }
 
+    /**
+     * The repository chain, configured from the <code>.ceylon/config</code> of the working directory.
+     * @return RepositoryChain The chain
+     */
+    private RepositoryChain getChain() {
+        if (chain == null) {
+            chain = RepositoryChain.configure(new File(System.getProperty("user.dir")));
+        }
+        return chain;
+    }
 }
@@ -10,6 +10,8 @@ import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
+import com.dgwave.car.common.ZipRepository;
+
 import static com.dgwave.car.common.CeylonUtil.CEYLON_REPO;;
 
 /**
@@ -77,8 +79,9 @@ public class CeylonSdkCheck extends AbstractMojo {
             throw new MojoExecutionException("Ceylon system repo (ceylon.repo or CEYLON_HOME) not set,"
                 + " or repo not found in them, or in {user.home}/.ceylon/ceylon-1.x.x/repo. "
                 + "Please use goal ceylon:sdk-download");
-        } else if (!sysRepo.isDirectory()) {
-            throw new MojoExecutionException("Ceylon system repo found but does not exist or is not a directory");
+        } else if (!sysRepo.isDirectory() && !ZipRepository.isArchive(sysRepo)) {
+            throw new MojoExecutionException(
+                "Ceylon system repo found but does not exist or is not a directory or a zipped SDK");
         } else {
             System.setProperty(CEYLON_REPO, sysRepo.getAbsolutePath());
             getLog().info("Ceylon system repo set to " + System.getProperty(CEYLON_REPO));
@@ -14,6 +14,7 @@ import org.apache.maven.wagon.repository.Repository;
 import org.codehaus.plexus.util.FileUtils;
 
 import com.dgwave.car.common.CeylonUtil;
+import com.dgwave.car.common.ZipRepository;
 
 /**
  * Looks up 'ceylon.repo' or CEYLON_HOME/repo system property for the Ceylon system repository. 
@@ -43,6 +44,13 @@ public class CeylonSdkDownload extends AbstractMojo {
         defaultValue = "http://downloads.ceylon-lang.org/cli/ceylon-1.0.0.zip")
     private String fromURL;
 
+    /**
+     * Set this to <code>false</code> to keep the downloaded SDK zipped, and serve its repository straight from the
+     * archive instead of extracting it.
+     */
+    @Parameter(property = "ceylon.sdk.extract", defaultValue = "true")
+    private boolean extract = true;
+
     /**
      * HTTP wagon.
      * 
@@ -94,7 +102,7 @@ public class CeylonSdkDownload extends AbstractMojo {
     /**
      * Download the Ceylon SDK.
      * @param path Where to download
-     * @return File The location of the SDK
+     * @return File The location of the SDK's repo folder, or the SDK archive when not extracting
      * @throws MojoExecutionException In case of download error
      */
     private File downloadSdk(final String path) throws MojoExecutionException {
@@ -119,6 +127,11 @@ public class CeylonSdkDownload extends AbstractMojo {
        
         File outputFile = new File(dotCeylon, file);
         
+        if (!extract && ZipRepository.isArchive(outputFile)) {
+            getLog().info("Skipping download: SDK archive " + outputFile.getAbsolutePath() + " already exists");
+            return outputFile;
+        }
+        
         if (outputFile.exists()) {
             throw new MojoExecutionException("Downloaded file " + outputFile.getAbsolutePath() 
                 + " exists. Please remove it and try again");
@@ -130,6 +143,12 @@ public class CeylonSdkDownload extends AbstractMojo {
             throw new MojoExecutionException("Error downloading SDK" + e.getLocalizedMessage(), e);
         }
         
+        if (!extract) {
+            getLog().info("Serving the Ceylon system repo from " + outputFile.getAbsolutePath()
+                + " without extracting it");
+            return outputFile;
+        }
+        
         CeylonUtil.extract(outputFile, dotCeylon);
         
         outputFile.delete();
@@ -1,27 +1,89 @@
 package com.dgwave.car.maven;
 
 import java.io.File;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.TreeSet;
 
+import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.logging.Logger;
 import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.repository.WorkspaceReader;
 import org.eclipse.aether.repository.WorkspaceRepository;
 
-import com.dgwave.car.common.CeylonUtil;
+import com.dgwave.car.common.ArtifactLookupCache;
+import com.dgwave.car.common.IntegrityVerifier;
+import com.dgwave.car.common.ModuleVersion;
+import com.dgwave.car.common.RepositoryChain;
+import com.dgwave.car.common.RepositoryIndex;
+import com.dgwave.car.common.RepositoryListener;
+import com.dgwave.car.common.RepositoryWatcher;
+import com.dgwave.car.common.ResolutionLockfile;
+import com.dgwave.car.common.ResolutionTrace;
 
-public class CeylonWorkspaceReader implements WorkspaceReader {
+public class CeylonWorkspaceReader implements WorkspaceReader, RepositoryListener {
 
 	private WorkspaceReader reader;
 	private Logger logger;
 	private WorkspaceRepository repo;
 
+	/**
+	 * Session-scoped cache of Ceylon repository hits and misses.
+	 */
+	private final ArtifactLookupCache cache = new ArtifactLookupCache();
+
+	/**
+	 * Watches the repository directories behind cached lookups, if enabled.
+	 */
+	private RepositoryWatcher watcher;
+
+	/**
+	 * The Ceylon repositories to look in, in order.
+	 */
+	private final RepositoryChain chain;
+
+	/**
+	 * Projects of the current reactor, resolved in place.
+	 */
+	private ReactorArtifacts reactor;
+
+	/**
+	 * Resolutions recorded by the previous build and being recorded by this one, if enabled.
+	 */
+	private ResolutionLockfile lockfile;
+
+	/**
+	 * Records the order artifacts are resolved in, for prefetching by the next build.
+	 */
+	private final ResolutionTrace trace = new ResolutionTrace();
+
+	/**
+	 * Checks resolved artifacts against their .sha1 files, if enabled.
+	 */
+	private IntegrityVerifier verifier;
+
+	/**
+	 * Installs missing <code>ceylon-jar</code> artifacts from the Maven local repository, if enabled.
+	 */
+	private MavenJarConverter converter;
+
 	public CeylonWorkspaceReader(WorkspaceReader chainedReader, Logger logger) {
+		this(chainedReader, logger, RepositoryChain.systemOnly());
+	}
+
+	/**
+	 * Constructor.
+	 * @param chainedReader The reader to delegate non-Ceylon artifacts to, may be null
+	 * @param logger The logger
+	 * @param repositories The Ceylon repositories to look in, in order
+	 */
+	public CeylonWorkspaceReader(final WorkspaceReader chainedReader, final Logger logger,
+			final RepositoryChain repositories) {
 		this.reader = chainedReader;
 		this.logger = logger;
 		this.repo = new WorkspaceRepository("ceylon");
+		this.chain = repositories;
 	}
 
 	@Override
@@ -29,41 +91,245 @@ public class CeylonWorkspaceReader implements WorkspaceReader {
 		return repo;
 	}
 
-    @Override
-    public File findArtifact(final Artifact artifact) {
-        String type = artifact.getProperty("type", "jar");
-        if ("ceylon-jar".equals(type) || "car".equals(type)) {
-            if ("ceylon-jar".equals(type)) {
-                type = "jar";
-            }
-
-            File art = new File(CeylonUtil.ceylonSystemFullPath(artifact, type));
-            
-            if (art.isFile()) {
-            	 if (logger != null) {
-            		 logger.info("Resolved from Ceylon repo: " + artifact);
-            	 }
-                artifact.setFile(art);
-                return art;
-            }
-        } else {
-        	if (reader != null) {
-        		return reader.findArtifact(artifact);
-        	}
-        }
-        return null;
-    }
+	@Override
+	public File findArtifact(final Artifact artifact) {
+		String type = artifact.getProperty("type", "jar");
+		if ("ceylon-jar".equals(type) || "car".equals(type)) {
+			if ("ceylon-jar".equals(type)) {
+				type = "jar";
+			}
+
+			File art = null;
+			if (reactor != null) {
+				art = reactor.find(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(),
+					artifact.getClassifier());
+				if (art != null) {
+					if (logger != null) {
+						logger.debug("Resolved from reactor: " + artifact);
+					}
+					return art;
+				}
+			}
+
+			art = cache.get(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(),
+				artifact.getClassifier(), type);
+			if (art == null) {
+				if (lockfile != null) {
+					art = lockfile.find(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(),
+						artifact.getClassifier(), type);
+				}
+				if (art == null) {
+					art = chain.find(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(),
+						artifact.getClassifier(), type);
+				}
+				if (art == null && converter != null && "jar".equals(type)
+					&& (artifact.getClassifier() == null || artifact.getClassifier().length() == 0)) {
+					art = convert(artifact);
+				}
+				if (art != null && lockfile != null) {
+					lockfile.record(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(),
+						artifact.getClassifier(), type, art);
+				}
+				cache.put(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(),
+					artifact.getClassifier(), type, art);
+				watch(art, artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion());
+			} else if (art == ArtifactLookupCache.NOT_FOUND) {
+				art = null;
+			}
+
+			if (art != null && verifier != null) {
+				if (verifier.isCorrupt(art)) {
+					if (logger != null) {
+						logger.warn("Not resolving " + artifact + ": " + art + " does not match its .sha1");
+					}
+					return null;
+				}
+				verifier.verify(art);
+			}
+
+			if (art != null) {
+				if (logger != null) {
+					logger.info("Resolved from Ceylon repo: " + artifact);
+				}
+				trace.record(art);
+				artifact.setFile(art);
+				return art;
+			}
+		} else {
+			if (reader != null) {
+				return reader.findArtifact(artifact);
+			}
+		}
+		return null;
+	}
 
 	@Override
 	public List<String> findVersions(Artifact artifact) {
-        String type = artifact.getProperty("type", "jar");
-        if ("ceylon-jar".equals(type) || "car".equals(type)) {
-        	return Arrays.asList(new String[]{artifact.getVersion()});
-        } else {
-        	if (reader != null) {
-        		return reader.findVersions(artifact);
-        	}
-        }
-        return Collections.emptyList();
+		String type = artifact.getProperty("type", "jar");
+		if ("ceylon-jar".equals(type) || "car".equals(type)) {
+			watch(null, artifact.getGroupId(), artifact.getArtifactId(), null);
+			List<String> versions = chain.versions(artifact.getGroupId(), artifact.getArtifactId());
+			if (reactor != null) {
+				List<String> built = reactor.versions(artifact.getGroupId(), artifact.getArtifactId());
+				if (!built.isEmpty()) {
+					TreeSet<ModuleVersion> merged = new TreeSet<ModuleVersion>();
+					for (String v : versions) {
+						merged.add(new ModuleVersion(v));
+					}
+					for (String v : built) {
+						merged.add(new ModuleVersion(v));
+					}
+					versions = new ArrayList<String>(merged.size());
+					for (ModuleVersion v : merged) {
+						versions.add(v.getVersion());
+					}
+				}
+			}
+			return versions;
+		} else {
+			if (reader != null) {
+				return reader.findVersions(artifact);
+			}
+		}
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Installs a jar of the Maven local repository into the Ceylon repository, and makes the chain see it.
+	 * @param artifact The artifact
+	 * @return File The installed jar, or null
+	 */
+	private File convert(final Artifact artifact) {
+		File art = converter.convert(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion());
+		if (art != null) {
+			chain.changed(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion());
+			if (logger != null) {
+				logger.debug("Installed from the Maven local repository into " + converter.getCeylonRepo() + ": "
+					+ artifact);
+			}
+		}
+		return art;
+	}
+
+	/**
+	 * Watches a module version in the repository that holds it or, for a miss, the module in every repository of
+	 * the chain, if a watcher is set.
+	 * @param art The artifact found, or null
+	 * @param groupId Maven group id
+	 * @param artifactId Maven artifact id
+	 * @param version Version, may be null
+	 */
+	private void watch(final File art, final String groupId, final String artifactId, final String version) {
+		if (watcher == null) {
+			return;
+		}
+		if (art != null) {
+			File root = chain.rootOf(art);
+			if (root != null) {
+				watcher.watch(root, groupId, artifactId, version);
+			}
+			return;
+		}
+		for (File root : chain.getRoots()) {
+			watcher.watch(root, groupId, artifactId, null);
+		}
+	}
+
+	/**
+	 * Forgets cached lookups for a module version, e.g. after it has been installed.
+	 * @param groupId Maven group id
+	 * @param artifactId Maven artifact id
+	 * @param version Version
+	 */
+	public void invalidate(final String groupId, final String artifactId, final String version) {
+		cache.invalidate(groupId, artifactId, version);
+		chain.changed(groupId, artifactId, version);
+	}
+
+	/**
+	 * Evicts what is cached about a module, or one version of it, after it changed on disk.
+	 * @param repoRoot The repository root directory
+	 * @param groupId Maven group id
+	 * @param artifactId Maven artifact id
+	 * @param version The version that changed, or null if the set of versions changed
+	 */
+	@Override
+	public void moduleChanged(final File repoRoot, final String groupId, final String artifactId,
+			final String version) {
+		if (version != null) {
+			cache.invalidate(groupId, artifactId, version);
+		}
+		chain.changed(groupId, artifactId, version);
+	}
+
+	/**
+	 * Forgets everything cached about the repository after change notifications were lost.
+	 * @param repoRoot The repository root directory
+	 */
+	@Override
+	public void repositoryChanged(final File repoRoot) {
+		cache.invalidateAll();
+		RepositoryIndex.release(repoRoot);
+	}
+
+	/**
+	 * Sets the reactor projects whose outputs resolve in place.
+	 * @param projects The reactor projects
+	 */
+	public void setReactorProjects(final List<MavenProject> projects) {
+		this.reactor = projects == null ? null : new ReactorArtifacts(projects);
+	}
+
+	/**
+	 * @return ResolutionTrace The artifacts resolved so far, in resolution order
+	 */
+	public ResolutionTrace getResolutionTrace() {
+		return trace;
+	}
+
+	/**
+	 * Sets the verifier that checks resolved artifacts against their .sha1 files.
+	 * @param integrityVerifier The verifier, may be null
+	 */
+	public void setIntegrityVerifier(final IntegrityVerifier integrityVerifier) {
+		this.verifier = integrityVerifier;
+	}
+
+	/**
+	 * Sets the converter that installs missing <code>ceylon-jar</code> artifacts from the Maven local repository.
+	 * @param jarConverter The converter, may be null
+	 */
+	public void setMavenJarConverter(final MavenJarConverter jarConverter) {
+		this.converter = jarConverter;
+	}
+
+	/**
+	 * Sets the lockfile that answers lookups recorded by the previous build and records this build's.
+	 * @param resolutionLockfile The lockfile, may be null
+	 */
+	public void setLockfile(final ResolutionLockfile resolutionLockfile) {
+		this.lockfile = resolutionLockfile;
+	}
+
+	/**
+	 * Sets the watcher that keeps cached lookups current.
+	 * @param repositoryWatcher The watcher, may be null
+	 */
+	public void setRepositoryWatcher(final RepositoryWatcher repositoryWatcher) {
+		this.watcher = repositoryWatcher;
+	}
+
+	/**
+	 * @return RepositoryChain The Ceylon repositories looked in
+	 */
+	public RepositoryChain getRepositoryChain() {
+		return chain;
+	}
+
+	/**
+	 * @return ArtifactLookupCache The lookup cache, for hit/miss statistics
+	 */
+	public ArtifactLookupCache getLookupCache() {
+		return cache;
 	}
 }
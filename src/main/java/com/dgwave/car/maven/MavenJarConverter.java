@@ -0,0 +1,263 @@
+package com.dgwave.car.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.ReaderFactory;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+
+import com.dgwave.car.common.CeylonUtil;
+import com.dgwave.car.common.RepositoryPaths;
+
+/**
+ * Installs jars of the Maven local repository into a Ceylon repository when they are first resolved as Ceylon
+ * modules, as <code>ceylon:install-jar</code> would: with a <code>.sha1</code>, and <code>module.properties</code>
+ * and <code>.module</code> files generated from the jar's POM. The files are written under a temporary name and
+ * moved into place, the jar last, while holding a lock on the Ceylon repository, so concurrent builds and threads
+ * convert a jar once and never see a partial module. A jar already converted is served as is, unless the
+ * Maven local repository has a newer one.
+ *
+ * @author Akber Choudhry
+ */
+public final class MavenJarConverter {
+
+    /**
+     * Name of the lock file in the Ceylon repository.
+     */
+    private static final String LOCK_FILE = ".convert.lock";
+
+    /**
+     * Locks held by the threads of this JVM, by lock file. File locks are held per JVM, so threads must also exclude
+     * each other.
+     */
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * The Maven local repository.
+     */
+    private final File mavenRepo;
+
+    /**
+     * The Ceylon repository jars are installed into.
+     */
+    private final File ceylonRepo;
+
+    /**
+     * The logger, may be null.
+     */
+    private final Logger logger;
+
+    /**
+     * Constructor.
+     * @param mavenRepo The Maven local repository
+     * @param ceylonRepo The Ceylon repository to install into, usually the cache repository
+     * @param logger The logger, may be null
+     */
+    public MavenJarConverter(final File mavenRepo, final File ceylonRepo, final Logger logger) {
+        this.mavenRepo = mavenRepo;
+        this.ceylonRepo = ceylonRepo;
+        this.logger = logger;
+    }
+
+    /**
+     * @return File The Ceylon repository jars are installed into
+     */
+    public File getCeylonRepo() {
+        return ceylonRepo;
+    }
+
+    /**
+     * Installs a jar of the Maven local repository into the Ceylon repository, unless already done.
+     *
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @param version Version
+     * @return File The jar in the Ceylon repository, or null if the Maven local repository does not have it, its
+     * dependencies cannot be determined from its POM alone, or one of them has no Ceylon module name
+     */
+    public File convert(final String groupId, final String artifactId, final String version) {
+        String mavenDir = CeylonUtil.formatAsDirectory(groupId) + CeylonUtil.PATH_SEPARATOR + artifactId
+            + CeylonUtil.PATH_SEPARATOR + version + CeylonUtil.PATH_SEPARATOR;
+        String baseName = artifactId + CeylonUtil.ARTIFACT_SEPARATOR + version;
+        File jar = new File(mavenRepo, mavenDir + baseName + ".jar");
+        if (!jar.isFile()) {
+            return null;
+        }
+        File target;
+        try {
+            target = new File(ceylonRepo, RepositoryPaths.path(groupId, artifactId, version, null, "jar"));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (isCurrent(target, jar)) {
+            return target;
+        }
+
+        File lockPath = new File(ceylonRepo, LOCK_FILE).getAbsoluteFile();
+        Object lock = new Object();
+        Object existing = LOCKS.putIfAbsent(lockPath.getPath(), lock);
+        lock = existing != null ? existing : lock;
+        synchronized (lock) {
+            RandomAccessFile lockFile = null;
+            FileLock fileLock = null;
+            try {
+                ceylonRepo.mkdirs();
+                lockFile = new RandomAccessFile(lockPath, "rw");
+                FileChannel channel = lockFile.getChannel();
+                fileLock = channel.lock();
+                if (isCurrent(target, jar)) {
+                    return target;
+                }
+                install(jar, new File(mavenRepo, mavenDir + baseName + ".pom"), target);
+                debug("Converted " + jar + " into Ceylon repository " + ceylonRepo);
+                return target;
+            } catch (IOException e) {
+                debug("Could not convert " + jar + ": " + e.getMessage());
+                return null;
+            } catch (MojoExecutionException e) {
+                debug("Could not convert " + jar + ", use ceylon:install-jar: " + e.getMessage());
+                return null;
+            } catch (IllegalArgumentException e) {
+                debug("Could not convert " + jar + ", use ceylon:install-jar: " + e.getMessage());
+                return null;
+            } finally {
+                if (fileLock != null) {
+                    try {
+                        fileLock.release();
+                    } catch (IOException e) {
+                        debug("Could not release " + lockPath);
+                    }
+                }
+                if (lockFile != null) {
+                    try {
+                        lockFile.close();
+                    } catch (IOException e) {
+                        debug("Could not close " + lockPath);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether a jar was converted and is not older than the jar of the Maven local repository.
+     * @param target The converted jar
+     * @param jar The jar of the Maven local repository
+     * @return boolean True if the conversion can be used
+     */
+    private static boolean isCurrent(final File target, final File jar) {
+        return target.isFile() && target.lastModified() >= jar.lastModified();
+    }
+
+    /**
+     * Writes the descriptors, the checksum and then the jar.
+     * @param jar The jar of the Maven local repository
+     * @param pom Its POM, which may not exist
+     * @param target The jar in the Ceylon repository
+     * @throws IOException In case of IO error
+     * @throws MojoExecutionException If the POM cannot be read, or a dependency version is not in it or is a property
+     */
+    private void install(final File jar, final File pom, final File target)
+            throws IOException, MojoExecutionException {
+        File dir = target.getParentFile();
+        String deps = "";
+        if (pom.isFile()) {
+            Model model = readModel(pom);
+            for (Dependency dep : model.getDependencies()) {
+                if (dep.getVersion() != null && dep.getVersion().contains("${")) {
+                    throw new MojoExecutionException("Dependency version for " + dep + " in POM " + pom
+                        + " is not interpolated");
+                }
+            }
+            deps = CeylonUtil.calculateDependencies(new MavenProject(model));
+        }
+        dir.mkdirs();
+        if (!"".equals(deps)) {
+            String path = target.getName();
+            write(new File(dir, "module.properties"), deps);
+            write(new File(dir, path.substring(0, path.lastIndexOf('.')) + ".module"), deps);
+        }
+        write(new File(target.getPath() + ".sha1"), CeylonUtil.calculateChecksum(jar));
+        File tmp = File.createTempFile(target.getName(), ".tmp", dir);
+        try {
+            Files.copy(jar.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Writes a generated file under a temporary name and moves it into place.
+     * @param file The file
+     * @param content The content
+     * @throws IOException In case of IO error
+     */
+    private static void write(final File file, final String content) throws IOException {
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try {
+            FileUtils.fileWrite(tmp, "UTF-8", content);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Parses a POM, taking the group id and version from the parent where the POM inherits them.
+     * @param pom The POM
+     * @return Model The model
+     * @throws MojoExecutionException If the POM cannot be read or parsed
+     */
+    private static Model readModel(final File pom) throws MojoExecutionException {
+        Reader reader = null;
+        Model model;
+        try {
+            reader = ReaderFactory.newXmlReader(pom);
+            model = new MavenXpp3Reader().read(reader);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error reading POM " + pom, e);
+        } catch (XmlPullParserException e) {
+            throw new MojoExecutionException("Error parsing POM " + pom, e);
+        } finally {
+            IOUtil.close(reader);
+        }
+        Parent parent = model.getParent();
+        if (model.getGroupId() == null && parent != null) {
+            model.setGroupId(parent.getGroupId());
+        }
+        if (model.getVersion() == null && parent != null) {
+            model.setVersion(parent.getVersion());
+        }
+        return model;
+    }
+
+    /**
+     * Logs at debug level, if there is a logger.
+     * @param message The message
+     */
+    private void debug(final String message) {
+        if (logger != null) {
+            logger.debug(message);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.dgwave.car.maven;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Maps the projects of the reactor to their Ceylon coordinates, so that their packaged artifacts, or their
+ * output directories before packaging, resolve in place without a <code>ceylon:install</code> round trip.
+ *
+ * @author Akber Choudhry
+ */
+final class ReactorArtifacts {
+
+    /**
+     * Reactor projects by groupId:artifactId:version.
+     */
+    private final Map<String, MavenProject> projects = new HashMap<String, MavenProject>();
+
+    /**
+     * Reactor project versions by groupId:artifactId.
+     */
+    private final Map<String, List<String>> versions = new HashMap<String, List<String>>();
+
+    /**
+     * Constructor.
+     * @param reactorProjects The projects of the reactor
+     */
+    ReactorArtifacts(final List<MavenProject> reactorProjects) {
+        for (MavenProject project : reactorProjects) {
+            if ("pom".equals(project.getPackaging())) {
+                continue;
+            }
+            String ga = project.getGroupId() + ':' + project.getArtifactId();
+            projects.put(ga + ':' + project.getVersion(), project);
+            List<String> list = versions.get(ga);
+            if (list == null) {
+                list = new ArrayList<String>(1);
+                versions.put(ga, list);
+            }
+            list.add(project.getVersion());
+        }
+    }
+
+    /**
+     * Finds the output of a reactor project.
+     *
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @param version Version
+     * @param classifier Classifier; only the main artifact is served
+     * @return File The packaged artifact if the project has been packaged, else its output directory if it has
+     *     been compiled, else null
+     */
+    File find(final String groupId, final String artifactId, final String version, final String classifier) {
+        if (projects.isEmpty() || (classifier != null && classifier.length() > 0)) {
+            return null;
+        }
+        MavenProject project = projects.get(groupId + ':' + artifactId + ':' + version);
+        if (project == null) {
+            return null;
+        }
+        File packaged = project.getArtifact() == null ? null : project.getArtifact().getFile();
+        if (packaged != null && packaged.isFile()) {
+            return packaged;
+        }
+        if (project.getBuild() != null && project.getBuild().getOutputDirectory() != null) {
+            File classes = new File(project.getBuild().getOutputDirectory());
+            if (classes.isDirectory()) {
+                return classes;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The versions of a module built in this reactor.
+     *
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @return List of versions, usually empty or one
+     */
+    List<String> versions(final String groupId, final String artifactId) {
+        List<String> list = versions.get(groupId + ':' + artifactId);
+        return list == null ? Collections.<String>emptyList() : list;
+    }
+}
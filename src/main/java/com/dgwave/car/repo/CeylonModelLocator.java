@@ -1,11 +1,15 @@
 package com.dgwave.car.repo;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.maven.model.locator.ModelLocator;
 import org.codehaus.plexus.component.annotations.Component;
 
 import com.dgwave.car.common.CeylonUtil;
+import com.dgwave.car.common.ModuleDescriptorReader;
+import com.dgwave.car.common.RepositoryIndex;
 
 /**
  * This class locates the Ceylon module model from various sources.
@@ -19,35 +23,56 @@ public class CeylonModelLocator implements ModelLocator {
      * Implementing Maven API to locate the project model.
      * 
      * @param folder The folder in which to look
-     * @return File The file that represents the POM. It may be a Ceylon properties or .module file
+     * @return File The file that represents the POM. It may be a Ceylon descriptor, or the car itself, whichever
+     * {@link ModuleDescriptorReader#precedence(String)} prefers
      */
     public File locatePom(final File folder) {
         if (folder != null && folder.exists() && folder.isDirectory()) {
-            String moduleVersion = folder.getParentFile().getName();
-            File[] list = folder.listFiles();
-            File[] four = new File[CeylonUtil.NUM_CEYLON_JAVA_DEP_TYPES];
-
-            for (File file : list) {
-                if (file.isFile()) {
-                    if ("module.xml".equals(file.getName())) {
-                        four[0] = file;
-                    } else if (file.getName().endsWith("-" + moduleVersion + ".module")) {
-                        four[1] = file;
-                    } else if ("module.properties".equals(file.getName())) {
-                        four[2] = file;
-                    } else if (file.getName().endsWith("-" + moduleVersion + ".car")) {
-                        four[3] = file;
-                    }
+            String descriptor = null;
+            int best = Integer.MAX_VALUE;
+            for (String name : listFiles(folder)) {
+                int precedence = ModuleDescriptorReader.precedence(name);
+                if (precedence >= 0 && precedence < best) {
+                    descriptor = name;
+                    best = precedence;
                 }
             }
+            if (descriptor != null) {
+                return new File(folder, descriptor);
+            }
+        }
+        return new File(folder, "pom.xml");
+    }
 
-            for (File file : four) {
-                if (file != null) {
-                    return file;
+    /**
+     * Lists the files in a folder, from the repository index if the folder is indexed and unchanged.
+     * 
+     * @param folder The folder to list
+     * @return List of file names
+     */
+    private List<String> listFiles(final File folder) {
+        for (String repo : new String[] {CeylonUtil.systemRepo(), CeylonUtil.userRepo()}) {
+            String root = new File(repo).getAbsolutePath() + File.separator;
+            String path = folder.getAbsolutePath();
+            if (path.startsWith(root)) {
+                RepositoryIndex index = RepositoryIndex.forRepository(new File(repo));
+                String relative = path.substring(root.length()).replace(File.separatorChar, CeylonUtil.PATH_SEPARATOR);
+                if (index != null && index.lastModified(relative) == folder.lastModified()) {
+                    return index.list(relative);
                 }
+                break;
             }
         }
 
-        return new File(folder, "pom.xml");
+        List<String> names = new ArrayList<String>();
+        File[] list = folder.listFiles();
+        if (list != null) {
+            for (File file : list) {
+                if (file.isFile()) {
+                    names.add(file.getName());
+                }
+            }
+        }
+        return names;
     }
 }
@@ -1,5 +1,7 @@
 package com.dgwave.car.repo;
 
+import java.io.IOException;
+
 import javax.inject.Named;
 
 import org.codehaus.plexus.component.annotations.Component;
@@ -26,7 +28,15 @@ public final class CeylonRepoConnectorFactory implements RepositoryConnectorFact
 			throw new NoRepositoryConnectorException(repository);
 		}
 		
-		return new CeylonRepositoryConnector(logger);
+		if (!HttpRepositoryClient.isHttp(repository.getUrl())) {
+			return new CeylonRepositoryConnector(logger, repository, HttpRepositories.cacheRepo(session), null);
+		}
+		try {
+			return new CeylonRepositoryConnector(logger, repository, HttpRepositories.cacheRepo(session),
+				HttpRepositories.forSession(session).get(session, repository.getUrl()), false);
+		} catch (IOException e) {
+			throw new NoRepositoryConnectorException(repository, e);
+		}
 	}
 
 	@Override
@@ -4,9 +4,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 
 import org.apache.maven.artifact.Artifact;
-import org.apache.maven.artifact.DefaultArtifact;
 import org.apache.maven.artifact.handler.ArtifactHandler;
-import org.apache.maven.artifact.handler.DefaultArtifactHandler;
 import org.apache.maven.artifact.repository.layout.ArtifactRepositoryLayout;
 import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
 import org.codehaus.plexus.component.annotations.Component;
@@ -14,6 +12,7 @@ import org.eclipse.aether.metadata.Metadata;
 import org.eclipse.aether.util.repository.layout.RepositoryLayout;
 
 import com.dgwave.car.common.CeylonUtil;
+import com.dgwave.car.common.RepositoryPaths;
 
 /**
  * This class serves as the Ceylon repo layout for both the Apache and Aether layout interfaces.
@@ -49,7 +48,7 @@ public class CeylonRepoLayout
             && !"".equals(artifactHandler.getExtension())) {
             extension = artifactHandler.getExtension();
         }
-        return CeylonUtil.ceylonRepoPath(artifact.getGroupId(), artifact.getArtifactId(), artifact.getBaseVersion(), 
+        return RepositoryPaths.path(artifact.getGroupId(), artifact.getArtifactId(), artifact.getBaseVersion(), 
             classifier, extension);
     }
 
@@ -60,20 +59,27 @@ public class CeylonRepoLayout
      * @see org.eclipse.aether.util.repository.layout.RepositoryLayout#getPath(org.eclipse.aether.artifact.Artifact)
      */
     public URI getPath(final org.eclipse.aether.artifact.Artifact artifact) {
-        return toUri(pathOf(new DefaultArtifact(artifact.getGroupId(), 
-            artifact.getArtifactId(), artifact.getBaseVersion(),
-            "", artifact.getExtension(),
-            artifact.getClassifier(), new DefaultArtifactHandler(artifact.getExtension()))));
+        String extension = artifact.getExtension();
+        return toUri(RepositoryPaths.path(artifact.getGroupId(), artifact.getArtifactId(), artifact.getBaseVersion(),
+            null, extension == null || extension.length() == 0 ? null : extension));
     }
 
     /**
-     * Not implemented.
+     * The path of Maven metadata, which Ceylon repositories do not have but the Ceylon connector synthesizes:
+     * in the module version directory, the module directory, or the group directory.
      * @param metadata The metadata for which to find the path
-     * @return null Always null as metadata is not iplemented
+     * @return URI of the metadata
      * @see org.eclipse.aether.util.repository.layout.RepositoryLayout#getPath(Metadata) 
      */
     public URI getPath(final Metadata metadata) {
-        return null;
+        StringBuilder path = new StringBuilder(RepositoryPaths.groupDirectory(metadata.getGroupId()));
+        if (metadata.getArtifactId().length() > 0) {
+            path.append(CeylonUtil.PATH_SEPARATOR).append(metadata.getArtifactId());
+            if (metadata.getVersion().length() > 0) {
+                path.append(CeylonUtil.PATH_SEPARATOR).append(metadata.getVersion());
+            }
+        }
+        return toUri(path.append(CeylonUtil.PATH_SEPARATOR).append(metadata.getType()).toString());
     }
 
     /**
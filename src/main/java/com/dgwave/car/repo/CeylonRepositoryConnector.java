@@ -1,8 +1,21 @@
 package com.dgwave.car.repo;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import org.apache.maven.plugin.MojoExecutionException;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.metadata.Metadata;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.repository.RepositoryPolicy;
 import org.eclipse.aether.spi.connector.ArtifactDownload;
 import org.eclipse.aether.spi.connector.ArtifactUpload;
 import org.eclipse.aether.spi.connector.MetadataDownload;
@@ -10,16 +23,90 @@ import org.eclipse.aether.spi.connector.MetadataUpload;
 import org.eclipse.aether.spi.connector.RepositoryConnector;
 import org.eclipse.aether.spi.connector.Transfer.State;
 import org.eclipse.aether.spi.log.Logger;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.eclipse.aether.transfer.ArtifactTransferException;
+import org.eclipse.aether.transfer.MetadataNotFoundException;
+import org.eclipse.aether.transfer.MetadataTransferException;
 
 import com.dgwave.car.common.CeylonUtil;
+import com.dgwave.car.common.MavenMetadata;
+import com.dgwave.car.common.ModuleVersion;
+import com.dgwave.car.common.RepositoryChain;
+import com.dgwave.car.common.RepositoryPaths;
+import com.dgwave.car.common.VersionIndex;
 
+/**
+ * Serves artifacts from the local Ceylon system repository and, for an HTTP repository such as Herd, downloads the
+ * rest of a batch in parallel into the Ceylon cache repository. Uploads to an HTTP repository run in parallel too.
+ * If the repository publishes a {@link RemoteIndex}, existence checks and missing artifacts are answered from it
+ * without a request. Maven metadata, which Ceylon repositories lack, is synthesized from the versions found.
+ * @author Akber Choudhry
+ */
 public class CeylonRepositoryConnector implements RepositoryConnector {
-	
+
 
 	private Logger logger;
 
-	public CeylonRepositoryConnector(Logger logger) {
+	/**
+	 * The repository this connector serves.
+	 */
+	private final RemoteRepository repository;
+
+	/**
+	 * The Ceylon cache repository downloads are written to.
+	 */
+	private final File cacheRepo;
+
+	/**
+	 * The HTTP repository, null if the repository is not an HTTP one.
+	 */
+	private final HttpRepositories.Remote remote;
+
+	/**
+	 * The HTTP client, null if the repository is not an HTTP one.
+	 */
+	private final HttpRepositoryClient client;
+
+	/**
+	 * Whether the client is closed with this connector, rather than shared by the connectors of a session.
+	 */
+	private final boolean ownsClient;
+
+	/**
+	 * The system repository, which may be a zipped SDK.
+	 */
+	private RepositoryChain chain;
+
+	/**
+	 * Creates a connector for a repository, with a client of its own that is closed with the connector.
+	 * @param logger The logger
+	 * @param repository The repository
+	 * @param cacheRepo The Ceylon cache repository downloads are written to
+	 * @param client The client for an HTTP repository, or null
+	 */
+	public CeylonRepositoryConnector(Logger logger, RemoteRepository repository, File cacheRepo,
+			HttpRepositoryClient client) {
+		this(logger, repository, cacheRepo, client != null
+			? new HttpRepositories.Remote(client, cacheRepo, RemoteIndex.DEFAULT_TTL) : null, true);
+	}
+
+	/**
+	 * Creates a connector for a repository. The client and remote index of a repository shared by the connectors of
+	 * a session, see {@link HttpRepositories}, are left open on close.
+	 * @param logger The logger
+	 * @param repository The repository
+	 * @param cacheRepo The Ceylon cache repository downloads are written to
+	 * @param remote The HTTP repository, or null
+	 * @param ownsClient Whether the client is closed with this connector
+	 */
+	CeylonRepositoryConnector(Logger logger, RemoteRepository repository, File cacheRepo,
+			HttpRepositories.Remote remote, boolean ownsClient) {
 		this.logger = logger;
+		this.repository = repository;
+		this.cacheRepo = cacheRepo;
+		this.remote = remote;
+		this.client = remote != null ? remote.getClient() : null;
+		this.ownsClient = ownsClient;
 	}
 
 	@Override
@@ -28,35 +115,287 @@ public class CeylonRepositoryConnector implements RepositoryConnector {
 
 		if (metadataDownloads != null) {
 			for (MetadataDownload download : metadataDownloads) {
-				System.out.println("Requesting: " + download.toString());
+				synthesize(download);
+				download.setState(State.DONE);
 			}
 		}
-		
+		if (artifactDownloads == null) {
+			return;
+		}
+
+		List<Pending> pending = new ArrayList<Pending>();
 		for (ArtifactDownload download : artifactDownloads) {
-			if (download.getArtifact() != null 
-					&& "car".equals(download.getArtifact().getExtension())) {
-				try {
-					download.setState(State.DONE);
-					
-					download.setFile(
-							new File(
-						CeylonUtil.ceylonSystemFullPath(download.getArtifact(), 
-								download.getArtifact().getExtension())));
-				} catch (Exception e) {
-					e.printStackTrace();
+			Artifact artifact = download.getArtifact();
+			if (artifact == null) {
+				continue;
+			}
+			String path;
+			try {
+				path = RepositoryPaths.path(artifact.getGroupId(), artifact.getArtifactId(),
+					artifact.getVersion(), null, artifact.getExtension());
+			} catch (IllegalArgumentException e) {
+				download.setException(new ArtifactNotFoundException(artifact, repository, e.getMessage()));
+				download.setState(State.DONE);
+				continue;
+			}
+			File file = getChain().find(path);
+			if (file == null && cacheRepo != null && new File(cacheRepo, path).isFile()) {
+				file = new File(cacheRepo, path);
+			}
+			if (file != null) {
+				download.setFile(file);
+				download.setState(State.DONE);
+			} else if (client == null || getRemoteIndex() != null && !getRemoteIndex().contains(path)) {
+				download.setException(new ArtifactNotFoundException(artifact, repository));
+				download.setState(State.DONE);
+			} else if (download.isExistenceCheck() && getRemoteIndex() != null) {
+				download.setState(State.DONE);
+			} else {
+				download.setState(State.ACTIVE);
+				pending.add(new Pending(download, download.isExistenceCheck() ? client.exists(path)
+					: fetch(path, download.getChecksumPolicy())));
+			}
+		}
+		for (Pending p : pending) {
+			p.complete();
+		}
+		if (!pending.isEmpty()) {
+			for (String path : client.takeUnverified()) {
+				logger.warn("No checksum for " + path + " in " + repository.getUrl() + ", using it unverified");
+			}
+			logger.debug(client.toString());
+		}
+	}
+
+	/**
+	 * Starts downloading an artifact into the cache repository, verified against the checksum in the remote index
+	 * or the repository's <code>.sha1</code>, unless the checksum policy is to ignore checksums. Under the fail
+	 * policy an artifact without any checksum is rejected; otherwise it is used unverified, with a warning.
+	 * @param path The relative path
+	 * @param checksumPolicy The checksum policy of the download, may be null
+	 * @return Future of the downloaded file, or of null if the repository does not have it
+	 */
+	private Future<File> fetch(String path, String checksumPolicy) {
+		File target = new File(cacheRepo, path);
+		if (RepositoryPolicy.CHECKSUM_POLICY_IGNORE.equals(checksumPolicy)) {
+			return client.download(path, target);
+		}
+		RemoteIndex index = getRemoteIndex();
+		return client.downloadVerified(path, target, index != null ? index.checksum(path) : null,
+			RepositoryPolicy.CHECKSUM_POLICY_FAIL.equals(checksumPolicy));
+	}
+
+	/**
+	 * Writes the Maven metadata of a module, synthesized from the versions found in the system repository, the cache
+	 * repository and the remote index. Version-level metadata is reported as not found.
+	 * @param download The metadata download
+	 */
+	private void synthesize(MetadataDownload download) {
+		Metadata metadata = download.getMetadata();
+		String groupId = metadata.getGroupId();
+		String artifactId = metadata.getArtifactId();
+		byte[] content = null;
+		if (MavenMetadata.FILE_NAME.equals(metadata.getType()) && artifactId.length() > 0
+			&& metadata.getVersion().length() == 0) {
+			content = MavenMetadata.forModule(groupId, artifactId, versions(groupId, artifactId));
+		}
+		if (content == null) {
+			logger.debug("No Maven metadata for " + metadata + " in Ceylon repositories");
+			download.setException(new MetadataNotFoundException(metadata, repository));
+			return;
+		}
+		try {
+			File file = download.getFile();
+			file.getAbsoluteFile().getParentFile().mkdirs();
+			Files.write(file.toPath(), content);
+		} catch (IOException e) {
+			download.setException(new MetadataTransferException(metadata, repository, e));
+		}
+	}
+
+	/**
+	 * The versions of a module in the system repository, the cache repository and the remote index.
+	 * @param groupId Maven group id
+	 * @param artifactId Maven artifact id
+	 * @return List of versions, in ascending version order
+	 */
+	private List<String> versions(String groupId, String artifactId) {
+		List<List<String>> sources = new ArrayList<List<String>>();
+		sources.add(getChain().versions(groupId, artifactId));
+		if (cacheRepo != null) {
+			sources.add(VersionIndex.versions(cacheRepo, groupId, artifactId));
+		}
+		if (client != null && getRemoteIndex() != null) {
+			sources.add(getRemoteIndex().versions(groupId, artifactId));
+		}
+		List<String> found = null;
+		TreeSet<ModuleVersion> merged = null;
+		for (List<String> source : sources) {
+			if (source.isEmpty()) {
+				continue;
+			} else if (found == null) {
+				found = source;
+			} else {
+				if (merged == null) {
+					merged = new TreeSet<ModuleVersion>();
+					for (String v : found) {
+						merged.add(new ModuleVersion(v));
+					}
+				}
+				for (String v : source) {
+					merged.add(new ModuleVersion(v));
 				}
 			}
 		}
+		if (merged == null) {
+			return found != null ? found : Collections.<String>emptyList();
+		}
+		List<String> versions = new ArrayList<String>(merged.size());
+		for (ModuleVersion v : merged) {
+			versions.add(v.getVersion());
+		}
+		return versions;
+	}
+
+	/**
+	 * The repositories downloads are served from, opened on first use.
+	 * @return RepositoryChain The chain
+	 */
+	private RepositoryChain getChain() {
+		if (chain == null) {
+			chain = RepositoryChain.systemOnly();
+		}
+		return chain;
+	}
+
+	/**
+	 * The snapshot of the HTTP repository's index, looked up on first use by any connector sharing the repository.
+	 * @return RemoteIndex The snapshot, or null if there is none or it is not used
+	 */
+	private RemoteIndex getRemoteIndex() {
+		return remote != null ? remote.getIndex() : null;
 	}
 
+	/**
+	 * Uploads a batch of artifacts, each with its <code>.sha1</code>, in parallel. Maven metadata is not uploaded,
+	 * as Ceylon repositories have none.
+	 */
 	@Override
 	public void put(Collection<? extends ArtifactUpload> artifactUploads,
 			Collection<? extends MetadataUpload> metadataUploads) {
-		// not implemented
+		if (metadataUploads != null) {
+			for (MetadataUpload upload : metadataUploads) {
+				upload.setState(State.DONE);
+			}
+		}
+		if (artifactUploads == null) {
+			return;
+		}
+		if (client == null) {
+			for (ArtifactUpload upload : artifactUploads) {
+				upload.setException(new ArtifactTransferException(upload.getArtifact(), repository,
+					"Uploads are only supported to HTTP Ceylon repositories"));
+				upload.setState(State.DONE);
+			}
+			return;
+		}
+		List<Future<Void>> parts = new ArrayList<Future<Void>>();
+		List<ArtifactUpload> owners = new ArrayList<ArtifactUpload>();
+		for (ArtifactUpload upload : artifactUploads) {
+			Artifact artifact = upload.getArtifact();
+			upload.setState(State.ACTIVE);
+			try {
+				String path = RepositoryPaths.path(artifact.getGroupId(), artifact.getArtifactId(),
+					artifact.getBaseVersion(), null, artifact.getExtension());
+				parts.add(client.upload(path, upload.getFile()));
+				owners.add(upload);
+				parts.add(client.upload(path + ".sha1",
+					CeylonUtil.calculateChecksum(upload.getFile()).getBytes("UTF-8")));
+				owners.add(upload);
+			} catch (IllegalArgumentException e) {
+				upload.setException(new ArtifactTransferException(artifact, repository, e.getMessage()));
+			} catch (IOException e) {
+				upload.setException(new ArtifactTransferException(artifact, repository, e));
+			} catch (MojoExecutionException e) {
+				upload.setException(new ArtifactTransferException(artifact, repository, e.getMessage(), e));
+			}
+		}
+		for (int i = 0; i < parts.size(); i++) {
+			ArtifactUpload upload = owners.get(i);
+			try {
+				parts.get(i).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				upload.setException(new ArtifactTransferException(upload.getArtifact(), repository, e));
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause() != null ? e.getCause() : e;
+				if (upload.getException() == null) {
+					upload.setException(new ArtifactTransferException(upload.getArtifact(), repository,
+						cause.getMessage(), cause));
+				}
+			}
+		}
+		for (ArtifactUpload upload : artifactUploads) {
+			upload.setState(State.DONE);
+		}
+		logger.debug(client.toString());
 	}
 
 	@Override
 	public void close() {
-		// nothing
+		if (client != null && ownsClient) {
+			client.close();
+		}
+	}
+
+	/**
+	 * A download running in the background.
+	 */
+	private final class Pending {
+
+		/**
+		 * The download.
+		 */
+		private final ArtifactDownload download;
+
+		/**
+		 * The downloaded file, or whether it exists for an existence check.
+		 */
+		private final Future<?> result;
+
+		/**
+		 * Constructor.
+		 * @param d The download
+		 * @param r Its result
+		 */
+		Pending(final ArtifactDownload d, final Future<?> r) {
+			this.download = d;
+			this.result = r;
+		}
+
+		/**
+		 * Waits for the download and records its outcome.
+		 */
+		void complete() {
+			Artifact artifact = download.getArtifact();
+			try {
+				Object value = result.get();
+				if (value == null || Boolean.FALSE.equals(value)) {
+					download.setException(new ArtifactNotFoundException(artifact, repository));
+				} else if (value instanceof File) {
+					download.setFile((File) value);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				result.cancel(true);
+				download.setException(new ArtifactTransferException(artifact, repository, e));
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause() != null ? e.getCause() : e;
+				logger.debug("Could not download " + artifact + ": " + cause.getMessage());
+				download.setException(new ArtifactTransferException(artifact, repository,
+					cause instanceof IOException ? cause.getMessage() : cause.toString(), cause));
+			}
+			download.setState(State.DONE);
+		}
 	}
 }
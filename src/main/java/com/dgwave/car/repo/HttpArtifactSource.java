@@ -0,0 +1,63 @@
+package com.dgwave.car.repo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import com.dgwave.car.common.ArtifactSource;
+
+/**
+ * Downloads artifacts missing from the Ceylon cache repository from the HTTP repositories it caches, verified like
+ * the connector's downloads, with the clients the connectors of the session share.
+ *
+ * @author Akber Choudhry
+ */
+public final class HttpArtifactSource implements ArtifactSource {
+
+    /**
+     * The Ceylon cache repository.
+     */
+    private final File cacheRepo;
+
+    /**
+     * The HTTP repositories, in the order they are tried.
+     */
+    private final List<HttpRepositories.Remote> remotes;
+
+    /**
+     * Constructor.
+     * @param cacheRepo The Ceylon cache repository
+     * @param remotes The HTTP repositories, in the order they are tried
+     */
+    public HttpArtifactSource(final File cacheRepo, final List<HttpRepositories.Remote> remotes) {
+        this.cacheRepo = cacheRepo.getAbsoluteFile();
+        this.remotes = new ArrayList<HttpRepositories.Remote>(remotes);
+    }
+
+    /**
+     * Starts downloading a file of the cache repository from the first repository that may have it: the first whose
+     * index lists it, or that publishes no index. Without a checksum the file is used unverified, as under the
+     * <code>warn</code> checksum policy.
+     * @param file The missing file
+     * @return Future of the file, or of null if the repository does not have it; null if the file is not in the
+     *         cache repository or no repository has it
+     */
+    @Override
+    public Future<File> fetch(final File file) {
+        String root = cacheRepo.getPath() + File.separator;
+        String absolute = file.getAbsolutePath();
+        if (!absolute.startsWith(root)) {
+            return null;
+        }
+        String path = absolute.substring(root.length()).replace(File.separatorChar, '/');
+        for (HttpRepositories.Remote remote : remotes) {
+            RemoteIndex index = remote.getIndex();
+            if (index == null || index.contains(path)) {
+                return remote.getClient().downloadVerified(path, file, index != null ? index.checksum(path) : null,
+                    false);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,338 @@
+package com.dgwave.car.repo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Remembers what HTTP Ceylon repositories answered for each URL: whether the file was there, when that was last
+ * checked, and its <code>ETag</code> and <code>Last-Modified</code> validators. {@link HttpRepositoryClient} uses it
+ * to answer repeated questions without a request while an answer is fresh, and to revalidate with a conditional
+ * request once it is not. Entries are kept in one tab-separated file in the Ceylon cache repository, shared by all
+ * clients of this JVM, and merged with the file when saved so that concurrent builds do not lose each other's
+ * answers. Shared caches are saved once per build session, by {@link #saveShared()}.
+ *
+ * @author Akber Choudhry
+ */
+public final class HttpMetadataCache {
+
+    /**
+     * Name of the cache file in the Ceylon cache repository.
+     */
+    public static final String FILE_NAME = ".http-metadata";
+
+    /**
+     * First line of the cache file, identifying its format.
+     */
+    private static final String HEADER = "#ceylon-http-metadata 1";
+
+    /**
+     * Number of fields of a line.
+     */
+    private static final int FIELDS = 5;
+
+    /**
+     * Index of the validator fields of a line.
+     */
+    private static final int ETAG = 3, LAST_MODIFIED = 4;
+
+    /**
+     * Caches opened in this JVM, by file.
+     */
+    private static final ConcurrentMap<File, HttpMetadataCache> SHARED =
+        new ConcurrentHashMap<File, HttpMetadataCache>();
+
+    /**
+     * The cache file.
+     */
+    private final File file;
+
+    /**
+     * Entries by absolute URL.
+     */
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Whether there are entries not yet saved.
+     */
+    private volatile boolean dirty;
+
+    /**
+     * Creates a cache and reads its file, if any.
+     * @param file The cache file
+     */
+    HttpMetadataCache(final File file) {
+        this.file = file;
+        entries.putAll(read(file));
+    }
+
+    /**
+     * The cache of a Ceylon cache repository, shared by every client of this JVM.
+     * @param cacheRepo The Ceylon cache repository
+     * @return HttpMetadataCache The cache
+     */
+    public static HttpMetadataCache shared(final File cacheRepo) {
+        File key = new File(cacheRepo, FILE_NAME).getAbsoluteFile();
+        HttpMetadataCache cache = SHARED.get(key);
+        if (cache == null) {
+            HttpMetadataCache created = new HttpMetadataCache(key);
+            cache = SHARED.putIfAbsent(key, created);
+            if (cache == null) {
+                cache = created;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Saves every shared cache with unsaved entries. Called at the end of a build session rather than as each
+     * client closes, since a build opens a connector, and so a client, per resolution request.
+     * @throws IOException If a cache could not be saved; the others are saved regardless
+     */
+    public static void saveShared() throws IOException {
+        IOException failure = null;
+        for (HttpMetadataCache cache : SHARED.values()) {
+            try {
+                cache.save();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @param url An absolute URL
+     * @return Entry What was last known about the URL, or null
+     */
+    public Entry get(final String url) {
+        return entries.get(url);
+    }
+
+    /**
+     * Records that a URL was found, or still is after a conditional request.
+     * @param url The absolute URL
+     * @param etag The <code>ETag</code> response header, or null
+     * @param lastModified The <code>Last-Modified</code> response header, or null
+     */
+    public void found(final String url, final String etag, final String lastModified) {
+        put(url, new Entry(System.currentTimeMillis(), true, clean(etag), clean(lastModified)));
+    }
+
+    /**
+     * Records that a URL was not found.
+     * @param url The absolute URL
+     */
+    public void missing(final String url) {
+        put(url, new Entry(System.currentTimeMillis(), false, null, null));
+    }
+
+    /**
+     * @return int Number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the entries to the cache file if any changed, keeping the more recent answer where another process
+     * wrote the same URL meanwhile. The file is replaced atomically.
+     * @throws IOException In case of IO error
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        for (Map.Entry<String, Entry> theirs : read(file).entrySet()) {
+            Entry ours = entries.get(theirs.getKey());
+            if (ours == null || ours.checked < theirs.getValue().checked) {
+                entries.put(theirs.getKey(), theirs.getValue());
+            }
+        }
+        File dir = file.getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        Writer out = null;
+        try {
+            out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+            out.write(HEADER);
+            out.write('\n');
+            StringBuilder line = new StringBuilder();
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                line.setLength(0);
+                line.append(e.getKey()).append('\t').append(entry.checked).append('\t')
+                    .append(entry.found ? '1' : '0').append('\t')
+                    .append(entry.etag != null ? entry.etag : "").append('\t')
+                    .append(entry.lastModified != null ? entry.lastModified : "").append('\n');
+                out.write(line.toString());
+            }
+            out.close();
+            out = null;
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty = true;
+            throw e;
+        } finally {
+            IOUtil.close(out);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Stores an entry.
+     * @param url The URL
+     * @param entry The entry
+     */
+    private void put(final String url, final Entry entry) {
+        if (url.indexOf('\t') >= 0 || url.indexOf('\n') >= 0) {
+            return;
+        }
+        entries.put(url, entry);
+        dirty = true;
+    }
+
+    /**
+     * A header value that can be stored on one line.
+     * @param value The header value, or null
+     * @return String The value, or null if absent or unusable
+     */
+    private static String clean(final String value) {
+        if (value == null || value.isEmpty() || value.indexOf('\t') >= 0 || value.indexOf('\n') >= 0
+            || value.indexOf('\r') >= 0) {
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * Reads a cache file. Malformed lines, and files of another format, are ignored.
+     * @param from The file
+     * @return Map The entries by URL, empty if the file does not exist
+     */
+    private static Map<String, Entry> read(final File from) {
+        Map<String, Entry> result = new HashMap<String, Entry>();
+        if (!from.isFile()) {
+            return result;
+        }
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(from), "UTF-8"));
+            if (!HEADER.equals(in.readLine())) {
+                return result;
+            }
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != FIELDS) {
+                    continue;
+                }
+                try {
+                    result.put(fields[0], new Entry(Long.parseLong(fields[1]), "1".equals(fields[2]),
+                        fields[ETAG].isEmpty() ? null : fields[ETAG],
+                        fields[LAST_MODIFIED].isEmpty() ? null : fields[LAST_MODIFIED]));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+            }
+        } catch (IOException e) {
+            return result;
+        } finally {
+            IOUtil.close(in);
+        }
+        return result;
+    }
+
+    /**
+     * What a repository last answered for a URL.
+     */
+    public static final class Entry {
+
+        /**
+         * When the answer was received, in milliseconds since the epoch.
+         */
+        private final long checked;
+
+        /**
+         * Whether the file was there.
+         */
+        private final boolean found;
+
+        /**
+         * The <code>ETag</code> validator, or null.
+         */
+        private final String etag;
+
+        /**
+         * The <code>Last-Modified</code> validator, or null.
+         */
+        private final String lastModified;
+
+        /**
+         * Constructor.
+         * @param checked When the answer was received
+         * @param found Whether the file was there
+         * @param etag The <code>ETag</code> validator
+         * @param lastModified The <code>Last-Modified</code> validator
+         */
+        Entry(final long checked, final boolean found, final String etag, final String lastModified) {
+            this.checked = checked;
+            this.found = found;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return long When the answer was received, in milliseconds since the epoch
+         */
+        public long getChecked() {
+            return checked;
+        }
+
+        /**
+         * @return boolean Whether the file was there
+         */
+        public boolean isFound() {
+            return found;
+        }
+
+        /**
+         * @return String The <code>ETag</code> validator, or null
+         */
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * @return String The <code>Last-Modified</code> validator, or null
+         */
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @param ttl How long an answer stays fresh, in milliseconds
+         * @return boolean Whether the answer is fresh
+         */
+        public boolean isFresh(final long ttl) {
+            return System.currentTimeMillis() - checked < ttl;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.dgwave.car.repo;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.SessionData;
+import org.eclipse.aether.util.ConfigUtils;
+
+/**
+ * The HTTP Ceylon repositories of one repository session, each with the one {@link HttpRepositoryClient} and
+ * {@link RemoteIndex} that all its connectors share. Aether asks for a connector per resolution request, so without
+ * this every request would start its own request threads and look the remote index up again. The clients are kept
+ * in the session data and closed at the end of the session, by {@link #closeSession(RepositorySystemSession)}.
+ *
+ * @author Akber Choudhry
+ */
+public final class HttpRepositories implements Closeable {
+
+    /**
+     * Key of the instance in the session data.
+     */
+    private static final String KEY = HttpRepositories.class.getName();
+
+    /**
+     * The repositories, by URL.
+     */
+    private final ConcurrentMap<String, Remote> remotes = new ConcurrentHashMap<String, Remote>();
+
+    /**
+     * Whether the session ended.
+     */
+    private boolean closed;
+
+    /**
+     * The repositories of a session, created on first use.
+     * @param session The repository session
+     * @return HttpRepositories The repositories of the session
+     */
+    public static HttpRepositories forSession(final RepositorySystemSession session) {
+        SessionData data = session.getData();
+        HttpRepositories repositories = (HttpRepositories) data.get(KEY);
+        while (repositories == null) {
+            HttpRepositories created = new HttpRepositories();
+            repositories = data.set(KEY, null, created) ? created : (HttpRepositories) data.get(KEY);
+        }
+        return repositories;
+    }
+
+    /**
+     * Closes the clients of a session, if it used any.
+     * @param session The repository session
+     */
+    public static void closeSession(final RepositorySystemSession session) {
+        HttpRepositories repositories = (HttpRepositories) session.getData().get(KEY);
+        if (repositories != null) {
+            session.getData().set(KEY, repositories, null);
+            repositories.close();
+        }
+    }
+
+    /**
+     * The Ceylon cache repository downloads are written to: <code>ceylon.cache.repo</code>, or
+     * <code>~/.ceylon/cache</code>.
+     * @param session The repository session
+     * @return File The cache repository
+     */
+    public static File cacheRepo(final RepositorySystemSession session) {
+        String path = ConfigUtils.getString(session, null, "ceylon.cache.repo");
+        if (path == null) {
+            path = System.getProperty("user.home") + File.separator + ".ceylon" + File.separator + "cache";
+        }
+        return new File(path);
+    }
+
+    /**
+     * The shared client of a repository, created on first use from the <code>ceylon.http.*</code> settings of the
+     * session.
+     * @param session The repository session
+     * @param url The repository URL
+     * @return Remote The repository
+     * @throws IOException If the URL is malformed
+     */
+    public synchronized Remote get(final RepositorySystemSession session, final String url) throws IOException {
+        Remote remote = remotes.get(url);
+        if (remote == null) {
+            if (closed) {
+                throw new IOException("The session using " + url + " has ended");
+            }
+            File cacheRepo = cacheRepo(session);
+            HttpRepositoryClient client = new HttpRepositoryClient(url,
+                ConfigUtils.getInteger(session, HttpRepositoryClient.DEFAULT_PARALLELISM, "ceylon.http.threads"),
+                ConfigUtils.getInteger(session, HttpRepositoryClient.DEFAULT_PER_HOST, "ceylon.http.perHost"));
+            client.setMetadataCache(HttpMetadataCache.shared(cacheRepo),
+                ConfigUtils.getLong(session, HttpRepositoryClient.DEFAULT_TTL, "ceylon.http.ttl"),
+                ConfigUtils.getLong(session, HttpRepositoryClient.DEFAULT_MISSING_TTL, "ceylon.http.missingTtl"));
+            client.setOffline(session.isOffline());
+            client.setSha256(ConfigUtils.getBoolean(session, false, "ceylon.http.sha256"));
+            remote = new Remote(client, cacheRepo,
+                ConfigUtils.getLong(session, RemoteIndex.DEFAULT_TTL, "ceylon.http.indexTtl"));
+            remotes.put(url, remote);
+        }
+        return remote;
+    }
+
+    /**
+     * @return int Number of repositories used
+     */
+    public int size() {
+        return remotes.size();
+    }
+
+    /**
+     * Closes every client; requests already running complete.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Remote remote : remotes.values()) {
+            remote.getClient().close();
+        }
+        remotes.clear();
+    }
+
+    /**
+     * An HTTP repository: its client and the snapshot of its index.
+     */
+    public static final class Remote {
+
+        /**
+         * The client.
+         */
+        private final HttpRepositoryClient client;
+
+        /**
+         * The Ceylon cache repository the local copy of the index is kept in.
+         */
+        private final File cacheRepo;
+
+        /**
+         * How long the snapshot of the index is used before looking for a newer one, in milliseconds; negative to
+         * not use the index.
+         */
+        private final long indexTtl;
+
+        /**
+         * The index, once looked up.
+         */
+        private RemoteIndex index;
+
+        /**
+         * Whether the index was looked up.
+         */
+        private boolean indexLookedUp;
+
+        /**
+         * Constructor.
+         * @param client The client
+         * @param cacheRepo The Ceylon cache repository, may be null to not use the index
+         * @param indexTtl How long the snapshot of the index is used, negative to not use it
+         */
+        Remote(final HttpRepositoryClient client, final File cacheRepo, final long indexTtl) {
+            this.client = client;
+            this.cacheRepo = cacheRepo;
+            this.indexTtl = indexTtl;
+        }
+
+        /**
+         * @return HttpRepositoryClient The client
+         */
+        public HttpRepositoryClient getClient() {
+            return client;
+        }
+
+        /**
+         * The snapshot of the repository's index, looked up once.
+         * @return RemoteIndex The snapshot, or null if there is none or it is not used
+         */
+        public synchronized RemoteIndex getIndex() {
+            if (!indexLookedUp) {
+                indexLookedUp = true;
+                if (cacheRepo != null && indexTtl >= 0) {
+                    index = RemoteIndex.forRepository(client, cacheRepo, indexTtl);
+                }
+            }
+            return index;
+        }
+    }
+}
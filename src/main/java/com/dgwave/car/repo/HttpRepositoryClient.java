@@ -0,0 +1,962 @@
+package com.dgwave.car.repo;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codehaus.plexus.util.Base64;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Fetches files from a Herd-style HTTP Ceylon repository, where a module artifact is found at the same relative
+ * path as in a local Ceylon repository. Requests run on a fixed number of threads, and the requests in flight to
+ * one host are further limited by a semaphore shared by every client of this JVM with the same limit, so that
+ * parallel batches back off instead of flooding a single server. Connections are kept alive and reused by reading
+ * every response to the end. Uploads are streamed from disk with a fixed content length, so a large artifact is
+ * never held in memory.
+ * <p>
+ * Given an {@link HttpMetadataCache}, answers to lookups are remembered across builds: a fresh answer is reused
+ * without a request, a stale one that the file was there is revalidated with <code>If-None-Match</code> and
+ * <code>If-Modified-Since</code>, and a file that was missing is not asked for again until its shorter time to live
+ * expires. In offline mode only remembered answers are given, and no request is ever made.
+ * <p>
+ * {@link #downloadVerified(String, File, String, boolean)} hashes an artifact while it streams to a staging file,
+ * compares the digest with the repository's <code>.sha1</code> (and <code>.sha256</code>, if enabled), and only then
+ * moves the artifact and its checksum into place, so a corrupt or tampered download is never published and never
+ * read twice. An artifact the repository has no checksum for is rejected when a checksum is required, and otherwise
+ * published but reported by {@link #takeUnverified()}.
+ *
+ * @author Akber Choudhry
+ */
+public final class HttpRepositoryClient implements Closeable {
+
+    /**
+     * Default number of requests run in parallel by one client.
+     */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /**
+     * Default number of requests in flight to one host.
+     */
+    public static final int DEFAULT_PER_HOST = 2;
+
+    /**
+     * Connect timeout, in milliseconds.
+     */
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    /**
+     * Read timeout, in milliseconds.
+     */
+    private static final int READ_TIMEOUT = 60000;
+
+    /**
+     * Copy buffer size.
+     */
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * Lowest successful HTTP status.
+     */
+    private static final int HTTP_SUCCESS_MIN = 200;
+
+    /**
+     * Lowest HTTP status that is not successful.
+     */
+    private static final int HTTP_SUCCESS_MAX = 300;
+
+    /**
+     * Default number of attempts of an upload.
+     */
+    public static final int DEFAULT_ATTEMPTS = 3;
+
+    /**
+     * Delay before retrying an upload, multiplied by the number of attempts so far, in milliseconds.
+     */
+    private static final long RETRY_DELAY = 500L;
+
+    /**
+     * Default time an answer that a file exists stays fresh: one day, in milliseconds.
+     */
+    public static final long DEFAULT_TTL = 24L * 60 * 60 * 1000;
+
+    /**
+     * Default time an answer that a file is missing stays fresh: one hour, in milliseconds.
+     */
+    public static final long DEFAULT_MISSING_TTL = 60L * 60 * 1000;
+
+    /**
+     * HTTP status of a request timeout.
+     */
+    private static final int HTTP_REQUEST_TIMEOUT = 408;
+
+    /**
+     * HTTP status asking the client to slow down.
+     */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Lowest HTTP status of a server error.
+     */
+    private static final int HTTP_SERVER_ERROR = 500;
+
+    /**
+     * Digest algorithm of <code>.sha1</code> files.
+     */
+    private static final String SHA1 = "SHA-1";
+
+    /**
+     * Digest algorithm of <code>.sha256</code> files.
+     */
+    private static final String SHA256 = "SHA-256";
+
+    /**
+     * Radix of hexadecimal digits.
+     */
+    private static final int HEX_RADIX = 16;
+
+    /**
+     * Bits in half a byte.
+     */
+    private static final int HALF_BYTE = 4;
+
+    /**
+     * Mask of the low half of a byte.
+     */
+    private static final int LOW_NIBBLE = 0xf;
+
+    /**
+     * Permits for requests in flight, by host, port and number of permits. Clients configured with the same limit
+     * for a host share its permits, so that a limit configured differently, such as for deploys, is not overridden
+     * by whichever client came first.
+     */
+    private static final ConcurrentMap<String, Semaphore> HOSTS = new ConcurrentHashMap<String, Semaphore>();
+
+    /**
+     * Repository base URL, ending with '/'.
+     */
+    private final String baseUrl;
+
+    /**
+     * Permits for requests to the repository's host.
+     */
+    private final Semaphore hostPermits;
+
+    /**
+     * Runs the requests.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Basic authorization header value, or null.
+     */
+    private volatile String authorization;
+
+    /**
+     * Number of attempts of an upload.
+     */
+    private volatile int maxAttempts = DEFAULT_ATTEMPTS;
+
+    /**
+     * Remembered answers, or null.
+     */
+    private volatile HttpMetadataCache metadata;
+
+    /**
+     * How long an answer that a file exists stays fresh, in milliseconds.
+     */
+    private volatile long ttl = DEFAULT_TTL;
+
+    /**
+     * How long an answer that a file is missing stays fresh, in milliseconds.
+     */
+    private volatile long missingTtl = DEFAULT_MISSING_TTL;
+
+    /**
+     * Whether requests are forbidden.
+     */
+    private volatile boolean offline;
+
+    /**
+     * Whether verified downloads are also checked against a <code>.sha256</code>, if the repository has one.
+     */
+    private volatile boolean sha256;
+
+    /**
+     * Downloads whose checksum matched.
+     */
+    private final AtomicInteger verified = new AtomicInteger();
+
+    /**
+     * Downloads rejected because their checksum did not match.
+     */
+    private final AtomicInteger mismatched = new AtomicInteger();
+
+    /**
+     * Lookups answered from the metadata cache, without a request.
+     */
+    private final AtomicInteger remembered = new AtomicInteger();
+
+    /**
+     * Lookups answered by a conditional request with <code>304 Not Modified</code>.
+     */
+    private final AtomicInteger revalidated = new AtomicInteger();
+
+    /**
+     * Files uploaded.
+     */
+    private final AtomicInteger uploaded = new AtomicInteger();
+
+    /**
+     * Upload attempts that were retried.
+     */
+    private final AtomicInteger retried = new AtomicInteger();
+
+    /**
+     * Files downloaded.
+     */
+    private final AtomicInteger downloaded = new AtomicInteger();
+
+    /**
+     * Bytes downloaded.
+     */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * Paths published without a checksum to verify them against, not yet reported.
+     */
+    private final ConcurrentLinkedQueue<String> unverified = new ConcurrentLinkedQueue<String>();
+
+    /**
+     * Creates a client.
+     *
+     * @param url The repository base URL
+     * @param parallelism Number of requests run in parallel
+     * @param perHost Number of requests in flight to one host, across all clients of this JVM with the same limit
+     * @throws IOException If the URL is malformed
+     */
+    public HttpRepositoryClient(final String url, final int parallelism, final int perHost) throws IOException {
+        this.baseUrl = url.endsWith("/") ? url : url + "/";
+        URL parsed = new URL(baseUrl);
+        String host = parsed.getHost() + ":" + (parsed.getPort() < 0 ? parsed.getDefaultPort() : parsed.getPort());
+        int limit = Math.max(1, perHost);
+        Semaphore permits = new Semaphore(limit);
+        Semaphore existing = HOSTS.putIfAbsent(host + "/" + limit, permits);
+        this.hostPermits = existing != null ? existing : permits;
+        final AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(r, "ceylon-http-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Whether a URL is served by this client.
+     * @param url A repository URL
+     * @return True for http and https URLs
+     */
+    public static boolean isHttp(final String url) {
+        return url != null && (url.startsWith("http://") || url.startsWith("https://"));
+    }
+
+    /**
+     * Downloads a file in the background. The target is replaced atomically, so readers never see a partial file.
+     *
+     * @param path The path relative to the repository root, '/' separated
+     * @param target Where to write the file
+     * @return Future of the target, or of null if the repository does not have the file
+     */
+    public Future<File> download(final String path, final File target) {
+        return executor.submit(new Callable<File>() {
+            @Override
+            public File call() throws IOException, InterruptedException {
+                return fetch(path, target, false) ? target : null;
+            }
+        });
+    }
+
+    /**
+     * Downloads an artifact in the background, verifying it on the way. The artifact is hashed while it is written
+     * to a staging file, and moved into place with its <code>.sha1</code> only if the digest matches the expected
+     * checksum; otherwise the download fails and nothing is published. Without an expected checksum, the
+     * repository's <code>.sha1</code> is fetched in the same task. If the repository has none, the download fails
+     * when a checksum is required; otherwise the artifact is published unverified and reported by
+     * {@link #takeUnverified()}.
+     *
+     * @param path The path relative to the repository root, '/' separated
+     * @param target Where to write the file
+     * @param sha1 The expected SHA-1, e.g. from a remote index, or null to fetch the repository's
+     * @param required Whether an artifact without any checksum is rejected
+     * @return Future of the target, or of null if the repository does not have the file
+     */
+    public Future<File> downloadVerified(final String path, final File target, final String sha1,
+            final boolean required) {
+        return executor.submit(new Callable<File>() {
+            @Override
+            public File call() throws IOException, InterruptedException {
+                return fetchVerified(path, target, sha1, required) ? target : null;
+            }
+        });
+    }
+
+    /**
+     * Downloads a file that may change, such as an index, in the background. Unlike
+     * {@link #download(String, File)}, an existing target is always revalidated with the repository, though only a
+     * changed file is transferred again.
+     *
+     * @param path The path relative to the repository root, '/' separated
+     * @param target Where to write the file
+     * @return Future of the target, or of null if the repository does not have the file
+     */
+    public Future<File> refresh(final String path, final File target) {
+        return executor.submit(new Callable<File>() {
+            @Override
+            public File call() throws IOException, InterruptedException {
+                return fetch(path, target, true) ? target : null;
+            }
+        });
+    }
+
+    /**
+     * Checks in the background whether the repository has a file.
+     *
+     * @param path The path relative to the repository root, '/' separated
+     * @return Future of true if the file exists
+     */
+    public Future<Boolean> exists(final String path) {
+        return executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException, InterruptedException {
+                return fetch(path, null, false);
+            }
+        });
+    }
+
+    /**
+     * Uploads a file in the background, streaming it from disk. Failed attempts are retried on IO errors, server
+     * errors and throttling, waiting a little longer each time.
+     *
+     * @param path The path relative to the repository root, '/' separated
+     * @param source The file to upload
+     * @return Future that completes when the file is stored
+     */
+    public Future<Void> upload(final String path, final File source) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException, InterruptedException {
+                put(path, source, null);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Uploads generated content, such as a checksum or a module descriptor, in the background. Retried like
+     * {@link #upload(String, File)}.
+     *
+     * @param path The path relative to the repository root, '/' separated
+     * @param content The content
+     * @return Future that completes when the content is stored
+     */
+    public Future<Void> upload(final String path, final byte[] content) {
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException, InterruptedException {
+                put(path, null, content);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Sets the credentials sent with every request, using basic authentication.
+     * @param username The user name, or null for none
+     * @param password The password
+     */
+    public void setCredentials(final String username, final String password) {
+        if (username == null) {
+            authorization = null;
+            return;
+        }
+        try {
+            String pair = username + ":" + (password != null ? password : "");
+            authorization = "Basic " + new String(Base64.encodeBase64(pair.getBytes("UTF-8")), "US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Remembers answers to lookups in a cache.
+     * @param cache The cache, or null to always ask the repository
+     * @param foundTtl How long an answer that a file exists stays fresh, in milliseconds
+     * @param notFoundTtl How long an answer that a file is missing stays fresh, in milliseconds
+     */
+    public void setMetadataCache(final HttpMetadataCache cache, final long foundTtl, final long notFoundTtl) {
+        this.metadata = cache;
+        this.ttl = foundTtl;
+        this.missingTtl = notFoundTtl;
+    }
+
+    /**
+     * Forbids or allows requests. When offline, lookups are answered from the metadata cache only, whatever the age
+     * of the answers, and fail if nothing is remembered.
+     * @param offline True to forbid requests
+     */
+    public void setOffline(final boolean offline) {
+        this.offline = offline;
+    }
+
+    /**
+     * @return boolean Whether requests are forbidden
+     */
+    public boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * Sets whether verified downloads are also checked against the repository's <code>.sha256</code> files.
+     * @param enabled True to check SHA-256 as well as SHA-1
+     */
+    public void setSha256(final boolean enabled) {
+        this.sha256 = enabled;
+    }
+
+    /**
+     * Sets how many times an upload is attempted.
+     * @param attempts Number of attempts, at least 1
+     */
+    public void setMaxAttempts(final int attempts) {
+        this.maxAttempts = Math.max(1, attempts);
+    }
+
+    /**
+     * @return int Number of files uploaded
+     */
+    public int getUploadedCount() {
+        return uploaded.get();
+    }
+
+    /**
+     * @return int Number of upload attempts that were retried
+     */
+    public int getRetriedCount() {
+        return retried.get();
+    }
+
+    /**
+     * @return int Number of lookups answered from the metadata cache, without a request
+     */
+    public int getRememberedCount() {
+        return remembered.get();
+    }
+
+    /**
+     * @return int Number of lookups answered by a conditional request with <code>304 Not Modified</code>
+     */
+    public int getRevalidatedCount() {
+        return revalidated.get();
+    }
+
+    /**
+     * @return int Number of downloads whose checksum matched
+     */
+    public int getVerifiedCount() {
+        return verified.get();
+    }
+
+    /**
+     * @return int Number of downloads rejected because their checksum did not match
+     */
+    public int getMismatchCount() {
+        return mismatched.get();
+    }
+
+    /**
+     * Returns the paths published without a checksum since the last call, so that the caller can warn about them.
+     * @return List The relative paths, possibly empty
+     */
+    public List<String> takeUnverified() {
+        List<String> paths = new ArrayList<String>();
+        for (String path = unverified.poll(); path != null; path = unverified.poll()) {
+            paths.add(path);
+        }
+        return paths;
+    }
+
+    /**
+     * @return String The repository base URL
+     */
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * @return int Number of files downloaded
+     */
+    public int getDownloadedCount() {
+        return downloaded.get();
+    }
+
+    /**
+     * @return long Number of bytes downloaded
+     */
+    public long getBytesDownloaded() {
+        return bytes.get();
+    }
+
+    /**
+     * Stops the request threads; requests already running complete. The metadata cache is left to its owner to
+     * save, see {@link HttpMetadataCache#saveShared()}.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "Ceylon HTTP repository " + baseUrl + ": " + downloaded.get() + " downloaded, " + uploaded.get()
+            + " uploaded (" + retried.get() + " retries), " + remembered.get() + " remembered, " + revalidated.get()
+            + " revalidated, " + verified.get() + " verified, " + mismatched.get() + " rejected, " + bytes.get()
+            + " bytes";
+    }
+
+    /**
+     * Answers a lookup from the metadata cache if possible, else requests the file, holding a permit for the host
+     * meanwhile. A remembered file is revalidated with a conditional request.
+     * @param path The relative path
+     * @param target Where to write the file, or null for a HEAD request
+     * @param revalidate Whether to revalidate a remembered file even if the answer is fresh
+     * @return True if found, false if the repository does not have the file
+     * @throws IOException On a transfer error or an unexpected status, or if offline and nothing is remembered
+     * @throws InterruptedException If interrupted while waiting for a permit
+     */
+    private boolean fetch(final String path, final File target, final boolean revalidate)
+            throws IOException, InterruptedException {
+        return fetch(path, target, revalidate, null);
+    }
+
+    /**
+     * Like {@link #fetch(String, File, boolean)}, feeding the downloaded bytes to digests.
+     * @param path The relative path
+     * @param target Where to write the file, or null for a HEAD request
+     * @param revalidate Whether to revalidate a remembered file even if the answer is fresh
+     * @param digests Digests to update with the body, may be null
+     * @return True if found, false if the repository does not have the file
+     * @throws IOException On a transfer error or an unexpected status, or if offline and nothing is remembered
+     * @throws InterruptedException If interrupted while waiting for a permit
+     */
+    private boolean fetch(final String path, final File target, final boolean revalidate,
+            final MessageDigest[] digests) throws IOException, InterruptedException {
+        String url = baseUrl + path;
+        HttpMetadataCache cache = metadata;
+        HttpMetadataCache.Entry known = cache != null ? cache.get(url) : null;
+        boolean present = target == null || target.isFile();
+        if (known != null && (offline || (!revalidate || !known.isFound())
+                && known.isFresh(known.isFound() ? ttl : missingTtl))) {
+            if (!known.isFound() || present) {
+                remembered.incrementAndGet();
+                return known.isFound();
+            }
+        }
+        if (offline) {
+            throw new IOException("Cannot look up " + url + " in offline mode");
+        }
+        hostPermits.acquire();
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setConnectTimeout(CONNECT_TIMEOUT);
+            conn.setReadTimeout(READ_TIMEOUT);
+            conn.setUseCaches(false);
+            if (authorization != null) {
+                conn.setRequestProperty("Authorization", authorization);
+            }
+            boolean conditional = known != null && known.isFound() && present;
+            if (conditional && known.getEtag() != null) {
+                conn.setRequestProperty("If-None-Match", known.getEtag());
+            }
+            if (conditional && known.getLastModified() != null) {
+                conn.setRequestProperty("If-Modified-Since", known.getLastModified());
+            }
+            conn.setRequestMethod(target == null ? "HEAD" : "GET");
+            int status = conn.getResponseCode();
+            if (conditional && status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                drain(conn.getErrorStream());
+                cache.found(url, known.getEtag(), known.getLastModified());
+                revalidated.incrementAndGet();
+                return true;
+            }
+            if (status < HTTP_SUCCESS_MIN || status >= HTTP_SUCCESS_MAX) {
+                drain(conn.getErrorStream());
+                if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+                    if (cache != null) {
+                        cache.missing(url);
+                    }
+                    return false;
+                }
+                throw new IOException("HTTP " + status + " " + conn.getResponseMessage() + " for " + conn.getURL());
+            }
+            if (cache != null) {
+                cache.found(url, conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"));
+            }
+            if (target == null) {
+                drain(conn.getInputStream());
+                return true;
+            }
+            write(conn.getInputStream(), target, digests);
+            downloaded.incrementAndGet();
+            return true;
+        } finally {
+            hostPermits.release();
+        }
+    }
+
+    /**
+     * Downloads an artifact to a staging file while hashing it, checks the digests, and publishes the artifact and
+     * its <code>.sha1</code>. Checksum files are fetched after the artifact, outside its host permit.
+     * @param path The relative path
+     * @param target Where to write the file
+     * @param sha1 The expected SHA-1, or null to fetch the repository's
+     * @param required Whether an artifact without any checksum is rejected
+     * @return True if found, false if the repository does not have the file
+     * @throws IOException On a transfer error, if a checksum does not match, or if none is available but required
+     * @throws InterruptedException If interrupted while waiting for a permit
+     */
+    private boolean fetchVerified(final String path, final File target, final String sha1, final boolean required)
+            throws IOException, InterruptedException {
+        File dir = target.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File staging = File.createTempFile(target.getName(), ".unverified", dir);
+        try {
+            // absent, so that a remembered answer does not stand in for the body
+            staging.delete();
+            MessageDigest[] digests = sha256 ? new MessageDigest[] {digest(SHA1), digest(SHA256)}
+                : new MessageDigest[] {digest(SHA1)};
+            if (!fetch(path, staging, false, digests)) {
+                return false;
+            }
+            String actual = hex(digests[0].digest());
+            String expected = sha1 != null ? sha1 : remoteChecksum(path + ".sha1", dir);
+            check(path, SHA1, expected, actual);
+            boolean checked = expected != null;
+            if (sha256) {
+                String expected256 = remoteChecksum(path + ".sha256", dir);
+                check(path, SHA256, expected256, hex(digests[1].digest()));
+                checked |= expected256 != null;
+            }
+            if (!checked && required) {
+                throw new IOException("No checksum for " + baseUrl + path + " to verify it against");
+            }
+            File sum = File.createTempFile(target.getName(), ".sha1.part", dir);
+            try {
+                FileUtils.fileWrite(sum, "US-ASCII", actual);
+                Files.move(sum.toPath(), new File(dir, target.getName() + ".sha1").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                sum.delete();
+            }
+            Files.move(staging.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            if (checked) {
+                verified.incrementAndGet();
+            } else {
+                unverified.add(path);
+            }
+            return true;
+        } finally {
+            staging.delete();
+        }
+    }
+
+    /**
+     * Compares an expected checksum with a computed one.
+     * @param path The relative path, for the message
+     * @param algorithm The digest algorithm, for the message
+     * @param expected The expected checksum, or null if there is none
+     * @param actual The computed checksum
+     * @throws IOException If the checksums differ
+     */
+    private void check(final String path, final String algorithm, final String expected, final String actual)
+            throws IOException {
+        if (expected != null && !expected.equalsIgnoreCase(actual)) {
+            mismatched.incrementAndGet();
+            throw new IOException(algorithm + " mismatch for " + baseUrl + path + ": expected " + expected
+                + ", got " + actual);
+        }
+    }
+
+    /**
+     * Fetches a checksum file of the repository.
+     * @param path The relative path of the checksum file
+     * @param dir A directory to download it to temporarily
+     * @return String The checksum, the first word of the file, or null if the repository does not have it
+     * @throws IOException On a transfer error
+     * @throws InterruptedException If interrupted while waiting for a permit
+     */
+    private String remoteChecksum(final String path, final File dir) throws IOException, InterruptedException {
+        File tmp = File.createTempFile("checksum", ".part", dir);
+        try {
+            tmp.delete();
+            if (!fetch(path, tmp, false)) {
+                return null;
+            }
+            String content = FileUtils.fileRead(tmp, "US-ASCII").trim();
+            int end = 0;
+            while (end < content.length() && !Character.isWhitespace(content.charAt(end))) {
+                end++;
+            }
+            return end > 0 ? content.substring(0, end) : null;
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Creates a message digest.
+     * @param algorithm The algorithm
+     * @return MessageDigest The digest
+     */
+    private static MessageDigest digest(final String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Formats a digest as lower case hexadecimal.
+     * @param digest The digest
+     * @return String The hexadecimal digits
+     */
+    private static String hex(final byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> HALF_BYTE) & LOW_NIBBLE, HEX_RADIX));
+            sb.append(Character.forDigit(b & LOW_NIBBLE, HEX_RADIX));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Uploads a file or content with PUT, retrying failed attempts.
+     * @param path The relative path
+     * @param source The file to stream, or null
+     * @param content The content, if there is no file
+     * @throws IOException If the last attempt failed
+     * @throws InterruptedException If interrupted while waiting for a permit or a retry
+     */
+    private void put(final String path, final File source, final byte[] content)
+            throws IOException, InterruptedException {
+        if (offline) {
+            throw new IOException("Cannot upload " + baseUrl + path + " in offline mode");
+        }
+        int attempt = 1;
+        while (true) {
+            try {
+                putOnce(path, source, content);
+                uploaded.incrementAndGet();
+                HttpMetadataCache cache = metadata;
+                if (cache != null) {
+                    cache.found(baseUrl + path, null, null);
+                }
+                return;
+            } catch (RetryableException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+            } catch (IOException e) {
+                if (e instanceof HttpStatusException || attempt >= maxAttempts) {
+                    throw e;
+                }
+            }
+            retried.incrementAndGet();
+            Thread.sleep(RETRY_DELAY * attempt);
+            attempt++;
+        }
+    }
+
+    /**
+     * One upload attempt, holding a permit for the host meanwhile.
+     * @param path The relative path
+     * @param source The file to stream, or null
+     * @param content The content, if there is no file
+     * @throws IOException On a transfer error or an unsuccessful status
+     * @throws InterruptedException If interrupted while waiting for a permit
+     */
+    private void putOnce(final String path, final File source, final byte[] content)
+            throws IOException, InterruptedException {
+        hostPermits.acquire();
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+            conn.setConnectTimeout(CONNECT_TIMEOUT);
+            conn.setReadTimeout(READ_TIMEOUT);
+            conn.setUseCaches(false);
+            conn.setDoOutput(true);
+            conn.setRequestMethod("PUT");
+            if (authorization != null) {
+                conn.setRequestProperty("Authorization", authorization);
+            }
+            conn.setFixedLengthStreamingMode(source != null ? source.length() : content.length);
+            OutputStream out = conn.getOutputStream();
+            try {
+                if (source != null) {
+                    InputStream in = new FileInputStream(source);
+                    try {
+                        byte[] buffer = new byte[BUFFER_SIZE];
+                        int n;
+                        while ((n = in.read(buffer)) != -1) {
+                            out.write(buffer, 0, n);
+                            bytes.addAndGet(n);
+                        }
+                    } finally {
+                        IOUtil.close(in);
+                    }
+                } else {
+                    out.write(content);
+                    bytes.addAndGet(content.length);
+                }
+            } finally {
+                out.close();
+            }
+            int status = conn.getResponseCode();
+            if (status >= HTTP_SUCCESS_MIN && status < HTTP_SUCCESS_MAX) {
+                drain(conn.getInputStream());
+                return;
+            }
+            drain(conn.getErrorStream());
+            String message = "HTTP " + status + " " + conn.getResponseMessage() + " for PUT " + conn.getURL();
+            if (status >= HTTP_SERVER_ERROR || status == HTTP_REQUEST_TIMEOUT || status == HTTP_TOO_MANY_REQUESTS) {
+                throw new RetryableException(message);
+            }
+            throw new HttpStatusException(message);
+        } finally {
+            hostPermits.release();
+        }
+    }
+
+    /**
+     * Writes a response body to a temporary file next to the target and moves it into place.
+     * @param in The response body
+     * @param target The target
+     * @param digests Digests to update with the body, may be null
+     * @throws IOException In case of IO error
+     */
+    private void write(final InputStream in, final File target, final MessageDigest[] digests)
+            throws IOException {
+        File dir = target.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile(target.getName(), ".part", dir);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                if (digests != null) {
+                    for (MessageDigest digest : digests) {
+                        digest.update(buffer, 0, n);
+                    }
+                }
+                bytes.addAndGet(n);
+            }
+            out.close();
+            out = null;
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            IOUtil.close(out);
+            IOUtil.close(in);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Reads a response body to the end so that the connection can be reused.
+     * @param in The body, may be null
+     */
+    private static void drain(final InputStream in) {
+        if (in == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (in.read(buffer) != -1) {
+                continue;
+            }
+        } catch (IOException e) {
+            return;
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    /**
+     * An unsuccessful HTTP status that is not worth retrying.
+     */
+    private static class HttpStatusException extends IOException {
+
+        /**
+         * Serial version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructor.
+         * @param message The message
+         */
+        HttpStatusException(final String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * An unsuccessful HTTP status that may go away, such as a server error.
+     */
+    private static final class RetryableException extends HttpStatusException {
+
+        /**
+         * Serial version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructor.
+         * @param message The message
+         */
+        RetryableException(final String message) {
+            super(message);
+        }
+    }
+}
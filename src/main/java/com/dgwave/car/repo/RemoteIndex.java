@@ -0,0 +1,536 @@
+package com.dgwave.car.repo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+import com.dgwave.car.common.CeylonUtil;
+import com.dgwave.car.common.ModuleVersion;
+import com.dgwave.car.common.PluginState;
+import com.dgwave.car.common.RepositoryPaths;
+
+/**
+ * A snapshot of the files of a remote Ceylon repository, with their SHA-1 checksums, so that version and existence
+ * queries are answered locally instead of with one request each. A repository publishes, under
+ * <code>.index/</code>, its snapshot as <code>full.gz</code>, the sequence number of that snapshot in
+ * <code>current</code>, and the changes that led to each of the last few snapshots as <code>delta-N.gz</code>;
+ * {@link #publish(File)} generates these from a repository directory. Clients keep a copy of the snapshot in the
+ * Ceylon cache repository, look at <code>current</code> at most once per time to live, and catch up with the deltas
+ * when they are not too far behind, or with the full snapshot otherwise.
+ *
+ * @author Akber Choudhry
+ */
+public final class RemoteIndex {
+
+    /**
+     * Directory of the published snapshot files, relative to the repository root.
+     */
+    public static final String INDEX_DIR = ".index";
+
+    /**
+     * Path of the file holding the current sequence number.
+     */
+    public static final String CURRENT = INDEX_DIR + "/current";
+
+    /**
+     * Path of the full snapshot.
+     */
+    public static final String FULL = INDEX_DIR + "/full.gz";
+
+    /**
+     * Default time to live of a client's copy of the snapshot: one hour, in milliseconds.
+     */
+    public static final long DEFAULT_TTL = 60L * 60 * 1000;
+
+    /**
+     * Number of deltas kept by a repository; a client further behind downloads the full snapshot.
+     */
+    public static final int MAX_DELTAS = 16;
+
+    /**
+     * First line of a full snapshot, followed by its sequence number.
+     */
+    private static final String HEADER = "#ceylon-remote-index 1 ";
+
+    /**
+     * First line of a delta, followed by the sequence number it leads to.
+     */
+    private static final String DELTA_HEADER = "#ceylon-remote-index-delta 1 ";
+
+    /**
+     * Estimated bytes held by the snapshot besides its entries.
+     */
+    private static final int SNAPSHOT_BYTES = 64;
+
+    /**
+     * Estimated bytes held by an entry besides its characters.
+     */
+    private static final int ENTRY_BYTES = 48;
+
+    /**
+     * Length of a SHA-1 checksum in hexadecimal.
+     */
+    private static final int SHA1_LENGTH = 40;
+
+    /**
+     * Sequence number.
+     */
+    private final long sequence;
+
+    /**
+     * Sorted file paths, '/' separated.
+     */
+    private final String[] paths;
+
+    /**
+     * SHA-1 checksums of the files, in the same order, empty where unknown.
+     */
+    private final String[] checksums;
+
+    /**
+     * Constructor.
+     * @param sequence The sequence number
+     * @param files Checksums by path
+     */
+    private RemoteIndex(final long sequence, final Map<String, String> files) {
+        this.sequence = sequence;
+        this.paths = files.keySet().toArray(new String[files.size()]);
+        this.checksums = files.values().toArray(new String[files.size()]);
+    }
+
+    /**
+     * @return long The sequence number of this snapshot
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return int Number of files
+     */
+    public int size() {
+        return paths.length;
+    }
+
+    /**
+     * @param path A path relative to the repository root, '/' separated
+     * @return boolean Whether the repository has the file
+     */
+    public boolean contains(final String path) {
+        return Arrays.binarySearch(paths, path) >= 0;
+    }
+
+    /**
+     * @param path A path relative to the repository root, '/' separated
+     * @return String The SHA-1 checksum of the file, or null if unknown or the file does not exist
+     */
+    public String checksum(final String path) {
+        int i = Arrays.binarySearch(paths, path);
+        return i < 0 || checksums[i].isEmpty() ? null : checksums[i];
+    }
+
+    /**
+     * Lists the versions of a module in the repository, in ascending version order.
+     * @param groupId Maven group id
+     * @param artifactId Maven artifact id
+     * @return List of versions, empty if the module is not in the repository
+     */
+    public List<String> versions(final String groupId, final String artifactId) {
+        String prefix = RepositoryPaths.groupDirectory(groupId) + CeylonUtil.PATH_SEPARATOR + artifactId
+            + CeylonUtil.PATH_SEPARATOR;
+        int i = Arrays.binarySearch(paths, prefix);
+        TreeSet<ModuleVersion> versions = new TreeSet<ModuleVersion>();
+        for (i = i < 0 ? -i - 1 : i; i < paths.length && paths[i].startsWith(prefix); i++) {
+            int slash = paths[i].indexOf(CeylonUtil.PATH_SEPARATOR, prefix.length());
+            if (slash > prefix.length() && paths[i].indexOf(CeylonUtil.PATH_SEPARATOR, slash + 1) < 0) {
+                versions.add(new ModuleVersion(paths[i].substring(prefix.length(), slash)));
+            }
+        }
+        List<String> result = new ArrayList<String>(versions.size());
+        for (ModuleVersion v : versions) {
+            result.add(v.getVersion());
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * The snapshot of an HTTP repository, brought up to date if the local copy is older than its time to live. In
+     * offline mode the local copy is used whatever its age.
+     *
+     * @param client The client of the repository
+     * @param cacheRepo The Ceylon cache repository the local copy is kept in
+     * @param ttl How long the local copy is used without looking for a newer snapshot, in milliseconds
+     * @return RemoteIndex The snapshot, or null if the repository does not publish one and there is no local copy
+     */
+    public static RemoteIndex forRepository(final HttpRepositoryClient client, final File cacheRepo, final long ttl) {
+        File local = new File(new File(cacheRepo, INDEX_DIR), localName(client.getBaseUrl()));
+        String key = "remote-index:" + local.getAbsolutePath();
+        PluginState state = PluginState.shared();
+        RemoteIndex index = state.get(key, PluginState.Stamp.of(local), RemoteIndex.class);
+        if (index == null && local.isFile()) {
+            try {
+                index = read(local);
+            } catch (IOException e) {
+                index = null;
+            }
+        }
+        if (index != null && (client.isOffline() || System.currentTimeMillis() - local.lastModified() < ttl)) {
+            state.put(key, PluginState.Stamp.of(local), index, index.estimateBytes());
+            return index;
+        }
+        if (client.isOffline()) {
+            return null;
+        }
+
+        RemoteIndex updated;
+        try {
+            updated = update(client, local, index);
+        } catch (IOException e) {
+            updated = index;
+        } catch (ExecutionException e) {
+            updated = index;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            updated = index;
+        }
+        if (updated != null) {
+            state.put(key, PluginState.Stamp.of(local), updated, updated.estimateBytes());
+        }
+        return updated;
+    }
+
+    /**
+     * Looks for a newer snapshot and stores it as the local copy, or marks the local copy as checked.
+     * @param client The client of the repository
+     * @param local The local copy
+     * @param index The snapshot read from the local copy, or null
+     * @return RemoteIndex The newest snapshot, or null if the repository does not publish one
+     * @throws IOException On a transfer error, or if the repository publishes malformed files
+     * @throws ExecutionException If a download failed
+     * @throws InterruptedException If interrupted while downloading
+     */
+    private static RemoteIndex update(final HttpRepositoryClient client, final File local, final RemoteIndex index)
+            throws IOException, ExecutionException, InterruptedException {
+        File dir = local.getParentFile();
+        dir.mkdirs();
+        File current = new File(dir, local.getName() + ".current");
+        if (client.refresh(CURRENT, current).get() == null) {
+            return index;
+        }
+        long latest;
+        try {
+            latest = Long.parseLong(FileUtils.fileRead(current, "US-ASCII").trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed " + client.getBaseUrl() + CURRENT);
+        }
+
+        RemoteIndex updated = null;
+        if (index != null && index.sequence == latest) {
+            updated = index;
+        } else if (index != null && index.sequence < latest && latest - index.sequence <= MAX_DELTAS) {
+            updated = index;
+            for (long s = index.sequence + 1; updated != null && s <= latest; s++) {
+                File delta = File.createTempFile(local.getName(), ".delta", dir);
+                delta.delete();
+                try {
+                    updated = client.download(deltaPath(s), delta).get() == null ? null : updated.apply(delta);
+                } finally {
+                    delta.delete();
+                }
+            }
+        }
+        if (updated == null) {
+            File full = File.createTempFile(local.getName(), ".full", dir);
+            full.delete();
+            try {
+                if (client.download(FULL, full).get() == null) {
+                    return index;
+                }
+                updated = read(full);
+            } finally {
+                full.delete();
+            }
+        }
+        if (updated == index) {
+            local.setLastModified(System.currentTimeMillis());
+        } else {
+            updated.write(local);
+        }
+        return updated;
+    }
+
+    /**
+     * Generates the snapshot files of a repository directory under its <code>.index/</code> directory: a new full
+     * snapshot, the delta from the previous one, and the current sequence number, written last. Deltas older than
+     * {@link #MAX_DELTAS} snapshots are removed. Nothing is written if the files are unchanged.
+     *
+     * @param root The repository root directory
+     * @return RemoteIndex The current snapshot
+     * @throws IOException In case of IO error
+     */
+    public static RemoteIndex publish(final File root) throws IOException {
+        File dir = new File(root, INDEX_DIR);
+        File fullFile = new File(root, FULL);
+        RemoteIndex previous = fullFile.isFile() ? read(fullFile) : null;
+        Map<String, String> files = new TreeMap<String, String>();
+        scan(root, "", files);
+        RemoteIndex index = new RemoteIndex(previous != null ? previous.sequence + 1 : 1, files);
+        if (previous != null && Arrays.equals(previous.paths, index.paths)
+            && Arrays.equals(previous.checksums, index.checksums)) {
+            return previous;
+        }
+
+        dir.mkdirs();
+        if (previous != null) {
+            StringBuilder delta = new StringBuilder(DELTA_HEADER).append(index.sequence).append('\n');
+            for (int i = 0; i < previous.paths.length; i++) {
+                if (!index.contains(previous.paths[i])) {
+                    delta.append('-').append(previous.paths[i]).append('\n');
+                }
+            }
+            for (int i = 0; i < index.paths.length; i++) {
+                int old = Arrays.binarySearch(previous.paths, index.paths[i]);
+                if (old < 0 || !previous.checksums[old].equals(index.checksums[i])) {
+                    delta.append('+').append(index.paths[i]).append('\t').append(index.checksums[i]).append('\n');
+                }
+            }
+            writeAtomically(new File(root, deltaPath(index.sequence)), delta.toString(), true);
+        }
+        index.write(fullFile);
+        writeAtomically(new File(root, CURRENT), index.sequence + "\n", false);
+        new File(root, deltaPath(index.sequence - MAX_DELTAS)).delete();
+        return index;
+    }
+
+    /**
+     * Reads a full snapshot.
+     * @param file The gzipped snapshot
+     * @return RemoteIndex The snapshot
+     * @throws IOException In case of IO error, or if the file is not a snapshot
+     */
+    static RemoteIndex read(final File file) throws IOException {
+        BufferedReader in = open(file);
+        try {
+            long sequence = sequence(in.readLine(), HEADER, file);
+            Map<String, String> files = new TreeMap<String, String>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    files.put(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+            return new RemoteIndex(sequence, files);
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    /**
+     * Applies a delta to this snapshot.
+     * @param file The gzipped delta
+     * @return RemoteIndex The next snapshot, or null if the delta does not follow this snapshot
+     * @throws IOException In case of IO error, or if the file is not a delta
+     */
+    RemoteIndex apply(final File file) throws IOException {
+        BufferedReader in = open(file);
+        try {
+            long next = sequence(in.readLine(), DELTA_HEADER, file);
+            if (next != sequence + 1) {
+                return null;
+            }
+            Map<String, String> files = new TreeMap<String, String>();
+            for (int i = 0; i < paths.length; i++) {
+                files.put(paths[i], checksums[i]);
+            }
+            String line;
+            while ((line = in.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (line.startsWith("-")) {
+                    files.remove(line.substring(1));
+                } else if (line.startsWith("+") && tab > 1) {
+                    files.put(line.substring(1, tab), line.substring(tab + 1));
+                }
+            }
+            return new RemoteIndex(next, files);
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    /**
+     * Writes this snapshot, replacing the file atomically.
+     * @param file The target
+     * @throws IOException In case of IO error
+     */
+    void write(final File file) throws IOException {
+        StringBuilder content = new StringBuilder(HEADER).append(sequence).append('\n');
+        for (int i = 0; i < paths.length; i++) {
+            content.append(paths[i]).append('\t').append(checksums[i]).append('\n');
+        }
+        writeAtomically(file, content.toString(), true);
+    }
+
+    /**
+     * @return long Estimated bytes held by this snapshot
+     */
+    private long estimateBytes() {
+        long bytes = SNAPSHOT_BYTES;
+        for (String path : paths) {
+            bytes += ENTRY_BYTES + 2L * (path.length() + SHA1_LENGTH);
+        }
+        return bytes;
+    }
+
+    /**
+     * Lists the files of a repository with their checksums, taken from <code>.sha1</code> files where present.
+     * Checksum files, and files and directories whose name starts with '.', are left out.
+     * @param dir The directory to list
+     * @param prefix Its path relative to the root, '/' terminated or empty
+     * @param files Collects checksums by path
+     * @throws IOException If a checksum cannot be read or calculated
+     */
+    private static void scan(final File dir, final String prefix, final Map<String, String> files)
+            throws IOException {
+        File[] list = dir.listFiles();
+        if (list == null) {
+            return;
+        }
+        for (File f : list) {
+            String name = f.getName();
+            if (name.startsWith(".")) {
+                continue;
+            }
+            if (f.isDirectory()) {
+                scan(f, prefix + name + CeylonUtil.PATH_SEPARATOR, files);
+            } else if (!name.endsWith(".sha1")) {
+                files.put(prefix + name, checksumOf(f));
+            }
+        }
+    }
+
+    /**
+     * The SHA-1 checksum of a file, from its <code>.sha1</code> file or calculated.
+     * @param file The file
+     * @return String The checksum in lower case hexadecimal
+     * @throws IOException If the checksum cannot be read or calculated
+     */
+    private static String checksumOf(final File file) throws IOException {
+        File sha1 = new File(file.getPath() + ".sha1");
+        if (sha1.isFile()) {
+            String content = FileUtils.fileRead(sha1, "US-ASCII").trim();
+            int space = content.indexOf(' ');
+            return (space < 0 ? content : content.substring(0, space)).toLowerCase();
+        }
+        try {
+            return CeylonUtil.calculateChecksum(file);
+        } catch (MojoExecutionException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param sequence A sequence number
+     * @return String The path of the delta leading to it
+     */
+    private static String deltaPath(final long sequence) {
+        return INDEX_DIR + "/delta-" + sequence + ".gz";
+    }
+
+    /**
+     * The name of the local copy of a repository's snapshot.
+     * @param baseUrl The repository base URL
+     * @return String A file name
+     */
+    private static String localName(final String baseUrl) {
+        StringBuilder name = new StringBuilder(baseUrl.length() + 3);
+        for (int i = 0; i < baseUrl.length(); i++) {
+            char c = baseUrl.charAt(i);
+            name.append(Character.isLetterOrDigit(c) || c == '.' || c == '-' ? c : '_');
+        }
+        return name.append(".gz").toString();
+    }
+
+    /**
+     * Opens a gzipped text file.
+     * @param file The file
+     * @return BufferedReader A reader
+     * @throws IOException In case of IO error
+     */
+    private static BufferedReader open(final File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return new BufferedReader(new InputStreamReader(new GZIPInputStream(in), "UTF-8"));
+        } catch (IOException e) {
+            IOUtil.close(in);
+            throw e;
+        }
+    }
+
+    /**
+     * Parses the sequence number of a header line.
+     * @param line The line
+     * @param header The expected header
+     * @param file The file, for error messages
+     * @return long The sequence number
+     * @throws IOException If the header is not the expected one
+     */
+    private static long sequence(final String line, final String header, final File file) throws IOException {
+        if (line == null || !line.startsWith(header)) {
+            throw new IOException("Not a Ceylon repository index: " + file);
+        }
+        try {
+            return Long.parseLong(line.substring(header.length()).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Not a Ceylon repository index: " + file);
+        }
+    }
+
+    /**
+     * Writes a file through a temporary file in the same directory, then moves it into place.
+     * @param file The target
+     * @param content The content
+     * @param gzip Whether to compress the content
+     * @throws IOException In case of IO error
+     */
+    private static void writeAtomically(final File file, final String content, final boolean gzip)
+            throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        Writer out = null;
+        try {
+            FileOutputStream stream = new FileOutputStream(tmp);
+            out = new OutputStreamWriter(gzip ? new GZIPOutputStream(stream) : stream, "UTF-8");
+            out.write(content);
+            out.close();
+            out = null;
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            IOUtil.close(out);
+            tmp.delete();
+        }
+    }
+}
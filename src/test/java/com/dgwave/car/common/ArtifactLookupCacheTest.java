@@ -0,0 +1,50 @@
+package com.dgwave.car.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ArtifactLookupCacheTest {
+
+    ArtifactLookupCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new ArtifactLookupCache();
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        File file = new File("org/junit/junit/4.10/org.junit.junit-4.10.jar");
+        assertNull(cache.get("org.junit", "junit", "4.10", null, "jar"));
+        cache.put("org.junit", "junit", "4.10", null, "jar", file);
+        assertSame(file, cache.get("org.junit", "junit", "4.10", null, "jar"));
+        assertSame(file, cache.get("org.junit", "junit", "4.10", "", "jar"));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testNegativeEntries() {
+        cache.put("org.junit", "junit", "4.11", null, "car", null);
+        assertSame(ArtifactLookupCache.NOT_FOUND, cache.get("org.junit", "junit", "4.11", null, "car"));
+        assertNull(cache.get("org.junit", "junit", "4.11", null, "jar"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        cache.put("org.junit", "junit", "4.10", null, "jar", null);
+        cache.put("org.junit", "junit", "4.10", "sources", "jar", null);
+        cache.put("org.junit", "junit", "4.11", null, "jar", null);
+        cache.invalidate("org.junit", "junit", "4.10");
+        assertEquals(1, cache.size());
+        assertNull(cache.get("org.junit", "junit", "4.10", null, "jar"));
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+}
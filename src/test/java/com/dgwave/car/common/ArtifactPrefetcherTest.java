@@ -0,0 +1,105 @@
+package com.dgwave.car.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ArtifactPrefetcherTest {
+
+    File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/prefetch-test").getAbsoluteFile();
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+    }
+
+    @Test
+    public void testTraceKeepsFirstResolutionOrder() throws Exception {
+        File a = new File(dir, "a.car");
+        File b = new File(dir, "b.car");
+        ResolutionTrace trace = new ResolutionTrace();
+        trace.record(b);
+        trace.record(a);
+        trace.record(b);
+        File traceFile = new File(dir, "build.trace");
+        trace.write(traceFile);
+
+        List<File> loaded = ResolutionTrace.load(traceFile);
+        assertEquals(2, loaded.size());
+        assertEquals(b, loaded.get(0));
+        assertEquals(a, loaded.get(1));
+        assertTrue(trace.sameAs(loaded));
+    }
+
+    @Test
+    public void testWarmsTracedFiles() throws Exception {
+        File a = new File(dir, "a.car");
+        FileUtils.fileWrite(a, "UTF-8", "0123456789");
+        ResolutionTrace trace = new ResolutionTrace();
+        trace.record(a);
+        trace.record(new File(dir, "gone.car"));
+        File traceFile = new File(dir, "build.trace");
+        trace.write(traceFile);
+
+        ArtifactPrefetcher prefetcher = new ArtifactPrefetcher(null, ResolutionTrace.load(traceFile));
+        assertTrue(prefetcher.await(5000));
+        assertEquals(1, prefetcher.getWarmedCount());
+        assertEquals(1, prefetcher.getMissingCount());
+        assertEquals(10, prefetcher.getBytesRead());
+        prefetcher.close();
+    }
+
+    @Test
+    public void testDownloadsMissingFiles() throws Exception {
+        File a = new File(dir, "a.car");
+        FileUtils.fileWrite(a, "UTF-8", "0123456789");
+        final File remote = new File(dir, "remote.car");
+        File gone = new File(dir, "gone.car");
+        ResolutionTrace trace = new ResolutionTrace();
+        trace.record(remote);
+        trace.record(a);
+        trace.record(gone);
+        trace.record(new File(dir, "other.car"));
+
+        ArtifactSource source = new ArtifactSource() {
+            @Override
+            public Future<File> fetch(final File file) {
+                if (file.getName().equals("other.car")) {
+                    return null;
+                }
+                FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        if (!file.equals(remote)) {
+                            return null;
+                        }
+                        FileUtils.fileWrite(file, "UTF-8", "downloaded");
+                        return file;
+                    }
+                });
+                task.run();
+                return task;
+            }
+        };
+        File traceFile = new File(dir, "build.trace");
+        trace.write(traceFile);
+        ArtifactPrefetcher prefetcher = new ArtifactPrefetcher(null, ResolutionTrace.load(traceFile), source);
+        assertTrue(prefetcher.await(5000));
+        assertEquals(1, prefetcher.getWarmedCount());
+        assertEquals(1, prefetcher.getFetchedCount());
+        assertEquals(2, prefetcher.getMissingCount());
+        assertEquals("downloaded", FileUtils.fileRead(remote, "UTF-8"));
+        prefetcher.close();
+    }
+}
@@ -0,0 +1,67 @@
+package com.dgwave.car.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DependencyIndexTest {
+
+    File repo;
+
+    File indexFile;
+
+    @Before
+    public void setUp() throws Exception {
+        File dir = new File("target/dependency-index-test").getAbsoluteFile();
+        FileUtils.deleteDirectory(dir);
+        repo = new File(dir, "repo");
+        indexFile = new File(dir, "repo.dep");
+        descriptor("com/foo/bar/1.2/module.properties", "");
+        descriptor("com/foo/app/1.0/module.properties", "com.foo.bar=1.2\ncom.foo.util?=2.0\n");
+        descriptor("com/foo/web/1.0/com.foo.web-1.0.module", "com.foo.app=1.0\n");
+        descriptor("org/jboss/lib/3.0/module.xml", "<module xmlns=\"urn:jboss:module:1.1\" name=\"org.jboss.lib\" "
+            + "slot=\"3.0\"><dependencies><module name=\"com.foo.bar\" slot=\"1.2\"/></dependencies></module>");
+    }
+
+    private void descriptor(final String path, final String content) throws Exception {
+        File file = new File(repo, path);
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file, "UTF-8", content);
+    }
+
+    @Test
+    public void testImporters() throws Exception {
+        DependencyIndex index = DependencyIndex.load(repo, indexFile);
+        assertTrue(index.update());
+        assertEquals(4, index.getModuleCount());
+        assertEquals(Arrays.asList("com.foo.app/1.0", "org.jboss.lib/3.0"), index.findImporters("com.foo.bar", "1.2"));
+        assertEquals(Arrays.asList("com.foo.app/1.0"), index.findImporters("com.foo.util", null));
+        assertEquals(Collections.emptyList(), index.findImporters("com.foo.bar", "1.1"));
+        assertEquals(Arrays.asList("com.foo.app/1.0", "com.foo.web/1.0", "org.jboss.lib/3.0"),
+            index.findAffected("com.foo.bar", "1.2"));
+    }
+
+    @Test
+    public void testIncrementalUpdate() throws Exception {
+        DependencyIndex index = DependencyIndex.load(repo, indexFile);
+        index.update();
+        index.write(indexFile);
+
+        DependencyIndex reloaded = DependencyIndex.load(repo, indexFile);
+        assertEquals(4, reloaded.getModuleCount());
+        assertFalse(reloaded.update());
+
+        descriptor("com/foo/cli/1.0/module.properties", "com.foo.bar=1.2\n");
+        assertTrue(reloaded.update(new File(repo, "com/foo/cli/1.0")));
+        assertEquals(Arrays.asList("com.foo.app/1.0", "com.foo.cli/1.0", "org.jboss.lib/3.0"),
+            reloaded.findImporters("com.foo.bar", "1.2"));
+    }
+}
@@ -0,0 +1,96 @@
+package com.dgwave.car.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IntegrityVerifierTest {
+
+    File dir;
+
+    File good;
+
+    File bad;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/verify-test").getAbsoluteFile();
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        good = new File(dir, "good.car");
+        FileUtils.fileWrite(good, "UTF-8", "abc");
+        FileUtils.fileWrite(new File(dir, "good.car.sha1"), "UTF-8", "a9993e364706816aba3e25717850c26c9cd0d89d");
+        bad = new File(dir, "bad.car");
+        FileUtils.fileWrite(bad, "UTF-8", "ab");
+        FileUtils.fileWrite(new File(dir, "bad.car.sha1"), "UTF-8", "a9993e364706816aba3e25717850c26c9cd0d89d");
+    }
+
+    @Test
+    public void testVerify() throws Exception {
+        File storeFile = new File(dir, "verified");
+        VerifiedHashStore store = VerifiedHashStore.load(storeFile);
+        IntegrityVerifier verifier = new IntegrityVerifier(store, 2);
+        verifier.verify(good);
+        verifier.verify(bad);
+        verifier.verify(new File(dir, "unknown.car"));
+        List<String> failures = verifier.finish(5000);
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(0).startsWith(bad.getPath()));
+        assertTrue(verifier.isCorrupt(bad));
+        assertFalse(verifier.isCorrupt(good));
+        assertEquals(1, store.size());
+        store.write(storeFile);
+
+        VerifiedHashStore reloaded = VerifiedHashStore.load(storeFile);
+        assertTrue(reloaded.isVerified(good, good.length(), good.lastModified(),
+            "a9993e364706816aba3e25717850c26c9cd0d89d"));
+        assertFalse(reloaded.isVerified(good, good.length() + 1, good.lastModified(),
+            "a9993e364706816aba3e25717850c26c9cd0d89d"));
+    }
+
+    @Test
+    public void testVerifiedFilesAreNotHashedAgain() throws Exception {
+        VerifiedHashStore store = new VerifiedHashStore();
+        store.markVerified(good, good.length(), good.lastModified(), "a9993e364706816aba3e25717850c26c9cd0d89d");
+        IntegrityVerifier verifier = new IntegrityVerifier(store, 1);
+        verifier.verify(good);
+        assertTrue(verifier.finish(5000).isEmpty());
+        assertTrue(verifier.toString().startsWith("Ceylon integrity: 0 hashed, 1 already verified"));
+    }
+
+    @Test
+    public void testWriteMergesOtherBuilds() throws Exception {
+        File storeFile = new File(dir, "verified");
+        String sha1 = "a9993e364706816aba3e25717850c26c9cd0d89d";
+        File other = new File(dir, "other.car");
+        VerifiedHashStore first = VerifiedHashStore.load(storeFile);
+        VerifiedHashStore second = VerifiedHashStore.load(storeFile);
+        first.markVerified(good, 3, 1000, sha1);
+        first.markVerified(bad, 2, 1000, sha1);
+        first.write(storeFile);
+
+        second.markVerified(good, 3, 2000, sha1);
+        second.markVerified(other, 1, 1000, sha1);
+        second.markVerified(bad, 2, 1000, sha1);
+        second.remove(bad);
+        second.write(storeFile);
+
+        VerifiedHashStore merged = VerifiedHashStore.load(storeFile);
+        assertEquals(2, merged.size());
+        assertTrue(merged.isVerified(good, 3, 2000, sha1));
+        assertTrue(merged.isVerified(other, 1, 1000, sha1));
+        assertFalse(merged.isVerified(bad, 2, 1000, sha1));
+
+        first.markVerified(good, 3, 1500, sha1);
+        first.write(storeFile);
+        assertTrue(VerifiedHashStore.load(storeFile).isVerified(good, 3, 2000, sha1));
+        assertTrue(first.isVerified(other, 1, 1000, sha1));
+    }
+}
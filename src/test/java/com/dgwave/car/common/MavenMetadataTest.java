@@ -0,0 +1,41 @@
+package com.dgwave.car.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
+import org.junit.Test;
+
+public class MavenMetadataTest {
+
+    static Metadata parse(final byte[] content) throws Exception {
+        return new MetadataXpp3Reader().read(new InputStreamReader(new ByteArrayInputStream(content), "UTF-8"));
+    }
+
+    @Test
+    public void testModuleMetadata() throws Exception {
+        byte[] content = MavenMetadata.forModule("org.example", "meta", Arrays.asList("1.0", "1.1", "2.0-SNAPSHOT"));
+        Metadata metadata = parse(content);
+        assertEquals("org.example", metadata.getGroupId());
+        assertEquals("meta", metadata.getArtifactId());
+        assertEquals(Arrays.asList("1.0", "1.1", "2.0-SNAPSHOT"), metadata.getVersioning().getVersions());
+        assertEquals("2.0-SNAPSHOT", metadata.getVersioning().getLatest());
+        assertEquals("1.1", metadata.getVersioning().getRelease());
+
+        assertSame(content, MavenMetadata.forModule("org.example", "meta", Arrays.asList("1.0", "1.1",
+            "2.0-SNAPSHOT")));
+        byte[] changed = MavenMetadata.forModule("org.example", "meta", Arrays.asList("1.0", "1.1", "2.0"));
+        assertNotSame(content, changed);
+        assertEquals("2.0", parse(changed).getVersioning().getRelease());
+
+        assertNull(MavenMetadata.forModule("org.example", "meta", Collections.<String>emptyList()));
+    }
+}
@@ -0,0 +1,115 @@
+package com.dgwave.car.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ModuleClassReaderTest {
+
+    static final String ENTRY = "com/dgwave/car/common/sample/module_.class";
+
+    File dir;
+
+    byte[] classFile;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/module-class-test").getAbsoluteFile();
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        InputStream in = getClass().getClassLoader().getResourceAsStream(ENTRY);
+        try {
+            classFile = IOUtil.toByteArray(in);
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    File car(final String name, final String entry) throws Exception {
+        File car = new File(dir, name);
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(car));
+        try {
+            out.putNextEntry(new ZipEntry("com/dgwave/car/common/sample/other.class"));
+            out.write(new byte[] {1, 2, 3});
+            out.closeEntry();
+            if (entry != null) {
+                out.putNextEntry(new ZipEntry(entry));
+                out.write(classFile);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return car;
+    }
+
+    void assertSample(final Module module) {
+        assertEquals("com.dgwave.car.common.sample", module.getModule().getName());
+        assertEquals("1.0", module.getModule().getVersion());
+        List<ModuleIdentifier> deps = new ArrayList<ModuleIdentifier>(module.getDependencies());
+        assertEquals(3, deps.size());
+        assertEquals("ceylon.language", deps.get(0).getName());
+        assertEquals("1.1.0", deps.get(0).getVersion());
+        assertFalse(deps.get(0).isExport());
+        assertFalse(deps.get(0).isOptional());
+        assertEquals("ceylon.collection", deps.get(1).getName());
+        assertTrue(deps.get(1).isExport());
+        assertEquals("com.foo.util", deps.get(2).getName());
+        assertEquals("2.0", deps.get(2).getVersion());
+        assertTrue(deps.get(2).isOptional());
+    }
+
+    @Test
+    public void testReadClassFile() throws Exception {
+        assertSample(ModuleClassReader.read(classFile));
+    }
+
+    @Test
+    public void testReadCar() throws Exception {
+        ZipFile car = new ZipFile(car("sample-1.0.car", ENTRY));
+        try {
+            assertSample(ModuleClassReader.read(car, "com.dgwave.car.common.sample"));
+            assertSample(ModuleClassReader.read(car, "renamed"));
+        } finally {
+            car.close();
+        }
+        ZipFile plain = new ZipFile(car("plain-1.0.car", null));
+        try {
+            assertNull(ModuleClassReader.read(plain, null));
+        } finally {
+            plain.close();
+        }
+    }
+
+    @Test
+    public void testDescriptorReaderFallsBackToClass() throws Exception {
+        File car = car("com.dgwave.car.common.sample-1.0.car", ENTRY);
+        ModuleIdentifier mi = new ModuleIdentifier("com.dgwave.car.common.sample", "1.0", false, false);
+        Module module = ModuleDescriptorReader.parse(car, mi);
+        assertEquals(mi, module.getModule());
+        assertEquals(3, module.getDependencies().size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws Exception {
+        byte[] truncated = new byte[classFile.length / 2];
+        System.arraycopy(classFile, 0, truncated, 0, truncated.length);
+        ModuleClassReader.read(truncated);
+    }
+}
@@ -0,0 +1,116 @@
+package com.dgwave.car.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ModuleDescriptorReaderTest {
+
+    File dir;
+
+    ModuleIdentifier mi = new ModuleIdentifier("com.foo.app", "1.0", false, false);
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/module-descriptor-test").getAbsoluteFile();
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+    }
+
+    File car(final String name, final Manifest manifest) throws Exception {
+        File car = new File(dir, name);
+        JarOutputStream out = manifest != null ? new JarOutputStream(new FileOutputStream(car), manifest)
+            : new JarOutputStream(new FileOutputStream(car));
+        try {
+            out.putNextEntry(new ZipEntry("com/foo/app/run_.class"));
+            out.write(new byte[] {1, 2, 3});
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        return car;
+    }
+
+    @Test
+    public void testCarManifest() throws Exception {
+        Manifest manifest = new Manifest();
+        Attributes main = manifest.getMainAttributes();
+        main.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        main.putValue("Bundle-SymbolicName", "com.foo.app");
+        main.putValue("Bundle-Version", "1.0");
+        main.putValue("Require-Bundle", "ceylon.language;bundle-version=1.1.0;visibility:=reexport,"
+            + "com.foo.util;bundle-version=\"2.0\";resolution:=optional , com.foo.bar;bundle-version=\"[1.2,2)\"");
+        File car = car("com.foo.app-1.0.car", manifest);
+
+        Module module = ModuleDescriptorReader.parse(car, mi);
+        assertEquals(mi, module.getModule());
+        List<ModuleIdentifier> deps = new ArrayList<ModuleIdentifier>(module.getDependencies());
+        assertEquals(3, deps.size());
+        assertEquals("ceylon.language", deps.get(0).getName());
+        assertEquals("1.1.0", deps.get(0).getVersion());
+        assertTrue(deps.get(0).isExport());
+        assertFalse(deps.get(0).isOptional());
+        assertEquals("2.0", deps.get(1).getVersion());
+        assertTrue(deps.get(1).isOptional());
+        assertEquals("com.foo.bar", deps.get(2).getName());
+        assertEquals("[1.2,2)", deps.get(2).getVersion());
+
+        assertSame(module, ModuleDescriptorReader.parse(car, mi));
+    }
+
+    @Test
+    public void testCarWithoutOsgiHeaders() throws Exception {
+        assertTrue(ModuleDescriptorReader.parse(car("plain-1.0.car", null), mi).getDependencies().isEmpty());
+    }
+
+    @Test
+    public void testAllFormats() throws Exception {
+        File properties = new File(dir, "module.properties");
+        FileUtils.fileWrite(properties, "UTF-8", "com.foo.bar=1.2\n");
+        File dotModule = new File(dir, "com.foo.app-1.0.module");
+        FileUtils.fileWrite(dotModule, "UTF-8", "com.foo.bar=1.2\n");
+        File xml = new File(dir, "module.xml");
+        FileUtils.fileWrite(xml, "UTF-8", "<module name=\"com.foo.app\" slot=\"1.0\"><dependencies>"
+            + "<module name=\"com.foo.bar\" slot=\"1.2\"/></dependencies></module>");
+        for (File descriptor : Arrays.asList(properties, dotModule, xml)) {
+            assertTrue(ModuleDescriptorReader.isDescriptor(descriptor.getName()));
+            Module module = ModuleDescriptorReader.parse(descriptor, mi);
+            assertEquals("com.foo.app", module.getModule().getName());
+            assertEquals("com.foo.bar", module.getDependencies().iterator().next().getName());
+        }
+        assertFalse(ModuleDescriptorReader.isDescriptor("com.foo.app-1.0.car.sha1"));
+    }
+
+    @Test
+    public void testPrecedence() throws Exception {
+        List<String> names = Arrays.asList("module.xml", "com.foo.app-1.0.module", "module.properties",
+            "com.foo.app-1.0.car");
+        for (int i = 0; i < names.size(); i++) {
+            assertEquals(i, ModuleDescriptorReader.precedence(names.get(i)));
+        }
+        assertEquals(-1, ModuleDescriptorReader.precedence("com.foo.app-1.0.jar"));
+    }
+
+    @Test
+    public void testParseClause() throws Exception {
+        assertNull(ModuleDescriptorReader.parseClause(" "));
+        assertEquals("main", ModuleDescriptorReader.parseClause("a.b").getVersion());
+        assertEquals(Arrays.asList("a;v=\"1,2\"", "b"), ModuleDescriptorReader.split("a;v=\"1,2\", b", ','));
+    }
+}
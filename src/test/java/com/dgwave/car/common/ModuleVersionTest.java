@@ -0,0 +1,59 @@
+package com.dgwave.car.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ModuleVersionTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static int compare(String v1, String v2) {
+        return Integer.signum(new ModuleVersion(v1).compareTo(new ModuleVersion(v2)));
+    }
+
+    @Test
+    public void testOrdering() {
+        assertEquals(-1, compare("1.2", "1.10"));
+        assertEquals(-1, compare("1.9.9", "1.10"));
+        assertEquals(-1, compare("1.0", "1.0.0"));
+        assertEquals(-1, compare("1.0", "1.0-final"));
+        assertEquals(-1, compare("1.0-rc1", "1.0.0"));
+        assertEquals(0, compare("1.0.0", "1.0.0"));
+        assertEquals(-1, compare("1.0-alpha", "1.0-beta"));
+        assertEquals(-1, compare("1.0-beta2", "1.0-beta10"));
+        assertEquals(-1, compare("1.0.RC1", "1.0"));
+        assertEquals(-1, compare("1.0-SNAPSHOT", "1.0"));
+        assertEquals(1, compare("1.0-sp1", "1.0"));
+        assertEquals(1, compare("1.0.1", "1.0-sp"));
+        assertFalse(new ModuleVersion("1.0").equals(new ModuleVersion("1.0.0")));
+        assertTrue(new ModuleVersion("1.0").equals(new ModuleVersion("1.0")));
+        assertEquals(new ModuleVersion("1.0").hashCode(), new ModuleVersion("1.0").hashCode());
+
+        TreeSet<ModuleVersion> merged = new TreeSet<ModuleVersion>();
+        for (String v : new String[] {"1.0.0", "1.0", "1.0-final", "1.0", "0.9"}) {
+            merged.add(new ModuleVersion(v));
+        }
+        assertEquals("[0.9, 1.0, 1.0-final, 1.0.0]", merged.toString());
+    }
+
+    @Test
+    public void testVersionIndex() throws Exception {
+        File repo = tmp.newFolder("repo");
+        for (String v : new String[] {"1.10.0", "1.2.0", "1.2.0-RC1", "1.9"}) {
+            new File(repo, "org/example/lib/" + v).mkdirs();
+        }
+        assertEquals(Arrays.asList("1.2.0-RC1", "1.2.0", "1.9", "1.10.0"),
+            VersionIndex.versions(repo, "org.example", "lib"));
+        assertEquals(0, VersionIndex.versions(repo, "org.example", "missing").size());
+    }
+}
@@ -0,0 +1,70 @@
+package com.dgwave.car.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ModuleXmlReaderTest {
+
+    File moduleXml;
+
+    @Before
+    public void setUp() throws Exception {
+        File dir = new File("target/module-xml-test").getAbsoluteFile();
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        moduleXml = new File(dir, "module.xml");
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        FileUtils.fileWrite(moduleXml, "UTF-8", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<module xmlns=\"urn:jboss:module:1.1\" name=\"org.jboss.lib\" slot=\"3.0\">\n"
+            + "  <resources><resource-root path=\"lib.jar\"/></resources>\n"
+            + "  <dependencies>\n"
+            + "    <module name=\"com.foo.bar\" slot=\"1.2\" export=\"true\"/>\n"
+            + "    <!-- a comment -->\n"
+            + "    <module name=\"com.foo.util\" slot=\"2.0\" optional=\"true\"><imports/></module>\n"
+            + "  </dependencies>\n"
+            + "  <exports><module name=\"not.a.dependency\"/></exports>\n"
+            + "</module>\n");
+        Module module = ModuleXmlReader.parse(moduleXml);
+        assertEquals("org.jboss.lib", module.getModule().getName());
+        assertEquals("3.0", module.getModule().getVersion());
+        List<ModuleIdentifier> deps = new ArrayList<ModuleIdentifier>(module.getDependencies());
+        assertEquals(2, deps.size());
+        assertEquals("com.foo.bar", deps.get(0).getName());
+        assertEquals("1.2", deps.get(0).getVersion());
+        assertTrue(deps.get(0).isExport());
+        assertFalse(deps.get(0).isOptional());
+        assertEquals("com.foo.util", deps.get(1).getName());
+        assertTrue(deps.get(1).isOptional());
+
+        assertSame(module, ModuleXmlReader.parse(moduleXml));
+        FileUtils.fileWrite(moduleXml, "UTF-8", "<module name=\"org.jboss.lib\" slot=\"3.1\"/>");
+        moduleXml.setLastModified(moduleXml.lastModified() + 2000);
+        Module changed = ModuleXmlReader.parse(moduleXml);
+        assertNotSame(module, changed);
+        assertEquals("3.1", changed.getModule().getVersion());
+        assertTrue(changed.getDependencies().isEmpty());
+    }
+
+    @Test(expected = Exception.class)
+    public void testExternalEntitiesAreNotResolved() throws Exception {
+        FileUtils.fileWrite(moduleXml, "UTF-8", "<?xml version=\"1.0\"?>\n"
+            + "<!DOCTYPE module [<!ENTITY ext SYSTEM \"file:///etc/passwd\">]>\n"
+            + "<module name=\"a\" slot=\"1\"><dependencies><module name=\"&ext;\" slot=\"1\"/></dependencies>"
+            + "</module>");
+        ModuleXmlReader.parse(moduleXml);
+    }
+}
@@ -0,0 +1,79 @@
+package com.dgwave.car.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PackageIndexTest {
+
+    File repo;
+
+    File indexFile;
+
+    @Before
+    public void setUp() throws Exception {
+        File dir = new File("target/package-index-test").getAbsoluteFile();
+        FileUtils.deleteDirectory(dir);
+        repo = new File(dir, "repo");
+        indexFile = new File(dir, "repo.pkg");
+        archive("ceylon/collection/1.1.0/ceylon.collection-1.1.0.car",
+            "ceylon/collection/HashMap.class", "ceylon/collection/HashSet.class", "META-INF/MANIFEST.MF");
+        archive("ceylon/collection/1.0.0/ceylon.collection-1.0.0.car", "ceylon/collection/HashMap.class");
+        archive("org/junit/4.10/org.junit-4.10.jar", "org/junit/Test.class", "org/junit/runner/Runner.class");
+    }
+
+    private void archive(final String path, final String... entries) throws Exception {
+        File file = new File(repo, path);
+        file.getParentFile().mkdirs();
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        for (String entry : entries) {
+            out.putNextEntry(new ZipEntry(entry));
+            out.write(1);
+            out.closeEntry();
+        }
+        out.close();
+    }
+
+    @Test
+    public void testFindModules() throws Exception {
+        PackageIndex index = PackageIndex.load(repo, indexFile);
+        assertTrue(index.update());
+        assertEquals(3, index.getArchiveCount());
+        assertEquals(3, index.getPackageCount());
+        assertEquals(Arrays.asList("ceylon.collection/1.0.0", "ceylon.collection/1.1.0"),
+            index.findModules("ceylon.collection"));
+        assertEquals(Arrays.asList("org.junit/4.10"), index.findModules("org.junit.runner"));
+        assertEquals(Collections.emptyList(), index.findModules("org"));
+        assertEquals(Collections.emptyList(), index.findModules("META-INF"));
+    }
+
+    @Test
+    public void testIncrementalUpdate() throws Exception {
+        PackageIndex index = PackageIndex.load(repo, indexFile);
+        index.update();
+        index.write(indexFile);
+
+        PackageIndex reloaded = PackageIndex.load(repo, indexFile);
+        assertEquals(3, reloaded.getArchiveCount());
+        assertFalse(reloaded.update());
+
+        archive("ceylon/json/1.1.0/ceylon.json-1.1.0.car", "ceylon/json/Object.class");
+        reloaded.add(new File(repo, "ceylon/json/1.1.0/ceylon.json-1.1.0.car"));
+        assertEquals(Arrays.asList("ceylon.json/1.1.0"), reloaded.findModules("ceylon.json"));
+
+        FileUtils.deleteDirectory(new File(repo, "org"));
+        assertTrue(reloaded.update());
+        assertEquals(Collections.emptyList(), reloaded.findModules("org.junit"));
+    }
+}
@@ -0,0 +1,100 @@
+package com.dgwave.car.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PluginStateTest {
+
+    File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/plugin-state-test").getAbsoluteFile();
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+    }
+
+    @Test
+    public void testInvalidatedWhenFileChanges() throws Exception {
+        File file = new File(dir, "module.properties");
+        FileUtils.fileWrite(file, "UTF-8", "a=1");
+        PluginState state = new PluginState(PluginState.DEFAULT_MAX_BYTES);
+        PluginState.Stamp stamp = PluginState.Stamp.of(file);
+        String value = "parsed";
+        state.put("key", stamp, value, 100);
+        assertSame(value, state.get("key", PluginState.Stamp.of(file), String.class));
+        assertNull(state.get("key", PluginState.Stamp.of(file), Integer.class));
+
+        state.put("key", stamp, value, 100);
+        FileUtils.fileWrite(file, "UTF-8", "a=1\nb=2");
+        assertNull(state.get("key", PluginState.Stamp.of(file), String.class));
+        assertEquals(0, state.size());
+        assertEquals(0, state.getFootprint());
+    }
+
+    @Test
+    public void testBoundedByFootprint() {
+        PluginState state = new PluginState(1000);
+        state.put("a", PluginState.Stamp.NONE, "a", 300);
+        state.put("b", PluginState.Stamp.NONE, "b", 300);
+        state.get("a", PluginState.Stamp.NONE, String.class);
+        state.put("c", PluginState.Stamp.NONE, "c", 300);
+        assertEquals("a", state.get("a", PluginState.Stamp.NONE, String.class));
+        assertNull(state.get("b", PluginState.Stamp.NONE, String.class));
+        assertEquals("c", state.get("c", PluginState.Stamp.NONE, String.class));
+        assertEquals(1, state.getEvictionCount());
+        assertTrue(state.getFootprint() <= state.getMaxBytes());
+
+        state.put("huge", PluginState.Stamp.NONE, "huge", 2000);
+        assertNull(state.get("huge", PluginState.Stamp.NONE, String.class));
+        assertEquals(2, state.size());
+    }
+
+    @Test
+    public void testConcurrentSessions() throws Exception {
+        final PluginState state = new PluginState(64 * 1024);
+        final AtomicInteger errors = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 5000; i++) {
+                        String key = "k" + (i % 500);
+                        String value = state.get(key, PluginState.Stamp.NONE, String.class);
+                        if (value == null) {
+                            state.put(key, PluginState.Stamp.NONE, key, 64);
+                        } else if (!value.equals(key)) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, errors.get());
+        assertTrue(state.getFootprint() <= state.getMaxBytes());
+        long expected = 0;
+        for (int i = 0; i < 500; i++) {
+            if (state.get("k" + i, PluginState.Stamp.NONE, String.class) != null) {
+                expected += 64 + 96 + 2 * ("k" + i).length();
+            }
+        }
+        assertEquals(expected, state.getFootprint());
+    }
+}
@@ -0,0 +1,109 @@
+package com.dgwave.car.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RepositoryChainTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File touch(File repo, String path) throws Exception {
+        File f = new File(repo, path);
+        f.getParentFile().mkdirs();
+        f.createNewFile();
+        return f;
+    }
+
+    @Test
+    public void testConfigOrder() throws Exception {
+        File project = tmp.newFolder("project");
+        File shared = tmp.newFolder("shared");
+        new File(project, ".ceylon").mkdirs();
+        FileWriter w = new FileWriter(new File(project, ".ceylon/config"));
+        w.write("# test\n[repositories]\nsystem=" + tmp.newFolder("system").getPath()
+            + "\nlookup=./extra\nlookup=+SHARED\nlookup=https://modules.ceylon-lang.org/repo/1\n"
+            + "\n[repository \"SHARED\"]\nurl=" + shared.getPath() + "\n");
+        w.close();
+
+        RepositoryChain chain = RepositoryChain.configure(project);
+        assertEquals(6, chain.getRoots().size());
+        assertEquals(new File(tmp.getRoot(), "system").getCanonicalFile(), chain.getRoots().get(0));
+        assertEquals(new File(project, "modules").getCanonicalFile(), chain.getRoots().get(3));
+        assertEquals(new File(project, "extra").getCanonicalFile(), chain.getRoots().get(4));
+        assertEquals(shared.getCanonicalFile(), chain.getRoots().get(5));
+    }
+
+    @Test
+    public void testLookupOrderAndFilter() throws Exception {
+        File first = tmp.newFolder("first");
+        File second = tmp.newFolder("second");
+        touch(first, "org/example/lib/1.0/org.example.lib-1.0.car");
+        touch(second, "org/example/lib/1.0/org.example.lib-1.0.car");
+        touch(second, "org/example/lib/2.0/org.example.lib-2.0.car");
+
+        RepositoryChain chain = new RepositoryChain(Arrays.asList(first, second));
+        assertEquals(new File(first.getCanonicalFile(), "org/example/lib/1.0/org.example.lib-1.0.car"),
+            chain.find("org.example", "lib", "1.0", null, "car"));
+        assertEquals(new File(second.getCanonicalFile(), "org/example/lib/2.0/org.example.lib-2.0.car"),
+            chain.find("org.example", "lib", "2.0", null, "car"));
+        assertNull(chain.find("org.example", "lib", "3.0", null, "car"));
+        assertTrue(chain.getFilteredCount() > 0);
+        assertEquals(Arrays.asList("1.0", "2.0"), chain.versions("org.example", "lib"));
+
+        touch(first, "org/example/lib/3.0/org.example.lib-3.0.car");
+        long probed = chain.getProbedCount();
+        assertNull(chain.find("org.example", "lib", "3.0", null, "car"));
+        assertEquals(probed, chain.getProbedCount());
+        chain.changed("org.example", "lib", "3.0");
+        assertEquals(new File(first.getCanonicalFile(), "org/example/lib/3.0/org.example.lib-3.0.car"),
+            chain.find("org.example", "lib", "3.0", null, "car"));
+
+        File added = touch(first, "org/example/lib/1.0/org.example.lib-1.0.module");
+        added.getParentFile().setLastModified(added.getParentFile().lastModified() + 2000);
+        RepositoryIndex.newSession();
+        assertEquals(new File(first.getCanonicalFile(), "org/example/lib/1.0/org.example.lib-1.0.module"),
+            chain.find("org.example", "lib", "1.0", null, "module"));
+    }
+
+    @Test
+    public void testMissingRepository() throws Exception {
+        File missing = new File(tmp.getRoot(), "modules");
+        RepositoryChain chain = new RepositoryChain(Arrays.asList(missing));
+        assertNull(chain.find("org.example", "lib", "1.0", null, "car"));
+
+        touch(missing, "org/example/lib/1.0/org.example.lib-1.0.car");
+        assertNull(chain.find("org.example", "lib", "1.0", null, "car"));
+        assertEquals(0, chain.getProbedCount());
+        chain.changed("org.example", "lib", "1.0");
+        assertEquals(new File(missing.getCanonicalFile(), "org/example/lib/1.0/org.example.lib-1.0.car"),
+            chain.find("org.example", "lib", "1.0", null, "car"));
+    }
+
+    @Test
+    public void testBloomFilter() {
+        BloomFilter filter = new BloomFilter(1000, BloomFilter.DEFAULT_FPP);
+        for (int i = 0; i < 1000; i++) {
+            filter.put("org/example/lib" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain("org/example/lib" + i));
+            if (filter.mightContain("org/example/other" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives: " + falsePositives, falsePositives < 50);
+        assertFalse(new BloomFilter(10, BloomFilter.DEFAULT_FPP).mightContain("anything"));
+    }
+}
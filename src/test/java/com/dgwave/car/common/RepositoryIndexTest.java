@@ -0,0 +1,136 @@
+package com.dgwave.car.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RepositoryIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    File repo;
+    File indexFile;
+
+    @Before
+    public void setUp() throws Exception {
+        repo = tmp.newFolder("repo");
+        indexFile = new File(tmp.getRoot(), "repo.idx");
+        touch("org/junit/junit/4.10/org.junit.junit-4.10.jar");
+        touch("org/junit/junit/4.10/module.properties");
+        touch("ceylon/language/1.1.0/ceylon.language-1.1.0.car");
+    }
+
+    private File touch(String path) throws IOException {
+        File f = new File(repo, path);
+        f.getParentFile().mkdirs();
+        f.createNewFile();
+        return f;
+    }
+
+    @Test
+    public void testLookups() throws Exception {
+        RepositoryIndex index = RepositoryIndex.open(repo, indexFile);
+        assertEquals(3, index.getFileCount());
+        assertTrue(index.contains("org/junit/junit/4.10/org.junit.junit-4.10.jar"));
+        assertTrue(index.contains("ceylon/language/1.1.0/ceylon.language-1.1.0.car"));
+        assertFalse(index.contains("ceylon/language/1.1.0/ceylon.language-1.1.0.jar"));
+        assertFalse(index.contains("ceylon/language/1.1.0"));
+        assertFalse(index.contains("café/1.0/café-1.0.car"));
+        assertTrue(index.containsDirectory("ceylon/language/1.1.0"));
+        assertEquals(Arrays.asList("module.properties", "org.junit.junit-4.10.jar"),
+            index.list("org/junit/junit/4.10"));
+        assertEquals(Arrays.asList("4.10"), index.listDirectories("org/junit/junit"));
+    }
+
+    @Test
+    public void testIncrementalRebuild() throws Exception {
+        RepositoryIndex.open(repo, indexFile);
+        long written = indexFile.lastModified();
+
+        RepositoryIndex unchanged = RepositoryIndex.open(repo, indexFile);
+        assertEquals(written, indexFile.lastModified());
+        assertEquals(3, unchanged.getFileCount());
+        assertSame(unchanged, unchanged.refresh(indexFile));
+
+        File added = touch("ceylon/language/1.1.1/ceylon.language-1.1.1.car");
+        File module = new File(repo, "ceylon/language");
+        module.setLastModified(module.lastModified() + 2000);
+        added.getParentFile().setLastModified(added.getParentFile().lastModified() + 2000);
+        assertTrue(unchanged.isStale("ceylon/language/1.1.1/ceylon.language-1.1.1.car"));
+        assertFalse(unchanged.isStale("org/junit/junit/4.10/module.properties"));
+
+        RepositoryIndex rebuilt = unchanged.refresh(indexFile);
+        assertEquals(4, rebuilt.getFileCount());
+        assertTrue(rebuilt.contains("ceylon/language/1.1.1/ceylon.language-1.1.1.car"));
+        assertFalse(rebuilt.isStale("ceylon/language/1.1.1/ceylon.language-1.1.1.car"));
+        assertEquals(Arrays.asList("1.1.0", "1.1.1"), rebuilt.listDirectories("ceylon/language"));
+        assertEquals(Arrays.asList("module.properties", "org.junit.junit-4.10.jar"),
+            rebuilt.list("org/junit/junit/4.10"));
+        assertSame(rebuilt, rebuilt.refresh(indexFile));
+    }
+
+    @Test
+    public void testChildRanges() throws Exception {
+        touch("org/junit/junit/4.10/sub/nested.txt");
+        touch("org/junit/junit-dep/4.10/org.junit.junit-dep-4.10.jar");
+        touch("top.txt");
+        RepositoryIndex index = RepositoryIndex.open(repo, indexFile);
+        assertEquals(Arrays.asList("module.properties", "org.junit.junit-4.10.jar"),
+            index.list("org/junit/junit/4.10"));
+        assertEquals(Arrays.asList("sub"), index.listDirectories("org/junit/junit/4.10"));
+        assertEquals(Arrays.asList("junit", "junit-dep"), index.listDirectories("org/junit"));
+        assertEquals(Arrays.asList("top.txt"), index.list(""));
+        assertEquals(Arrays.asList("ceylon", "org"), index.listDirectories(""));
+        assertTrue(index.contains("top.txt"));
+        assertTrue(index.contains("org/junit/junit/4.10/sub/nested.txt"));
+        assertFalse(index.contains("org/junit/junit/4.10/nested.txt"));
+        assertTrue(index.list("org/missing").isEmpty());
+    }
+
+    @Test
+    public void testIndexFileInUse() throws Exception {
+        new File(indexFile, "in-use").mkdirs();
+        RepositoryIndex index = RepositoryIndex.open(repo, indexFile);
+        assertEquals(3, index.getFileCount());
+        assertTrue(index.contains("ceylon/language/1.1.0/ceylon.language-1.1.0.car"));
+        assertTrue(indexFile.isDirectory());
+    }
+
+    @Test
+    public void testNewSessionRevalidates() throws Exception {
+        String path = "ceylon/language/1.1.1/ceylon.language-1.1.1.car";
+        RepositoryIndex first = RepositoryIndex.forRepository(repo);
+        assertFalse(first.contains(path));
+
+        touch(path);
+        File module = new File(repo, "ceylon/language");
+        module.setLastModified(module.lastModified() + 2000);
+        assertSame(first, RepositoryIndex.forRepository(repo));
+        assertFalse(first.isStale(path));
+
+        RepositoryIndex.newSession();
+        RepositoryIndex second = RepositoryIndex.forRepository(repo);
+        assertSame(first, second);
+        assertTrue(second.isStale(path));
+
+        RepositoryIndex.newSession();
+        RepositoryIndex third = RepositoryIndex.forRepository(repo);
+        assertNotSame(second, third);
+        assertTrue(third.contains(path));
+        assertFalse(third.isStale(path));
+        RepositoryIndex.newSession();
+        assertSame(third, RepositoryIndex.forRepository(repo));
+    }
+}
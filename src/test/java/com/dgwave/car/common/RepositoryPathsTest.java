@@ -0,0 +1,65 @@
+package com.dgwave.car.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class RepositoryPathsTest {
+
+    @Test
+    public void testPaths() {
+        assertEquals("org/junit/4.10/org.junit-4.10.jar", RepositoryPaths.path("org", "junit", "4.10", null, "jar"));
+        assertEquals("org/example/lib/1.0/org.example.lib-1.0.car",
+            RepositoryPaths.path("org.example", "lib", "1.0", null, null));
+        assertEquals("org.junit-4.10.jar", RepositoryPaths.moduleName("org", "junit", "4.10", null, "jar"));
+        assertEquals(RepositoryPaths.systemRoot() + File.separator + "org/junit/4.10/org.junit-4.10.jar",
+            RepositoryPaths.systemPath("org", "junit", "4.10", null, "jar"));
+        assertSame(RepositoryPaths.groupDirectory("org.example"), RepositoryPaths.groupDirectory("org.example"));
+    }
+
+    @Test
+    public void testInvalidCoordinates() {
+        try {
+            RepositoryPaths.path("org", "junit", "4-10", null, "jar");
+            fail("Version with '-' accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("version"));
+        }
+        try {
+            RepositoryPaths.path("org", "junit.core", "4.10", null, "jar");
+            fail("Artifact id with '.' accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("artifactId"));
+        }
+    }
+
+    @Test
+    public void testAppendPathDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        StringBuilder buffer = new StringBuilder(CeylonUtil.STRING_BUILDER_SIZE);
+        int lookups = 10000;
+        for (int i = 0; i < lookups; i++) {
+            buffer.setLength(0);
+            RepositoryPaths.appendPath(buffer, "org.example", "lib", "1.0", null, "car");
+        }
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < lookups; i++) {
+            buffer.setLength(0);
+            RepositoryPaths.appendPath(buffer, "org.example", "lib", "1.0", null, "car");
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        assertTrue("Allocated " + allocated + " bytes for " + lookups + " paths", allocated < lookups);
+    }
+}
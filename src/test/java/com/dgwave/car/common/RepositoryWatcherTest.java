@@ -0,0 +1,112 @@
+package com.dgwave.car.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RepositoryWatcherTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    final List<String> changes = new CopyOnWriteArrayList<String>();
+
+    final RepositoryListener listener = new RepositoryListener() {
+        @Override
+        public void moduleChanged(File repoRoot, String groupId, String artifactId, String version) {
+            changes.add(groupId + ":" + artifactId + ":" + version);
+        }
+
+        @Override
+        public void repositoryChanged(File repoRoot) {
+            changes.add("*");
+        }
+    };
+
+    private void await(String change) throws InterruptedException {
+        for (int i = 0; i < 200 && !changes.contains(change); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue("Expected " + change + " in " + changes, changes.contains(change));
+    }
+
+    @Test
+    public void testWatchService() throws Exception {
+        File repo = tmp.newFolder("repo");
+        File version = new File(repo, "org/example/lib/1.0");
+        version.mkdirs();
+        RepositoryWatcher watcher = new RepositoryWatcher(listener, 10, 50);
+        try {
+            watcher.watch(repo, "org.example", "lib", "1.0");
+            assertEquals(2, watcher.getWatchCount());
+            new File(version, "org.example.lib-1.0.car").createNewFile();
+            await("org.example:lib:1.0");
+            new File(repo, "org/example/lib/1.1").mkdirs();
+            await("org.example:lib:1.1");
+            await("org.example:lib:null");
+        } finally {
+            watcher.close();
+        }
+    }
+
+    @Test
+    public void testPollingFallback() throws Exception {
+        File repo = tmp.newFolder("repo");
+        File version = new File(repo, "org/example/lib/1.0");
+        version.mkdirs();
+        RepositoryWatcher watcher = new RepositoryWatcher(listener, 0, 50);
+        try {
+            watcher.watch(repo, "org.example", "lib", "1.0");
+            assertEquals(0, watcher.getWatchCount());
+            assertEquals(2, watcher.getPolledCount());
+            version.setLastModified(version.lastModified() + 2000);
+            await("org.example:lib:1.0");
+        } finally {
+            watcher.close();
+        }
+    }
+
+    @Test
+    public void testMissingDirectoriesWaitOnParent() throws Exception {
+        File repo = tmp.newFolder("repo");
+        new File(repo, "org/example").mkdirs();
+        RepositoryWatcher watcher = new RepositoryWatcher(listener, 0, 50);
+        try {
+            for (int i = 0; i < 20; i++) {
+                watcher.watch(repo, "org.example", "lib" + i, "1.0");
+            }
+            assertEquals(1, watcher.getPolledCount());
+            new File(repo, "org/example/lib7/1.0").mkdirs();
+            await("org.example:lib7:null");
+            await("org.example:lib7:1.0");
+            assertEquals(3, watcher.getPolledCount());
+        } finally {
+            watcher.close();
+        }
+    }
+
+    @Test
+    public void testDeletedDirectoryIsTrackedAgain() throws Exception {
+        File repo = tmp.newFolder("repo");
+        File version = new File(repo, "org/example/lib/1.0");
+        version.mkdirs();
+        RepositoryWatcher watcher = new RepositoryWatcher(listener, 0, 50);
+        try {
+            watcher.watch(repo, "org.example", "lib", "1.0");
+            assertTrue(version.delete());
+            await("org.example:lib:1.0");
+            changes.clear();
+            version.mkdirs();
+            await("org.example:lib:1.0");
+        } finally {
+            watcher.close();
+        }
+    }
+}
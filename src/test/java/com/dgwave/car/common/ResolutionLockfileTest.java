@@ -0,0 +1,92 @@
+package com.dgwave.car.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResolutionLockfileTest {
+
+    File dir;
+
+    File artifact;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/lockfile-test");
+        FileUtils.deleteDirectory(dir);
+        File module = new File(dir, "repo/org/junit/4.10");
+        module.mkdirs();
+        artifact = new File(module, "org.junit-4.10.jar").getAbsoluteFile();
+        FileUtils.fileWrite(artifact, "UTF-8", "jar");
+        FileUtils.fileWrite(new File(artifact.getPath() + ".sha1"), "UTF-8",
+            "a9993e364706816aba3e25717850c26c9cd0d89d");
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File lock = new File(dir, "ceylon.lock");
+        ResolutionLockfile first = ResolutionLockfile.load(lock);
+        assertNull(first.find("org", "junit", "4.10", null, "jar"));
+        first.record("org", "junit", "4.10", null, "jar", artifact);
+        assertTrue(first.isChanged());
+        first.write(lock);
+        assertTrue(FileUtils.fileRead(lock, "UTF-8").contains("a9993e364706816aba3e25717850c26c9cd0d89d"));
+
+        ResolutionLockfile second = ResolutionLockfile.load(lock);
+        assertEquals(1, second.getLockedCount());
+        assertEquals(artifact, second.find("org", "junit", "4.10", "", "jar"));
+        assertEquals(1, second.getHitCount());
+        assertFalse(second.isChanged());
+    }
+
+    @Test
+    public void testChangedFileIsNotUsed() throws Exception {
+        File lock = new File(dir, "ceylon.lock");
+        ResolutionLockfile first = ResolutionLockfile.load(lock);
+        first.record("org", "junit", "4.10", null, "jar", artifact);
+        first.write(lock);
+
+        FileUtils.fileWrite(artifact, "UTF-8", "a larger jar");
+        ResolutionLockfile second = ResolutionLockfile.load(lock);
+        assertNull(second.find("org", "junit", "4.10", null, "jar"));
+        assertEquals(0, second.getLockedCount());
+        assertTrue(second.isChanged());
+    }
+
+    @Test
+    public void testEntriesNotLookedUpAreKept() throws Exception {
+        File lock = new File(dir, "ceylon.lock");
+        File other = new File(artifact.getParentFile(), "org.junit-4.10-sources.jar").getAbsoluteFile();
+        FileUtils.fileWrite(other, "UTF-8", "sources");
+        ResolutionLockfile first = ResolutionLockfile.load(lock);
+        first.record("org", "junit", "4.10", null, "jar", artifact);
+        first.record("org", "junit", "4.10", "sources", "jar", other);
+        first.write(lock);
+
+        ResolutionLockfile second = ResolutionLockfile.load(lock);
+        assertEquals(artifact, second.find("org", "junit", "4.10", null, "jar"));
+        assertFalse(second.isChanged());
+        File added = new File(artifact.getParentFile(), "org.junit-4.10.car").getAbsoluteFile();
+        FileUtils.fileWrite(added, "UTF-8", "car");
+        second.record("org", "junit", "4.10", null, "car", added);
+        assertTrue(second.isChanged());
+        second.write(lock);
+
+        FileUtils.fileWrite(artifact, "UTF-8", "a larger jar");
+        ResolutionLockfile third = ResolutionLockfile.load(lock);
+        assertEquals(3, third.getLockedCount());
+        assertEquals(other, third.find("org", "junit", "4.10", "sources", "jar"));
+        assertEquals(added, third.find("org", "junit", "4.10", null, "car"));
+        assertNull(third.find("org", "junit", "4.10", null, "jar"));
+        assertTrue(third.isChanged());
+        third.write(lock);
+        assertEquals(2, ResolutionLockfile.load(lock).getLockedCount());
+    }
+}
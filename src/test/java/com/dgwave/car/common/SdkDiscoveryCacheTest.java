@@ -0,0 +1,57 @@
+package com.dgwave.car.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SdkDiscoveryCacheTest {
+
+    File dir;
+
+    File dotCeylon;
+
+    File repo;
+
+    File state;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/sdk-discovery-test").getAbsoluteFile();
+        FileUtils.deleteDirectory(dir);
+        dotCeylon = new File(dir, ".ceylon");
+        repo = new File(dotCeylon, "ceylon-1.1.0/repo");
+        repo.mkdirs();
+        state = new File(dir, "state/sdk");
+    }
+
+    @Test
+    public void testRecordAndLookup() throws Exception {
+        SdkDiscoveryCache cache = new SdkDiscoveryCache(null, dotCeylon);
+        assertNull(cache.lookup(state));
+        cache.record(state, repo.getPath());
+        assertEquals(repo.getPath(), cache.lookup(state));
+        assertEquals(repo.getPath(), new SdkDiscoveryCache("", dotCeylon).lookup(state));
+        assertNull(new SdkDiscoveryCache("/opt/ceylon", dotCeylon).lookup(state));
+    }
+
+    @Test
+    public void testInvalidatedByChanges() throws Exception {
+        SdkDiscoveryCache cache = new SdkDiscoveryCache(null, dotCeylon);
+        cache.record(state, repo.getPath());
+        dotCeylon.setLastModified(dotCeylon.lastModified() - 10000L);
+        assertNull(cache.lookup(state));
+
+        cache.record(state, repo.getPath());
+        repo.setLastModified(repo.lastModified() - 10000L);
+        assertNull(cache.lookup(state));
+
+        cache.record(state, repo.getPath());
+        FileUtils.deleteDirectory(repo);
+        assertNull(cache.lookup(state));
+    }
+}
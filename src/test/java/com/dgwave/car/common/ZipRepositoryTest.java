@@ -0,0 +1,74 @@
+package com.dgwave.car.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZipRepositoryTest {
+
+    File dir;
+
+    File sdk;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/zip-repo-test").getAbsoluteFile();
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        sdk = new File(dir, "ceylon-1.1.0.zip");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(sdk));
+        for (String name : new String[] {"ceylon-1.1.0/bin/ceylon",
+            "ceylon-1.1.0/repo/ceylon/language/1.1.0/ceylon.language-1.1.0.car",
+            "ceylon-1.1.0/repo/ceylon/language/1.0.0/ceylon.language-1.0.0.car"}) {
+            out.putNextEntry(new ZipEntry(name));
+            out.write(name.getBytes("UTF-8"));
+            out.closeEntry();
+        }
+        out.close();
+    }
+
+    @Test
+    public void testServeFromArchive() throws Exception {
+        File spill = new File(dir, "spill");
+        ZipRepository repo = ZipRepository.open(sdk, spill);
+        try {
+            String path = "ceylon/language/1.1.0/ceylon.language-1.1.0.car";
+            assertTrue(repo.contains(path));
+            assertFalse(repo.contains("bin/ceylon"));
+            assertEquals(Arrays.asList("1.0.0", "1.1.0"), repo.listDirectories("ceylon/language"));
+            assertEquals(Arrays.asList("ceylon"), repo.listDirectories(""));
+
+            InputStream in = repo.open(path);
+            assertEquals("ceylon-1.1.0/repo/" + path, IOUtil.toString(in, "UTF-8"));
+            in.close();
+            assertFalse(new File(spill, path).exists());
+
+            File file = repo.file(path);
+            assertEquals(new File(spill, path), file);
+            assertEquals("ceylon-1.1.0/repo/" + path, FileUtils.fileRead(file, "UTF-8"));
+            assertNull(repo.file("ceylon/language/1.2.0/ceylon.language-1.2.0.car"));
+        } finally {
+            repo.close();
+        }
+    }
+
+    @Test
+    public void testChainVersions() throws Exception {
+        RepositoryChain chain = new RepositoryChain(Arrays.asList(sdk));
+        assertEquals(Arrays.asList("1.0.0", "1.1.0"), chain.versions("ceylon", "language"));
+        assertNull(chain.find("ceylon", "language", "1.2.0", null, "car"));
+    }
+}
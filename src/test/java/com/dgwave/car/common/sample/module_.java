@@ -0,0 +1,25 @@
+package com.dgwave.car.common.sample;
+
+import com.redhat.ceylon.compiler.java.metadata.Import;
+import com.redhat.ceylon.compiler.java.metadata.Module;
+
+@Module(name = "com.dgwave.car.common.sample", version = "1.0", doc = "A sample module", by = {"someone"},
+    dependencies = {
+        @Import(name = "ceylon.language", version = "1.1.0"),
+        @Import(name = "ceylon.collection", version = "1.1.0", export = true),
+        @Import(name = "com.foo.util", version = "2.0", optional = true)
+    })
+public final class module_ {
+
+    public static final long LONG = 1L << 40;
+
+    public static final double DOUBLE = 0.5;
+
+    private module_() {
+    }
+
+    @Override
+    public String toString() {
+        return "module " + LONG + DOUBLE;
+    }
+}
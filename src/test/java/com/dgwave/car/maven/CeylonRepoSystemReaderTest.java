@@ -2,6 +2,7 @@ package com.dgwave.car.maven;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.util.HashMap;
@@ -53,7 +54,13 @@ public class CeylonRepoSystemReaderTest {
         List<String> list = reader.findVersions(
             new DefaultArtifact("com.redhat.ceylon.compiler:java:1.0.0"));
         assertNotNull(list);
-        assertEquals(1, list.size());
-        assertEquals("1.0.0", list.get(0));
+        assertEquals(0, list.size());
+
+        Map<String, String> props = new HashMap<String, String>();
+        props.put("type", "ceylon-jar");
+        list = reader.findVersions(new DefaultArtifact("com.redhat.ceylon.compiler", "java",
+            null, "jar", "1.0.0", props, (ArtifactType)null));
+        assertNotNull(list);
+        assertTrue(list.contains("1.1.0"));
     }
 }
@@ -2,12 +2,17 @@ package com.dgwave.car.maven;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.logging.console.ConsoleLogger;
 import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.artifact.ArtifactType;
@@ -55,6 +60,30 @@ public class CeylonWorkspaceReaderTest {
 		return artifact;
 	}
 
+    @Test
+    public void testFindReactorArtifact() throws Exception {
+        File jar = File.createTempFile("reactor", ".jar");
+        jar.deleteOnExit();
+        Model model = new Model();
+        model.setGroupId("org.example");
+        model.setArtifactId("upstream");
+        model.setVersion("1.0.0");
+        MavenProject project = new MavenProject(model);
+        project.setArtifact(new org.apache.maven.artifact.DefaultArtifact("org.example", "upstream", "1.0.0",
+            null, "jar", null, new DefaultArtifactHandler("jar")));
+        reader.setReactorProjects(Collections.singletonList(project));
+
+        Map<String, String> props = new HashMap<String, String>();
+        props.put("type", "ceylon-jar");
+        Artifact artifact = new DefaultArtifact("org.example", "upstream",
+            null, "jar", "1.0.0", props, (ArtifactType)null);
+        assertNull(reader.findArtifact(artifact));
+
+        project.getArtifact().setFile(jar);
+        assertEquals(jar, reader.findArtifact(artifact));
+        assertEquals(Collections.singletonList("1.0.0"), reader.findVersions(artifact));
+    }
+
     @Test
     public void testFindVersions() {
         List<String> list = reader.findVersions(testArtifact());
@@ -0,0 +1,138 @@
+package com.dgwave.car.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.ArtifactType;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dgwave.car.common.CeylonUtil;
+import com.dgwave.car.common.RepositoryChain;
+
+public class MavenJarConverterTest {
+
+    File m2;
+
+    File cache;
+
+    @Before
+    public void setUp() throws Exception {
+        File base = new File("target/converter-test").getAbsoluteFile();
+        FileUtils.deleteDirectory(base);
+        m2 = new File(base, "m2");
+        cache = new File(base, "cache");
+        mavenJar("org.example", "lib", "1.0", "<parent><groupId>org.example</groupId><artifactId>parent</artifactId>"
+            + "<version>1.0</version></parent><artifactId>lib</artifactId><dependencies>"
+            + "<dependency><groupId>org.example</groupId><artifactId>dep</artifactId><version>2.0</version>"
+            + "</dependency><dependency><groupId>org.example</groupId><artifactId>opt</artifactId>"
+            + "<version>3.0</version><optional>true</optional></dependency><dependency><groupId>junit</groupId>"
+            + "<artifactId>junit</artifactId><version>4.12</version><scope>test</scope></dependency>"
+            + "</dependencies>");
+        mavenJar("org.example", "managed", "1.0", "<groupId>org.example</groupId><artifactId>managed</artifactId>"
+            + "<version>1.0</version><dependencies><dependency><groupId>org.example</groupId>"
+            + "<artifactId>dep</artifactId></dependency></dependencies>");
+        mavenJar("org.example", "property", "1.0", "<groupId>org.example</groupId><artifactId>property</artifactId>"
+            + "<version>1.0</version><dependencies><dependency><groupId>org.example</groupId>"
+            + "<artifactId>dep</artifactId><version>${dep.version}</version></dependency></dependencies>");
+        mavenJar("org.example", "dotted", "1.0", "<groupId>org.example</groupId><artifactId>dotted</artifactId>"
+            + "<version>1.0</version><dependencies><dependency><groupId>org.example</groupId>"
+            + "<artifactId>dep.core</artifactId><version>2.0</version></dependency></dependencies>");
+    }
+
+    void mavenJar(final String groupId, final String artifactId, final String version, final String pom)
+        throws Exception {
+        File dir = new File(m2, groupId.replace('.', '/') + "/" + artifactId + "/" + version);
+        dir.mkdirs();
+        FileUtils.fileWrite(new File(dir, artifactId + "-" + version + ".jar"), "UTF-8", artifactId + " jar");
+        FileUtils.fileWrite(new File(dir, artifactId + "-" + version + ".pom"), "UTF-8",
+            "<project><modelVersion>4.0.0</modelVersion>" + pom + "</project>");
+    }
+
+    @Test
+    public void testConvert() throws Exception {
+        MavenJarConverter converter = new MavenJarConverter(m2, cache, null);
+        File jar = converter.convert("org.example", "lib", "1.0");
+        assertEquals(new File(cache, "org/example/lib/1.0/org.example.lib-1.0.jar"), jar);
+        assertEquals("lib jar", FileUtils.fileRead(jar, "UTF-8"));
+        assertEquals(CeylonUtil.calculateChecksum(jar), FileUtils.fileRead(new File(jar.getPath() + ".sha1"),
+            "UTF-8"));
+        String deps = FileUtils.fileRead(new File(jar.getParentFile(), "module.properties"), "UTF-8");
+        assertEquals(Arrays.asList("org.example.dep=2.0", "org.example.opt?=3.0"),
+            Arrays.asList(deps.trim().split("\\s+")));
+        assertEquals(deps, FileUtils.fileRead(new File(jar.getParentFile(), "org.example.lib-1.0.module"), "UTF-8"));
+
+        long converted = jar.lastModified();
+        Thread.sleep(10);
+        assertEquals(jar, converter.convert("org.example", "lib", "1.0"));
+        assertEquals(converted, jar.lastModified());
+
+        assertNull(converter.convert("org.example", "managed", "1.0"));
+        assertFalse(new File(cache, "org/example/managed/1.0").exists());
+        assertNull(converter.convert("org.example", "absent", "1.0"));
+        assertNull(converter.convert("org.example", "property", "1.0"));
+        assertFalse(new File(cache, "org/example/property/1.0").exists());
+        assertNull(converter.convert("org.example", "dotted", "1.0"));
+        assertFalse(new File(cache, "org/example/dotted/1.0").exists());
+    }
+
+    @Test
+    public void testConcurrentConversion() throws Exception {
+        final MavenJarConverter converter = new MavenJarConverter(m2, cache, null);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<File>> results = new ArrayList<Future<File>>();
+            for (int i = 0; i < 16; i++) {
+                results.add(pool.submit(new Callable<File>() {
+                    @Override
+                    public File call() {
+                        return converter.convert("org.example", "lib", "1.0");
+                    }
+                }));
+            }
+            for (Future<File> result : results) {
+                assertEquals(new File(cache, "org/example/lib/1.0/org.example.lib-1.0.jar"), result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        String[] left = new File(cache, "org/example/lib/1.0").list();
+        Arrays.sort(left);
+        assertEquals(Arrays.asList("module.properties", "org.example.lib-1.0.jar", "org.example.lib-1.0.jar.sha1",
+            "org.example.lib-1.0.module"), Arrays.asList(left));
+    }
+
+    @Test
+    public void testWorkspaceReaderConverts() throws Exception {
+        CeylonWorkspaceReader reader = new CeylonWorkspaceReader(null, null,
+            new RepositoryChain(Arrays.asList(cache)));
+        Map<String, String> props = new HashMap<String, String>();
+        props.put("type", "ceylon-jar");
+        Artifact artifact = new DefaultArtifact("org.example", "lib", null, "jar", "1.0", props, (ArtifactType) null);
+        assertNull(reader.findArtifact(artifact));
+
+        reader = new CeylonWorkspaceReader(null, null, new RepositoryChain(Arrays.asList(cache)));
+        reader.setMavenJarConverter(new MavenJarConverter(m2, cache, null));
+        File file = reader.findArtifact(artifact);
+        assertNotNull(file);
+        assertTrue(file.isFile());
+        assertEquals(Arrays.asList("1.0"), reader.findVersions(artifact));
+    }
+}
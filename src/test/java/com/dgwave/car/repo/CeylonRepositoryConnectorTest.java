@@ -0,0 +1,194 @@
+package com.dgwave.car.repo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.metadata.DefaultMetadata;
+import org.eclipse.aether.metadata.Metadata;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.spi.connector.ArtifactDownload;
+import org.eclipse.aether.spi.connector.MetadataDownload;
+import org.eclipse.aether.spi.log.NullLoggerFactory;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.eclipse.aether.transfer.MetadataNotFoundException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class CeylonRepositoryConnectorTest {
+
+    File cache;
+
+    HttpServer server;
+
+    String url;
+
+    final AtomicInteger inFlight = new AtomicInteger();
+
+    final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new File("target/connector-test/cache").getAbsoluteFile();
+        FileUtils.deleteDirectory(cache);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/repo/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                int now = inFlight.incrementAndGet();
+                synchronized (maxInFlight) {
+                    maxInFlight.set(Math.max(maxInFlight.get(), now));
+                }
+                try {
+                    try {
+                        Thread.sleep(100);
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                    String path = exchange.getRequestURI().getPath().substring("/repo/".length());
+                    if (!path.startsWith("org/example/remote/")) {
+                        exchange.sendResponseHeaders(404, -1);
+                        return;
+                    }
+                    byte[] body = path.getBytes("UTF-8");
+                    if (path.endsWith(".sha1")) {
+                        body = sha1(path.substring(0, path.length() - ".sha1".length())).getBytes("UTF-8");
+                    }
+                    if ("HEAD".equals(exchange.getRequestMethod())) {
+                        exchange.sendResponseHeaders(200, -1);
+                        return;
+                    }
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                } catch (InterruptedException e) {
+                    exchange.sendResponseHeaders(500, -1);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/repo";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    static String sha1(final String content) throws IOException {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(content.getBytes("UTF-8"))) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Test
+    public void testParallelBatch() throws Exception {
+        RemoteRepository repository = new RemoteRepository.Builder("ceylon", "ceylon", url).build();
+        CeylonRepositoryConnector connector = new CeylonRepositoryConnector(NullLoggerFactory.LOGGER, repository,
+            cache, new HttpRepositoryClient(url, 4, 2));
+        List<ArtifactDownload> downloads = new ArrayList<ArtifactDownload>();
+        for (int i = 0; i < 6; i++) {
+            downloads.add(new ArtifactDownload(new DefaultArtifact("org.example", "remote", "car", "1." + i),
+                null, new File(cache, "ignored"), null));
+        }
+        ArtifactDownload missing = new ArtifactDownload(new DefaultArtifact("org.example", "absent", "car", "1.0"),
+            null, new File(cache, "ignored"), null);
+        downloads.add(missing);
+        ArtifactDownload check = new ArtifactDownload(new DefaultArtifact("org.example", "remote", "car", "2.0"),
+            null, null, null);
+        check.setExistenceCheck(true);
+        downloads.add(check);
+        try {
+            connector.get(downloads, new ArrayList<MetadataDownload>());
+        } finally {
+            connector.close();
+        }
+
+        for (int i = 0; i < 6; i++) {
+            ArtifactDownload download = downloads.get(i);
+            assertNull(download.getException());
+            String path = "org/example/remote/1." + i + "/org.example.remote-1." + i + ".car";
+            assertEquals(new File(cache, path), download.getFile());
+            assertEquals(path, FileUtils.fileRead(download.getFile(), "UTF-8"));
+        }
+        assertTrue(missing.getException() instanceof ArtifactNotFoundException);
+        assertNull(check.getException());
+        assertEquals(2, maxInFlight.get());
+
+        inFlight.set(0);
+        maxInFlight.set(0);
+        ArtifactDownload again = new ArtifactDownload(new DefaultArtifact("org.example", "remote", "car", "1.0"),
+            null, new File(cache, "ignored"), null);
+        List<ArtifactDownload> second = new ArrayList<ArtifactDownload>();
+        second.add(again);
+        new CeylonRepositoryConnector(NullLoggerFactory.LOGGER, repository, cache, null).get(second, null);
+        assertEquals(new File(cache, "org/example/remote/1.0/org.example.remote-1.0.car"), again.getFile());
+        assertEquals(0, maxInFlight.get());
+    }
+
+    @Test
+    public void testSynthesizedMetadata() throws Exception {
+        for (String v : new String[] {"1.0", "1.10", "1.2", "2.0-SNAPSHOT"}) {
+            File dir = new File(cache, "org/example/meta/" + v);
+            dir.mkdirs();
+            FileUtils.fileWrite(new File(dir, "org.example.meta-" + v + ".car"), "UTF-8", v);
+        }
+        RemoteRepository repository = new RemoteRepository.Builder("ceylon", "ceylon", "file:/none").build();
+        CeylonRepositoryConnector connector = new CeylonRepositoryConnector(NullLoggerFactory.LOGGER, repository,
+            cache, null);
+        File target = new File("target/connector-test/local").getAbsoluteFile();
+        MetadataDownload module = new MetadataDownload(new DefaultMetadata("org.example", "meta", "",
+            "maven-metadata.xml", Metadata.Nature.RELEASE_OR_SNAPSHOT), null, new File(target, "a.xml"), null);
+        MetadataDownload snapshot = new MetadataDownload(new DefaultMetadata("org.example", "meta", "2.0-SNAPSHOT",
+            "maven-metadata.xml", Metadata.Nature.SNAPSHOT), null, new File(target, "b.xml"), null);
+        MetadataDownload absent = new MetadataDownload(new DefaultMetadata("org.example", "absent", "",
+            "maven-metadata.xml", Metadata.Nature.RELEASE_OR_SNAPSHOT), null, new File(target, "c.xml"), null);
+        List<MetadataDownload> downloads = new ArrayList<MetadataDownload>();
+        downloads.add(module);
+        downloads.add(snapshot);
+        downloads.add(absent);
+        connector.get(null, downloads);
+
+        assertNull(module.getException());
+        String xml = FileUtils.fileRead(module.getFile(), "UTF-8");
+        assertTrue(xml, xml.indexOf("<version>1.2</version>") < xml.indexOf("<version>1.10</version>"));
+        assertTrue(xml, xml.contains("<release>1.10</release>"));
+        assertTrue(snapshot.getException() instanceof MetadataNotFoundException);
+        assertTrue(absent.getException() instanceof MetadataNotFoundException);
+        assertFalse(absent.getFile().exists());
+
+        assertEquals("org/example/meta/maven-metadata.xml",
+            new CeylonRepoLayout().getPath(module.getMetadata()).toString());
+        assertEquals("org/example/meta/2.0-SNAPSHOT/maven-metadata.xml",
+            new CeylonRepoLayout().getPath(snapshot.getMetadata()).toString());
+    }
+}
@@ -0,0 +1,174 @@
+package com.dgwave.car.repo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpMetadataCacheTest {
+
+    static final String ETAG = "\"v1\"";
+
+    File dir;
+
+    HttpServer server;
+
+    String url;
+
+    final AtomicInteger requests = new AtomicInteger();
+
+    final AtomicInteger conditional = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File("target/http-metadata-test").getAbsoluteFile();
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/repo/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                try {
+                    String path = exchange.getRequestURI().getPath().substring("/repo/".length());
+                    if (!path.startsWith("found/")) {
+                        exchange.sendResponseHeaders(404, -1);
+                        return;
+                    }
+                    if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                        conditional.incrementAndGet();
+                        exchange.sendResponseHeaders(304, -1);
+                        return;
+                    }
+                    exchange.getResponseHeaders().add("ETag", ETAG);
+                    byte[] body = path.getBytes("UTF-8");
+                    if ("HEAD".equals(exchange.getRequestMethod())) {
+                        exchange.sendResponseHeaders(200, -1);
+                        return;
+                    }
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/repo";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    HttpRepositoryClient client(final HttpMetadataCache cache, final long ttl) throws IOException {
+        HttpRepositoryClient client = new HttpRepositoryClient(url, 2, 2);
+        client.setMetadataCache(cache, ttl, ttl);
+        return client;
+    }
+
+    @Test
+    public void testRepeatLookupsMakeNoRequests() throws Exception {
+        HttpMetadataCache cache = new HttpMetadataCache(new File(dir, HttpMetadataCache.FILE_NAME));
+        HttpRepositoryClient client = client(cache, HttpRepositoryClient.DEFAULT_TTL);
+        try {
+            File target = new File(dir, "found/a.car");
+            assertEquals(target, client.download("found/a.car", target).get());
+            assertTrue(client.exists("found/a.car").get());
+            assertFalse(client.exists("missing/b.car").get());
+            assertEquals(2, requests.get());
+
+            assertEquals(target, client.download("found/a.car", target).get());
+            assertTrue(client.exists("found/a.car").get());
+            assertFalse(client.exists("missing/b.car").get());
+            assertEquals(2, requests.get());
+            assertEquals(4, client.getRememberedCount());
+        } finally {
+            client.close();
+        }
+        assertFalse(new File(dir, HttpMetadataCache.FILE_NAME).isFile());
+        cache.save();
+        assertTrue(new File(dir, HttpMetadataCache.FILE_NAME).isFile());
+    }
+
+    @Test
+    public void testStaleAnswersAreRevalidated() throws Exception {
+        HttpMetadataCache cache = new HttpMetadataCache(new File(dir, HttpMetadataCache.FILE_NAME));
+        HttpRepositoryClient client = client(cache, 0);
+        try {
+            File target = new File(dir, "found/a.car");
+            client.download("found/a.car", target).get();
+            assertEquals(target, client.download("found/a.car", target).get());
+            assertTrue(client.exists("found/a.car").get());
+            assertEquals(3, requests.get());
+            assertEquals(2, conditional.get());
+            assertEquals(2, client.getRevalidatedCount());
+            assertEquals(1, client.getDownloadedCount());
+
+            target.delete();
+            client.download("found/a.car", target).get();
+            assertEquals(2, conditional.get());
+            assertTrue(target.isFile());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testOfflineUsesSavedAnswers() throws Exception {
+        File file = new File(dir, HttpMetadataCache.FILE_NAME);
+        HttpMetadataCache saved = new HttpMetadataCache(file);
+        HttpRepositoryClient online = client(saved, HttpRepositoryClient.DEFAULT_TTL);
+        try {
+            online.exists("found/a.car").get();
+            online.exists("missing/b.car").get();
+        } finally {
+            online.close();
+        }
+        saved.save();
+        int before = requests.get();
+
+        HttpMetadataCache reread = new HttpMetadataCache(file);
+        assertEquals(2, reread.size());
+        assertNotNull(reread.get(url + "/found/a.car"));
+        assertEquals(ETAG, reread.get(url + "/found/a.car").getEtag());
+
+        HttpRepositoryClient offline = client(reread, 0);
+        offline.setOffline(true);
+        try {
+            assertTrue(offline.exists("found/a.car").get());
+            assertFalse(offline.exists("missing/b.car").get());
+            try {
+                offline.exists("found/unknown.car").get();
+                fail("nothing remembered");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        } finally {
+            offline.close();
+        }
+        assertEquals(before, requests.get());
+    }
+}
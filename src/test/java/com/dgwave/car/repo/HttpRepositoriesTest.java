@@ -0,0 +1,53 @@
+package com.dgwave.car.repo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.junit.Test;
+
+public class HttpRepositoriesTest {
+
+    @Test
+    public void testOneClientPerRepositoryAndSession() throws Exception {
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        session.setConfigProperty("ceylon.cache.repo", new File("target/http-repositories/cache").getAbsolutePath());
+        HttpRepositories repositories = HttpRepositories.forSession(session);
+        assertSame(repositories, HttpRepositories.forSession(session));
+
+        HttpRepositories.Remote herd = repositories.get(session, "http://127.0.0.1:1/repo");
+        assertSame(herd, repositories.get(session, "http://127.0.0.1:1/repo"));
+        assertSame(herd.getClient(), repositories.get(session, "http://127.0.0.1:1/repo").getClient());
+        assertNotSame(herd, repositories.get(session, "http://127.0.0.1:1/other"));
+        assertEquals(2, repositories.size());
+
+        HttpRepositories.closeSession(session);
+        assertEquals(0, repositories.size());
+        try {
+            repositories.get(session, "http://127.0.0.1:1/repo");
+            fail("a closed session must not create clients");
+        } catch (IOException e) {
+            assertEquals(0, repositories.size());
+        }
+        HttpRepositories next = HttpRepositories.forSession(session);
+        assertNotSame(repositories, next);
+        assertNotSame(herd, next.get(session, "http://127.0.0.1:1/repo"));
+        HttpRepositories.closeSession(session);
+    }
+
+    @Test
+    public void testSourceServesCacheRepositoryOnly() throws Exception {
+        File cache = new File("target/http-repositories/cache");
+        HttpArtifactSource source = new HttpArtifactSource(cache,
+            Collections.<HttpRepositories.Remote>emptyList());
+        assertNull(source.fetch(new File("target/http-repositories/other/a/1.0/a-1.0.car")));
+        assertNull(source.fetch(new File(cache, "a/1.0/a-1.0.car")));
+    }
+}
@@ -0,0 +1,277 @@
+package com.dgwave.car.repo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.spi.connector.ArtifactUpload;
+import org.eclipse.aether.spi.log.NullLoggerFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dgwave.car.common.CeylonUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpRepositoryClientTest {
+
+    HttpServer server;
+
+    String url;
+
+    final Map<String, byte[]> stored = new ConcurrentHashMap<String, byte[]>();
+
+    final Map<String, Integer> attempts = new ConcurrentHashMap<String, Integer>();
+
+    final Map<String, String> authorizations = new ConcurrentHashMap<String, String>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/repo/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    String path = exchange.getRequestURI().getPath().substring("/repo/".length());
+                    if ("GET".equals(exchange.getRequestMethod())) {
+                        byte[] content = stored.get(path);
+                        if (content == null) {
+                            exchange.sendResponseHeaders(404, -1);
+                        } else {
+                            exchange.sendResponseHeaders(200, content.length);
+                            exchange.getResponseBody().write(content);
+                        }
+                        return;
+                    }
+                    byte[] body = read(exchange.getRequestBody());
+                    int attempt;
+                    synchronized (attempts) {
+                        attempt = attempts.containsKey(path) ? attempts.get(path) + 1 : 1;
+                        attempts.put(path, attempt);
+                    }
+                    String auth = exchange.getRequestHeaders().getFirst("Authorization");
+                    if (auth != null) {
+                        authorizations.put(path, auth);
+                    }
+                    if (path.startsWith("flaky/") && attempt == 1) {
+                        exchange.sendResponseHeaders(503, -1);
+                    } else if (path.startsWith("forbidden/")) {
+                        exchange.sendResponseHeaders(403, -1);
+                    } else {
+                        stored.put(path, body);
+                        exchange.sendResponseHeaders(201, -1);
+                    }
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/repo";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    static byte[] read(final InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testUploadRetries() throws Exception {
+        HttpRepositoryClient client = new HttpRepositoryClient(url, 4, 2);
+        try {
+            client.setCredentials("user", "secret");
+            client.upload("flaky/a.txt", "hello".getBytes("UTF-8")).get();
+            assertEquals("hello", new String(stored.get("flaky/a.txt"), "UTF-8"));
+            assertEquals(Integer.valueOf(2), attempts.get("flaky/a.txt"));
+            assertEquals(1, client.getRetriedCount());
+            assertEquals(1, client.getUploadedCount());
+            assertEquals("Basic dXNlcjpzZWNyZXQ=", authorizations.get("flaky/a.txt"));
+
+            try {
+                client.upload("forbidden/b.txt", new byte[] {1}).get();
+                fail("403 must fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            assertEquals(Integer.valueOf(1), attempts.get("forbidden/b.txt"));
+            assertEquals(1, client.getRetriedCount());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testUploadIsRemembered() throws Exception {
+        File dir = new File("target/client-test").getAbsoluteFile();
+        FileUtils.deleteDirectory(dir);
+        File file = new File(dir, HttpMetadataCache.FILE_NAME);
+        HttpMetadataCache cache = new HttpMetadataCache(file);
+        HttpRepositoryClient client = new HttpRepositoryClient(url, 2, 2);
+        client.setMetadataCache(cache, HttpRepositoryClient.DEFAULT_TTL, HttpRepositoryClient.DEFAULT_TTL);
+        try {
+            assertNull(client.download("up/a.txt", new File(dir, "up/a.txt")).get());
+        } finally {
+            client.close();
+        }
+        cache.save();
+
+        cache = new HttpMetadataCache(file);
+        client = new HttpRepositoryClient(url, 2, 2);
+        client.setMetadataCache(cache, HttpRepositoryClient.DEFAULT_TTL, HttpRepositoryClient.DEFAULT_TTL);
+        try {
+            client.upload("up/a.txt", "hello".getBytes("UTF-8")).get();
+        } finally {
+            client.close();
+        }
+        cache.save();
+        assertTrue(new HttpMetadataCache(file).get(url + "/up/a.txt").isFound());
+    }
+
+    @Test
+    public void testConnectorPut() throws Exception {
+        File dir = new File("target/client-test").getAbsoluteFile();
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        List<ArtifactUpload> uploads = new ArrayList<ArtifactUpload>();
+        for (int i = 0; i < 4; i++) {
+            File file = new File(dir, "m" + i + ".car");
+            FileUtils.fileWrite(file, "UTF-8", "module " + i);
+            uploads.add(new ArtifactUpload(new DefaultArtifact("org.example", "m" + i, "car", "1.0"), file));
+        }
+        RemoteRepository repository = new RemoteRepository.Builder("ceylon", "ceylon", url).build();
+        CeylonRepositoryConnector connector = new CeylonRepositoryConnector(NullLoggerFactory.LOGGER, repository,
+            dir, new HttpRepositoryClient(url, 4, 2));
+        try {
+            connector.put(uploads, null);
+        } finally {
+            connector.close();
+        }
+        for (int i = 0; i < 4; i++) {
+            ArtifactUpload upload = uploads.get(i);
+            assertNull(upload.getException());
+            String path = "org/example/m" + i + "/1.0/org.example.m" + i + "-1.0.car";
+            assertEquals("module " + i, new String(stored.get(path), "UTF-8"));
+            assertEquals(CeylonUtil.calculateChecksum(upload.getFile()),
+                new String(stored.get(path + ".sha1"), "UTF-8"));
+        }
+    }
+
+    static String hex(final String algorithm, final String content) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : MessageDigest.getInstance(algorithm).digest(content.getBytes("UTF-8"))) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testDownloadVerified() throws Exception {
+        File dir = new File("target/client-test-verified").getAbsoluteFile();
+        FileUtils.deleteDirectory(dir);
+        stored.put("v/a.car", "good".getBytes("UTF-8"));
+        stored.put("v/a.car.sha1", (hex("SHA-1", "good") + "  a.car\n").getBytes("UTF-8"));
+        stored.put("v/b.car", "tampered".getBytes("UTF-8"));
+        stored.put("v/b.car.sha1", hex("SHA-1", "original").getBytes("UTF-8"));
+        stored.put("v/c.car", "unsigned".getBytes("UTF-8"));
+        HttpRepositoryClient client = new HttpRepositoryClient(url, 2, 2);
+        try {
+            File a = new File(dir, "a.car");
+            assertEquals(a, client.downloadVerified("v/a.car", a, null, false).get());
+            assertEquals("good", FileUtils.fileRead(a, "UTF-8"));
+            assertEquals(hex("SHA-1", "good"), FileUtils.fileRead(new File(dir, "a.car.sha1"), "US-ASCII"));
+            assertEquals(1, client.getVerifiedCount());
+
+            File b = new File(dir, "b.car");
+            try {
+                client.downloadVerified("v/b.car", b, null, false).get();
+                fail("a checksum mismatch must fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            assertFalse(b.exists());
+            assertFalse(new File(dir, "b.car.sha1").exists());
+            assertEquals(1, client.getMismatchCount());
+
+            attempts.clear();
+            File expected = new File(dir, "expected.car");
+            try {
+                client.downloadVerified("v/a.car", expected, hex("SHA-1", "other"), false).get();
+                fail("a mismatch with the given checksum must fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            assertFalse(expected.exists());
+            assertNull(attempts.get("v/a.car.sha1"));
+
+            File c = new File(dir, "c.car");
+            assertEquals(c, client.downloadVerified("v/c.car", c, null, false).get());
+            assertEquals(1, client.getVerifiedCount());
+            assertEquals(Arrays.asList("v/c.car"), client.takeUnverified());
+            assertTrue(client.takeUnverified().isEmpty());
+            File required = new File(dir, "required.car");
+            try {
+                client.downloadVerified("v/c.car", required, null, true).get();
+                fail("an artifact without a checksum must fail when one is required");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            assertFalse(required.exists());
+            assertTrue(client.takeUnverified().isEmpty());
+            assertNull(client.downloadVerified("v/missing.car", new File(dir, "missing.car"), null, false).get());
+
+            client.setSha256(true);
+            stored.put("v/a.car.sha256", hex("SHA-256", "bad").getBytes("UTF-8"));
+            File a256 = new File(dir, "a256.car");
+            try {
+                client.downloadVerified("v/a.car", a256, null, false).get();
+                fail("a SHA-256 mismatch must fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            assertFalse(a256.exists());
+            stored.put("v/a.car.sha256", hex("SHA-256", "good").getBytes("UTF-8"));
+            assertEquals(a256, client.downloadVerified("v/a.car", a256, null, false).get());
+            assertEquals(2, client.getVerifiedCount());
+            assertEquals(3, client.getMismatchCount());
+
+            String[] left = dir.list();
+            Arrays.sort(left);
+            assertEquals(Arrays.asList("a.car", "a.car.sha1", "a256.car", "a256.car.sha1", "c.car", "c.car.sha1"),
+                Arrays.asList(left));
+        } finally {
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.dgwave.car.repo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.spi.connector.ArtifactDownload;
+import org.eclipse.aether.spi.log.NullLoggerFactory;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dgwave.car.common.CeylonUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class RemoteIndexTest {
+
+    File remote;
+
+    File cache;
+
+    HttpServer server;
+
+    String url;
+
+    final List<String> requested = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws Exception {
+        File base = new File("target/remote-index-test").getAbsoluteFile();
+        FileUtils.deleteDirectory(base);
+        remote = new File(base, "remote");
+        cache = new File(base, "cache");
+        module("org/example/one/1.0/org.example.one-1.0.car");
+        module("org/example/one/1.2/org.example.one-1.2.car");
+        module("org/example/one/1.10/org.example.one-1.10.car");
+        module("org/example/two/2.0/org.example.two-2.0.car");
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/repo/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    String path = exchange.getRequestURI().getPath().substring("/repo/".length());
+                    requested.add(path);
+                    File file = new File(remote, path);
+                    if (!file.isFile()) {
+                        exchange.sendResponseHeaders(404, -1);
+                        return;
+                    }
+                    byte[] body = Files.readAllBytes(file.toPath());
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/repo";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    void module(final String path) throws Exception {
+        File file = new File(remote, path);
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file, "UTF-8", path);
+        FileUtils.fileWrite(new File(file.getPath() + ".sha1"), "US-ASCII", CeylonUtil.calculateChecksum(file));
+    }
+
+    @Test
+    public void testPublishAndQuery() throws Exception {
+        RemoteIndex published = RemoteIndex.publish(remote);
+        assertEquals(1, published.getSequence());
+        assertEquals(4, published.size());
+        assertEquals(published.getSequence(), RemoteIndex.publish(remote).getSequence());
+        assertFalse(new File(remote, ".index/delta-1.gz").exists());
+
+        HttpRepositoryClient client = new HttpRepositoryClient(url, 2, 2);
+        try {
+            RemoteIndex index = RemoteIndex.forRepository(client, cache, RemoteIndex.DEFAULT_TTL);
+            assertNotNull(index);
+            assertEquals(Arrays.asList(".index/current", ".index/full.gz"), requested);
+            assertEquals(Arrays.asList("1.0", "1.2", "1.10"), index.versions("org.example", "one"));
+            assertEquals(Collections.emptyList(), index.versions("org.example", "three"));
+            assertTrue(index.contains("org/example/two/2.0/org.example.two-2.0.car"));
+            assertFalse(index.contains("org/example/two/2.0/org.example.two-2.0.car.sha1"));
+            assertEquals(CeylonUtil.calculateChecksum(new File(remote, "org/example/two/2.0/org.example.two-2.0.car")),
+                index.checksum("org/example/two/2.0/org.example.two-2.0.car"));
+            assertNull(index.checksum("org/example/two/3.0/org.example.two-3.0.car"));
+
+            requested.clear();
+            assertSame(index, RemoteIndex.forRepository(client, cache, RemoteIndex.DEFAULT_TTL));
+            assertEquals(Collections.emptyList(), requested);
+
+            module("org/example/two/3.0/org.example.two-3.0.car");
+            FileUtils.forceDelete(new File(remote, "org/example/one/1.0"));
+            assertEquals(2, RemoteIndex.publish(remote).getSequence());
+            assertTrue(new File(remote, ".index/delta-2.gz").isFile());
+
+            requested.clear();
+            RemoteIndex updated = RemoteIndex.forRepository(client, cache, 0);
+            assertEquals(Arrays.asList(".index/current", ".index/delta-2.gz"), requested);
+            assertEquals(2, updated.getSequence());
+            assertEquals(Arrays.asList("2.0", "3.0"), updated.versions("org.example", "two"));
+            assertEquals(Arrays.asList("1.2", "1.10"), updated.versions("org.example", "one"));
+
+            requested.clear();
+            client.setOffline(true);
+            assertEquals(2, RemoteIndex.forRepository(client, cache, 0).getSequence());
+            assertEquals(Collections.emptyList(), requested);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testRememberedIndexIsDownloaded() throws Exception {
+        RemoteIndex.publish(remote);
+        HttpRepositoryClient client = new HttpRepositoryClient(url, 2, 2);
+        client.setMetadataCache(new HttpMetadataCache(new File(cache, HttpMetadataCache.FILE_NAME)),
+            RemoteIndex.DEFAULT_TTL, RemoteIndex.DEFAULT_TTL);
+        try {
+            assertNotNull(RemoteIndex.forRepository(client, cache, RemoteIndex.DEFAULT_TTL));
+            FileUtils.deleteDirectory(new File(cache, RemoteIndex.INDEX_DIR));
+
+            RemoteIndex index = RemoteIndex.forRepository(client, cache, 0);
+            assertNotNull(index);
+            assertEquals(Arrays.asList("1.0", "1.2", "1.10"), index.versions("org.example", "one"));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testConnectorAnswersFromIndex() throws Exception {
+        RemoteIndex.publish(remote);
+        RemoteRepository repository = new RemoteRepository.Builder("ceylon", "ceylon", url).build();
+        CeylonRepositoryConnector connector = new CeylonRepositoryConnector(NullLoggerFactory.LOGGER, repository,
+            cache, new HttpRepositoryClient(url, 2, 2));
+        List<ArtifactDownload> downloads = new ArrayList<ArtifactDownload>();
+        ArtifactDownload check = new ArtifactDownload(new DefaultArtifact("org.example", "one", "car", "1.2"),
+            null, null, null);
+        check.setExistenceCheck(true);
+        downloads.add(check);
+        ArtifactDownload missing = new ArtifactDownload(new DefaultArtifact("org.example", "one", "car", "9.9"),
+            null, new File(cache, "ignored"), null);
+        downloads.add(missing);
+        ArtifactDownload present = new ArtifactDownload(new DefaultArtifact("org.example", "two", "car", "2.0"),
+            null, new File(cache, "ignored"), null);
+        downloads.add(present);
+        try {
+            connector.get(downloads, null);
+        } finally {
+            connector.close();
+        }
+        assertNull(check.getException());
+        assertTrue(missing.getException() instanceof ArtifactNotFoundException);
+        assertNull(present.getException());
+        assertEquals(Arrays.asList(".index/current", ".index/full.gz",
+            "org/example/two/2.0/org.example.two-2.0.car"), requested);
+    }
+}